@@ -0,0 +1,146 @@
+// Crypto: SHA-256 digests and RC4 encryption of text, checked against
+// their published test vectors. Exercises 32 bit integer arithmetic,
+// bitwise operators, shifts and array indexing.
+
+var K = [
+    0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
+    0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
+    0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
+    0x983e5152, 0xa831c66d, 0xb00327c8, 0xbf597fc7, 0xc6e00bf3, 0xd5a79147, 0x06ca6351, 0x14292967,
+    0x27b70a85, 0x2e1b2138, 0x4d2c6dfc, 0x53380d13, 0x650a7354, 0x766a0abb, 0x81c2c92e, 0x92722c85,
+    0xa2bfe8a1, 0xa81a664b, 0xc24b8b70, 0xc76c51a3, 0xd192e819, 0xd6990624, 0xf40e3585, 0x106aa070,
+    0x19a4c116, 0x1e376c08, 0x2748774c, 0x34b0bcb5, 0x391c0cb3, 0x4ed8aa4a, 0x5b9cca4f, 0x682e6ff3,
+    0x748f82ee, 0x78a5636f, 0x84c87814, 0x8cc70208, 0x90befffa, 0xa4506ceb, 0xbef9a3f7, 0xc67178f2
+];
+
+function rotateRight(x, n) {
+    return (x >>> n) | (x << (32 - n));
+}
+
+// The bytes of a string of ISO-8859-1 characters
+function toBytes(text) {
+    var bytes = [];
+    for (var i = 0; i < text.length; i++) {
+        bytes.push(text.charCodeAt(i) & 0xff);
+    }
+    return bytes;
+}
+
+function toHex(words) {
+    var hex = "";
+    for (var i = 0; i < words.length; i++) {
+        var word = words[i] >>> 0;
+        hex += ("00000000" + word.toString(16)).slice(-8);
+    }
+    return hex;
+}
+
+function sha256(bytes) {
+    var h = [0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a, 0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19];
+    var length = bytes.length;
+    var padded = bytes.slice(0);
+    padded.push(0x80);
+    while (padded.length % 64 != 56) {
+        padded.push(0);
+    }
+    var bits = length * 8;
+    padded.push(0, 0, 0, 0, (bits >>> 24) & 0xff, (bits >>> 16) & 0xff, (bits >>> 8) & 0xff, bits & 0xff);
+    var w = new Array(64);
+    for (var offset = 0; offset < padded.length; offset += 64) {
+        for (var t = 0; t < 16; t++) {
+            var j = offset + t * 4;
+            w[t] = (padded[j] << 24) | (padded[j + 1] << 16) | (padded[j + 2] << 8) | padded[j + 3];
+        }
+        for (t = 16; t < 64; t++) {
+            var s0 = rotateRight(w[t - 15], 7) ^ rotateRight(w[t - 15], 18) ^ (w[t - 15] >>> 3);
+            var s1 = rotateRight(w[t - 2], 17) ^ rotateRight(w[t - 2], 19) ^ (w[t - 2] >>> 10);
+            w[t] = (w[t - 16] + s0 + w[t - 7] + s1) | 0;
+        }
+        var a = h[0], b = h[1], c = h[2], d = h[3], e = h[4], f = h[5], g = h[6], k = h[7];
+        for (t = 0; t < 64; t++) {
+            var S1 = rotateRight(e, 6) ^ rotateRight(e, 11) ^ rotateRight(e, 25);
+            var ch = (e & f) ^ (~e & g);
+            var temp1 = (k + S1 + ch + K[t] + w[t]) | 0;
+            var S0 = rotateRight(a, 2) ^ rotateRight(a, 13) ^ rotateRight(a, 22);
+            var maj = (a & b) ^ (a & c) ^ (b & c);
+            var temp2 = (S0 + maj) | 0;
+            k = g;
+            g = f;
+            f = e;
+            e = (d + temp1) | 0;
+            d = c;
+            c = b;
+            b = a;
+            a = (temp1 + temp2) | 0;
+        }
+        h[0] = (h[0] + a) | 0;
+        h[1] = (h[1] + b) | 0;
+        h[2] = (h[2] + c) | 0;
+        h[3] = (h[3] + d) | 0;
+        h[4] = (h[4] + e) | 0;
+        h[5] = (h[5] + f) | 0;
+        h[6] = (h[6] + g) | 0;
+        h[7] = (h[7] + k) | 0;
+    }
+    return toHex(h);
+}
+
+function rc4(keyBytes, bytes) {
+    var s = new Array(256);
+    var i, j = 0, swap;
+    for (i = 0; i < 256; i++) {
+        s[i] = i;
+    }
+    for (i = 0; i < 256; i++) {
+        j = (j + s[i] + keyBytes[i % keyBytes.length]) & 0xff;
+        swap = s[i];
+        s[i] = s[j];
+        s[j] = swap;
+    }
+    var output = new Array(bytes.length);
+    i = 0;
+    j = 0;
+    for (var n = 0; n < bytes.length; n++) {
+        i = (i + 1) & 0xff;
+        j = (j + s[i]) & 0xff;
+        swap = s[i];
+        s[i] = s[j];
+        s[j] = swap;
+        output[n] = bytes[n] ^ s[(s[i] + s[j]) & 0xff];
+    }
+    return output;
+}
+
+function bytesToHex(bytes) {
+    var hex = "";
+    for (var i = 0; i < bytes.length; i++) {
+        hex += (bytes[i] < 16 ? "0" : "") + bytes[i].toString(16);
+    }
+    return hex;
+}
+
+function check(name, actual, expected) {
+    if (actual != expected) {
+        throw new Error("Crypto: " + name + " gave " + actual + " instead of " + expected);
+    }
+}
+
+var LONG_TEXT = "";
+for (var line = 0; line < 16; line++) {
+    LONG_TEXT += "The quick brown fox jumps over the lazy dog " + line + "\n";
+}
+
+function run() {
+    check("sha256(abc)", sha256(toBytes("abc")),
+        "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad");
+    check("sha256(448 bits)", sha256(toBytes("abcdbcdecdefdefgefghfghighijhijkijkljklmklmnlmnomnopnopq")),
+        "248d6a61d20638b8e5c026930c3e6039a33ce45964ff2167f6ecedd419db06c1");
+    check("rc4(Key)", bytesToHex(rc4(toBytes("Key"), toBytes("Plaintext"))), "bbf316e8d940af0ad3");
+    check("rc4(Secret)", bytesToHex(rc4(toBytes("Secret"), toBytes("Attack at dawn"))),
+        "45a01f645fc35b383552544b9bf5");
+    // A round trip of a longer text, hashed before and after
+    var bytes = toBytes(LONG_TEXT);
+    var encrypted = rc4(toBytes("benchmark"), bytes);
+    var decrypted = rc4(toBytes("benchmark"), encrypted);
+    check("rc4 round trip", sha256(decrypted), sha256(bytes));
+}
@@ -0,0 +1,145 @@
+// Numeric: numeric kernels of scientific scripts, a sieve of
+// Eratosthenes, a matrix product, a fast Fourier transform and a
+// Mandelbrot set. Exercises arithmetic, Math functions and nested loops
+// over arrays of numbers.
+
+var SIEVE_SIZE = 20000;
+var EXPECTED_PRIMES = 2262;
+var MATRIX_SIZE = 24;
+var FFT_SIZE = 256;
+var MANDELBROT_SIZE = 32;
+var EXPECTED_MANDELBROT = 337;
+
+function sieve(size) {
+    var composite = new Array(size + 1);
+    for (var i = 0; i <= size; i++) {
+        composite[i] = false;
+    }
+    var count = 0;
+    for (i = 2; i <= size; i++) {
+        if (!composite[i]) {
+            count++;
+            for (var j = i * i; j <= size; j += i) {
+                composite[j] = true;
+            }
+        }
+    }
+    return count;
+}
+
+function matrix(size, seed) {
+    var rows = [];
+    for (var i = 0; i < size; i++) {
+        var row = [];
+        for (var j = 0; j < size; j++) {
+            row.push(((i * size + j + seed) % 17) - 8);
+        }
+        rows.push(row);
+    }
+    return rows;
+}
+
+function multiply(a, b) {
+    var size = a.length;
+    var product = [];
+    for (var i = 0; i < size; i++) {
+        var row = new Array(size);
+        for (var j = 0; j < size; j++) {
+            var sum = 0;
+            for (var k = 0; k < size; k++) {
+                sum += a[i][k] * b[k][j];
+            }
+            row[j] = sum;
+        }
+        product.push(row);
+    }
+    return product;
+}
+
+function trace(m) {
+    var sum = 0;
+    for (var i = 0; i < m.length; i++) {
+        sum += m[i][i];
+    }
+    return sum;
+}
+
+// In place iterative radix 2 transform
+function fft(re, im) {
+    var n = re.length;
+    for (var i = 1, j = 0; i < n; i++) {
+        var bit = n >> 1;
+        for (; j & bit; bit >>= 1) {
+            j ^= bit;
+        }
+        j ^= bit;
+        if (i < j) {
+            var t = re[i]; re[i] = re[j]; re[j] = t;
+            t = im[i]; im[i] = im[j]; im[j] = t;
+        }
+    }
+    for (var length = 2; length <= n; length <<= 1) {
+        var angle = -2 * Math.PI / length;
+        var wRe = Math.cos(angle), wIm = Math.sin(angle);
+        for (i = 0; i < n; i += length) {
+            var uRe = 1, uIm = 0;
+            for (j = 0; j < length / 2; j++) {
+                var aRe = re[i + j], aIm = im[i + j];
+                var bRe = re[i + j + length / 2] * uRe - im[i + j + length / 2] * uIm;
+                var bIm = re[i + j + length / 2] * uIm + im[i + j + length / 2] * uRe;
+                re[i + j] = aRe + bRe;
+                im[i + j] = aIm + bIm;
+                re[i + j + length / 2] = aRe - bRe;
+                im[i + j + length / 2] = aIm - bIm;
+                var nextRe = uRe * wRe - uIm * wIm;
+                uIm = uRe * wIm + uIm * wRe;
+                uRe = nextRe;
+            }
+        }
+    }
+}
+
+function mandelbrot(size) {
+    var inside = 0;
+    for (var y = 0; y < size; y++) {
+        for (var x = 0; x < size; x++) {
+            var cRe = 2.5 * x / size - 2, cIm = 2 * y / size - 1;
+            var zRe = 0, zIm = 0, iteration = 0;
+            while (iteration < 50 && zRe * zRe + zIm * zIm <= 4) {
+                var t = zRe * zRe - zIm * zIm + cRe;
+                zIm = 2 * zRe * zIm + cIm;
+                zRe = t;
+                iteration++;
+            }
+            if (iteration == 50) inside++;
+        }
+    }
+    return inside;
+}
+
+function check(name, actual, expected) {
+    if (actual != expected) {
+        throw new Error("Numeric: " + name + " gave " + actual + " instead of " + expected);
+    }
+}
+
+function run() {
+    check("sieve", sieve(SIEVE_SIZE), EXPECTED_PRIMES);
+
+    // The trace of A.B equals the trace of B.A
+    var a = matrix(MATRIX_SIZE, 1), b = matrix(MATRIX_SIZE, 5);
+    check("matrix", trace(multiply(a, b)), trace(multiply(b, a)));
+
+    // The transform of a cosine of frequency 8 has peaks at 8 and n - 8
+    var re = new Array(FFT_SIZE), im = new Array(FFT_SIZE);
+    for (var i = 0; i < FFT_SIZE; i++) {
+        re[i] = Math.cos(2 * Math.PI * 8 * i / FFT_SIZE);
+        im[i] = 0;
+    }
+    fft(re, im);
+    check("fft peak", Math.round(re[8]), FFT_SIZE / 2);
+    check("fft mirror", Math.round(re[FFT_SIZE - 8]), FFT_SIZE / 2);
+    check("fft elsewhere", Math.round(Math.abs(re[3]) + Math.abs(im[3])), 0);
+
+    check("mandelbrot", mandelbrot(MANDELBROT_SIZE), EXPECTED_MANDELBROT);
+}
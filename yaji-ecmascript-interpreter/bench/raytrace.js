@@ -0,0 +1,203 @@
+// RayTrace: the rendering of a small scene of spheres on a plane, lit by
+// two lights with shadows and reflections. Exercises floating point
+// arithmetic, short lived vector objects and method calls.
+
+var WIDTH = 24;
+var HEIGHT = 18;
+var MAX_DEPTH = 3;
+var EXPECTED_CHECKSUM = 679794766;
+
+function Vector(x, y, z) {
+    this.x = x;
+    this.y = y;
+    this.z = z;
+}
+
+Vector.prototype.add = function (v) {
+    return new Vector(this.x + v.x, this.y + v.y, this.z + v.z);
+};
+
+Vector.prototype.subtract = function (v) {
+    return new Vector(this.x - v.x, this.y - v.y, this.z - v.z);
+};
+
+Vector.prototype.scale = function (k) {
+    return new Vector(this.x * k, this.y * k, this.z * k);
+};
+
+Vector.prototype.dot = function (v) {
+    return this.x * v.x + this.y * v.y + this.z * v.z;
+};
+
+Vector.prototype.cross = function (v) {
+    return new Vector(this.y * v.z - this.z * v.y, this.z * v.x - this.x * v.z, this.x * v.y - this.y * v.x);
+};
+
+Vector.prototype.length = function () {
+    return Math.sqrt(this.dot(this));
+};
+
+Vector.prototype.normalize = function () {
+    return this.scale(1 / this.length());
+};
+
+function Color(r, g, b) {
+    this.r = r;
+    this.g = g;
+    this.b = b;
+}
+
+Color.prototype.add = function (c) {
+    return new Color(this.r + c.r, this.g + c.g, this.b + c.b);
+};
+
+Color.prototype.multiply = function (c) {
+    return new Color(this.r * c.r, this.g * c.g, this.b * c.b);
+};
+
+Color.prototype.scale = function (k) {
+    return new Color(this.r * k, this.g * k, this.b * k);
+};
+
+Color.prototype.toByte = function (component) {
+    return Math.floor(Math.min(component, 1) * 255);
+};
+
+Color.BLACK = new Color(0, 0, 0);
+
+function Ray(origin, direction) {
+    this.origin = origin;
+    this.direction = direction;
+}
+
+function Sphere(center, radius, color, reflection) {
+    this.center = center;
+    this.radius2 = radius * radius;
+    this.color = color;
+    this.reflection = reflection;
+}
+
+Sphere.prototype.intersect = function (ray) {
+    var eo = this.center.subtract(ray.origin);
+    var v = eo.dot(ray.direction);
+    if (v < 0) return -1;
+    var disc = this.radius2 - (eo.dot(eo) - v * v);
+    if (disc < 0) return -1;
+    return v - Math.sqrt(disc);
+};
+
+Sphere.prototype.normal = function (position) {
+    return position.subtract(this.center).normalize();
+};
+
+Sphere.prototype.colorAt = function (position) {
+    return this.color;
+};
+
+function Plane(normal, offset, reflection) {
+    this.normalVector = normal;
+    this.offset = offset;
+    this.reflection = reflection;
+}
+
+Plane.prototype.intersect = function (ray) {
+    var denominator = this.normalVector.dot(ray.direction);
+    if (denominator >= 0) return -1;
+    return (this.normalVector.dot(ray.origin) + this.offset) / -denominator;
+};
+
+Plane.prototype.normal = function (position) {
+    return this.normalVector;
+};
+
+// A checkerboard
+Plane.prototype.colorAt = function (position) {
+    return ((Math.floor(position.z) + Math.floor(position.x)) % 2 == 0) ? new Color(1, 1, 1) : new Color(0.1, 0.1, 0.1);
+};
+
+function Light(position, color) {
+    this.position = position;
+    this.color = color;
+}
+
+function Scene() {
+    this.things = [
+        new Plane(new Vector(0, 1, 0), 0, 0.3),
+        new Sphere(new Vector(0, 1, -0.25), 1, new Color(0.9, 0.2, 0.2), 0.4),
+        new Sphere(new Vector(-1, 0.5, 1.5), 0.5, new Color(0.2, 0.3, 0.9), 0.6)
+    ];
+    this.lights = [
+        new Light(new Vector(-2, 2.5, 0), new Color(0.49, 0.07, 0.07)),
+        new Light(new Vector(1.5, 2.5, 1.5), new Color(0.07, 0.07, 0.49)),
+        new Light(new Vector(0, 3.5, 0), new Color(0.21, 0.21, 0.35))
+    ];
+    this.eye = new Vector(3, 2, 4);
+    var forward = new Vector(-1, 0.5, 0).subtract(this.eye).normalize();
+    this.right = forward.cross(new Vector(0, -1, 0)).normalize().scale(1.5);
+    this.up = forward.cross(this.right).normalize().scale(1.5);
+    this.forward = forward;
+}
+
+Scene.prototype.closest = function (ray) {
+    var nearest = Infinity, thing = null;
+    for (var i = 0; i < this.things.length; i++) {
+        var distance = this.things[i].intersect(ray);
+        if (distance > 0 && distance < nearest) {
+            nearest = distance;
+            thing = this.things[i];
+        }
+    }
+    return thing == null ? null : { thing: thing, distance: nearest };
+};
+
+Scene.prototype.trace = function (ray, depth) {
+    var hit = this.closest(ray);
+    if (hit == null) return Color.BLACK;
+    var position = ray.origin.add(ray.direction.scale(hit.distance));
+    var normal = hit.thing.normal(position);
+    var reflected = ray.direction.subtract(normal.scale(2 * normal.dot(ray.direction)));
+    var color = Color.BLACK;
+    for (var i = 0; i < this.lights.length; i++) {
+        var light = this.lights[i];
+        var toLight = light.position.subtract(position);
+        var lightDirection = toLight.normalize();
+        var shadow = this.closest(new Ray(position, lightDirection));
+        if (shadow != null && shadow.distance <= toLight.length()) continue;
+        var illumination = lightDirection.dot(normal);
+        if (illumination > 0) {
+            color = color.add(light.color.multiply(hit.thing.colorAt(position)).scale(illumination));
+        }
+        var specular = lightDirection.dot(reflected.normalize());
+        if (specular > 0) {
+            specular = specular * specular * specular * specular;
+            color = color.add(light.color.scale(specular));
+        }
+    }
+    if (depth < MAX_DEPTH && hit.thing.reflection > 0) {
+        var bounce = this.trace(new Ray(position.add(reflected.scale(0.001)), reflected), depth + 1);
+        color = color.add(bounce.scale(hit.thing.reflection));
+    }
+    return color;
+};
+
+Scene.prototype.render = function (width, height) {
+    var checksum = 0;
+    for (var y = 0; y < height; y++) {
+        for (var x = 0; x < width; x++) {
+            var cx = (x - width / 2) / (2 * width);
+            var cy = -(y - height / 2) / (2 * height);
+            var direction = this.forward.add(this.right.scale(cx)).add(this.up.scale(cy)).normalize();
+            var color = this.trace(new Ray(this.eye, direction), 0);
+            checksum = (checksum * 31 + color.toByte(color.r) * 65536 + color.toByte(color.g) * 256
+                + color.toByte(color.b)) % 1000000007;
+        }
+    }
+    return checksum;
+};
+
+function run() {
+    var checksum = new Scene().render(WIDTH, HEIGHT);
+    if (checksum != EXPECTED_CHECKSUM) {
+        throw new Error("RayTrace: wrong checksum " + checksum);
+    }
+}
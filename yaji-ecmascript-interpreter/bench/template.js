@@ -0,0 +1,82 @@
+// Template: the rendering of an HTML page from a JSON document, the way a
+// server side script answers a request. Exercises JSON.parse and
+// JSON.stringify, string replacement with callbacks, escaping and joins.
+
+var ORDER_COUNT = 40;
+var EXPECTED_PAGE_LENGTH = 17057;
+var EXPECTED_SUMMARY_LENGTH = 573;
+
+function makeDocument() {
+    var orders = [];
+    for (var i = 0; i < ORDER_COUNT; i++) {
+        var lines = [];
+        for (var j = 0; j < 1 + i % 5; j++) {
+            lines.push({ sku: "SKU-" + (i * 7 + j), description: "Item <" + j + "> & \"more\"",
+                quantity: 1 + (i + j) % 4, price: 1.25 * (1 + j) });
+        }
+        orders.push({ id: 1000 + i, customer: { name: "Customer " + i, email: "c" + i + "@example.com" },
+            shipped: i % 3 == 0, lines: lines });
+    }
+    return JSON.stringify({ title: "Orders & invoices", orders: orders });
+}
+
+var DOCUMENT = makeDocument();
+
+var PAGE = "<html><head><title>{{title}}</title></head><body><h1>{{title}}</h1>{{orders}}</body></html>";
+var ORDER = "<div class=\"order {{status}}\"><h2>#{{id}} {{customer.name}}</h2>"
+    + "<a href=\"mailto:{{customer.email}}\">{{customer.email}}</a><table>{{lines}}</table>"
+    + "<p>Total: {{total}}</p></div>";
+var LINE = "<tr><td>{{sku}}</td><td>{{description}}</td><td>{{quantity}}</td><td>{{price}}</td></tr>";
+
+var ESCAPES = { "<": "&lt;", ">": "&gt;", "&": "&amp;", "\"": "&quot;" };
+
+function escape(text) {
+    return String(text).replace(/[<>&"]/g, function (c) {
+        return ESCAPES[c];
+    });
+}
+
+function lookup(data, path) {
+    var names = path.split(".");
+    var value = data;
+    for (var i = 0; i < names.length; i++) {
+        value = value[names[i]];
+    }
+    return value;
+}
+
+// Replace the {{name}} of a template by the escaped values of the data,
+// the raw values being used for the names listed in the raw object
+function render(template, data, raw) {
+    return template.replace(/\{\{([\w.]+)\}\}/g, function (match, path) {
+        if (raw && raw.hasOwnProperty(path)) {
+            return raw[path];
+        }
+        return escape(lookup(data, path));
+    });
+}
+
+function renderOrder(order) {
+    var total = 0;
+    var lines = order.lines.map(function (line) {
+        total += line.quantity * line.price;
+        return render(LINE, line);
+    });
+    return render(ORDER, order, { lines: lines.join(""), total: total.toFixed(2),
+        status: order.shipped ? "shipped" : "pending" });
+}
+
+function run() {
+    var document = JSON.parse(DOCUMENT);
+    var page = render(PAGE, document, { orders: document.orders.map(renderOrder).join("\n") });
+    // The response also carries a JSON summary
+    var summary = JSON.stringify(document.orders.filter(function (order) {
+        return !order.shipped;
+    }).map(function (order) {
+        return { id: order.id, lines: order.lines.length };
+    }));
+    if (page.length != EXPECTED_PAGE_LENGTH || summary.length != EXPECTED_SUMMARY_LENGTH
+            || page.indexOf("Item &lt;3&gt; &amp; &quot;more&quot;") < 0) {
+        throw new Error("Template: wrong rendering " + page.length + ", " + summary.length);
+    }
+}
@@ -0,0 +1,78 @@
+// Tokenizer: the lexical analysis of JavaScript source with a global
+// regular expression of alternatives, counting the tokens of each kind.
+// Exercises regular expression matching, lastIndex and capture groups.
+
+var EXPECTED_COUNTS = "comment:20,identifier:700,keyword:260,number:320,operator:500,punctuation:1020,string:40";
+
+var SOURCE = "";
+for (var copy = 0; copy < 20; copy++) {
+    SOURCE += "// Copy " + copy + " of the sample\n"
+        + "function fibonacci" + copy + "(n) {\n"
+        + "    var a = 0, b = 1, t;\n"
+        + "    for (var i = 0; i < n; i++) { t = a + b; a = b; b = t; }\n"
+        + "    return a;\n"
+        + "}\n"
+        + "var table" + copy + " = { name: 'fibonacci', limit: 0x1F, ratio: 1.618e0 };\n"
+        + "if (fibonacci" + copy + "(10) !== 55 && table" + copy + ".limit >= 31) {\n"
+        + "    throw new Error(\"unexpected \\\"result\\\"\" + table" + copy + ".name);\n"
+        + "} else { table" + copy + ".ratio *= -2.5; }\n"
+        + "var squares" + copy + " = [1, 4, 9, 16].map(function (x) { return x % 7 === 0 ? x : x << 1; });\n";
+}
+
+var KEYWORDS = /^(?:var|function|for|return|if|else|throw|new|while|break|continue|typeof|instanceof)$/;
+
+var TOKEN = new RegExp([
+    "(\\s+)",
+    "(\\/\\/[^\\n]*|\\/\\*[\\s\\S]*?\\*\\/)",
+    "([A-Za-z_$][\\w$]*)",
+    "(0[xX][0-9a-fA-F]+|\\d+(?:\\.\\d*)?(?:[eE][+-]?\\d+)?)",
+    "(\"(?:[^\"\\\\\\n]|\\\\.)*\"|'(?:[^'\\\\\\n]|\\\\.)*')",
+    "(===|!==|<<=|>>=|>>>|==|!=|<=|>=|&&|\\|\\||\\+\\+|--|[-+*/%]=|<<|>>|[-+*/%<>=!&|^~?:])",
+    "([{}()\\[\\];,.])"
+].join("|"), "g");
+
+var KINDS = [null, "space", "comment", "identifier", "number", "string", "operator", "punctuation"];
+
+function tokenize(source) {
+    var counts = {};
+    var match;
+    TOKEN.lastIndex = 0;
+    var position = 0;
+    while ((match = TOKEN.exec(source)) != null) {
+        if (match.index != position) {
+            throw new Error("Tokenizer: unexpected character at " + position);
+        }
+        position = TOKEN.lastIndex;
+        for (var group = 1; group < KINDS.length; group++) {
+            if (match[group] !== undefined && match[group] !== "") {
+                var kind = KINDS[group];
+                if (kind == "identifier" && KEYWORDS.test(match[group])) {
+                    kind = "keyword";
+                }
+                if (kind != "space") {
+                    counts[kind] = (counts[kind] || 0) + 1;
+                }
+                break;
+            }
+        }
+    }
+    if (position != source.length) {
+        throw new Error("Tokenizer: stopped at " + position);
+    }
+    return counts;
+}
+
+function run() {
+    var counts = tokenize(SOURCE);
+    var names = [];
+    for (var kind in counts) {
+        names.push(kind);
+    }
+    names.sort();
+    var summary = names.map(function (kind) {
+        return kind + ":" + counts[kind];
+    }).join(",");
+    if (summary != EXPECTED_COUNTS) {
+        throw new Error("Tokenizer: wrong counts " + summary);
+    }
+}
@@ -0,0 +1,31 @@
+package org.yaji.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+
+/**
+ * The cost of creating an evaluator with its standard objects, paid by each
+ * script run without a pool
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluatorBenchmark {
+
+    @Benchmark
+    public Evaluator newEvaluator() throws EcmaScriptException {
+        return new Evaluator();
+    }
+}
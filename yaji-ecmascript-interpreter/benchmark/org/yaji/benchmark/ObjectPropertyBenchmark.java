@@ -0,0 +1,71 @@
+package org.yaji.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import FESI.Data.ESNumber;
+import FESI.Data.ESValue;
+import FESI.Data.ObjectObject;
+import FESI.Data.ObjectPrototype;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+
+/**
+ * The cost of reading and writing the properties of an object from Java,
+ * without the interpretation of a script
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ObjectPropertyBenchmark {
+
+    private static final String NAME = "property";
+    private static final int HASH = NAME.hashCode();
+    private static final String MISSING = "missing";
+    private static final int MISSING_HASH = MISSING.hashCode();
+
+    private ObjectPrototype object;
+    private ESValue value;
+
+    @Setup
+    public void setUp() throws EcmaScriptException {
+        Evaluator evaluator = new Evaluator();
+        object = ObjectObject.createObject(evaluator);
+        // A few properties, as in a typical record
+        for (int i = 0; i < 8; i++) {
+            object.putProperty("field" + i, ESNumber.valueOf(i), ("field" + i).hashCode());
+        }
+        value = ESNumber.valueOf(42);
+        object.putProperty(NAME, value, HASH);
+    }
+
+    @Benchmark
+    public ESValue getProperty() throws EcmaScriptException {
+        return object.getProperty(NAME, HASH);
+    }
+
+    /** Looked up through the prototype chain */
+    @Benchmark
+    public ESValue getMissingProperty() throws EcmaScriptException {
+        return object.getPropertyIfAvailable(MISSING, MISSING_HASH);
+    }
+
+    @Benchmark
+    public ObjectPrototype putProperty() throws EcmaScriptException {
+        object.putProperty(NAME, value, HASH);
+        return object;
+    }
+}
@@ -0,0 +1,138 @@
+package org.yaji.benchmark;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import FESI.Data.ESValue;
+import FESI.Data.ESWrapper;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+import FESI.Interpreter.ParsedProgram;
+import FESI.Interpreter.StringEvaluationSource;
+
+/**
+ * The hot paths of the interpreter, each measured by a script function
+ * looping {@value #OPERATIONS} times over one operation, so that the scores
+ * are the time of one operation including the loop.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScriptBenchmark {
+
+    static final int OPERATIONS = 1000;
+
+    private static final String FUNCTIONS = "var N = " + OPERATIONS + ";\n"
+            + "var globalValue = 1;\n"
+            + "function localLookup() { var a = 1, s = 0; for (var i = 0; i < N; i++) { s = s + a; } return s; }\n"
+            + "function globalLookup() { var s = 0; for (var i = 0; i < N; i++) { s = s + globalValue; } return s; }\n"
+            + "function identity(x) { return x; }\n"
+            + "function functionCall() { var s = 0; for (var i = 0; i < N; i++) { s = identity(i); } return s; }\n"
+            + "var numbers = []; for (var i = 0; i < N; i++) { numbers[i] = i; }\n"
+            + "function arrayLoop() { var s = 0; for (var i = 0; i < numbers.length; i++) { s += numbers[i]; } return s; }\n"
+            + "function concatenation() { var s = ''; for (var i = 0; i < N; i++) { s += 'x'; } return s.length; }\n"
+            + "var record = { id: 1, name: 'name', tags: ['a', 'b'], nested: { value: 1.5, flag: true } };\n"
+            + "function jsonRoundTrip() { var r; for (var i = 0; i < N; i++) { r = JSON.parse(JSON.stringify(record)); } return r; }\n"
+            + "function regexMatch() { var n = 0; for (var i = 0; i < N; i++) { if (/^[a-z]+(\\d+)$/.test('item' + i)) n++; } return n; }\n"
+            + "function javaCall() { var s = 0; for (var i = 0; i < N; i++) { s = list.size(); } return s; }\n";
+
+    private Evaluator evaluator;
+    private ParsedProgram localLookup;
+    private ParsedProgram globalLookup;
+    private ParsedProgram functionCall;
+    private ParsedProgram arrayLoop;
+    private ParsedProgram concatenation;
+    private ParsedProgram jsonRoundTrip;
+    private ParsedProgram regexMatch;
+    private ParsedProgram javaCall;
+
+    @Setup
+    public void setUp() throws EcmaScriptException {
+        evaluator = new Evaluator();
+        List<String> list = new ArrayList<String>();
+        list.add("element");
+        evaluator.getGlobalObject().putProperty("list", new ESWrapper(list, evaluator), "list".hashCode());
+        evaluator.evaluate(FUNCTIONS);
+        localLookup = parse("localLookup()");
+        globalLookup = parse("globalLookup()");
+        functionCall = parse("functionCall()");
+        arrayLoop = parse("arrayLoop()");
+        concatenation = parse("concatenation()");
+        jsonRoundTrip = parse("jsonRoundTrip()");
+        regexMatch = parse("regexMatch()");
+        javaCall = parse("javaCall()");
+    }
+
+    private ParsedProgram parse(String source) throws EcmaScriptException {
+        return evaluator.parseProgram(new StringReader(source + "\n"), new StringEvaluationSource(source, null));
+    }
+
+    private ESValue run(ParsedProgram program) throws EcmaScriptException {
+        return evaluator.evaluate(program, null, false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public ESValue localLookup() throws EcmaScriptException {
+        return run(localLookup);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public ESValue globalLookup() throws EcmaScriptException {
+        return run(globalLookup);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public ESValue functionCall() throws EcmaScriptException {
+        return run(functionCall);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public ESValue arrayLoop() throws EcmaScriptException {
+        return run(arrayLoop);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public ESValue concatenation() throws EcmaScriptException {
+        return run(concatenation);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public ESValue jsonRoundTrip() throws EcmaScriptException {
+        return run(jsonRoundTrip);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public ESValue regexMatch() throws EcmaScriptException {
+        return run(regexMatch);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(OPERATIONS)
+    public ESValue javaCall() throws EcmaScriptException {
+        return run(javaCall);
+    }
+}
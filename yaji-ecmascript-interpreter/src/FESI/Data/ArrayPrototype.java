@@ -34,6 +34,7 @@ import FESI.Exceptions.RangeError;
 import FESI.Exceptions.ReferenceError;
 import FESI.Exceptions.TypeError;
 import FESI.Interpreter.Evaluator;
+import FESI.Interpreter.PropertyJournal;
 import FESI.Interpreter.ScopeChain;
 
 /**
@@ -47,6 +48,8 @@ public class ArrayPrototype extends ESObject {
     }
 
     protected ArrayList<ESValue> theArray = new ArrayList<ESValue>();
+    // The elements saved by the journal of the clean state, if any
+    private transient ElementsSnapshot snapshot;
 
     /**
      * Create a new empty array
@@ -74,6 +77,7 @@ public class ArrayPrototype extends ESObject {
     }
     
     public void add(ESValue v) throws EcmaScriptException {
+        elementsChanging();
         theArray.add(v);
         updateLength(theArray.size());
     }
@@ -256,6 +260,7 @@ public class ArrayPrototype extends ESObject {
      * @throws EcmaScriptException 
      */
     public void setSize(int size) throws EcmaScriptException {
+        elementsChanging();
         int currentSize = theArray.size();
         if (size > currentSize) {
             theArray.ensureCapacity(size);
@@ -269,10 +274,72 @@ public class ArrayPrototype extends ESObject {
         updateLength(size);
     }
 
+    /**
+     * Remove all the elements without copying them, leaving the array empty
+     *
+     * @return the elements (null for the holes)
+     * @throws EcmaScriptException
+     */
+    public ArrayList<ESValue> detachElements() throws EcmaScriptException {
+        elementsChanging();
+        ArrayList<ESValue> elements = theArray;
+        theArray = new ArrayList<ESValue>();
+        updateLength(0);
+        return elements;
+    }
+
+    /**
+     * Replace the elements by a list detached from another array
+     *
+     * @param elements
+     *            the new elements, owned by this array from now on
+     * @throws EcmaScriptException
+     */
+    public void attachElements(ArrayList<ESValue> elements) throws EcmaScriptException {
+        elementsChanging();
+        theArray = elements;
+        updateLength(elements.size());
+    }
+
     private void updateLength(int size) throws EcmaScriptException {
         super.putProperty(StandardProperty.LENGTHstring, ESNumber.valueOf(size), StandardProperty.LENGTHhash);
     }
 
+    /**
+     * Record the changes of the properties and of the elements of this array
+     * in a journal, so that they can be undone
+     * 
+     * @param journal
+     *            the journal
+     */
+    @Override
+    public void setPropertyJournal(PropertyJournal journal) {
+        if (!journal.isTracking(this)) {
+            snapshot = new ElementsSnapshot();
+            journal.addSnapshot(snapshot);
+        }
+        super.setPropertyJournal(journal);
+    }
+
+    private void elementsChanging() {
+        if (snapshot != null) {
+            snapshot.changing();
+        }
+    }
+
+    /**
+     * The elements of the array when it started to be journaled, the length
+     * being restored with the other properties
+     */
+    private class ElementsSnapshot extends PropertyJournal.Snapshot {
+        private final ESValue[] elements = theArray.toArray(new ESValue[theArray.size()]);
+
+        @Override
+        protected void restore() {
+            theArray = new ArrayList<ESValue>(Arrays.asList(elements));
+        }
+    }
+
     /**
      * Set the value of a specific element
      * 
@@ -282,6 +349,7 @@ public class ArrayPrototype extends ESObject {
      *            the index of the element
      */
     public void setElementAt(ESValue theElement, int index) {
+        elementsChanging();
         theArray.set(index, theElement);
     }
 
@@ -296,6 +364,7 @@ public class ArrayPrototype extends ESObject {
      * @throws EcmaScriptException
      */
     public ESValue reverse() {
+        elementsChanging();
         if (theArray.size() > 1) {
             Collections.reverse(theArray);
         }
@@ -315,6 +384,7 @@ public class ArrayPrototype extends ESObject {
      * @throws EcmaScriptException 
      */
     public ESValue push(ESValue[] args) throws EcmaScriptException {
+        elementsChanging();
         int size = size();
         setSize(size+args.length);
         for (ESValue v : args) {
@@ -333,6 +403,7 @@ public class ArrayPrototype extends ESObject {
      * @throws EcmaScriptException 
      */
     public ESValue pop() throws EcmaScriptException {
+        elementsChanging();
         int len = theArray.size();
         if (len == 0) {
             return ESUndefined.theUndefined;
@@ -351,6 +422,7 @@ public class ArrayPrototype extends ESObject {
      * @throws EcmaScriptException 
      */
     public ESValue shift() throws EcmaScriptException {
+        elementsChanging();
         if (theArray.size() == 0) {
             return ESUndefined.theUndefined;
         }
@@ -371,6 +443,7 @@ public class ArrayPrototype extends ESObject {
      * @throws EcmaScriptException 
      */
     public ESValue unshift(ESValue[] args) throws EcmaScriptException {
+        elementsChanging();
        int i = 0;
        for (ESValue v : args) {
            theArray.add(i++, v);
@@ -418,6 +491,7 @@ public class ArrayPrototype extends ESObject {
      * @throws EcmaScriptException
      */
     public ESValue splice(ESValue[] args) throws EcmaScriptException {
+        elementsChanging();
         ArrayPrototype newArray = newEmptyArray();
 
         if (args.length >= 2) {
@@ -887,6 +961,7 @@ public class ArrayPrototype extends ESObject {
             c = new DefaultComparer();
         }
 
+        elementsChanging();
         sort(0, theArray.size() - 1, c);
         return this;
     }
@@ -940,6 +1015,7 @@ public class ArrayPrototype extends ESObject {
     @Override
     public void putProperty(long index, ESValue propertyValue)
             throws EcmaScriptException {
+        elementsChanging();
         if (index >= theArray.size()) {
             setSize((int)index+1);
         }
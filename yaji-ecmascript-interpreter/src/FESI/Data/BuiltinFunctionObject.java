@@ -17,9 +17,13 @@
 
 package FESI.Data;
 
+import org.yaji.metrics.Metric;
+import org.yaji.metrics.MetricsRecorder;
+
 import FESI.Exceptions.EcmaScriptException;
 import FESI.Exceptions.TypeError;
 import FESI.Interpreter.Evaluator;
+import FESI.Interpreter.IProcedureProfiler;
 
 /**
  * Implement the common functionality of all built-in functions
@@ -33,6 +37,38 @@ public abstract class BuiltinFunctionObject extends FunctionPrototype {
         super(functionPrototype, evaluator, functionName, length);
     }
 
+    /**
+     * Call a function, reporting the call to the procedure profiler if one is
+     * set and the function is builtin, script functions reporting their own
+     * calls
+     */
+    public static ESValue callProfiled(ESValue function, ESValue thisObject,
+            ESValue[] arguments) throws EcmaScriptException {
+        if (!(function instanceof BuiltinFunctionObject)) {
+            return function.callFunction(thisObject, arguments);
+        }
+        MetricsRecorder metrics = ((BuiltinFunctionObject) function)
+                .getEvaluator().getMetrics();
+        if (metrics != null) {
+            metrics.increment(Metric.FUNCTION_CALL, 1);
+        }
+        IProcedureProfiler profiler = Evaluator.getProcedureProfilingCallback();
+        if (profiler == null) {
+            return function.callFunction(thisObject, arguments);
+        }
+        String className = thisObject instanceof ESObject ? ((ESObject) thisObject)
+                .getESClassName() : "";
+        String functionName = ((BuiltinFunctionObject) function)
+                .getFunctionName();
+        Object[] start = profiler.startProcedure(className, functionName);
+        try {
+            return function.callFunction(thisObject, arguments);
+        } finally {
+            profiler.endProcedure(className, functionName, start,
+                    System.nanoTime());
+        }
+    }
+
     // overrides
     @Override
     public void putProperty(String propertyName, ESValue propertyValue, int hash)
@@ -17,14 +17,30 @@
 
 package FESI.Data;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 
+import org.yaji.metrics.Metric;
+import org.yaji.metrics.MetricsRecorder;
+import org.yaji.profiler.CallStack;
+
+import FESI.AST.ASTFunctionDeclaration;
+import FESI.AST.ASTFunctionExpression;
+import FESI.AST.ASTGetAccessor;
+import FESI.AST.ASTIdentifier;
+import FESI.AST.ASTSetAccessor;
 import FESI.AST.ASTStatementList;
+import FESI.AST.Node;
 import FESI.Exceptions.EcmaScriptException;
 import FESI.Exceptions.SyntaxError;
+import FESI.Interpreter.CallFrame;
 import FESI.Interpreter.EvaluationSource;
 import FESI.Interpreter.Evaluator;
+import FESI.Interpreter.FileEvaluationSource;
+import FESI.Interpreter.IProcedureProfiler;
 import FESI.Interpreter.ScopeChain;
 import FESI.Parser.StrictMode;
 
@@ -43,6 +59,9 @@ public class ConstructedFunctionObject extends FunctionPrototype {
     private ESValue currentArguments = ESNull.theNull;
     private final ScopeChain scopeChain;
     private final boolean isStrictMode;
+    // Local variables reset by each call in a frame
+    private String[] frameVariableNames;
+    private transient String profiledClassName = null;
 
     private ConstructedFunctionObject(FunctionPrototype functionPrototype,
             Evaluator evaluator, String functionName,
@@ -143,16 +162,118 @@ public class ConstructedFunctionObject extends FunctionPrototype {
         ESArguments args = ESArguments.makeNewESArguments(evaluator, this, theArguments, arguments);
         ESValue oldArguments = currentArguments;
         currentArguments = args;
+        CallStack callStack = evaluator.getCallStack();
+        callStack.push(this);
+        MetricsRecorder metrics = evaluator.getMetrics();
+        if (metrics != null) {
+            metrics.increment(Metric.FUNCTION_CALL, 1);
+        }
+        IProcedureProfiler profiler = Evaluator.getProcedureProfilingCallback();
+        Object[] start = profiler == null ? null : profiler.startProcedure(getProfiledClassName(), getFunctionName());
         try {
             evaluator.setStrictMode(strictMode || isStrictMode);
             value = getEvaluator().evaluateFunctionInScope(theFunctionAST, evaluationSource, args, localVariableNames, thisObject, scopeChain);
         } finally {
+            if (profiler != null) {
+                profiler.endProcedure(getProfiledClassName(), getFunctionName(), start, System.nanoTime());
+            }
+            callStack.pop();
             currentArguments = oldArguments;
             evaluator.setStrictMode(strictMode);
         }
         return value;
     }
 
+    /**
+     * Create a call frame to call this function repeatedly with
+     * {@link #callFunctionInFrame}, reusing the same variable object, scope
+     * chain and evaluation visitor for all calls.
+     * 
+     * @return the frame, or null if the function can keep a reference to its
+     *         activation (it contains nested functions or refers to
+     *         <code>arguments</code> or <code>eval</code>) and must be called
+     *         with {@link #callFunction}
+     */
+    public CallFrame createCallFrame() {
+        if (!canReuseFrame(theFunctionAST)) {
+            return null;
+        }
+        if (frameVariableNames == null) {
+            List<String> argumentNames = Arrays.asList(theArguments);
+            List<String> variableNames = new ArrayList<String>();
+            for (String localVariableName : localVariableNames) {
+                if (!argumentNames.contains(localVariableName)) {
+                    variableNames.add(localVariableName);
+                }
+            }
+            frameVariableNames = variableNames.toArray(new String[variableNames.size()]);
+        }
+        Evaluator evaluator = getEvaluator();
+        ESArguments args = ESArguments.makeNewESArguments(evaluator, this, theArguments, ESValue.EMPTY_ARRAY);
+        return evaluator.newCallFrame(args, scopeChain);
+    }
+
+    private static boolean canReuseFrame(Node node) {
+        if (node instanceof ASTFunctionDeclaration || node instanceof ASTFunctionExpression
+                || node instanceof ASTGetAccessor || node instanceof ASTSetAccessor) {
+            return false;
+        }
+        if (node instanceof ASTIdentifier) {
+            String name = ((ASTIdentifier) node).getName();
+            if (name.equals(StandardProperty.ARGUMENTSstring) || name.equals(StandardProperty.EVALstring)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < node.jjtGetNumChildren(); i++) {
+            if (!canReuseFrame(node.jjtGetChild(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Call the function in a frame created by {@link #createCallFrame}, the
+     * frame must not be in use by another call
+     * 
+     * @param frame
+     *            the frame
+     * @param thisObject
+     *            the this object of the call
+     * @param arguments
+     *            the arguments, which are not retained by the call
+     * @return the result of the function
+     * @throws EcmaScriptException
+     */
+    public ESValue callFunctionInFrame(CallFrame frame, ESValue thisObject, ESValue[] arguments)
+            throws EcmaScriptException {
+        Evaluator evaluator = getEvaluator();
+        boolean strictMode = evaluator.isStrictMode();
+        ESArguments args = frame.getVariableObject();
+        args.rebindArguments(arguments, frameVariableNames);
+        ESValue oldArguments = currentArguments;
+        currentArguments = args;
+        CallStack callStack = evaluator.getCallStack();
+        callStack.push(this);
+        MetricsRecorder metrics = evaluator.getMetrics();
+        if (metrics != null) {
+            metrics.increment(Metric.FUNCTION_CALL, 1);
+        }
+        IProcedureProfiler profiler = Evaluator.getProcedureProfilingCallback();
+        Object[] start = profiler == null ? null : profiler.startProcedure(getProfiledClassName(), getFunctionName());
+        try {
+            evaluator.setStrictMode(strictMode || isStrictMode);
+            return evaluator.evaluateFunctionInFrame(theFunctionAST, evaluationSource, frame, thisObject);
+        } finally {
+            if (profiler != null) {
+                profiler.endProcedure(getProfiledClassName(), getFunctionName(), start, System.nanoTime());
+            }
+            callStack.pop();
+            currentArguments = oldArguments;
+            evaluator.setStrictMode(strictMode);
+        }
+    }
+
     @Override
     public ESObject doConstruct(ESValue[] arguments)
             throws EcmaScriptException {
@@ -177,6 +298,50 @@ public class ConstructedFunctionObject extends FunctionPrototype {
         return getFunctionImplementationString();
     }
 
+    /**
+     * @return the parsed body of the function, shared by the functions
+     *         created by evaluating the same source
+     */
+    public ASTStatementList getFunctionBody() {
+        return theFunctionAST;
+    }
+
+    public EvaluationSource getEvaluationSource() {
+        return evaluationSource;
+    }
+
+    /**
+     * @return the scope chain the function was created in
+     */
+    public ScopeChain getScopeChain() {
+        return scopeChain;
+    }
+
+    /**
+     * @return the line of the start of the body of the function, 0 if unknown
+     */
+    public int getLineNumber() {
+        return theFunctionAST.getLineNumber();
+    }
+
+    /**
+     * @return the location of the function reported to the procedure
+     *         profiler, as file:line
+     */
+    private String getProfiledClassName() {
+        if (profiledClassName == null) {
+            String fileName = null;
+            for (EvaluationSource source = evaluationSource; source != null; source = source.getPreviousSource()) {
+                if (source instanceof FileEvaluationSource) {
+                    fileName = new File(((FileEvaluationSource) source).getFileName()).getName();
+                    break;
+                }
+            }
+            profiledClassName = (fileName == null ? "" : fileName) + ":" + getLineNumber();
+        }
+        return profiledClassName;
+    }
+
     @Override
     public String toDetailString() {
         StringBuilder str = new StringBuilder();
@@ -371,6 +371,28 @@ public class ESArguments extends ESObject {
         }
     }
 
+    /**
+     * Bind the arguments of a new call when the arguments object is reused as
+     * the variable object of a call frame: the named arguments get the new
+     * values and the local variables are reset to undefined. The function must
+     * not access its arguments object, which is not updated.
+     * 
+     * @param argumentValues
+     *            the values of the arguments
+     * @param localVariableNames
+     *            the local variables which are not also argument names
+     * @throws EcmaScriptException
+     */
+    void rebindArguments(ESValue[] argumentValues, String[] localVariableNames) throws EcmaScriptException {
+        for (int i = 0; i < argumentNames.length; i++) {
+            ESValue val = i < argumentValues.length ? argumentValues[i] : ESUndefined.theUndefined;
+            super.putProperty(argumentNames[i], val, argumentNames[i].hashCode());
+        }
+        for (String localVariableName : localVariableNames) {
+            super.putProperty(localVariableName, ESUndefined.theUndefined, localVariableName.hashCode());
+        }
+    }
+
     // overrides
     @Override
     public boolean deleteProperty(String propertyName, int hash)
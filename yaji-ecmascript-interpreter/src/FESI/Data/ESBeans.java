@@ -84,7 +84,7 @@ public class ESBeans extends ESLoader {
         if (value == null) {
             buildPrefix();
             value = new ESBeans(propertyName, this, classLoader, getEvaluator());
-            getPropertyMap().put(propertyName, hash, FesiHashtable.Flag.False, FesiHashtable.Flag.False, value, FesiHashtable.Flag.True);
+            getWritablePropertyMap().put(propertyName, hash, FesiHashtable.Flag.False, FesiHashtable.Flag.False, value, FesiHashtable.Flag.True);
         }
         return value;
     }
@@ -106,11 +106,12 @@ public final class ESNumber extends ESPrimitive {
     }
 
     public static ESNumber valueOf(double d) {
-        Double dObject = Double.valueOf(d);
-        if (DOUBLE_ZERO.equals(dObject)) {
+        // Compare the bits rather than boxing d, to tell 0.0 from -0.0
+        long bits = Double.doubleToRawLongBits(d);
+        if (bits == 0L) {
             return ESNumber.ZERO;
         }
-        else if (DOUBLE_NEGATIVE_ZERO.equals(dObject)) {
+        else if (bits == Long.MIN_VALUE) {
             return ESNumber.NEGATIVE_ZERO;
         } else if (((long) d) == d) {
             return ESNumber.valueOf((long) d);
@@ -28,6 +28,7 @@ import FESI.Interpreter.FesiHashtable;
 import FESI.Interpreter.FesiHashtable.IReporter;
 import FESI.Interpreter.IDescriptor;
 import FESI.Interpreter.IPropertyDescriptor;
+import FESI.Interpreter.PropertyJournal;
 import FESI.Interpreter.ScopeChain;
 import FESI.Util.EvaluatorAccess;
 
@@ -57,10 +58,6 @@ public abstract class ESObject extends ESValue implements IDescriptor {
     // Callback used to log profiling data
     static IObjectProfiler profilingCallback = null;
 
-    // This class is used to tell us that this type is being GC'ed
-    @SuppressWarnings("unused")
-    private transient ESObjectFinalizerListener finalizerListener = null;
-
     // 5th Edition - 15.2.3.9 - if false no properties may be added to object
     private boolean extensible = true;
 
@@ -106,8 +103,9 @@ public abstract class ESObject extends ESValue implements IDescriptor {
             this.objectId = evaluator.generateObjectId();
         }
 
-        if (profilingCallback != null) {
-            finalizerListener = new ESObjectFinalizerListener(this, context);
+        IObjectProfiler profiler = profilingCallback;
+        if (profiler != null) {
+            ObjectTracking.track(profiler, this, evaluator, context);
         }
 
         this.initialSize = initialSize;
@@ -604,11 +602,11 @@ public abstract class ESObject extends ESValue implements IDescriptor {
                 setter.callFunction(this, new ESValue[] {propertyValue});
             }
         } else if (desc != null ){
-            getPropertyMap().put(propertyName, hash, FesiHashtable.Flag.fromBoolean(!desc.isEnumerable()), 
+            getWritablePropertyMap().put(propertyName, hash, FesiHashtable.Flag.fromBoolean(!desc.isEnumerable()), 
                     FesiHashtable.Flag.fromBoolean(!desc.isWritable()),
                     propertyValue, FesiHashtable.Flag.fromBoolean(desc.isConfigurable()));
         } else {
-            getPropertyMap().put(propertyName, hash, FesiHashtable.Flag.Default, FesiHashtable.Flag.Default,
+            getWritablePropertyMap().put(propertyName, hash, FesiHashtable.Flag.Default, FesiHashtable.Flag.Default,
                 propertyValue, FesiHashtable.Flag.Default);
         }
     }
@@ -683,7 +681,7 @@ public abstract class ESObject extends ESValue implements IDescriptor {
      */
     public void initializeProperty(String propertyName, ESValue propertyValue,
             int hash) throws EcmaScriptException {
-        getPropertyMap().put(propertyName, hash, FesiHashtable.Flag.False, FesiHashtable.Flag.False, propertyValue, FesiHashtable.Flag.True);
+        getWritablePropertyMap().put(propertyName, hash, FesiHashtable.Flag.False, FesiHashtable.Flag.False, propertyValue, FesiHashtable.Flag.True);
     }
 
     public static final int ENUMERABLE = 1<<0;
@@ -704,20 +702,20 @@ public abstract class ESObject extends ESValue implements IDescriptor {
             throws EcmaScriptException {
         propertyName = propertyName.intern();
         int hash = propertyName.hashCode();
-        getPropertyMap().put(propertyName, hash, FesiHashtable.Flag.True, FesiHashtable.Flag.False, propertyValue, FesiHashtable.Flag.True);
+        getWritablePropertyMap().put(propertyName, hash, FesiHashtable.Flag.True, FesiHashtable.Flag.False, propertyValue, FesiHashtable.Flag.True);
     }
     
     public void putProperty(String propertyName, int flags, ESValue propertyValue)
                 throws EcmaScriptException {
         int hash = propertyName.hashCode();
         propertyName = propertyName.intern();
-        getPropertyMap().put(propertyName, hash, FesiHashtable.Flag.fromBoolean((flags&ENUMERABLE) == 0),
+        getWritablePropertyMap().put(propertyName, hash, FesiHashtable.Flag.fromBoolean((flags&ENUMERABLE) == 0),
                 FesiHashtable.Flag.fromBoolean((flags&WRITEABLE) == 0), propertyValue, 
                 FesiHashtable.Flag.fromBoolean((flags&CONFIGURABLE) != 0));
     }
     
     public void putNonconfigurableProperty(String propertyName, ESValue propertyValue, int hash) throws EcmaScriptException {
-        FesiHashtable propertyMap = getPropertyMap();
+        FesiHashtable propertyMap = getWritablePropertyMap();
         IPropertyDescriptor desc = getOwnPropertyDescriptor(propertyName, hash);
         if (desc == null) {
             propertyMap.put(propertyName.intern(), hash, FesiHashtable.Flag.Default,
@@ -744,11 +742,27 @@ public abstract class ESObject extends ESValue implements IDescriptor {
     public boolean deleteProperty(String propertyName, int hash)
             throws EcmaScriptException {
         if (hasPropertyMap()) {
-            return getPropertyMap().remove(propertyName, hash, isStrictMode());
+            return getWritablePropertyMap().remove(propertyName, hash, isStrictMode());
         }
         return true; // either it did not exist or was deleted !
     }
     
+    /**
+     * Remove an own property even if it is not configurable, as a variable
+     * declared by a script in the global object. For the host only, scripts
+     * use {@link #deleteProperty(String, int)}.
+     * 
+     * @param propertyName
+     *            The name of the property
+     * @exception EcmaScriptException
+     *                Not used
+     */
+    public void removeOwnProperty(String propertyName, int hash) throws EcmaScriptException {
+        if (hasPropertyMap()) {
+            getWritablePropertyMap().removeAlways(propertyName, hash);
+        }
+    }
+
     public boolean deleteProperty(long index) throws EcmaScriptException {
         String propertyName = Long.toString(index);
         return deleteProperty(propertyName,propertyName.hashCode());
@@ -886,7 +900,8 @@ public abstract class ESObject extends ESValue implements IDescriptor {
                     arguments);
 
         }
-        return theFunction.callFunction(target, arguments);
+        return BuiltinFunctionObject.callProfiled(theFunction, target,
+                arguments);
 
     }
 
@@ -909,7 +924,8 @@ public abstract class ESObject extends ESValue implements IDescriptor {
                     functionName, hash, arguments);
 
         }
-        return theFunction.callFunction(thisObject, arguments);
+        return BuiltinFunctionObject.callProfiled(theFunction, thisObject,
+                arguments);
     }
 
     /**
@@ -1213,40 +1229,6 @@ public abstract class ESObject extends ESValue implements IDescriptor {
         return profilingCallback;
     }
 
-    class ESObjectFinalizerListener {
-        private final ESObject object;
-        private Object myContext = null;
-
-        public ESObjectFinalizerListener(ESObject object) {
-            this.object = object;
-            if (profilingCallback != null) {
-                writeProfile("C");
-            }
-        }
-
-        public ESObjectFinalizerListener(ESObject object, Object context) {
-            this.object = object;
-            this.myContext = context;
-            if (profilingCallback != null) {
-                writeProfile("C");
-            }
-        }
-
-        @Override
-        protected void finalize() throws Throwable {
-            if (profilingCallback != null) {
-                writeProfile("D");
-            }
-        }
-
-        private void writeProfile(String state) {
-            long currentTime = System.currentTimeMillis();
-
-            profilingCallback.write(getEvaluator(), currentTime, object,
-                    myContext, state);
-        }
-    }
-
     // save some space with serialization by not writing empty hashtables
     private void writeObject(java.io.ObjectOutputStream out)
             throws java.io.IOException {
@@ -1277,6 +1259,21 @@ public abstract class ESObject extends ESValue implements IDescriptor {
         return properties;
     }
 
+    /**
+     * Get the properties to change them, copying them first if they are
+     * shared with other objects (see {@link FesiHashtable#share()})
+     * 
+     * @return the properties owned by this object
+     */
+    protected FesiHashtable getWritablePropertyMap() {
+        FesiHashtable map = getPropertyMap();
+        if (map.isShared()) {
+            map = (FesiHashtable) map.clone();
+            setPropertyMap(map);
+        }
+        return map;
+    }
+
     protected boolean hasNoPropertyMap() {
         return properties == null;
     }
@@ -1284,7 +1281,7 @@ public abstract class ESObject extends ESValue implements IDescriptor {
     public void freeze() throws TypeError {
         setExtensible(false);
         if (!hasNoPropertyMap()) {
-            getPropertyMap().setAllNonConfigurable(true);
+            getWritablePropertyMap().setAllNonConfigurable(true);
         }
         evaluator = null;
     }
@@ -1318,7 +1315,7 @@ public abstract class ESObject extends ESValue implements IDescriptor {
     }
 
     public ESValue defineProperty(final String propertyName, IDescriptor desc) throws EcmaScriptException {
-        getPropertyMap().defineProperty(propertyName,desc, new IReporter() {
+        getWritablePropertyMap().defineProperty(propertyName,desc, new IReporter() {
             
             public boolean reject(String message) throws TypeError{
                 throw new TypeError("Cannot define property "+propertyName+" on Object : "+message);
@@ -1338,7 +1335,7 @@ public abstract class ESObject extends ESValue implements IDescriptor {
     public void seal() {
         setExtensible(false);
         if (hasPropertyMap()) {
-            getPropertyMap().setAllNonConfigurable(false);
+            getWritablePropertyMap().setAllNonConfigurable(false);
         }
     }
 
@@ -1351,9 +1348,32 @@ public abstract class ESObject extends ESValue implements IDescriptor {
     }
 
     public void setExtensible(boolean extensible) {
+        if (extensible != this.extensible && hasPropertyMap()) {
+            PropertyJournal journal = getPropertyMap().getJournal();
+            if (journal != null) {
+                journal.extensibleChanging(this, this.extensible);
+            }
+        }
         this.extensible = extensible;
     }
 
+    /**
+     * Record the changes of the properties of this object and of the
+     * objects of its prototype chain in a journal, so that they can be undone
+     * 
+     * @param journal
+     *            the journal
+     */
+    public void setPropertyJournal(PropertyJournal journal) {
+        if (journal.isTracking(this)) {
+            return;
+        }
+        journal.track(this, getWritablePropertyMap());
+        if (prototype != null) {
+            prototype.setPropertyJournal(journal);
+        }
+    }
+
     public Enumeration<String> keys() {
         return hasPropertyMap() ? getPropertyMap().enumerableKeys() : EMPTY_STRING_ENUMERATION;
     }
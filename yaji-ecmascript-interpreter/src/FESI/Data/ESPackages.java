@@ -106,7 +106,7 @@ public class ESPackages extends ESLoader {
                 value = new ESPackages(propertyName, this, classLoader,
                         getEvaluator());
             }
-            getPropertyMap().put(propertyName, hash, FesiHashtable.Flag.False, FesiHashtable.Flag.False, value, FesiHashtable.Flag.True);
+            getWritablePropertyMap().put(propertyName, hash, FesiHashtable.Flag.False, FesiHashtable.Flag.False, value, FesiHashtable.Flag.True);
         }
         return value;
     }
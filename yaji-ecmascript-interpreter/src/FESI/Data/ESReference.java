@@ -35,6 +35,7 @@ public class ESReference {
     private String propertyName; // Should never be null for a valid reference
     private int hash; // hashCode of propertyName
     private String error;
+    private long index = -1; // an element index, the name is built on demand
 
     /**
      * Create a new reference given a base and a property name
@@ -56,6 +57,20 @@ public class ESReference {
         this.hash = hash;
     }
 
+    /**
+     * Create a new reference to an element of an object which reads and
+     * writes its elements by index, without building the property name
+     * 
+     * @param base
+     *            - may not be null
+     * @param index
+     *            - the element index
+     */
+    public ESReference(ESObject base, long index) {
+        this.base = base;
+        this.index = index;
+    }
+
     public ESReference(String string) {
         this.error = string;
     }
@@ -85,6 +100,7 @@ public class ESReference {
      *                not thrown
      */
     public String getPropertyName() throws EcmaScriptException {
+        nameElement();
         return propertyName;
     }
     
@@ -97,9 +113,17 @@ public class ESReference {
      *                not thrown
      */
     public int getHash() {
+        nameElement();
         return hash;
     }
 
+    private void nameElement() {
+        if (propertyName == null && index >= 0) {
+            propertyName = Long.toString(index);
+            hash = propertyName.hashCode();
+        }
+    }
+
     /**
      * Return the referenced value unless it is global and not defined, in which
      * case an exception is raised (see 8.7.3). By the definition of
@@ -118,6 +142,9 @@ public class ESReference {
             throw new EcmaScriptException("Variable '" + propertyName
                     + "' does not exist in the scope chain", NativeErrorObject.REFERENCE_ERROR);
         }
+        if (index >= 0) {
+            return base.getProperty(index);
+        }
         return base.getProperty(propertyName, hash);
     }
 
@@ -147,11 +174,13 @@ public class ESReference {
                     g.putNonconfigurableProperty(propertyName, v, hash);
                 }
             }
+        } else if (index >= 0 && configurable) {
+            base.putProperty(index, v);
         } else {
             if (configurable) {
                 base.putProperty(propertyName, v, hash);
             } else {
-                base.putNonconfigurableProperty(propertyName, v, hash);
+                base.putNonconfigurableProperty(getPropertyName(), v, getHash());
             }
         }
     }
@@ -166,7 +195,7 @@ public class ESReference {
             return error;
         }
         return "ES:*<" + ((base == null) ? "null" : base.toString()) + ":"
-                + propertyName + ">";
+                + (index >= 0 ? Long.toString(index) : propertyName) + ">";
     }
 
     /**
@@ -184,6 +213,6 @@ public class ESReference {
             return error;
         }
         return ((base == null) ? "" : ("{" + base.toString() + "}."))
-                + propertyName;
+                + (index >= 0 ? Long.toString(index) : propertyName);
     }
 }
\ No newline at end of file
@@ -42,6 +42,7 @@ import FESI.Exceptions.ProgrammingError;
 import FESI.Exceptions.ReferenceError;
 import FESI.Interpreter.ClassInfo;
 import FESI.Interpreter.Evaluator;
+import FESI.Interpreter.IProcedureProfiler;
 import FESI.Interpreter.ScopeChain;
 
 /**
@@ -890,6 +891,9 @@ public class ESWrapper extends ESObject {
         }
         Object obj = null;
         Class<?> retCls = method.getReturnType();
+        IProcedureProfiler profiler = Evaluator.getProcedureProfilingCallback();
+        Object[] start = profiler == null ? null : profiler.startProcedure(
+                method.getDeclaringClass().getName(), functionName);
         try {
             obj = method.invoke(javaObject, params);
         } catch (InvocationTargetException e) {
@@ -902,6 +906,11 @@ public class ESWrapper extends ESObject {
             throw new ProgrammingError(
                     "Inconsistent type of argument for method " + functionName
                             + ": " + e.getMessage());
+        } finally {
+            if (profiler != null) {
+                profiler.endProcedure(method.getDeclaringClass().getName(),
+                        functionName, start, System.nanoTime());
+            }
         }
         ESValue eobj;
         if (retCls != Void.TYPE) {
@@ -0,0 +1,265 @@
+package FESI.Data;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
+
+import FESI.Exceptions.EcmaScriptException;
+
+/**
+ * A reusable handle to call a function repeatedly from Java with primitive
+ * arguments and results.
+ * <P>
+ * Arguments are either given directly (<code>invokeDouble(a, b)</code>) or
+ * accumulated with the <code>arg</code> methods before a call to one of the
+ * <code>invoke</code> methods. The argument arrays are reused from call to
+ * call when the function copies its arguments (functions constructed from
+ * source do). If the function has a direct implementation with a matching
+ * primitive signature (see {@link FunctionPrototype#getDirectHandle()}), it is
+ * called without converting the arguments and result to ESValue at all.
+ * <P>
+ * Like the evaluator, an invoker must only be used by one thread at a time.
+ */
+public class FunctionInvoker {
+
+    private static final MethodType DOUBLE_1 = MethodType.methodType(double.class, double.class);
+    private static final MethodType DOUBLE_2 = MethodType.methodType(double.class, double.class, double.class);
+    private static final MethodType DOUBLE_3 = MethodType.methodType(double.class, double.class, double.class, double.class);
+    private static final MethodType LONG_1 = MethodType.methodType(long.class, long.class);
+    private static final MethodType LONG_2 = MethodType.methodType(long.class, long.class, long.class);
+
+    private final FunctionPrototype function;
+    private final boolean reuseArguments;
+    private ESValue thisObject = ESUndefined.theUndefined;
+
+    // Argument arrays by number of arguments, reused if reuseArguments
+    private ESValue[][] argumentArrays = new ESValue[4][];
+    private ESValue[] pending = new ESValue[4];
+    private int pendingCount = 0;
+
+    // Direct handles adapted to each primitive signature, null if the
+    // function has none for this signature
+    private MethodHandle double1;
+    private MethodHandle double2;
+    private MethodHandle double3;
+    private MethodHandle long1;
+    private MethodHandle long2;
+
+    FunctionInvoker(FunctionPrototype function) {
+        this.function = function;
+        this.reuseArguments = function instanceof ConstructedFunctionObject;
+        MethodHandle direct = function.getDirectHandle();
+        if (direct != null) {
+            double1 = adapt(direct, DOUBLE_1);
+            double2 = adapt(direct, DOUBLE_2);
+            double3 = adapt(direct, DOUBLE_3);
+            long1 = adapt(direct, LONG_1);
+            long2 = adapt(direct, LONG_2);
+        }
+    }
+
+    private static MethodHandle adapt(MethodHandle direct, MethodType type) {
+        MethodType directType = direct.type();
+        if (directType.parameterCount() != type.parameterCount()
+                || !directType.returnType().isPrimitive()) {
+            return null;
+        }
+        for (Class<?> parameterType : directType.parameterArray()) {
+            if (!parameterType.isPrimitive()) {
+                return null;
+            }
+        }
+        try {
+            return direct.asType(type);
+        } catch (WrongMethodTypeException e) {
+            return null;
+        }
+    }
+
+    public FunctionPrototype getFunction() {
+        return function;
+    }
+
+    /**
+     * Set the this object of the following calls (undefined by default)
+     *
+     * @param thisObject
+     *            the this object
+     * @return this invoker
+     */
+    public FunctionInvoker withThis(ESValue thisObject) {
+        this.thisObject = thisObject;
+        return this;
+    }
+
+    public FunctionInvoker arg(double value) {
+        return arg(ESNumber.valueOf(value));
+    }
+
+    public FunctionInvoker arg(long value) {
+        return arg(ESNumber.valueOf(value));
+    }
+
+    public FunctionInvoker arg(boolean value) {
+        return arg(ESBoolean.valueOf(value));
+    }
+
+    public FunctionInvoker arg(String value) {
+        return arg(value == null ? (ESValue) ESNull.theNull : new ESString(value));
+    }
+
+    public FunctionInvoker arg(ESValue value) {
+        if (pendingCount == pending.length) {
+            ESValue[] larger = new ESValue[pendingCount * 2];
+            System.arraycopy(pending, 0, larger, 0, pendingCount);
+            pending = larger;
+        }
+        pending[pendingCount++] = value;
+        return this;
+    }
+
+    /**
+     * Call the function with the arguments accumulated since the last call
+     *
+     * @return the result of the function
+     * @throws EcmaScriptException
+     */
+    public ESValue invoke() throws EcmaScriptException {
+        int count = pendingCount;
+        pendingCount = 0;
+        ESValue[] arguments = argumentArray(count);
+        System.arraycopy(pending, 0, arguments, 0, count);
+        for (int i = 0; i < count; i++) {
+            pending[i] = null;
+        }
+        return call(arguments);
+    }
+
+    public double invokeDouble() throws EcmaScriptException {
+        return invoke().doubleValue();
+    }
+
+    /**
+     * @return the result converted to an integer, truncated toward zero
+     */
+    public long invokeLong() throws EcmaScriptException {
+        return (long) invoke().toInteger();
+    }
+
+    public boolean invokeBoolean() throws EcmaScriptException {
+        return invoke().booleanValue();
+    }
+
+    public String invokeString() throws EcmaScriptException {
+        return invoke().toString();
+    }
+
+    public double invokeDouble(double a) throws EcmaScriptException {
+        if (double1 != null) {
+            try {
+                return (double) double1.invokeExact(a);
+            } catch (Throwable t) {
+                throw wrap(t);
+            }
+        }
+        ESValue[] arguments = argumentArray(1);
+        arguments[0] = ESNumber.valueOf(a);
+        return call(arguments).doubleValue();
+    }
+
+    public double invokeDouble(double a, double b) throws EcmaScriptException {
+        if (double2 != null) {
+            try {
+                return (double) double2.invokeExact(a, b);
+            } catch (Throwable t) {
+                throw wrap(t);
+            }
+        }
+        ESValue[] arguments = argumentArray(2);
+        arguments[0] = ESNumber.valueOf(a);
+        arguments[1] = ESNumber.valueOf(b);
+        return call(arguments).doubleValue();
+    }
+
+    public double invokeDouble(double a, double b, double c) throws EcmaScriptException {
+        if (double3 != null) {
+            try {
+                return (double) double3.invokeExact(a, b, c);
+            } catch (Throwable t) {
+                throw wrap(t);
+            }
+        }
+        ESValue[] arguments = argumentArray(3);
+        arguments[0] = ESNumber.valueOf(a);
+        arguments[1] = ESNumber.valueOf(b);
+        arguments[2] = ESNumber.valueOf(c);
+        return call(arguments).doubleValue();
+    }
+
+    public long invokeLong(long a) throws EcmaScriptException {
+        if (long1 != null) {
+            try {
+                return (long) long1.invokeExact(a);
+            } catch (Throwable t) {
+                throw wrap(t);
+            }
+        }
+        ESValue[] arguments = argumentArray(1);
+        arguments[0] = ESNumber.valueOf(a);
+        return (long) call(arguments).toInteger();
+    }
+
+    public long invokeLong(long a, long b) throws EcmaScriptException {
+        if (long2 != null) {
+            try {
+                return (long) long2.invokeExact(a, b);
+            } catch (Throwable t) {
+                throw wrap(t);
+            }
+        }
+        ESValue[] arguments = argumentArray(2);
+        arguments[0] = ESNumber.valueOf(a);
+        arguments[1] = ESNumber.valueOf(b);
+        return (long) call(arguments).toInteger();
+    }
+
+    private ESValue call(ESValue[] arguments) throws EcmaScriptException {
+        ESValue result = function.callFunction(thisObject, arguments);
+        if (reuseArguments) {
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = null;
+            }
+        }
+        return result;
+    }
+
+    private ESValue[] argumentArray(int count) {
+        if (count == 0) {
+            return ESValue.EMPTY_ARRAY;
+        }
+        if (!reuseArguments) {
+            return new ESValue[count];
+        }
+        if (count >= argumentArrays.length) {
+            ESValue[][] larger = new ESValue[count + 1][];
+            System.arraycopy(argumentArrays, 0, larger, 0, argumentArrays.length);
+            argumentArrays = larger;
+        }
+        ESValue[] arguments = argumentArrays[count];
+        if (arguments == null) {
+            arguments = new ESValue[count];
+            argumentArrays[count] = arguments;
+        }
+        return arguments;
+    }
+
+    private EcmaScriptException wrap(Throwable t) {
+        if (t instanceof EcmaScriptException) {
+            return (EcmaScriptException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new EcmaScriptException("Error in function " + function.getFunctionName() + ": " + t, t);
+    }
+}
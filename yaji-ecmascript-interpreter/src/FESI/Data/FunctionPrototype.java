@@ -17,9 +17,12 @@
 
 package FESI.Data;
 
+import java.lang.invoke.MethodHandle;
+
 import FESI.Exceptions.EcmaScriptException;
 import FESI.Exceptions.TypeError;
 import FESI.Interpreter.Evaluator;
+import FESI.Interpreter.FesiHashtable;
 
 /**
  * Implements the prototype and is the class of all Function objects
@@ -27,17 +30,40 @@ import FESI.Interpreter.Evaluator;
 public class FunctionPrototype extends ESObject {
     private static final long serialVersionUID = 5228262867569754052L;
     private String functionName = null;
+    // The shared property tables of the functions of length 0 to 7
+    private static final FesiHashtable[] LENGTH_PROPERTIES = new FesiHashtable[8];
+    static {
+        for (int length = 0; length < LENGTH_PROPERTIES.length; length++) {
+            FesiHashtable properties = new FesiHashtable();
+            properties.put(StandardProperty.LENGTHstring, StandardProperty.LENGTHhash, FesiHashtable.Flag.True,
+                    FesiHashtable.Flag.True, ESNumber.valueOf(length), FesiHashtable.Flag.False);
+            LENGTH_PROPERTIES[length] = properties.share();
+        }
+    }
 
     FunctionPrototype(ESObject prototype, Evaluator evaluator,
             String functionName, int length) throws EcmaScriptException {
         super(prototype, evaluator);
         this.functionName = functionName;
-        putProperty(StandardProperty.LENGTHstring, 0, ESNumber.valueOf(length));
+        initializeLength(length);
     }
 
     FunctionPrototype(ESObject prototype, Evaluator evaluator, int length) throws EcmaScriptException {
         super(prototype, evaluator);
-        putProperty(StandardProperty.LENGTHstring, 0, ESNumber.valueOf(length));
+        initializeLength(length);
+    }
+
+    /**
+     * Set the length of a new function. Most functions, and all the builtin
+     * functions of the evaluators, never have another property, so they
+     * share a property table holding only their length until they change it.
+     */
+    private void initializeLength(int length) throws EcmaScriptException {
+        if (hasNoPropertyMap() && length < LENGTH_PROPERTIES.length) {
+            setPropertyMap(LENGTH_PROPERTIES[length]);
+        } else {
+            putProperty(StandardProperty.LENGTHstring, 0, ESNumber.valueOf(length));
+        }
     }
 
     // overrides
@@ -95,6 +121,27 @@ public class FunctionPrototype extends ESObject {
             throws EcmaScriptException {
         return ESUndefined.theUndefined;
     }
+
+    /**
+     * Create an invoker to call this function repeatedly from Java with
+     * primitive arguments
+     * 
+     * @return a new invoker, which is not thread safe
+     */
+    public FunctionInvoker createInvoker() {
+        return new FunctionInvoker(this);
+    }
+
+    /**
+     * Get a method handle calling the implementation of this function
+     * directly with Java values, bypassing the conversion to and from
+     * ESValue, if the function has such an implementation.
+     * 
+     * @return the method handle or null
+     */
+    public MethodHandle getDirectHandle() {
+        return null;
+    }
     
     @Override
     public boolean isCallable() {
@@ -25,6 +25,7 @@ import java.util.BitSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.yaji.buffer.Buffers;
 import org.yaji.data.SparseArrayConstructor;
 
 import FESI.Exceptions.EcmaScriptException;
@@ -571,6 +572,7 @@ public class GlobalObject extends ObjectPrototype {
             go.putHiddenProperty("Math", MathObject.makeMathObject(evaluator,
                     objectPrototype, functionPrototype));
             go.putHiddenProperty("JSON", JsonObject.makeJsonObject(evaluator, objectPrototype, functionPrototype));
+            Buffers.makeBufferObjects(evaluator, go, objectPrototype, functionPrototype);
         } catch (EcmaScriptException e) {
             e.printStackTrace();
             throw new ProgrammingError(e.getMessage());
@@ -10,8 +10,43 @@ import FESI.Interpreter.Evaluator;
  */
 public interface IObjectProfiler {
 
+    /**
+     * Log the creation ("C") or release ("D") of a tracked object. A released
+     * object is no longer reachable, and is given as null.
+     */
     public void write(Evaluator evaluator, long currentTime, ESObject object, Object context, String state);
 
     public void markHeap();
 
+    /**
+     * @return the number of objects created for each one tracked, 1 to
+     *         track them all
+     */
+    public default int getSampleInterval() {
+        return 1;
+    }
+
+    /**
+     * A tracked object was created. It is reported by the ESObject
+     * constructor, before the constructors of its subclasses have run, so
+     * that only its identity and Java class may be relied on: its methods
+     * must not be called.
+     * 
+     * @return the state given back when the object is released, which must
+     *         not refer to the object
+     */
+    public default Object created(Evaluator evaluator, ESObject object, Object context) {
+        write(evaluator, System.currentTimeMillis(), object, context, "C");
+        return context;
+    }
+
+    /**
+     * A tracked object is no longer reachable
+     * 
+     * @param state
+     *            the state returned when it was created
+     */
+    public default void released(Evaluator evaluator, Object state) {
+        write(evaluator, System.currentTimeMillis(), null, state, "D");
+    }
 }
@@ -8,6 +8,8 @@ import org.yaji.json.Json;
 import org.yaji.json.JsonUtil;
 import org.yaji.json.ParseException;
 import org.yaji.json.TokenMgrError;
+import org.yaji.metrics.Metric;
+import org.yaji.metrics.MetricsRecorder;
 
 import FESI.Exceptions.EcmaScriptException;
 import FESI.Exceptions.SyntaxError;
@@ -24,7 +26,12 @@ public class JsonObject extends ESObject {
                     throws EcmaScriptException {
                 ESValue jsonText = arguments.length>0?arguments[0]:ESUndefined.theUndefined;
                 ESValue reviver = arguments.length>1?arguments[1]:ESUndefined.theUndefined;
-                Json json = new Json( new StringReader(jsonText.toString()));
+                String text = jsonText.toString();
+                MetricsRecorder metrics = getEvaluator().getMetrics();
+                if (metrics != null) {
+                    metrics.increment(Metric.JSON_PARSED_CHARACTERS, text.length());
+                }
+                Json json = new Json( new StringReader(text));
                 json.setEvaluator(getEvaluator());
                 try {
                     return revive(json.Parse(),reviver);
@@ -48,6 +55,10 @@ public class JsonObject extends ESObject {
                     if (result == null) {
                         return ESUndefined.theUndefined;
                     }
+                    MetricsRecorder metrics = getEvaluator().getMetrics();
+                    if (metrics != null) {
+                        metrics.increment(Metric.JSON_STRINGIFIED_CHARACTERS, result.length());
+                    }
                     return new ESString(result);
                 } catch (IOException e) {
                     throw new EcmaScriptException(e.getMessage(), "Error");
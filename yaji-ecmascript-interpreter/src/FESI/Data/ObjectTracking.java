@@ -0,0 +1,52 @@
+package FESI.Data;
+
+import java.lang.ref.Cleaner;
+import java.util.concurrent.ThreadLocalRandom;
+
+import FESI.Interpreter.Evaluator;
+
+/**
+ * Reports the creation of a sample of the objects to the object profiler,
+ * and their release once unreachable, detected by a cleaner rather than by
+ * finalization so that the collection of objects is not delayed.
+ */
+final class ObjectTracking {
+
+    private ObjectTracking() {
+    }
+
+    private static class CleanerHolder {
+        static final Cleaner CLEANER = Cleaner.create();
+    }
+
+    /**
+     * The release of an object, which must not refer to it
+     */
+    private static class Release implements Runnable {
+        private final IObjectProfiler profiler;
+        private final Evaluator evaluator;
+        private final Object state;
+
+        Release(IObjectProfiler profiler, Evaluator evaluator, Object state) {
+            this.profiler = profiler;
+            this.evaluator = evaluator;
+            this.state = state;
+        }
+
+        public void run() {
+            profiler.released(evaluator, state);
+        }
+    }
+
+    /**
+     * Track a new object if it is part of the sample
+     */
+    static void track(IObjectProfiler profiler, ESObject object, Evaluator evaluator, Object context) {
+        int interval = profiler.getSampleInterval();
+        if (interval > 1 && ThreadLocalRandom.current().nextInt(interval) != 0) {
+            return;
+        }
+        Object state = profiler.created(evaluator, object, context);
+        CleanerHolder.CLEANER.register(object, new Release(profiler, evaluator, state));
+    }
+}
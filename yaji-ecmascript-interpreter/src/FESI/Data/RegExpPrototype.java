@@ -1,5 +1,7 @@
 package FESI.Data;
 
+import org.yaji.metrics.Metric;
+import org.yaji.metrics.MetricsRecorder;
 import org.yaji.regex.Regex;
 
 import FESI.Exceptions.EcmaScriptException;
@@ -52,6 +54,10 @@ public class RegExpPrototype extends ESObject {
         pattern = Regex.compile(getSource(),
                     (isIgnoreCase() ? Regex.CASE_INSENSITIVE : 0)
                     | (isMultiline() ? Regex.MULTILINE: 0));
+        MetricsRecorder metrics = getEvaluator().getMetrics();
+        if (metrics != null) {
+            metrics.increment(Metric.REGEX_COMPILATION, 1);
+        }
     }
 
     
@@ -59,6 +59,9 @@ public class EcmaScriptException extends Exception {
 
     private ESValue errorObject;
 
+    // Whether the exception was counted by the metrics of an evaluator
+    private transient boolean recorded = false;
+
     /**
      * Create a generic exception with cause "reason"
      * 
@@ -243,4 +246,16 @@ public class EcmaScriptException extends Exception {
     public void setErrorObject(ESValue value) {
         errorObject = value;
     }
+
+    /**
+     * Mark the exception as counted by the metrics, which see it at each
+     * level it goes through
+     * 
+     * @return true if it was not counted yet
+     */
+    public boolean markRecorded() {
+        boolean first = !recorded;
+        recorded = true;
+        return first;
+    }
 }
\ No newline at end of file
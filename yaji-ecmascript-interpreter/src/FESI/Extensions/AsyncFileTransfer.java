@@ -0,0 +1,189 @@
+package FESI.Extensions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+
+import org.yaji.event.EventLoop;
+
+/**
+ * A transfer on asynchronous file channels, each read or write started by
+ * the completion of the previous one, ending an event loop operation with
+ * the number of bytes transferred.
+ */
+abstract class AsyncFileTransfer implements CompletionHandler<Integer, Void> {
+
+    static final int COPY_BUFFER_SIZE = 1024 * 1024;
+
+    final ByteBuffer buffer;
+    long position;
+    long total = 0;
+
+    AsyncFileTransfer(ByteBuffer buffer, long position) {
+        this.buffer = buffer;
+        this.position = position;
+    }
+
+    /**
+     * Fill a buffer from a position of a file, stopping early at the end of
+     * the file
+     */
+    static void read(final AsynchronousFileChannel channel, ByteBuffer buffer, long position,
+            final EventLoop.Operation<Long> operation) {
+        new AsyncFileTransfer(buffer, position) {
+            @Override
+            void next() {
+                channel.read(buffer, position, null, this);
+            }
+
+            @Override
+            boolean transferred(int count) {
+                return count >= 0 && buffer.hasRemaining();
+            }
+
+            @Override
+            void end(Throwable failure) {
+                if (failure != null) {
+                    operation.failed(failure);
+                } else {
+                    operation.succeeded(Long.valueOf(total));
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * Write the remaining bytes of a buffer at a position of a file
+     */
+    static void write(final AsynchronousFileChannel channel, ByteBuffer buffer, long position,
+            final EventLoop.Operation<Long> operation) {
+        new AsyncFileTransfer(buffer, position) {
+            @Override
+            void next() {
+                channel.write(buffer, position, null, this);
+            }
+
+            @Override
+            boolean transferred(int count) {
+                return buffer.hasRemaining();
+            }
+
+            @Override
+            void end(Throwable failure) {
+                if (failure != null) {
+                    operation.failed(failure);
+                } else {
+                    operation.succeeded(Long.valueOf(total));
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * Copy a file, alternating reads and writes of a direct buffer, then
+     * close both channels
+     */
+    static void copy(final AsynchronousFileChannel source, final AsynchronousFileChannel target,
+            final EventLoop.Operation<Long> operation) {
+        new AsyncFileTransfer(ByteBuffer.allocateDirect(COPY_BUFFER_SIZE), 0) {
+            private boolean writing = false;
+
+            @Override
+            void next() {
+                if (writing) {
+                    target.write(buffer, position, null, this);
+                } else {
+                    source.read(buffer, position, null, this);
+                }
+            }
+
+            @Override
+            boolean transferred(int count) {
+                if (!writing) {
+                    if (count < 0) {
+                        return false;
+                    }
+                    // Written from where it was read
+                    position -= count;
+                    total -= count;
+                    buffer.flip();
+                    writing = true;
+                } else if (!buffer.hasRemaining()) {
+                    buffer.clear();
+                    writing = false;
+                }
+                return true;
+            }
+
+            @Override
+            void end(Throwable failure) {
+                try {
+                    source.close();
+                    target.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+                if (failure != null) {
+                    operation.failed(failure);
+                } else {
+                    operation.succeeded(Long.valueOf(total));
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * Start the next read or write
+     */
+    abstract void next();
+
+    /**
+     * Account for a completed read or write
+     *
+     * @param count
+     *            the number of bytes transferred, -1 at the end of the file
+     * @return true to go on
+     */
+    abstract boolean transferred(int count);
+
+    /**
+     * End the operation
+     *
+     * @param failure
+     *            the failure, or null if the transfer is complete
+     */
+    abstract void end(Throwable failure);
+
+    void start() {
+        if (!buffer.hasRemaining()) {
+            end(null);
+            return;
+        }
+        try {
+            next();
+        } catch (RuntimeException e) {
+            // As a negative position or a channel not opened for the transfer
+            end(e);
+        }
+    }
+
+    public void completed(Integer result, Void attachment) {
+        int count = result.intValue();
+        if (count > 0) {
+            position += count;
+            total += count;
+        }
+        if (transferred(count)) {
+            start();
+        } else {
+            end(null);
+        }
+    }
+
+    public void failed(Throwable failure, Void attachment) {
+        end(failure);
+    }
+}
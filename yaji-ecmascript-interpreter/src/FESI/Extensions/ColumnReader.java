@@ -0,0 +1,209 @@
+package FESI.Extensions;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+import org.yaji.json.JsonUtil;
+
+import FESI.Data.DatePrototype;
+import FESI.Data.ESBoolean;
+import FESI.Data.ESLoader;
+import FESI.Data.ESNumber;
+import FESI.Data.ESString;
+import FESI.Data.ESValue;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+
+/**
+ * Reads the values of a column of a result set with the getter matching its
+ * SQL type, chosen once per column, as script values or as JSON.
+ */
+abstract class ColumnReader {
+
+    /**
+     * @return the value at the current row, null for SQL NULL
+     */
+    abstract ESValue read(ResultSet resultSet, int column, Evaluator evaluator) throws SQLException,
+            EcmaScriptException;
+
+    /**
+     * Write the value at the current row as JSON
+     */
+    abstract void writeJson(ResultSet resultSet, int column, Writer writer) throws SQLException, IOException;
+
+    static ColumnReader forType(int sqlType) {
+        switch (sqlType) {
+        case Types.TINYINT:
+        case Types.SMALLINT:
+        case Types.INTEGER:
+            return INT;
+        case Types.BIGINT:
+            return LONG;
+        case Types.REAL:
+        case Types.FLOAT:
+        case Types.DOUBLE:
+        case Types.DECIMAL:
+        case Types.NUMERIC:
+            return DOUBLE;
+        case Types.BIT:
+        case Types.BOOLEAN:
+            return BOOLEAN;
+        case Types.CHAR:
+        case Types.VARCHAR:
+        case Types.LONGVARCHAR:
+        case Types.NCHAR:
+        case Types.NVARCHAR:
+        case Types.LONGNVARCHAR:
+        case Types.CLOB:
+            return STRING;
+        case Types.DATE:
+        case Types.TIME:
+        case Types.TIMESTAMP:
+            return new TimestampReader();
+        default:
+            return OBJECT;
+        }
+    }
+
+    static void writeString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        JsonUtil.escape(writer, value);
+        writer.write('"');
+    }
+
+    private static final ColumnReader INT = new ColumnReader() {
+        @Override
+        ESValue read(ResultSet resultSet, int column, Evaluator evaluator) throws SQLException {
+            int value = resultSet.getInt(column);
+            return resultSet.wasNull() ? null : ESNumber.valueOf(value);
+        }
+
+        @Override
+        void writeJson(ResultSet resultSet, int column, Writer writer) throws SQLException, IOException {
+            int value = resultSet.getInt(column);
+            writer.write(resultSet.wasNull() ? "null" : Integer.toString(value));
+        }
+    };
+
+    private static final ColumnReader LONG = new ColumnReader() {
+        @Override
+        ESValue read(ResultSet resultSet, int column, Evaluator evaluator) throws SQLException {
+            long value = resultSet.getLong(column);
+            return resultSet.wasNull() ? null : ESNumber.valueOf(value);
+        }
+
+        @Override
+        void writeJson(ResultSet resultSet, int column, Writer writer) throws SQLException, IOException {
+            long value = resultSet.getLong(column);
+            writer.write(resultSet.wasNull() ? "null" : Long.toString(value));
+        }
+    };
+
+    private static final ColumnReader DOUBLE = new ColumnReader() {
+        @Override
+        ESValue read(ResultSet resultSet, int column, Evaluator evaluator) throws SQLException {
+            double value = resultSet.getDouble(column);
+            return resultSet.wasNull() ? null : ESNumber.valueOf(value);
+        }
+
+        @Override
+        void writeJson(ResultSet resultSet, int column, Writer writer) throws SQLException, IOException {
+            double value = resultSet.getDouble(column);
+            if (resultSet.wasNull() || Double.isNaN(value) || Double.isInfinite(value)) {
+                writer.write("null");
+            } else {
+                writer.write(ESNumber.valueOf(value).toString());
+            }
+        }
+    };
+
+    private static final ColumnReader BOOLEAN = new ColumnReader() {
+        @Override
+        ESValue read(ResultSet resultSet, int column, Evaluator evaluator) throws SQLException {
+            boolean value = resultSet.getBoolean(column);
+            return resultSet.wasNull() ? null : ESBoolean.valueOf(value);
+        }
+
+        @Override
+        void writeJson(ResultSet resultSet, int column, Writer writer) throws SQLException, IOException {
+            boolean value = resultSet.getBoolean(column);
+            writer.write(resultSet.wasNull() ? "null" : Boolean.toString(value));
+        }
+    };
+
+    private static final ColumnReader STRING = new ColumnReader() {
+        @Override
+        ESValue read(ResultSet resultSet, int column, Evaluator evaluator) throws SQLException {
+            String value = resultSet.getString(column);
+            return value == null ? null : new ESString(value);
+        }
+
+        @Override
+        void writeJson(ResultSet resultSet, int column, Writer writer) throws SQLException, IOException {
+            String value = resultSet.getString(column);
+            if (value == null) {
+                writer.write("null");
+            } else {
+                writeString(writer, value);
+            }
+        }
+    };
+
+    /**
+     * Dates, as Date objects or as JSON strings in the format of toISOString
+     */
+    private static class TimestampReader extends ColumnReader {
+        private DateFormat isoFormat = null;
+
+        @Override
+        ESValue read(ResultSet resultSet, int column, Evaluator evaluator) throws SQLException {
+            Timestamp value = resultSet.getTimestamp(column);
+            return value == null ? null : new DatePrototype(evaluator, value.getTime());
+        }
+
+        @Override
+        void writeJson(ResultSet resultSet, int column, Writer writer) throws SQLException, IOException {
+            Timestamp value = resultSet.getTimestamp(column);
+            if (value == null) {
+                writer.write("null");
+                return;
+            }
+            if (isoFormat == null) {
+                isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+                isoFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            }
+            writeString(writer, isoFormat.format(value));
+        }
+    }
+
+    private static final ColumnReader OBJECT = new ColumnReader() {
+        @Override
+        ESValue read(ResultSet resultSet, int column, Evaluator evaluator) throws SQLException,
+                EcmaScriptException {
+            Object value = resultSet.getObject(column);
+            return value == null ? null : ESLoader.normalizeValue(value, evaluator);
+        }
+
+        @Override
+        void writeJson(ResultSet resultSet, int column, Writer writer) throws SQLException, IOException {
+            Object value = resultSet.getObject(column);
+            if (value == null) {
+                writer.write("null");
+            } else if (value instanceof Number) {
+                double d = ((Number) value).doubleValue();
+                writer.write(Double.isNaN(d) || Double.isInfinite(d) ? "null" : ESNumber.valueOf(d).toString());
+            } else if (value instanceof Boolean) {
+                writer.write(value.toString());
+            } else {
+                writeString(writer, value.toString());
+            }
+        }
+    };
+}
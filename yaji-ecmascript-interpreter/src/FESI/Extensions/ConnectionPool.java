@@ -0,0 +1,488 @@
+package FESI.Extensions;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The connections to a database for a user, shared by the Database objects of
+ * all evaluators. A connection is borrowed by connect and given back by
+ * disconnect, so that short scripts do not pay for opening a connection.
+ * <P>
+ * At most maxSize connections are open, a borrower waiting at most maxWait
+ * milliseconds for one to be given back. An idle connection is validated
+ * before being lent again, and closed once idle for idleTimeout milliseconds.
+ * <P>
+ * The state of the pool is guarded by a lock rather than a monitor, so that
+ * a borrower waiting for a connection on a virtual thread does not pin its
+ * carrier thread. Connections are opened, validated and closed outside the
+ * lock.
+ */
+class ConnectionPool {
+
+    static final int DEFAULT_MAX_SIZE = 8;
+    static final long DEFAULT_MAX_WAIT = 30000;
+    static final long DEFAULT_IDLE_TIMEOUT = 300000;
+    // In seconds, as expected by Connection.isValid
+    static final int VALIDATION_TIMEOUT = 5;
+
+    private static final Map<String, ConnectionPool> pools = new HashMap<String, ConnectionPool>();
+
+    private final String url;
+    private final String userName;
+    private final String password;
+    private final ReentrantLock lock = new ReentrantLock();
+    // Signalled when a connection is given back or the limits change
+    private final Condition available = lock.newCondition();
+    // The most recently given back first
+    private final ArrayDeque<IdleConnection> idle = new ArrayDeque<IdleConnection>();
+    // The connections open or being opened, lent or idle
+    private int size = 0;
+    private int maxSize = DEFAULT_MAX_SIZE;
+    private long maxWait = DEFAULT_MAX_WAIT;
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private boolean closed = false;
+
+    private long borrowCount = 0;
+    private long createdCount = 0;
+    private long closedCount = 0;
+    private long waitCount = 0;
+    private long waitNanos = 0;
+    private long maxWaitNanos = 0;
+    private long timeoutCount = 0;
+
+    private static class IdleConnection {
+        final Connection connection;
+        final long since;
+
+        IdleConnection(Connection connection, long since) {
+            this.connection = connection;
+            this.since = since;
+        }
+    }
+
+    private ConnectionPool(String url, String userName, String password) {
+        this.url = url;
+        this.userName = userName;
+        this.password = password;
+    }
+
+    /**
+     * @return the pool of the connections to a database for a user, created
+     *         if needed
+     */
+    static ConnectionPool forUrl(String url, String userName, String password) {
+        // The password is part of the key, so that a connection is only lent
+        // to those who could have opened it
+        String key = url + '\u0000' + userName + '\u0000' + password;
+        synchronized (pools) {
+            ConnectionPool pool = pools.get(key);
+            if (pool == null) {
+                pool = new ConnectionPool(url, userName, password);
+                pools.put(key, pool);
+            }
+            return pool;
+        }
+    }
+
+    /**
+     * Close the idle connections of all pools, and the lent connections when
+     * they are given back
+     */
+    static void closeAll() {
+        List<ConnectionPool> closing;
+        synchronized (pools) {
+            closing = new ArrayList<ConnectionPool>(pools.values());
+            pools.clear();
+        }
+        for (ConnectionPool pool : closing) {
+            pool.close();
+        }
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    /**
+     * Lend an idle connection if a valid one is available, or open one if
+     * fewer than maxSize are open, or else wait for one to be given back
+     *
+     * @throws SQLException
+     *             if a connection cannot be opened, or none was given back
+     *             within maxWait milliseconds
+     */
+    Connection borrow() throws SQLException {
+        long start = System.nanoTime();
+        boolean waited = false;
+        while (true) {
+            IdleConnection candidate = null;
+            List<Connection> evicted;
+            SQLException failure = null;
+            lock.lock();
+            try {
+                evicted = evictIdle(System.currentTimeMillis());
+                while (!closed && failure == null && idle.isEmpty() && size >= maxSize) {
+                    long remaining = TimeUnit.MILLISECONDS.toNanos(maxWait) - (System.nanoTime() - start);
+                    if (remaining <= 0) {
+                        timeoutCount++;
+                        waited(start);
+                        failure = new SQLException("Timed out after " + maxWait
+                                + " ms waiting for a connection to " + url);
+                        break;
+                    }
+                    waited = true;
+                    try {
+                        available.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        failure = new SQLException("Interrupted waiting for a connection to " + url, e);
+                    }
+                }
+                if (failure == null && closed) {
+                    failure = new SQLException("Connection pool of " + url + " closed");
+                }
+                if (failure == null) {
+                    candidate = idle.pollFirst();
+                    if (candidate == null) {
+                        // Reserved while it is opened outside the lock
+                        size++;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            closeQuietly(evicted);
+            if (failure != null) {
+                throw failure;
+            }
+            if (candidate == null) {
+                Connection connection;
+                try {
+                    connection = open();
+                } catch (SQLException e) {
+                    discarded(false);
+                    throw e;
+                }
+                lent(start, waited, true);
+                return connection;
+            }
+            if (isValid(candidate.connection)) {
+                lent(start, waited, false);
+                return candidate.connection;
+            }
+            closeQuietly(candidate.connection);
+            discarded(true);
+        }
+    }
+
+    /**
+     * Take back a connection which is no longer used, rolling back its
+     * pending transaction. It is closed if the pool is closed or it cannot be
+     * reset.
+     */
+    void giveBack(Connection connection) {
+        boolean reusable;
+        try {
+            reusable = !connection.isClosed();
+            if (reusable && !connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+        List<Connection> evicted;
+        lock.lock();
+        try {
+            if (!reusable || closed) {
+                evicted = new ArrayList<Connection>(1);
+                evicted.add(connection);
+                size--;
+                closedCount++;
+            } else {
+                long now = System.currentTimeMillis();
+                idle.addFirst(new IdleConnection(connection, now));
+                evicted = evictIdle(now);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        closeQuietly(evicted);
+    }
+
+    /**
+     * Change the limits of the pool, closing the idle connections in excess
+     *
+     * @param maxSize
+     *            the maximum number of connections open
+     * @param maxWait
+     *            the maximum time to wait for a connection, in milliseconds
+     * @param idleTimeout
+     *            the time after which an idle connection is closed, in
+     *            milliseconds
+     */
+    void setLimits(int maxSize, long maxWait, long idleTimeout) {
+        List<Connection> evicted;
+        lock.lock();
+        try {
+            this.maxSize = maxSize;
+            this.maxWait = maxWait;
+            this.idleTimeout = idleTimeout;
+            evicted = evictIdle(System.currentTimeMillis());
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        closeQuietly(evicted);
+    }
+
+    int getMaxSize() {
+        lock.lock();
+        try {
+            return maxSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getMaxWait() {
+        lock.lock();
+        try {
+            return maxWait;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getIdleTimeout() {
+        lock.lock();
+        try {
+            return idleTimeout;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of connections lent
+     */
+    int getActiveCount() {
+        lock.lock();
+        try {
+            return size - idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getIdleCount() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getBorrowCount() {
+        lock.lock();
+        try {
+            return borrowCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getCreatedCount() {
+        lock.lock();
+        try {
+            return createdCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of connections closed as invalid, idle for too long
+     *         or in excess
+     */
+    long getClosedCount() {
+        lock.lock();
+        try {
+            return closedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of borrowers which had to wait for a connection,
+     *         including those which timed out
+     */
+    long getWaitCount() {
+        lock.lock();
+        try {
+            return waitCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the total time spent waiting for a connection, in milliseconds
+     */
+    double getWaitTime() {
+        lock.lock();
+        try {
+            return waitNanos / 1e6;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the longest time spent waiting for a connection, in
+     *         milliseconds
+     */
+    double getMaxWaitTime() {
+        lock.lock();
+        try {
+            return maxWaitNanos / 1e6;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getTimeoutCount() {
+        lock.lock();
+        try {
+            return timeoutCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Connection open() throws SQLException {
+        if (userName == null) {
+            return DriverManager.getConnection(url);
+        }
+        return DriverManager.getConnection(url, userName, password);
+    }
+
+    private static boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT);
+        } catch (SQLException e) {
+            return false;
+        } catch (AbstractMethodError e) {
+            // A JDBC 3 driver, only checked when used
+            return true;
+        }
+    }
+
+    private void lent(long start, boolean waited, boolean created) {
+        lock.lock();
+        try {
+            borrowCount++;
+            if (created) {
+                createdCount++;
+            }
+            if (waited) {
+                waited(start);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with the lock held
+    private void waited(long start) {
+        long nanos = System.nanoTime() - start;
+        waitCount++;
+        waitNanos += nanos;
+        maxWaitNanos = Math.max(maxWaitNanos, nanos);
+    }
+
+    private void discarded(boolean opened) {
+        lock.lock();
+        try {
+            size--;
+            if (opened) {
+                closedCount++;
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the connections idle for too long, oldest last, and those in
+     * excess of maxSize, with the lock held
+     *
+     * @return the connections to close outside the lock
+     */
+    private List<Connection> evictIdle(long now) {
+        List<Connection> evicted = null;
+        Iterator<IdleConnection> oldestFirst = idle.descendingIterator();
+        while (oldestFirst.hasNext()) {
+            IdleConnection candidate = oldestFirst.next();
+            if (size <= maxSize && now - candidate.since < idleTimeout) {
+                break;
+            }
+            oldestFirst.remove();
+            size--;
+            closedCount++;
+            if (evicted == null) {
+                evicted = new ArrayList<Connection>();
+            }
+            evicted.add(candidate.connection);
+        }
+        return evicted;
+    }
+
+    private void close() {
+        List<Connection> evicted = new ArrayList<Connection>();
+        lock.lock();
+        try {
+            closed = true;
+            for (IdleConnection candidate : idle) {
+                evicted.add(candidate.connection);
+            }
+            size -= idle.size();
+            closedCount += idle.size();
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        closeQuietly(evicted);
+    }
+
+    private static void closeQuietly(List<Connection> connections) {
+        if (connections != null) {
+            for (Connection connection : connections) {
+                closeQuietly(connection);
+            }
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // ignored
+        }
+    }
+}
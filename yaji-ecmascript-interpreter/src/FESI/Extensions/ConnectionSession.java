@@ -0,0 +1,123 @@
+package FESI.Extensions;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The use of a connection borrowed from its pool by a Database object, from
+ * connect to disconnect: the cache of its prepared statements, and the row
+ * sets and batches holding statements or result sets of the connection.
+ * <P>
+ * When the connection is given back these are closed, so that a row set or
+ * batch left open by the script cannot use the connection once it is lent
+ * to another borrower.
+ * <P>
+ * The operations on the connection, run by the evaluator thread or by the
+ * I/O executor of its event loop, are serialized by the lock of the
+ * session. Closing the session waits for the operation in progress. The
+ * resources are only registered by the evaluator thread.
+ */
+class ConnectionSession {
+
+    /**
+     * An object holding statements or result sets of the connection
+     */
+    interface Resource {
+        /**
+         * Close the statements and result sets, the connection being given
+         * back to its pool
+         */
+        void invalidate();
+    }
+
+    private final Connection connection;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final StatementCache statementCache;
+    private final Set<Resource> resources = Collections
+            .newSetFromMap(new IdentityHashMap<Resource, Boolean>());
+    // Written by the evaluator thread with the lock held
+    private volatile boolean closed = false;
+
+    ConnectionSession(Connection connection, int statementCacheSize) {
+        this.connection = connection;
+        this.statementCache = new StatementCache(connection, statementCacheSize);
+    }
+
+    /**
+     * Lock the session for an operation on the connection, until
+     * {@link #unlock()}
+     *
+     * @return the connection
+     * @throws SQLException
+     *             if the session is closed
+     */
+    Connection lock() throws SQLException {
+        lock.lock();
+        if (closed) {
+            lock.unlock();
+            throw new SQLException("Database disconnected");
+        }
+        return connection;
+    }
+
+    void unlock() {
+        lock.unlock();
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Track a resource until it is unregistered, invalidating it at once if
+     * the session is already closed
+     */
+    void register(Resource resource) {
+        if (closed) {
+            resource.invalidate();
+        } else {
+            resources.add(resource);
+        }
+    }
+
+    void unregister(Resource resource) {
+        resources.remove(resource);
+    }
+
+    /**
+     * Invalidate the resources still registered and close the statement
+     * cache, before the connection is given back, once the operation in
+     * progress ends
+     */
+    void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            List<Resource> open = new ArrayList<Resource>(resources);
+            resources.clear();
+            for (Resource resource : open) {
+                resource.invalidate();
+            }
+            statementCache.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -17,19 +17,32 @@
 
 package FESI.Extensions;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.Driver;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.Enumeration;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+
+import org.yaji.buffer.Buffers;
+import org.yaji.event.EventLoop;
+import org.yaji.json.JsonUtil;
 
 import FESI.Data.BuiltinFunctionObject;
+import FESI.Data.DatePrototype;
 import FESI.Data.ESBoolean;
 import FESI.Data.ESLoader;
 import FESI.Data.ESNull;
@@ -41,8 +54,11 @@ import FESI.Data.ESValue;
 import FESI.Data.ESWrapper;
 import FESI.Data.FunctionPrototype;
 import FESI.Data.GlobalObject;
+import FESI.Data.ObjectObject;
 import FESI.Data.ObjectPrototype;
 import FESI.Exceptions.EcmaScriptException;
+import FESI.Exceptions.RangeError;
+import FESI.Exceptions.TypeError;
 import FESI.Interpreter.Evaluator;
 import FESI.Interpreter.LocalClassLoader;
 
@@ -51,13 +67,18 @@ import FESI.Interpreter.LocalClassLoader;
  */
 class ESDatabase extends ESObject {
     private static final long serialVersionUID = 3834507683804498054L;
-    private transient Connection connection = null; // Null if not connected
+    // The use of the connection borrowed, null if not connected
+    private transient ConnectionSession session = null;
     private transient DatabaseMetaData databaseMetaData = null;
     private transient String driverName = null;
     private transient ClassLoader driverLoader = null;
     private Exception lastError = null;
     private transient ESObject esRowSetPrototype = null;
+    private transient ESObject esPreparedStatementPrototype = null;
     private transient boolean driverOK = false;
+    private int statementCacheSize = StatementCache.DEFAULT_SIZE;
+    // The pool the connection is borrowed from
+    private transient ConnectionPool connectionPool = null;
 
     /**
      * Create a new database object based on a driver name, with driver on the
@@ -69,15 +90,19 @@ class ESDatabase extends ESObject {
      *            The current evaluator
      * @param esRowSetPrototype
      *            The prototype to use to create row set
+     * @param esPreparedStatementPrototype
+     *            The prototype to use to create prepared statements
      * @param driverName
      *            The class name of the JDBC driver
      */
 
     ESDatabase(ESObject prototype, Evaluator evaluator,
-            ESObject esRowSetPrototype, String driverName) {
+            ESObject esRowSetPrototype,
+            ESObject esPreparedStatementPrototype, String driverName) {
         super(prototype, evaluator);
         this.driverName = driverName;
         this.esRowSetPrototype = esRowSetPrototype; // specific to an evaluator
+        this.esPreparedStatementPrototype = esPreparedStatementPrototype;
         try {
             Class<?> driverClass = Class.forName(driverName);
             if (!Driver.class.isAssignableFrom(driverClass)) {
@@ -113,16 +138,21 @@ class ESDatabase extends ESObject {
      *            The current evaluator
      * @param esRowSetPrototype
      *            The prototype to use to create row set
+     * @param esPreparedStatementPrototype
+     *            The prototype to use to create prepared statements
      * @param driverName
      *            The class name of the JDBC driver
      * @param pathName
      *            The path to the classes of the JDBC driver
      */
     ESDatabase(ESObject prototype, Evaluator evaluator,
-            ESObject esRowSetPrototype, String driverName, String pathName) {
+            ESObject esRowSetPrototype,
+            ESObject esPreparedStatementPrototype, String driverName,
+            String pathName) {
         super(prototype, evaluator);
         this.driverName = driverName;
         this.esRowSetPrototype = esRowSetPrototype;
+        this.esPreparedStatementPrototype = esPreparedStatementPrototype;
         try {
             this.driverLoader = LocalClassLoader.makeLocalClassLoader(pathName);
         } catch (EcmaScriptException e) {
@@ -184,7 +214,7 @@ class ESDatabase extends ESObject {
             return "[database protoype]";
         return "[Database: '"
                 + driverName
-                + (driverOK ? (connection == null ? "' - disconnected] "
+                + (driverOK ? (session == null ? "' - disconnected] "
                         : " - connected]") : " - in error]");
     }
 
@@ -203,7 +233,8 @@ class ESDatabase extends ESObject {
 
     /**
      * Connect to the database, using the specific url, optional user name and
-     * password
+     * password. The connection is borrowed from the pool shared by all
+     * evaluators for the url and user.
      * 
      * @param arguments
      *            The argument list
@@ -220,24 +251,29 @@ class ESDatabase extends ESObject {
                 : null;
         String password = (arguments.length > 2) ? arguments[2].toString()
                 : null;
+        if (session != null) {
+            disconnect();
+        }
+        Connection connection;
         try {
-            if (userName == null) {
-                connection = DriverManager.getConnection(url);
-            } else {
-                connection = DriverManager.getConnection(url, userName,
-                        password);
-            }
+            ConnectionPool pool = ConnectionPool.forUrl(url, userName,
+                    password);
+            connection = pool.borrow();
+            connectionPool = pool;
         } catch (Exception e) {
             // System.err.println("##Cannot connect: " + e);
             // e.printStackTrace();
             lastError = e;
             return ESBoolean.valueOf(false);
         }
+        session = new ConnectionSession(connection, statementCacheSize);
         return ESBoolean.valueOf(true);
     }
 
     /**
-     * Disconnect from the database, nop if not conected
+     * Disconnect from the database, nop if not conected. The connection is
+     * given back to its pool, its pending transaction rolled back, once the
+     * row sets and batches still open on it are closed.
      * 
      * @return true if successful, false if error during idsconnect
      */
@@ -247,17 +283,12 @@ class ESDatabase extends ESObject {
                     "Driver not initialized properly - cannot disconnect");
         }
         lastError = null;
-        if (connection != null) {
-            try {
-                connection.close();
-                connection = null;
-                lastError = null;
-            } catch (SQLException e) {
-                // System.err.println("##Cannot disonnect: " + e);
-                // e.printStackTrace();
-                lastError = e;
-                return ESBoolean.valueOf(false);
-            }
+        if (session != null) {
+            session.close();
+            connectionPool.giveBack(session.getConnection());
+            session = null;
+            connectionPool = null;
+            databaseMetaData = null;
         }
         return ESBoolean.valueOf(true);
     }
@@ -276,17 +307,25 @@ class ESDatabase extends ESObject {
     ESValue executeRetrieval(ESValue arguments[]) throws EcmaScriptException {
         String sql = (arguments.length > 0) ? arguments[0].toString() : null;
 
-        if (connection == null) {
+        if (session == null) {
             throw new EcmaScriptException("JDBC driver not connected");
         }
+        if (arguments.length > 1) {
+            return executePreparedRetrieval(sql, arguments, 1);
+        }
         Statement statement = null;
         ResultSet resultSet = null;
 
         try {
-            statement = connection.createStatement();
-            resultSet = statement.executeQuery(sql); // will return true if
-                                                     // first result is a result
-                                                     // set
+            Connection connection = session.lock();
+            try {
+                statement = connection.createStatement();
+                resultSet = statement.executeQuery(sql); // will return true if
+                                                         // first result is a
+                                                         // result set
+            } finally {
+                session.unlock();
+            }
         } catch (SQLException e) {
             // System.err.println("##Cannot retrieve: " + e);
             // e.printStackTrace();
@@ -301,7 +340,7 @@ class ESDatabase extends ESObject {
             return ESBoolean.valueOf(false);
         }
         ESRowSet rowSet = new ESRowSet(esRowSetPrototype, getEvaluator(), sql,
-                this, statement, resultSet);
+                session, statement, resultSet, false);
         return rowSet;
         // return ESBoolean.makeBoolean(true);
     }
@@ -310,16 +349,24 @@ class ESDatabase extends ESObject {
         String sql = (arguments.length > 0) ? arguments[0].toString() : null;
         int count = 0;
 
-        if (connection == null) {
+        if (session == null) {
             throw new EcmaScriptException("JDBC driver not connected");
         }
+        if (arguments.length > 1) {
+            return executePreparedCommand(sql, arguments, 1);
+        }
 
         Statement statement = null;
         try {
-
-            statement = connection.createStatement();
-            count = statement.executeUpdate(sql); // will return true if first
-                                                  // result is a result set
+            Connection connection = session.lock();
+            try {
+                statement = connection.createStatement();
+                count = statement.executeUpdate(sql); // will return true if
+                                                      // first result is a
+                                                      // result set
+            } finally {
+                session.unlock();
+            }
         } catch (SQLException e) {
             // System.err.println("##Cannot retrieve: " + e);
             // e.printStackTrace();
@@ -342,10 +389,407 @@ class ESDatabase extends ESObject {
         // return ESBoolean.makeBoolean(true);
     }
 
+    /**
+     * Prepare a statement, which is kept in the statement cache of the
+     * connection
+     * 
+     * @param sql
+     *            the SQL text, with ? for the parameters
+     * @param parameterNames
+     *            the names of the parameters, to take their values from the
+     *            properties of a row object, or null
+     * @return the prepared statement object, or false if the statement
+     *         cannot be prepared
+     */
+    ESValue prepare(String sql, String[] parameterNames)
+            throws EcmaScriptException {
+        if (session == null) {
+            throw new EcmaScriptException("JDBC driver not connected");
+        }
+        lastError = null;
+        try {
+            StatementCache cache = session.getStatementCache();
+            session.lock();
+            try {
+                cache.offer(sql, cache.take(sql));
+            } finally {
+                session.unlock();
+            }
+        } catch (SQLException e) {
+            lastError = e;
+            return ESBoolean.valueOf(false);
+        }
+        return new ESPreparedStatement(esPreparedStatementPrototype,
+                getEvaluator(), this, sql, parameterNames);
+    }
+
+    /**
+     * Prepare an insert statement into some columns of a table, whose rows
+     * can be given as objects with a property per column. The names are
+     * used as they are in the SQL text.
+     * 
+     * @return the prepared statement object, or false if the statement
+     *         cannot be prepared
+     */
+    ESValue prepareInsert(String table, String[] columns)
+            throws EcmaScriptException {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table)
+                .append(" (");
+        StringBuilder values = new StringBuilder(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(", ");
+                values.append(", ");
+            }
+            sql.append(columns[i]);
+            values.append('?');
+        }
+        return prepare(sql.append(values).append(')').toString(), columns);
+    }
+
+    /**
+     * Set the auto-commit mode of the connection, when disabled the
+     * statements are grouped in a transaction ended by commit or rollback
+     * 
+     * @return true if successful, false otherwise
+     */
+    ESValue setAutoCommit(boolean autoCommit) throws EcmaScriptException {
+        if (session == null) {
+            throw new EcmaScriptException("JDBC driver not connected");
+        }
+        try {
+            Connection connection = session.lock();
+            try {
+                connection.setAutoCommit(autoCommit);
+            } finally {
+                session.unlock();
+            }
+        } catch (SQLException e) {
+            lastError = e;
+            return ESBoolean.valueOf(false);
+        }
+        return ESBoolean.valueOf(true);
+    }
+
+    ESValue getAutoCommit() throws EcmaScriptException {
+        if (session == null) {
+            throw new EcmaScriptException("JDBC driver not connected");
+        }
+        try {
+            Connection connection = session.lock();
+            try {
+                return ESBoolean.valueOf(connection.getAutoCommit());
+            } finally {
+                session.unlock();
+            }
+        } catch (SQLException e) {
+            lastError = e;
+            return ESUndefined.theUndefined;
+        }
+    }
+
+    /**
+     * Commit or roll back the current transaction
+     * 
+     * @return true if successful, false otherwise
+     */
+    ESValue endTransaction(boolean commit) throws EcmaScriptException {
+        if (session == null) {
+            throw new EcmaScriptException("JDBC driver not connected");
+        }
+        try {
+            Connection connection = session.lock();
+            try {
+                if (commit) {
+                    connection.commit();
+                } else {
+                    connection.rollback();
+                }
+            } finally {
+                session.unlock();
+            }
+        } catch (SQLException e) {
+            lastError = e;
+            return ESBoolean.valueOf(false);
+        }
+        return ESBoolean.valueOf(true);
+    }
+
+    void setLastError(Exception e) {
+        lastError = e;
+    }
+
+    /**
+     * Run a query with a cached prepared statement, which returns to the
+     * cache when the row set is released
+     * 
+     * @param arguments
+     *            the values of the parameters, from the first index
+     * @return the row set, or false on error
+     */
+    ESValue executePreparedRetrieval(String sql, ESValue arguments[],
+            int first) throws EcmaScriptException {
+        if (session == null) {
+            throw new EcmaScriptException("JDBC driver not connected");
+        }
+        StatementCache cache = session.getStatementCache();
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+        try {
+            session.lock();
+            try {
+                statement = cache.take(sql);
+                ESPreparedStatement.bind(statement, arguments, first);
+                resultSet = statement.executeQuery();
+            } finally {
+                session.unlock();
+            }
+        } catch (SQLException e) {
+            lastError = e;
+            if (statement != null) {
+                cache.offer(sql, statement);
+            }
+            return ESBoolean.valueOf(false);
+        } catch (EcmaScriptException e) {
+            cache.offer(sql, statement);
+            throw e;
+        }
+        return new ESRowSet(esRowSetPrototype, getEvaluator(), sql, session,
+                statement, resultSet, true);
+    }
+
+    /**
+     * Run an update with a cached prepared statement
+     * 
+     * @param arguments
+     *            the values of the parameters, from the first index
+     * @return the update count, or false on error
+     */
+    ESValue executePreparedCommand(String sql, ESValue arguments[], int first)
+            throws EcmaScriptException {
+        if (session == null) {
+            throw new EcmaScriptException("JDBC driver not connected");
+        }
+        StatementCache cache = session.getStatementCache();
+        PreparedStatement statement = null;
+        try {
+            session.lock();
+            try {
+                statement = cache.take(sql);
+                ESPreparedStatement.bind(statement, arguments, first);
+                return ESNumber.valueOf(statement.executeUpdate());
+            } finally {
+                session.unlock();
+            }
+        } catch (SQLException e) {
+            lastError = e;
+            return ESBoolean.valueOf(false);
+        } finally {
+            if (statement != null) {
+                cache.offer(sql, statement);
+            }
+        }
+    }
+
+    /**
+     * Set the number of idle prepared statements kept by the connection,
+     * 0 to close them after each use
+     */
+    void setStatementCacheSize(int size) throws EcmaScriptException {
+        if (size < 0) {
+            throw new RangeError("Invalid statement cache size " + size);
+        }
+        statementCacheSize = size;
+        if (session != null) {
+            session.getStatementCache().setMaxSize(size);
+        }
+    }
+
+    /**
+     * Change the limits of the pool of the connection
+     * 
+     * @param options
+     *            an object with optional properties maxSize, maxWait and
+     *            idleTimeout, the times in milliseconds
+     */
+    void setPoolOptions(ESValue options) throws EcmaScriptException {
+        ConnectionPool pool = connectionPool;
+        if (pool == null) {
+            throw new EcmaScriptException("JDBC driver not connected");
+        }
+        if (!(options instanceof ESObject)) {
+            throw new TypeError("Pool options must be an object, not "
+                    + options);
+        }
+        ESObject object = (ESObject) options;
+        int maxSize = (int) poolOption(object, "maxSize", pool.getMaxSize());
+        long maxWait = poolOption(object, "maxWait", pool.getMaxWait());
+        long idleTimeout = poolOption(object, "idleTimeout",
+                pool.getIdleTimeout());
+        if (maxSize < 1) {
+            throw new RangeError("Invalid pool size " + maxSize);
+        }
+        if (maxWait < 0 || idleTimeout < 0) {
+            throw new RangeError("Invalid pool time " + Math.min(maxWait, idleTimeout));
+        }
+        pool.setLimits(maxSize, maxWait, idleTimeout);
+    }
+
+    private static long poolOption(ESObject options, String name,
+            long defaultValue) throws EcmaScriptException {
+        ESValue value = options.getPropertyIfAvailable(name, name.hashCode());
+        if (value == null || value == ESUndefined.theUndefined) {
+            return defaultValue;
+        }
+        return (long) value.doubleValue();
+    }
+
+    /**
+     * @return the limits and usage of the pool of the connection
+     */
+    ESValue getPoolStatistics() throws EcmaScriptException {
+        ConnectionPool pool = connectionPool;
+        if (pool == null) {
+            throw new EcmaScriptException("JDBC driver not connected");
+        }
+        ESObject statistics = ObjectObject.createObject(getEvaluator());
+        putNumber(statistics, "maxSize", pool.getMaxSize());
+        putNumber(statistics, "maxWait", pool.getMaxWait());
+        putNumber(statistics, "idleTimeout", pool.getIdleTimeout());
+        putNumber(statistics, "active", pool.getActiveCount());
+        putNumber(statistics, "idle", pool.getIdleCount());
+        putNumber(statistics, "borrowed", pool.getBorrowCount());
+        putNumber(statistics, "created", pool.getCreatedCount());
+        putNumber(statistics, "closed", pool.getClosedCount());
+        putNumber(statistics, "waited", pool.getWaitCount());
+        putNumber(statistics, "waitTime", pool.getWaitTime());
+        putNumber(statistics, "maxWaitTime", pool.getMaxWaitTime());
+        putNumber(statistics, "timeouts", pool.getTimeoutCount());
+        return statistics;
+    }
+
+    private static void putNumber(ESObject object, String name, double value)
+            throws EcmaScriptException {
+        object.putProperty(name, ESNumber.valueOf(value), name.hashCode());
+    }
+
+    /**
+     * @return the use of the connection, null if not connected
+     */
+    ConnectionSession getSession() {
+        return session;
+    }
+
+    /**
+     * Run a query on the I/O executor of the event loop. The operations on a
+     * connection are serialized by the lock of its session. The result set
+     * is closed if the loop is cancelled or the database disconnected before
+     * the completion is fulfilled.
+     * 
+     * @return a completion fulfilled with the row set, or rejected with the
+     *         SQL error
+     */
+    ESValue executeRetrievalAsync(ESValue arguments[])
+            throws EcmaScriptException {
+        final String sql = (arguments.length > 0) ? arguments[0].toString()
+                : null;
+        final ConnectionSession target = session;
+        if (target == null) {
+            throw new EcmaScriptException("JDBC driver not connected");
+        }
+        return getEvaluator().getEventLoop().execute(
+                new Callable<ResultSet>() {
+                    public ResultSet call() throws SQLException {
+                        Connection connection = target.lock();
+                        try {
+                            Statement statement = connection.createStatement();
+                            try {
+                                return statement.executeQuery(sql);
+                            } catch (SQLException e) {
+                                statement.close();
+                                throw e;
+                            }
+                        } finally {
+                            target.unlock();
+                        }
+                    }
+                }, new EventLoop.ResultConverter<ResultSet>() {
+                    public ESValue toESValue(ResultSet resultSet)
+                            throws EcmaScriptException {
+                        if (target.isClosed()) {
+                            discard(resultSet);
+                            throw new EcmaScriptException("Database disconnected");
+                        }
+                        try {
+                            return new ESRowSet(esRowSetPrototype,
+                                    getEvaluator(), sql, target,
+                                    resultSet.getStatement(), resultSet, false);
+                        } catch (SQLException e) {
+                            discard(resultSet);
+                            throw new EcmaScriptException(e.toString(), e);
+                        }
+                    }
+
+                    @Override
+                    public void discard(ResultSet resultSet) {
+                        try {
+                            Statement statement = resultSet.getStatement();
+                            resultSet.close();
+                            if (statement != null) {
+                                statement.close();
+                            }
+                        } catch (SQLException e) {
+                            // ignored
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Run an update on the I/O executor of the event loop. The operations on
+     * a connection are serialized by the lock of its session.
+     * 
+     * @return a completion fulfilled with the update count, or rejected with
+     *         the SQL error
+     */
+    ESValue executeCommandAsync(ESValue arguments[])
+            throws EcmaScriptException {
+        final String sql = (arguments.length > 0) ? arguments[0].toString()
+                : null;
+        final ConnectionSession target = session;
+        if (target == null) {
+            throw new EcmaScriptException("JDBC driver not connected");
+        }
+        return getEvaluator().getEventLoop().execute(new Callable<Integer>() {
+            public Integer call() throws SQLException {
+                Connection connection = target.lock();
+                try {
+                    Statement statement = connection.createStatement();
+                    try {
+                        return Integer.valueOf(statement.executeUpdate(sql));
+                    } finally {
+                        statement.close();
+                    }
+                } finally {
+                    target.unlock();
+                }
+            }
+        }, new EventLoop.ResultConverter<Integer>() {
+            public ESValue toESValue(Integer count) {
+                return ESNumber.valueOf(count.intValue());
+            }
+        });
+    }
+
     public Object getMetaData() {
-        if (databaseMetaData == null)
+        if (databaseMetaData == null && session != null)
             try {
-                databaseMetaData = connection.getMetaData();
+                Connection connection = session.lock();
+                try {
+                    databaseMetaData = connection.getMetaData();
+                } finally {
+                    session.unlock();
+                }
             } catch (SQLException e) {
                 // ignored
             }
@@ -356,7 +800,7 @@ class ESDatabase extends ESObject {
 /**
  * A RowSet object
  */
-class ESRowSet extends ESObject {
+class ESRowSet extends ESObject implements ConnectionSession.Resource {
     private static final long serialVersionUID = 7043284303624735346L;
     private transient String sql = null;
     private transient Statement statement = null;
@@ -366,10 +810,24 @@ class ESRowSet extends ESObject {
     private transient boolean lastRowSeen = false;
     private transient boolean firstRowSeen = false;
     private transient Exception lastError = null;
+    // The use of the connection the result set is read from
+    private transient ConnectionSession session = null;
+    // Where the prepared statement returns on release, null if not cached
+    private transient StatementCache statementCache = null;
+    // Resolved by the first bulk read
+    private transient ColumnReader[] columnReaders = null;
+    private transient int[] colHashes = null;
+    static final int DEFAULT_FETCH_SIZE = 1000;
 
+    /**
+     * @param cached
+     *            true if the statement is a prepared statement taken from
+     *            the statement cache of the session, and returns to it on
+     *            release
+     */
     ESRowSet(ESObject prototype, Evaluator evaluator, String sql,
-            ESDatabase database, Statement statement, ResultSet resultSet)
-            throws EcmaScriptException {
+            ConnectionSession session, Statement statement,
+            ResultSet resultSet, boolean cached) throws EcmaScriptException {
         super(prototype, evaluator);
         this.sql = sql;
         this.statement = statement;
@@ -381,8 +839,11 @@ class ESRowSet extends ESObject {
             throw new NullPointerException("resultSet");
         if (statement == null)
             throw new NullPointerException("statement");
-        if (database == null)
-            throw new NullPointerException("database");
+        if (session == null)
+            throw new NullPointerException("session");
+        this.session = session;
+        this.statementCache = cached ? session.getStatementCache() : null;
+        session.register(this);
 
         try {
 
@@ -432,11 +893,21 @@ class ESRowSet extends ESObject {
     }
 
     ESValue release() {
+        if (session != null) {
+            session.unregister(this);
+        }
         try {
-            if (statement != null)
-                statement.close();
-            if (resultSet != null)
-                resultSet.close();
+            if (statementCache != null) {
+                if (resultSet != null)
+                    resultSet.close();
+                if (statement != null)
+                    statementCache.offer(sql, (PreparedStatement) statement);
+            } else {
+                if (statement != null)
+                    statement.close();
+                if (resultSet != null)
+                    resultSet.close();
+            }
         } catch (SQLException e) {
             // ignored
         }
@@ -446,6 +917,15 @@ class ESRowSet extends ESObject {
         return ESUndefined.theUndefined;
     }
 
+    /**
+     * Close the result set and its statement, the connection being given
+     * back to its pool: the row set is then released
+     */
+    public void invalidate() {
+        statementCache = null;
+        release();
+    }
+
     public boolean hasMoreRows() {
         return !lastRowSeen; // Simplistic implementation
     }
@@ -548,14 +1028,22 @@ class ESRowSet extends ESObject {
         // First return system or or prototype properties
         if (propertyName.equals("length")) {
             return ESNumber.valueOf(colNames.size());
-        } else if (super.hasProperty(propertyName, hash)) {
-            return super.getProperty(propertyName, hash);
+        }
+        // hasProperty would call this method again
+        ESValue property = super.getPropertyIfAvailable(propertyName, hash);
+        if (property != null) {
+            return property;
         } else {
             if (resultSet == null) {
                 throw new EcmaScriptException(
                         "Attempt to access a released result set");
             }
             if (!firstRowSeen) {
+                // As "then", looked up when a completion is resolved with
+                // the row set
+                if (!isColumnName(propertyName)) {
+                    return null;
+                }
                 throw new EcmaScriptException(
                         "Attempt to access data before the first row is read");
             }
@@ -589,6 +1077,18 @@ class ESRowSet extends ESObject {
         return ESUndefined.theUndefined;
     }
 
+    private boolean isColumnName(String propertyName) {
+        if (propertyName.length() > 0 && Character.isDigit(propertyName.charAt(0))) {
+            return true;
+        }
+        for (String colName : colNames) {
+            if (colName.equalsIgnoreCase(propertyName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public ESValue getPropertyIfAvailable(long index) throws EcmaScriptException {
         if (!firstRowSeen) {
@@ -722,7 +1222,12 @@ class ESRowSet extends ESObject {
                     "Attempt to access a released result set");
         }
         try {
-            status = resultSet.next();
+            session.lock();
+            try {
+                status = resultSet.next();
+            } finally {
+                session.unlock();
+            }
             lastError = null;
         } catch (SQLException e) {
             // System.err.println("##Cannot do next:" + e);
@@ -736,37 +1241,507 @@ class ESRowSet extends ESObject {
         return ESBoolean.valueOf(status);
     }
 
-    @Override
-    public String toString() {
-        return "[RowSet: '"
-                + sql
-                + "'"
-                + (resultSet == null ? " - released]"
-                        : (lastRowSeen ? " - at end]" : (firstRowSeen ? "]"
-                                : " - at start]")));
+    /**
+     * Set the number of rows fetched from the database at once
+     */
+    ESValue setFetchSize(int rows) throws EcmaScriptException {
+        checkReadable();
+        if (rows < 0) {
+            throw new RangeError("Invalid fetch size " + rows);
+        }
+        try {
+            session.lock();
+            try {
+                resultSet.setFetchSize(rows);
+            } finally {
+                session.unlock();
+            }
+        } catch (SQLException e) {
+            lastError = e;
+            return ESBoolean.valueOf(false);
+        }
+        return ESBoolean.valueOf(true);
     }
 
-}
-
-public class Database extends Extension {
-    private static final long serialVersionUID = 7948096908366103321L;
-    ESObject esDatabasePrototype = null;
-    ESObject esRowSetPrototype = null;
-
-    public Database() {
-        super();
+    /**
+     * Read the rest of the rows as an array of objects with a property per
+     * column
+     * 
+     * @return the array, or false on error
+     */
+    ESValue fetchAll() throws EcmaScriptException {
+        return fetchBatch(Integer.MAX_VALUE, DEFAULT_FETCH_SIZE);
     }
 
-    class GlobalObjectDatabase extends BuiltinFunctionObject {
-        private static final long serialVersionUID = 1476645330609136920L;
-
-        GlobalObjectDatabase(String name, Evaluator evaluator,
-                FunctionPrototype fp) throws EcmaScriptException {
-            super(fp, evaluator, name, 1);
-        }
+    /**
+     * Read the next rows as an array of objects with a property per column
+     * 
+     * @param maxRows
+     *            the maximum number of rows to read
+     * @return the array, empty after the last row, or false on error
+     */
+    ESValue fetchBatch(int maxRows) throws EcmaScriptException {
+        return fetchBatch(maxRows, maxRows);
+    }
 
-        @Override
-        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+    private ESValue fetchBatch(int maxRows, int fetchSize)
+            throws EcmaScriptException {
+        checkReadable();
+        Evaluator evaluator = getEvaluator();
+        ESObject rows = evaluator.createArray();
+        try {
+            session.lock();
+            try {
+                ColumnReader[] readers = prepareBulkRead(fetchSize);
+                int count = 0;
+                while (count < maxRows && nextRow()) {
+                    ESObject row = ObjectObject.createObject(evaluator);
+                    for (int i = 0; i < readers.length; i++) {
+                        ESValue value = readers[i].read(resultSet, i + 1,
+                                evaluator);
+                        row.putProperty(colNames.get(i), value == null
+                                ? ESNull.theNull : value, colHashes[i]);
+                    }
+                    rows.putProperty((long) count++, row);
+                }
+            } finally {
+                session.unlock();
+            }
+        } catch (SQLException e) {
+            lastError = e;
+            return ESBoolean.valueOf(false);
+        }
+        lastError = null;
+        return rows;
+    }
+
+    /**
+     * Write the rest of the rows as a JSON array of objects, one row per
+     * line, without building script objects
+     * 
+     * @return the number of rows written, or false on error
+     */
+    ESValue toJson(Writer writer) throws EcmaScriptException {
+        checkReadable();
+        long count = 0;
+        try {
+            session.lock();
+        } catch (SQLException e) {
+            lastError = e;
+            return ESBoolean.valueOf(false);
+        }
+        try {
+            ColumnReader[] readers = prepareBulkRead(DEFAULT_FETCH_SIZE);
+            String[] keys = new String[readers.length];
+            for (int i = 0; i < keys.length; i++) {
+                StringBuilder key = new StringBuilder(i == 0 ? "{" : ",");
+                key.append('"');
+                JsonUtil.escape(key, colNames.get(i));
+                keys[i] = key.append("\":").toString();
+            }
+            writer.write('[');
+            while (nextRow()) {
+                writer.write(count++ == 0 ? "\n" : ",\n");
+                for (int i = 0; i < readers.length; i++) {
+                    writer.write(keys[i]);
+                    readers[i].writeJson(resultSet, i + 1, writer);
+                }
+                writer.write(readers.length == 0 ? "{}" : "}");
+            }
+            writer.write("\n]\n");
+            writer.flush();
+        } catch (SQLException e) {
+            lastError = e;
+            return ESBoolean.valueOf(false);
+        } catch (IOException e) {
+            lastError = e;
+            return ESBoolean.valueOf(false);
+        } finally {
+            session.unlock();
+        }
+        lastError = null;
+        return ESNumber.valueOf(count);
+    }
+
+    private void checkReadable() throws EcmaScriptException {
+        if (resultSet == null) {
+            throw new EcmaScriptException(
+                    "Attempt to access a released result set");
+        }
+    }
+
+    /**
+     * Resolve the readers of the columns, and set the fetch size if the
+     * driver default is used
+     */
+    private ColumnReader[] prepareBulkRead(int fetchSize) throws SQLException {
+        if (columnReaders == null) {
+            ColumnReader[] readers = new ColumnReader[colNames.size()];
+            int[] hashes = new int[readers.length];
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = ColumnReader.forType(resultSetMetaData
+                        .getColumnType(i + 1));
+                hashes[i] = colNames.get(i).hashCode();
+            }
+            columnReaders = readers;
+            colHashes = hashes;
+        }
+        if (resultSet.getFetchSize() == 0 && fetchSize > 0) {
+            try {
+                resultSet.setFetchSize(fetchSize);
+            } catch (SQLException e) {
+                // Only a hint
+            }
+        }
+        return columnReaders;
+    }
+
+    private boolean nextRow() throws SQLException {
+        if (lastRowSeen) {
+            return false;
+        }
+        if (resultSet.next()) {
+            firstRowSeen = true;
+            return true;
+        }
+        lastRowSeen = true;
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "[RowSet: '"
+                + sql
+                + "'"
+                + (resultSet == null ? " - released]"
+                        : (lastRowSeen ? " - at end]" : (firstRowSeen ? "]"
+                                : " - at start]")));
+    }
+
+}
+
+/**
+ * A PreparedStatement object: a SQL text with parameters, executed with the
+ * statements prepared and cached by the connection of its database
+ */
+class ESPreparedStatement extends ESObject implements
+        ConnectionSession.Resource {
+    private static final long serialVersionUID = -4403536219437434575L;
+    static final int DEFAULT_BATCH_SIZE = 1000;
+    private transient ESDatabase database = null;
+    private transient String sql = null;
+    private transient String[] parameterNames = null;
+    // Taken from the statement cache while rows are added to its batch
+    private transient PreparedStatement batchStatement = null;
+    // The use of the connection of the batch statement
+    private transient ConnectionSession batchSession = null;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int pendingRows = 0;
+    // Update count of the batches executed since the last executeBatch
+    private long batchUpdateCount = 0;
+
+    ESPreparedStatement(ESObject prototype, Evaluator evaluator,
+            ESDatabase database, String sql, String[] parameterNames) {
+        super(prototype, evaluator);
+        this.database = database;
+        this.sql = sql;
+        this.parameterNames = parameterNames;
+    }
+
+    @Override
+    public String getESClassName() {
+        return "PreparedStatement";
+    }
+
+    @Override
+    public String toString() {
+        return "[PreparedStatement: '" + sql + "']";
+    }
+
+    @Override
+    public String toDetailString() {
+        return "ES:[Object: builtin " + this.getClass().getName() + ":"
+                + this.toString() + "]";
+    }
+
+    String getSql() {
+        return sql;
+    }
+
+    ESValue executeRetrieval(ESValue arguments[]) throws EcmaScriptException {
+        return database.executePreparedRetrieval(sql, toParameters(arguments),
+                0);
+    }
+
+    ESValue executeCommand(ESValue arguments[]) throws EcmaScriptException {
+        return database.executePreparedCommand(sql, toParameters(arguments),
+                0);
+    }
+
+    /**
+     * Set the number of rows sent to the database at once by addBatch
+     */
+    void setBatchSize(int batchSize) throws EcmaScriptException {
+        if (batchSize < 1) {
+            throw new RangeError("Invalid batch size " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    int getPendingRows() {
+        return pendingRows;
+    }
+
+    /**
+     * Add a row to the batch, which is executed once it holds batch size
+     * rows
+     * 
+     * @param arguments
+     *            the values of the parameters, or an array of them, or an
+     *            object with a property per parameter name
+     * @return true if successful, false on error
+     */
+    ESValue addBatch(ESValue arguments[]) throws EcmaScriptException {
+        ConnectionSession session = database.getSession();
+        if (session == null) {
+            throw new EcmaScriptException("JDBC driver not connected");
+        }
+        ESValue[] parameters = toParameters(arguments);
+        try {
+            session.lock();
+            try {
+                if (batchStatement == null) {
+                    batchStatement = session.getStatementCache().take(sql);
+                    batchSession = session;
+                    session.register(this);
+                }
+                bind(batchStatement, parameters, 0);
+                batchStatement.addBatch();
+            } finally {
+                session.unlock();
+            }
+        } catch (SQLException e) {
+            database.setLastError(e);
+            return ESBoolean.valueOf(false);
+        }
+        pendingRows++;
+        if (pendingRows >= batchSize) {
+            return ESBoolean.valueOf(flush());
+        }
+        return ESBoolean.valueOf(true);
+    }
+
+    /**
+     * Execute the rows of the batch not executed yet
+     * 
+     * @return the number of rows updated since the previous call, or false on
+     *         error
+     */
+    ESValue executeBatch() throws EcmaScriptException {
+        if (!flush()) {
+            return ESBoolean.valueOf(false);
+        }
+        if (batchStatement != null) {
+            batchSession.unregister(this);
+            batchSession.getStatementCache().offer(sql, batchStatement);
+            batchStatement = null;
+            batchSession = null;
+        }
+        long count = batchUpdateCount;
+        batchUpdateCount = 0;
+        return ESNumber.valueOf(count);
+    }
+
+    /**
+     * Discard the rows of the batch not executed yet
+     */
+    void clearBatch() {
+        if (batchStatement != null) {
+            batchSession.unregister(this);
+            try {
+                batchStatement.clearBatch();
+                batchSession.getStatementCache().offer(sql, batchStatement);
+            } catch (SQLException e) {
+                StatementCache.closeQuietly(batchStatement);
+            }
+            batchStatement = null;
+            batchSession = null;
+        }
+        pendingRows = 0;
+        batchUpdateCount = 0;
+    }
+
+    /**
+     * Close the batch statement, the connection being given back to its
+     * pool: the rows not executed yet are discarded
+     */
+    public void invalidate() {
+        if (batchStatement != null) {
+            StatementCache.closeQuietly(batchStatement);
+            batchStatement = null;
+            batchSession = null;
+        }
+        pendingRows = 0;
+        batchUpdateCount = 0;
+    }
+
+    private boolean flush() {
+        if (pendingRows == 0) {
+            return true;
+        }
+        pendingRows = 0;
+        int[] counts;
+        try {
+            batchSession.lock();
+            try {
+                counts = batchStatement.executeBatch();
+            } finally {
+                batchSession.unlock();
+            }
+        } catch (SQLException e) {
+            // Drivers may go on after a failed row, or stop
+            if (e instanceof BatchUpdateException) {
+                addUpdateCounts(((BatchUpdateException) e).getUpdateCounts());
+            }
+            database.setLastError(e);
+            return false;
+        }
+        addUpdateCounts(counts);
+        return true;
+    }
+
+    private void addUpdateCounts(int[] counts) {
+        if (counts == null) {
+            return;
+        }
+        for (int count : counts) {
+            if (count >= 0) {
+                batchUpdateCount += count;
+            } else if (count == Statement.SUCCESS_NO_INFO) {
+                batchUpdateCount++;
+            }
+        }
+    }
+
+    /**
+     * The values of the parameters given as arguments, or as a row array or
+     * object
+     */
+    private ESValue[] toParameters(ESValue arguments[])
+            throws EcmaScriptException {
+        if (arguments.length != 1 || !(arguments[0] instanceof ESObject)
+                || arguments[0] instanceof DatePrototype
+                || arguments[0] instanceof ESWrapper
+                || Buffers.getByteRange(arguments[0]) != null) {
+            return arguments;
+        }
+        ESObject row = (ESObject) arguments[0];
+        if (row.isArray()) {
+            ESValue[] values = new ESValue[(int) row.getProperty(
+                    "length", "length".hashCode()).toUInt32()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = row.getProperty((long) i);
+            }
+            return values;
+        }
+        if (parameterNames == null) {
+            throw new TypeError(
+                    "A row object requires a statement prepared with parameter names");
+        }
+        ESValue[] values = new ESValue[parameterNames.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = row.getProperty(parameterNames[i], parameterNames[i]
+                    .hashCode());
+        }
+        return values;
+    }
+
+    /**
+     * Bind arguments to the parameters of a statement
+     * 
+     * @param first
+     *            the index of the argument of the first parameter
+     */
+    static void bind(PreparedStatement statement, ESValue arguments[],
+            int first) throws SQLException, EcmaScriptException {
+        for (int i = first; i < arguments.length; i++) {
+            bind(statement, i - first + 1, arguments[i]);
+        }
+    }
+
+    /**
+     * Bind a value with the JDBC type matching its type: integral numbers
+     * as INTEGER or BIGINT, other numbers as DOUBLE, dates as TIMESTAMP,
+     * ArrayBuffers and their views as bytes, wrapped Java objects as they
+     * are, other objects as their primitive value
+     */
+    static void bind(PreparedStatement statement, int index, ESValue value)
+            throws SQLException, EcmaScriptException {
+        if (value instanceof ESObject && !(value instanceof DatePrototype)) {
+            ByteBuffer bytes = Buffers.getByteRange(value);
+            if (bytes != null) {
+                byte[] data = new byte[bytes.remaining()];
+                bytes.get(data);
+                statement.setBytes(index, data);
+                return;
+            }
+            if (value instanceof ESWrapper) {
+                statement.setObject(index, value.toJavaObject());
+                return;
+            }
+            value = ((ESObject) value).getDefaultValue();
+        }
+        if (value instanceof DatePrototype) {
+            Date date = (Date) value.toJavaObject();
+            if (date == null) {
+                statement.setNull(index, Types.TIMESTAMP);
+            } else {
+                statement.setTimestamp(index, new Timestamp(date.getTime()));
+            }
+        } else if (value instanceof ESNumber) {
+            double d = value.doubleValue();
+            long l = (long) d;
+            if (l == d && Math.abs(d) < 0x1p63
+                    && !(d == 0 && 1 / d < 0)) {
+                if ((int) l == l) {
+                    statement.setInt(index, (int) l);
+                } else {
+                    statement.setLong(index, l);
+                }
+            } else {
+                statement.setDouble(index, d);
+            }
+        } else if (value instanceof ESBoolean) {
+            statement.setBoolean(index, value.booleanValue());
+        } else if (value == ESNull.theNull
+                || value == ESUndefined.theUndefined) {
+            statement.setNull(index, Types.NULL);
+        } else {
+            statement.setString(index, value.toString());
+        }
+    }
+}
+
+public class Database extends Extension {
+    private static final long serialVersionUID = 7948096908366103321L;
+    ESObject esDatabasePrototype = null;
+    ESObject esRowSetPrototype = null;
+    ESObject esPreparedStatementPrototype = null;
+
+    public Database() {
+        super();
+    }
+
+    class GlobalObjectDatabase extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 1476645330609136920L;
+
+        GlobalObjectDatabase(String name, Evaluator evaluator,
+                FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 1);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
                 throws EcmaScriptException {
             return doConstruct(arguments);
         }
@@ -781,12 +1756,13 @@ public class Database extends Extension {
                         "Database requires 1 or 2 arguments");
             } else if (arguments.length == 1) {
                 database = new ESDatabase(esDatabasePrototype, this
-                        .getEvaluator(), esRowSetPrototype, arguments[0]
-                        .toString());
+                        .getEvaluator(), esRowSetPrototype,
+                        esPreparedStatementPrototype, arguments[0].toString());
             } else if (arguments.length > 1) {
                 database = new ESDatabase(esDatabasePrototype, this
-                        .getEvaluator(), esRowSetPrototype, arguments[0]
-                        .toString(), arguments[1].toString());
+                        .getEvaluator(), esRowSetPrototype,
+                        esPreparedStatementPrototype, arguments[0].toString(),
+                        arguments[1].toString());
             }
             return database;
         }
@@ -887,6 +1863,207 @@ public class Database extends Extension {
         }
     }
 
+    static class DatabaseExecuteRetrievalAsync extends BuiltinFunctionObject {
+        private static final long serialVersionUID = -6318862870212718361L;
+
+        DatabaseExecuteRetrievalAsync(String name, Evaluator evaluator,
+                FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 1);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESDatabase database = (ESDatabase) thisObject;
+            return database.executeRetrievalAsync(arguments);
+        }
+    }
+
+    static class DatabaseExecuteCommandAsync extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 2254386410921575839L;
+
+        DatabaseExecuteCommandAsync(String name, Evaluator evaluator,
+                FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 1);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESDatabase database = (ESDatabase) thisObject;
+            return database.executeCommandAsync(arguments);
+        }
+    }
+
+    static class DatabasePrepare extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 2893067419652201781L;
+
+        DatabasePrepare(String name, Evaluator evaluator, FunctionPrototype fp)
+                throws EcmaScriptException {
+            super(fp, evaluator, name, 1);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESDatabase database = (ESDatabase) thisObject;
+            if (arguments.length < 1) {
+                throw new EcmaScriptException("Missing parameter in function "
+                        + this);
+            }
+            return database.prepare(arguments[0].toString(),
+                    arguments.length > 1 ? toNames(arguments[1]) : null);
+        }
+    }
+
+    static class DatabasePrepareInsert extends BuiltinFunctionObject {
+        private static final long serialVersionUID = -6805467137425315958L;
+
+        DatabasePrepareInsert(String name, Evaluator evaluator,
+                FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 2);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESDatabase database = (ESDatabase) thisObject;
+            if (arguments.length < 2) {
+                throw new EcmaScriptException("Missing parameter in function "
+                        + this);
+            }
+            return database.prepareInsert(arguments[0].toString(),
+                    toNames(arguments[1]));
+        }
+    }
+
+    static String[] toNames(ESValue value) throws EcmaScriptException {
+        if (!value.isArray()) {
+            throw new TypeError("An array of names is expected, not "
+                    + value);
+        }
+        ESObject array = (ESObject) value;
+        String[] names = new String[(int) array.getProperty("length",
+                "length".hashCode()).toUInt32()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = array.getProperty((long) i).toString();
+        }
+        return names;
+    }
+
+    static class DatabaseSetAutoCommit extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 5250306407316683302L;
+
+        DatabaseSetAutoCommit(String name, Evaluator evaluator,
+                FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 1);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESDatabase database = (ESDatabase) thisObject;
+            if (arguments.length < 1) {
+                throw new EcmaScriptException("Missing parameter in function "
+                        + this);
+            }
+            return database.setAutoCommit(arguments[0].booleanValue());
+        }
+    }
+
+    static class DatabaseGetAutoCommit extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 1990858283627471398L;
+
+        DatabaseGetAutoCommit(String name, Evaluator evaluator,
+                FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 0);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESDatabase database = (ESDatabase) thisObject;
+            return database.getAutoCommit();
+        }
+    }
+
+    static class DatabaseEndTransaction extends BuiltinFunctionObject {
+        private static final long serialVersionUID = -3034338396519419437L;
+        private final boolean commit;
+
+        DatabaseEndTransaction(String name, Evaluator evaluator,
+                FunctionPrototype fp, boolean commit)
+                throws EcmaScriptException {
+            super(fp, evaluator, name, 0);
+            this.commit = commit;
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESDatabase database = (ESDatabase) thisObject;
+            return database.endTransaction(commit);
+        }
+    }
+
+    static class DatabaseSetStatementCacheSize extends BuiltinFunctionObject {
+        private static final long serialVersionUID = -3357271932407810186L;
+
+        DatabaseSetStatementCacheSize(String name, Evaluator evaluator,
+                FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 1);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESDatabase database = (ESDatabase) thisObject;
+            if (arguments.length < 1) {
+                throw new EcmaScriptException("Missing parameter in function "
+                        + this);
+            }
+            database.setStatementCacheSize(arguments[0].toInt32());
+            return ESUndefined.theUndefined;
+        }
+    }
+
+    static class DatabaseSetPoolOptions extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 6114987301458829113L;
+
+        DatabaseSetPoolOptions(String name, Evaluator evaluator,
+                FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 1);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESDatabase database = (ESDatabase) thisObject;
+            if (arguments.length < 1) {
+                throw new EcmaScriptException("Missing parameter in function "
+                        + this);
+            }
+            database.setPoolOptions(arguments[0]);
+            return ESUndefined.theUndefined;
+        }
+    }
+
+    static class DatabaseGetPoolStatistics extends BuiltinFunctionObject {
+        private static final long serialVersionUID = -4286373926157303350L;
+
+        DatabaseGetPoolStatistics(String name, Evaluator evaluator,
+                FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 0);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESDatabase database = (ESDatabase) thisObject;
+            return database.getPoolStatistics();
+        }
+    }
+
     static class DatabaseGetMetaData extends BuiltinFunctionObject {
         private static final long serialVersionUID = 8387083082824146713L;
 
@@ -903,6 +2080,199 @@ public class Database extends Extension {
         }
     }
 
+    static class PreparedStatementExecuteRetrieval extends
+            BuiltinFunctionObject {
+        private static final long serialVersionUID = 6021842770316590524L;
+
+        PreparedStatementExecuteRetrieval(String name, Evaluator evaluator,
+                FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 0);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESPreparedStatement statement = (ESPreparedStatement) thisObject;
+            return statement.executeRetrieval(arguments);
+        }
+    }
+
+    static class PreparedStatementExecuteCommand extends
+            BuiltinFunctionObject {
+        private static final long serialVersionUID = -1546394800151316414L;
+
+        PreparedStatementExecuteCommand(String name, Evaluator evaluator,
+                FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 0);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESPreparedStatement statement = (ESPreparedStatement) thisObject;
+            return statement.executeCommand(arguments);
+        }
+    }
+
+    static class PreparedStatementAddBatch extends BuiltinFunctionObject {
+        private static final long serialVersionUID = -8722164745131994069L;
+
+        PreparedStatementAddBatch(String name, Evaluator evaluator,
+                FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 1);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESPreparedStatement statement = (ESPreparedStatement) thisObject;
+            return statement.addBatch(arguments);
+        }
+    }
+
+    static class PreparedStatementExecuteBatch extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 7391552287201536408L;
+
+        PreparedStatementExecuteBatch(String name, Evaluator evaluator,
+                FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 0);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESPreparedStatement statement = (ESPreparedStatement) thisObject;
+            return statement.executeBatch();
+        }
+    }
+
+    static class PreparedStatementClearBatch extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 3405390281716254097L;
+
+        PreparedStatementClearBatch(String name, Evaluator evaluator,
+                FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 0);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESPreparedStatement statement = (ESPreparedStatement) thisObject;
+            statement.clearBatch();
+            return ESUndefined.theUndefined;
+        }
+    }
+
+    static class PreparedStatementSetBatchSize extends BuiltinFunctionObject {
+        private static final long serialVersionUID = -5627794766017401562L;
+
+        PreparedStatementSetBatchSize(String name, Evaluator evaluator,
+                FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 1);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESPreparedStatement statement = (ESPreparedStatement) thisObject;
+            if (arguments.length < 1) {
+                throw new EcmaScriptException("Missing parameter in function "
+                        + this);
+            }
+            statement.setBatchSize(arguments[0].toInt32());
+            return ESUndefined.theUndefined;
+        }
+    }
+
+    static class RowSetFetchAll extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 2371568563401180683L;
+
+        RowSetFetchAll(String name, Evaluator evaluator, FunctionPrototype fp)
+                throws EcmaScriptException {
+            super(fp, evaluator, name, 0);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESRowSet rowSet = (ESRowSet) thisObject;
+            return rowSet.fetchAll();
+        }
+    }
+
+    static class RowSetFetchBatch extends BuiltinFunctionObject {
+        private static final long serialVersionUID = -8817297386937201735L;
+
+        RowSetFetchBatch(String name, Evaluator evaluator,
+                FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 1);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESRowSet rowSet = (ESRowSet) thisObject;
+            if (arguments.length < 1) {
+                throw new EcmaScriptException("Missing parameter in function "
+                        + this);
+            }
+            int maxRows = arguments[0].toInt32();
+            if (maxRows < 1) {
+                throw new RangeError("Invalid number of rows " + maxRows);
+            }
+            return rowSet.fetchBatch(maxRows);
+        }
+    }
+
+    static class RowSetToJson extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 1270869227542300766L;
+
+        RowSetToJson(String name, Evaluator evaluator, FunctionPrototype fp)
+                throws EcmaScriptException {
+            super(fp, evaluator, name, 1);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESRowSet rowSet = (ESRowSet) thisObject;
+            ESValue target = arguments.length > 0 ? arguments[0]
+                    : ESUndefined.theUndefined;
+            Writer writer = null;
+            if (target instanceof ESFile) {
+                writer = ((ESFile) target).getWriter();
+            } else if (target instanceof ESWrapper
+                    && target.toJavaObject() instanceof Writer) {
+                writer = (Writer) target.toJavaObject();
+            }
+            if (writer == null) {
+                throw new TypeError(
+                        "toJson(writer) requires a File opened for writing or a java.io.Writer");
+            }
+            return rowSet.toJson(writer);
+        }
+    }
+
+    static class RowSetSetFetchSize extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 5484402693003587416L;
+
+        RowSetSetFetchSize(String name, Evaluator evaluator,
+                FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 1);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESRowSet rowSet = (ESRowSet) thisObject;
+            if (arguments.length < 1) {
+                throw new EcmaScriptException("Missing parameter in function "
+                        + this);
+            }
+            return rowSet.setFetchSize(arguments[0].toInt32());
+        }
+    }
+
     static class RowSetRelease extends BuiltinFunctionObject {
         private static final long serialVersionUID = -6169075232727703900L;
 
@@ -1085,6 +2455,7 @@ public class Database extends Extension {
                 .getFunctionPrototype();
 
         esRowSetPrototype = new ObjectPrototype(op, evaluator);
+        esPreparedStatementPrototype = new ObjectPrototype(op, evaluator);
         esDatabasePrototype = new ESDatabase(op, evaluator); // No driver
 
         ESObject globalDatabaseObject = new GlobalObjectDatabase("Database",
@@ -1109,8 +2480,52 @@ public class Database extends Extension {
                                 evaluator, fp));
         esDatabasePrototype.putHiddenProperty("executeCommand",
                 new DatabaseExecuteCommand("executeCommand", evaluator, fp));
+        esDatabasePrototype.putHiddenProperty("executeRetrievalAsync",
+                new DatabaseExecuteRetrievalAsync("executeRetrievalAsync",
+                        evaluator, fp));
+        esDatabasePrototype.putHiddenProperty("executeCommandAsync",
+                new DatabaseExecuteCommandAsync("executeCommandAsync",
+                        evaluator, fp));
         esDatabasePrototype.putHiddenProperty("getMetaData",
                 new DatabaseGetMetaData("getMetaData", evaluator, fp));
+        esDatabasePrototype.putHiddenProperty("prepare", new DatabasePrepare(
+                "prepare", evaluator, fp));
+        esDatabasePrototype.putHiddenProperty("setStatementCacheSize",
+                new DatabaseSetStatementCacheSize("setStatementCacheSize",
+                        evaluator, fp));
+        esDatabasePrototype.putHiddenProperty("setPoolOptions",
+                new DatabaseSetPoolOptions("setPoolOptions", evaluator, fp));
+        esDatabasePrototype.putHiddenProperty("getPoolStatistics",
+                new DatabaseGetPoolStatistics("getPoolStatistics", evaluator,
+                        fp));
+
+        esDatabasePrototype.putHiddenProperty("prepareInsert",
+                new DatabasePrepareInsert("prepareInsert", evaluator, fp));
+        esDatabasePrototype.putHiddenProperty("setAutoCommit",
+                new DatabaseSetAutoCommit("setAutoCommit", evaluator, fp));
+        esDatabasePrototype.putHiddenProperty("getAutoCommit",
+                new DatabaseGetAutoCommit("getAutoCommit", evaluator, fp));
+        esDatabasePrototype.putHiddenProperty("commit",
+                new DatabaseEndTransaction("commit", evaluator, fp, true));
+        esDatabasePrototype.putHiddenProperty("rollback",
+                new DatabaseEndTransaction("rollback", evaluator, fp, false));
+
+        esPreparedStatementPrototype.putHiddenProperty("executeRetrieval",
+                new PreparedStatementExecuteRetrieval("executeRetrieval",
+                        evaluator, fp));
+        esPreparedStatementPrototype.putHiddenProperty("executeCommand",
+                new PreparedStatementExecuteCommand("executeCommand",
+                        evaluator, fp));
+        esPreparedStatementPrototype.putHiddenProperty("addBatch",
+                new PreparedStatementAddBatch("addBatch", evaluator, fp));
+        esPreparedStatementPrototype.putHiddenProperty("executeBatch",
+                new PreparedStatementExecuteBatch("executeBatch", evaluator,
+                        fp));
+        esPreparedStatementPrototype.putHiddenProperty("clearBatch",
+                new PreparedStatementClearBatch("clearBatch", evaluator, fp));
+        esPreparedStatementPrototype.putHiddenProperty("setBatchSize",
+                new PreparedStatementSetBatchSize("setBatchSize", evaluator,
+                        fp));
 
         esRowSetPrototype.putHiddenProperty("release", new RowSetRelease(
                 "release", evaluator, fp));
@@ -1132,6 +2547,14 @@ public class Database extends Extension {
                 new RowSetHasMoreRows("hasMoreRows", evaluator, fp));
         esRowSetPrototype.putHiddenProperty("getMetaData",
                 new RowSetGetMetaData("getMetaData", evaluator, fp));
+        esRowSetPrototype.putHiddenProperty("fetchAll", new RowSetFetchAll(
+                "fetchAll", evaluator, fp));
+        esRowSetPrototype.putHiddenProperty("fetchBatch",
+                new RowSetFetchBatch("fetchBatch", evaluator, fp));
+        esRowSetPrototype.putHiddenProperty("toJson", new RowSetToJson(
+                "toJson", evaluator, fp));
+        esRowSetPrototype.putHiddenProperty("setFetchSize",
+                new RowSetSetFetchSize("setFetchSize", evaluator, fp));
 
         go.putHiddenProperty("Database", globalDatabaseObject);
     }
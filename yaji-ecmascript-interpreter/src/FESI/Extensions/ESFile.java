@@ -0,0 +1,1076 @@
+// ESFile.java
+// FESI Copyright (c) Jean-Marc Lugrin, 1999
+// Advanced FESI Copyright (c) Graham Technology, 2002
+//
+// This program is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2 of the License, or (at your option) any later version.
+
+// This program is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+// Lesser General Public License for more details.
+
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+
+package FESI.Extensions;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+
+import org.yaji.buffer.Buffers;
+import org.yaji.buffer.ESArrayBuffer;
+import org.yaji.event.ESCompletion;
+import org.yaji.event.EventLoop;
+
+import FESI.Data.ESBoolean;
+import FESI.Data.ESNumber;
+import FESI.Data.ESObject;
+import FESI.Data.ESString;
+import FESI.Data.ESValue;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+
+/**
+ * An EcmaScript FileIO 'File' object
+ */
+class ESFile extends ESObject {
+    private static final long serialVersionUID = -2502912532866913867L;
+    // Larger files are decoded from a memory mapping by readAll
+    static final long MAP_THRESHOLD = 1024 * 1024;
+    static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    File file = null;
+    /**
+     * Advanced FESI GT Modified: 5/10/2002 Added the transient modifier to
+     * allow serialization.
+     */
+    transient Object readerWriter = null;
+    // The channel opened by openChannel, also used for positional reads
+    // unless it was opened in "w" or "a" mode
+    transient FileChannel channel = null;
+    transient boolean channelReadable = false;
+    // Opened by the asynchronous reads and writes, closed by close()
+    transient AsynchronousFileChannel asyncReader = null;
+    transient AsynchronousFileChannel asyncWriter = null;
+    // Where writeAsync writes when no position is given, -1 until the first
+    // asynchronous write
+    long asyncWritePosition = -1;
+    boolean atEOF = false;
+    String lastLine = null;
+    Throwable lastError = null;
+
+    ESFile(ESObject prototype, Evaluator evaluator, String fileName) {
+        super(prototype, evaluator);
+        file = new File(fileName);
+    }
+
+    ESFile(ESObject prototype, Evaluator evaluator, String pathName,
+            String fileName) {
+        super(prototype, evaluator);
+        file = new File(pathName, fileName);
+    }
+
+    // for subclass
+    protected ESFile(ESObject prototype, Evaluator evaluator) {
+        super(prototype, evaluator);
+    }
+
+    @Override
+    public String getESClassName() {
+        return "File";
+    }
+
+    @Override
+    public String toString() {
+        if (file == null)
+            return "<null>";
+        return file.toString();
+    }
+
+    @Override
+    public String toDetailString() {
+        return "ES:[Object: builtin " + this.getClass().getName() + ":"
+                + ((file == null) ? "null" : file.toString()) + "]";
+    }
+
+    protected void setError(Throwable e) {
+        lastError = e;
+    }
+
+    public boolean exists() {
+        if (file == null)
+            return false;
+        return file.exists();
+    }
+
+    public boolean open() {
+        if (readerWriter != null) {
+            setError(new IllegalStateException("File already open"));
+            return false;
+        }
+        if (file == null) {
+            setError(new IllegalArgumentException("Uninitialized File object"));
+            return false;
+        }
+
+        // We assume that the BufferedReader and PrintWriter creation
+        // cannot fail except if the FileReader/FileWriter fails.
+        // Otherwise we have an open file until the reader/writer
+        // get garbage collected.
+        try {
+            if (file.exists()) {
+                readerWriter = new BufferedReader(new FileReader(file));
+            } else {
+                readerWriter = new PrintWriter(new FileWriter(file));
+            }
+            return true;
+        } catch (IOException e) {
+            setError(e);
+            return false;
+        }
+    }
+
+    /**
+     * Open the file through a FileChannel. In read mode lines are read with
+     * a large buffer and decoding, in the other modes text and binary data
+     * are written through a large direct buffer.
+     * 
+     * @param mode
+     *            "r" to read, "w" to write a new content, "a" to append,
+     *            "rw" to write over the current content
+     * @param bufferSize
+     *            the size of the buffer in bytes, raised if needed to hold
+     *            the encoding of any character when writing
+     * @param flushPolicy
+     *            when the buffer is written besides when it is full or on
+     *            flush and close: "full" (never), "line" (after writeln) or
+     *            "write" (after each write)
+     * @param encoding
+     *            the encoding of the text
+     * @return true if opened
+     */
+    public boolean openChannel(String mode, int bufferSize,
+            String flushPolicy, String encoding) {
+        if (readerWriter != null) {
+            setError(new IllegalStateException("File already open"));
+            return false;
+        }
+        if (file == null) {
+            setError(new IllegalArgumentException("Uninitialized File object"));
+            return false;
+        }
+        try {
+            Charset charset = Charset.forName(encoding);
+            if (bufferSize < 1) {
+                throw new IllegalArgumentException("Invalid buffer size "
+                        + bufferSize);
+            }
+            if ("r".equals(mode)) {
+                FileChannel fc = FileChannel.open(file.toPath(),
+                        StandardOpenOption.READ);
+                CharsetDecoder decoder = charset.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                readerWriter = new BufferedReader(Channels.newReader(fc,
+                        decoder, -1), bufferSize);
+                channel = fc;
+                channelReadable = true;
+            } else {
+                FileChannelWriter.FlushPolicy policy = FileChannelWriter.FlushPolicy
+                        .of(flushPolicy);
+                FileChannel fc;
+                if ("w".equals(mode)) {
+                    fc = FileChannel.open(file.toPath(),
+                            StandardOpenOption.WRITE,
+                            StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING);
+                } else if ("a".equals(mode)) {
+                    fc = FileChannel.open(file.toPath(),
+                            StandardOpenOption.WRITE,
+                            StandardOpenOption.CREATE,
+                            StandardOpenOption.APPEND);
+                } else if ("rw".equals(mode)) {
+                    fc = FileChannel.open(file.toPath(),
+                            StandardOpenOption.READ,
+                            StandardOpenOption.WRITE,
+                            StandardOpenOption.CREATE);
+                } else {
+                    throw new IllegalArgumentException("Unknown mode " + mode
+                            + ", expected r, w, a or rw");
+                }
+                readerWriter = new FileChannelWriter(fc, charset, Math.max(
+                        bufferSize, FileChannelWriter.minBufferSize(charset)),
+                        policy);
+                channel = fc;
+                channelReadable = "rw".equals(mode);
+            }
+            atEOF = false;
+            lastLine = null;
+            return true;
+        } catch (IOException e) {
+            setError(e);
+            return false;
+        } catch (IllegalArgumentException e) {
+            setError(e);
+            return false;
+        }
+    }
+
+    public boolean isOpened() {
+        return (readerWriter != null);
+    }
+
+    /**
+     * @return the writer of the file if it is opened for writing, or null
+     */
+    Writer getWriter() {
+        return readerWriter instanceof Writer ? (Writer) readerWriter : null;
+    }
+
+    // Pending asynchronous operations fail with AsynchronousCloseException
+    private boolean closeAsync() {
+        boolean opened = asyncReader != null || asyncWriter != null;
+        try {
+            if (asyncReader != null) {
+                asyncReader.close();
+            }
+            if (asyncWriter != null) {
+                asyncWriter.close();
+            }
+        } catch (IOException e) {
+            setError(e);
+        }
+        asyncReader = null;
+        asyncWriter = null;
+        asyncWritePosition = -1;
+        return opened;
+    }
+
+    public boolean close() {
+        boolean asyncOpened = closeAsync();
+        if (readerWriter == null)
+            return asyncOpened;
+        return closeReaderWriter();
+    }
+
+    // The asynchronous channels are left open
+    private boolean closeReaderWriter() {
+        try {
+            if (readerWriter instanceof Reader) {
+                ((Reader) readerWriter).close();
+            } else {
+                ((Writer) readerWriter).close();
+            }
+            readerWriter = null;
+            channel = null;
+            channelReadable = false;
+            return true;
+        } catch (IOException e) {
+            setError(e);
+            readerWriter = null;
+            channel = null;
+            channelReadable = false;
+            return false;
+        }
+    }
+
+    public boolean write(boolean ln, ESValue[] arguments) {
+        if (readerWriter == null) {
+            setError(new IllegalStateException("File not opened"));
+            return false;
+        }
+        if (readerWriter instanceof FileChannelWriter) {
+            return writeChannel(ln, arguments);
+        }
+        if (!(readerWriter instanceof PrintWriter)) {
+            setError(new IllegalStateException("File not opened for writing"));
+            return false;
+        }
+        PrintWriter writer = (PrintWriter) readerWriter;
+        for (int i = 0; i < arguments.length; i++) {
+            writer.print(arguments[i].toString());
+        }
+        if (ln)
+            writer.println();
+        return true;
+    }
+
+    // ArrayBuffers and their views are written as binary data
+    private boolean writeChannel(boolean ln, ESValue[] arguments) {
+        FileChannelWriter writer = (FileChannelWriter) readerWriter;
+        try {
+            for (int i = 0; i < arguments.length; i++) {
+                ByteBuffer bytes = Buffers.getByteRange(arguments[i]);
+                if (bytes != null) {
+                    writer.write(bytes);
+                } else {
+                    writer.write(arguments[i].toString());
+                }
+            }
+            if (ln) {
+                writer.write(LINE_SEPARATOR);
+            }
+            writer.endWrite(ln);
+            return true;
+        } catch (IOException e) {
+            setError(e);
+            return false;
+        } catch (EcmaScriptException e) {
+            setError(e);
+            return false;
+        }
+    }
+
+    public String readln() {
+        if (readerWriter == null) {
+            setError(new IllegalStateException("File not opened"));
+            return null;
+        }
+        if (!(readerWriter instanceof BufferedReader)) {
+            setError(new IllegalStateException("File not opened for reading"));
+            return null;
+        }
+        if (atEOF) {
+            setError(new EOFException());
+            return null;
+        }
+        if (lastLine != null) {
+            String line = lastLine;
+            lastLine = null;
+            return line;
+        }
+        BufferedReader reader = (BufferedReader) readerWriter;
+        // Here lastLine is null, return a new line
+        try {
+            String line = reader.readLine();
+            if (line == null) {
+                atEOF = true;
+                setError(new EOFException());
+            }
+            return line;
+        } catch (IOException e) {
+            setError(e);
+            return null;
+        }
+    }
+
+    /**
+     * Call a function with each remaining line of the file, as a string or
+     * as an array of fields. A file which is not opened is opened for the
+     * iteration and closed at its end.
+     * 
+     * @param callback
+     *            called with the line and its number from 0, the iteration
+     *            stops if it returns false
+     * @param delimiter
+     *            the delimiter of the fields, or null to pass the lines
+     * @return the number of lines passed to the callback, or -1 on error
+     * @throws EcmaScriptException
+     *             thrown by the callback
+     */
+    public long forEachLine(ESValue callback, String delimiter)
+            throws EcmaScriptException {
+        boolean opened = readerWriter == null;
+        if (opened && !openForLines()) {
+            return -1;
+        }
+        BufferedReader reader = lineReader();
+        if (reader == null) {
+            return -1;
+        }
+        ESObject globalObject = getEvaluator().getGlobalObject();
+        ESValue[] arguments = new ESValue[2];
+        long count = 0;
+        try {
+            String line;
+            while ((line = nextLine(reader)) != null) {
+                arguments[0] = toLineValue(line, delimiter);
+                arguments[1] = ESNumber.valueOf(count++);
+                ESValue result = callback.callFunction(globalObject, arguments);
+                if (result instanceof ESBoolean && !result.booleanValue()) {
+                    break;
+                }
+            }
+            return count;
+        } catch (IOException e) {
+            setError(e);
+            return -1;
+        } finally {
+            // Only the reader opened here, pending asynchronous operations
+            // go on
+            if (opened) {
+                closeReaderWriter();
+            }
+        }
+    }
+
+    /**
+     * Read the next lines of an opened file
+     * 
+     * @param maxLines
+     *            the maximum number of lines to read
+     * @param delimiter
+     *            the delimiter of the fields, or null for lines as strings
+     * @return an array of lines or of arrays of fields, empty at the end of
+     *         the file, or null on error
+     * @throws EcmaScriptException
+     */
+    public ESObject readLines(int maxLines, String delimiter)
+            throws EcmaScriptException {
+        BufferedReader reader = lineReader();
+        if (reader == null) {
+            return null;
+        }
+        ESObject lines = getEvaluator().createArray();
+        try {
+            String line;
+            for (int i = 0; i < maxLines && (line = nextLine(reader)) != null; i++) {
+                lines.putProperty((long) i, toLineValue(line, delimiter));
+            }
+            return lines;
+        } catch (IOException e) {
+            setError(e);
+            return null;
+        }
+    }
+
+    private boolean openForLines() {
+        if (file == null) {
+            setError(new IllegalArgumentException("Uninitialized File object"));
+            return false;
+        }
+        try {
+            readerWriter = new BufferedReader(new FileReader(file),
+                    FileChannelWriter.DEFAULT_BUFFER_SIZE);
+            atEOF = false;
+            lastLine = null;
+            return true;
+        } catch (IOException e) {
+            setError(e);
+            return false;
+        }
+    }
+
+    private BufferedReader lineReader() {
+        if (readerWriter == null) {
+            setError(new IllegalStateException("File not opened"));
+            return null;
+        }
+        if (!(readerWriter instanceof BufferedReader)) {
+            setError(new IllegalStateException("File not opened for reading"));
+            return null;
+        }
+        return (BufferedReader) readerWriter;
+    }
+
+    // The next line, starting with the one read ahead by eof()
+    private String nextLine(BufferedReader reader) throws IOException {
+        if (lastLine != null) {
+            String line = lastLine;
+            lastLine = null;
+            return line;
+        }
+        if (atEOF) {
+            return null;
+        }
+        String line = reader.readLine();
+        if (line == null) {
+            atEOF = true;
+        }
+        return line;
+    }
+
+    private ESValue toLineValue(String line, String delimiter)
+            throws EcmaScriptException {
+        if (delimiter == null) {
+            return new ESString(line);
+        }
+        ESObject fields = getEvaluator().createArray();
+        int length = delimiter.length();
+        int start = 0;
+        long index = 0;
+        int end;
+        while ((end = line.indexOf(delimiter, start)) >= 0) {
+            fields.putProperty(index++, new ESString(line.substring(start, end)));
+            start = end + length;
+        }
+        fields.putProperty(index, new ESString(line.substring(start)));
+        return fields;
+    }
+
+    public boolean eof() {
+        if (readerWriter == null) {
+            setError(new IllegalStateException("File not opened"));
+            return true;
+        }
+        if (!(readerWriter instanceof BufferedReader)) {
+            setError(new IllegalStateException("File not opened for read"));
+            return true;
+        }
+        if (atEOF)
+            return true;
+        if (lastLine != null)
+            return false;
+        BufferedReader reader = (BufferedReader) readerWriter;
+        try {
+            lastLine = reader.readLine();
+            if (lastLine == null)
+                atEOF = true;
+            return atEOF;
+        } catch (IOException e) {
+            setError(e);
+            return true;
+        }
+    }
+
+    public boolean isFile() {
+        if (file == null) {
+            setError(new IllegalArgumentException("Uninitialized File object"));
+            return false;
+        }
+        return file.isFile();
+    }
+
+    public boolean isDirectory() {
+        if (file == null) {
+            setError(new IllegalArgumentException("Uninitialized File object"));
+            return false;
+        }
+        return file.isDirectory();
+    }
+
+    public boolean flush() {
+        if (readerWriter == null) {
+            setError(new IllegalStateException("File not opened"));
+            return false;
+        }
+        if (readerWriter instanceof Writer) {
+            try {
+                ((Writer) readerWriter).flush();
+            } catch (IOException e) {
+                setError(e);
+                return false;
+            }
+        } else {
+            setError(new IllegalStateException("File not opened for write"));
+            return false; // not supported by reader
+        }
+        return true;
+    }
+
+    public long getLength() {
+        if (file == null) {
+            setError(new IllegalArgumentException("Uninitialized File object"));
+            return -1;
+        }
+        return file.length();
+    }
+
+    public long lastModified() {
+        if (file == null) {
+            setError(new IllegalArgumentException("Uninitialized File object"));
+            return 0L;
+        }
+        return file.lastModified();
+    }
+
+    public String error() {
+        if (lastError == null) {
+            return "";
+        }
+        String exceptionName = lastError.getClass().getName();
+        int l = exceptionName.lastIndexOf(".");
+        if (l > 0)
+            exceptionName = exceptionName.substring(l + 1);
+        return exceptionName + ": " + lastError.getMessage();
+
+    }
+
+    public void clearError() {
+        lastError = null;
+    }
+
+    public boolean remove() {
+        if (file == null) {
+            setError(new IllegalArgumentException("Uninitialized File object"));
+            return false;
+        }
+        if (readerWriter != null) {
+            setError(new IllegalStateException(
+                    "An openened file cannot be removed"));
+            return false;
+        }
+        return file.delete();
+    }
+
+    public boolean renameTo(ESFile toFile) {
+        if (file == null) {
+            setError(new IllegalArgumentException(
+                    "Uninitialized source File object"));
+            return false;
+        }
+        if (toFile.file == null) {
+            setError(new IllegalArgumentException(
+                    "Uninitialized target File object"));
+            return false;
+        }
+        if (readerWriter != null) {
+            setError(new IllegalStateException(
+                    "An openened file cannot be renamed"));
+            return false;
+        }
+        if (toFile.readerWriter != null) {
+            setError(new IllegalStateException(
+                    "You cannot rename to an openened file"));
+            return false;
+        }
+        return file.renameTo(toFile.file);
+    }
+
+    public boolean canRead() {
+        if (file == null) {
+            setError(new IllegalArgumentException("Uninitialized File object"));
+            return false;
+        }
+        return file.canRead();
+    }
+
+    public boolean canWrite() {
+        if (file == null) {
+            setError(new IllegalArgumentException("Uninitialized File object"));
+            return false;
+        }
+        return file.canWrite();
+    }
+
+    public String getParent() {
+        if (file == null) {
+            setError(new IllegalArgumentException("Uninitialized File object"));
+            return "";
+        }
+        String parent = file.getParent();
+        return (parent == null ? "" : parent);
+    }
+
+    public String getName() {
+        if (file == null) {
+            setError(new IllegalArgumentException("Uninitialized File object"));
+            return "";
+        }
+        String name = file.getName();
+        return (name == null ? "" : name);
+    }
+
+    public String getPath() {
+        if (file == null) {
+            setError(new IllegalArgumentException("Uninitialized File object"));
+            return "";
+        }
+        String path = file.getPath();
+        return (path == null ? "" : path);
+    }
+
+    public String getAbsolutePath() {
+        if (file == null) {
+            setError(new IllegalArgumentException("Uninitialized File object"));
+            return "";
+        }
+        String absolutPath = file.getAbsolutePath();
+        return (absolutPath == null ? "" : absolutPath);
+    }
+
+    public boolean isAbsolute() {
+        if (file == null)
+            return false;
+        return file.isAbsolute();
+    }
+
+    public boolean mkdir() {
+        if (file == null)
+            return false;
+        if (readerWriter != null)
+            return false;
+        return file.mkdirs(); // Using multi directory version
+    }
+
+    public String[] list() {
+        if (file == null)
+            return null;
+        if (readerWriter != null)
+            return null;
+        if (!file.isDirectory())
+            return null;
+        return file.list();
+    }
+
+    public String readAll() {
+        return readAll(Charset.defaultCharset());
+    }
+
+    public String readAll(Charset charset) {
+        if (readerWriter != null) {
+            setError(new IllegalStateException("File already open"));
+            return null;
+        }
+        if (file == null) {
+            setError(new IllegalArgumentException("Uninitialized File object"));
+            return null;
+        }
+        if (!file.exists()) {
+            setError(new IllegalStateException("File does not exist"));
+            return null;
+        }
+        if (!file.isFile()) {
+            setError(new IllegalStateException("File is not a regular file"));
+            return null;
+        }
+        try {
+            return readContent(file, charset);
+        } catch (IOException e) {
+            setError(e);
+            return null;
+        }
+    }
+
+    /**
+     * Read a whole file as text, each line ended by a newline. The bytes are
+     * read in one operation through a FileChannel and decoded at once, large
+     * files being decoded straight from a memory mapping without copying
+     * them.
+     */
+    static String readContent(File file, Charset charset) throws IOException {
+        FileChannel fc = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ);
+        try {
+            long size = fc.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file
+                        + " is too large to be read as a string");
+            }
+            if (size >= MAP_THRESHOLD) {
+                CharsetDecoder decoder = charset.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                return toLines(decoder.decode(
+                        fc.map(FileChannel.MapMode.READ_ONLY, 0, size))
+                        .toString());
+            }
+            byte[] bytes = new byte[(int) size];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining() && fc.read(buffer) >= 0) {
+                // until full or at the end of the file
+            }
+            return toLines(new String(bytes, 0, buffer.position(), charset));
+        } finally {
+            fc.close();
+        }
+    }
+
+    // Set up proper EcmaScript eol, as when reading line by line
+    static String toLines(String content) {
+        int length = content.length();
+        if (content.indexOf('\r') < 0) {
+            if (length == 0 || content.charAt(length - 1) == '\n') {
+                return content;
+            }
+            return content + '\n';
+        }
+        StringBuilder buffer = new StringBuilder(length + 1);
+        for (int i = 0; i < length; i++) {
+            char c = content.charAt(i);
+            if (c == '\r') {
+                buffer.append('\n');
+                if (i + 1 < length && content.charAt(i + 1) == '\n') {
+                    i++;
+                }
+            } else {
+                buffer.append(c);
+            }
+        }
+        if (buffer.charAt(buffer.length() - 1) != '\n') {
+            buffer.append('\n');
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Read bytes at a position of the file, through the channel opened by
+     * openChannel if any, or else a channel opened for the read. The data
+     * still in the buffer of a file opened for writing is not read.
+     * 
+     * @param target
+     *            receives the bytes, from its position to its limit
+     * @param position
+     *            the position in the file
+     * @return the number of bytes read, less than requested at the end of
+     *         the file, or -1 on error
+     */
+    public int read(ByteBuffer target, long position) {
+        if (file == null) {
+            setError(new IllegalArgumentException("Uninitialized File object"));
+            return -1;
+        }
+        try {
+            FileChannel fc = channelReadable ? channel : FileChannel.open(
+                    file.toPath(), StandardOpenOption.READ);
+            try {
+                int total = 0;
+                while (target.hasRemaining()) {
+                    int n = fc.read(target, position + total);
+                    if (n < 0) {
+                        break;
+                    }
+                    total += n;
+                }
+                return total;
+            } finally {
+                if (fc != channel) {
+                    fc.close();
+                }
+            }
+        } catch (IOException e) {
+            setError(e);
+            return -1;
+        }
+    }
+
+    /**
+     * Read bytes at a position of the file
+     * 
+     * @return the bytes read, fewer than requested at the end of the file,
+     *         or null on error
+     */
+    public ByteBuffer readBytes(long position, int length) {
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        if (read(bytes, position) < 0) {
+            return null;
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    /**
+     * Read text at a position of the file
+     * 
+     * @return the decoded bytes, or null on error
+     */
+    public String readText(long position, int length, Charset charset) {
+        ByteBuffer bytes = readBytes(position, length);
+        if (bytes == null) {
+            return null;
+        }
+        return new String(bytes.array(), 0, bytes.limit(), charset);
+    }
+
+    /**
+     * Map a region of the file in memory
+     * 
+     * @param position
+     *            the position of the region
+     * @param length
+     *            the size of the region, or -1 for the rest of the file
+     * @param writable
+     *            true if changes to the buffer are written to the file
+     * @return the buffer, or null on error
+     */
+    public ESArrayBuffer map(long position, long length, boolean writable) {
+        if (file == null) {
+            setError(new IllegalArgumentException("Uninitialized File object"));
+            return null;
+        }
+        try {
+            FileChannel fc = writable ? FileChannel.open(file.toPath(),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)
+                    : FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                long size = length < 0 ? fc.size() - position : length;
+                return Buffers.of(getEvaluator()).map(fc,
+                        writable ? FileChannel.MapMode.READ_WRITE
+                                : FileChannel.MapMode.READ_ONLY, position,
+                        size);
+            } finally {
+                // The mapping remains valid
+                fc.close();
+            }
+        } catch (IOException e) {
+            setError(e);
+            return null;
+        } catch (IllegalArgumentException e) {
+            setError(e);
+            return null;
+        }
+    }
+
+    /**
+     * Read the whole file on the I/O executor of the event loop, without
+     * opening this File object
+     * 
+     * @return a completion fulfilled with the content of the file, or
+     *         rejected with the I/O error
+     */
+    public ESCompletion readAllAsync() throws EcmaScriptException {
+        final File target = file;
+        return getEvaluator().getEventLoop().execute(new Callable<String>() {
+            public String call() throws IOException {
+                if (target == null) {
+                    throw new IllegalArgumentException(
+                            "Uninitialized File object");
+                }
+                if (!target.isFile()) {
+                    throw new FileNotFoundException(target
+                            + " is not a regular file");
+                }
+                return readContent(target, Charset.defaultCharset());
+            }
+        }, new EventLoop.ResultConverter<String>() {
+            public ESValue toESValue(String result) {
+                return new ESString(result);
+            }
+        });
+    }
+
+    /**
+     * Read bytes at a position of the file without blocking, on an
+     * asynchronous channel kept open until close(). The target must not be
+     * used until the read completes.
+     * 
+     * @param target
+     *            the buffer to fill
+     * @param position
+     *            the position in the file
+     * @return a completion fulfilled with the number of bytes read, fewer
+     *         than requested at the end of the file, or rejected with the
+     *         I/O error
+     */
+    public ESCompletion readAsync(ByteBuffer target, long position)
+            throws EcmaScriptException {
+        EventLoop eventLoop = getEvaluator().getEventLoop();
+        ESCompletion completion = eventLoop.newCompletion();
+        EventLoop.Operation<Long> operation = eventLoop.begin(completion,
+                COUNT_CONVERTER);
+        try {
+            if (asyncReader == null) {
+                asyncReader = AsynchronousFileChannel.open(checkFile()
+                        .toPath(), StandardOpenOption.READ);
+            }
+            AsyncFileTransfer.read(asyncReader, target, position, operation);
+        } catch (IOException e) {
+            operation.failed(e);
+        }
+        return completion;
+    }
+
+    /**
+     * Write bytes at a position of the file without blocking, on an
+     * asynchronous channel kept open until close(). The file is created if
+     * needed, and the data must not be changed until the write completes.
+     * 
+     * @param data
+     *            the bytes to write
+     * @param position
+     *            the position in the file, or -1 to write after the data of
+     *            the previous asynchronous write, at the end of the file for
+     *            the first one
+     * @return a completion fulfilled with the number of bytes written, or
+     *         rejected with the I/O error
+     */
+    public ESCompletion writeAsync(ByteBuffer data, long position)
+            throws EcmaScriptException {
+        EventLoop eventLoop = getEvaluator().getEventLoop();
+        ESCompletion completion = eventLoop.newCompletion();
+        EventLoop.Operation<Long> operation = eventLoop.begin(completion,
+                COUNT_CONVERTER);
+        try {
+            if (asyncWriter == null) {
+                asyncWriter = AsynchronousFileChannel.open(checkFile()
+                        .toPath(), StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE);
+                asyncWritePosition = asyncWriter.size();
+            }
+            if (position < 0) {
+                position = asyncWritePosition;
+            }
+            // Reserved now, so that writes started in turn are in order
+            asyncWritePosition = position + data.remaining();
+            AsyncFileTransfer.write(asyncWriter, data, position, operation);
+        } catch (IOException e) {
+            operation.failed(e);
+        }
+        return completion;
+    }
+
+    /**
+     * Copy the file without blocking, replacing the content of the target
+     * file
+     * 
+     * @return a completion fulfilled with the number of bytes copied, or
+     *         rejected with the I/O error
+     */
+    public ESCompletion copyTo(File target) throws EcmaScriptException {
+        EventLoop eventLoop = getEvaluator().getEventLoop();
+        ESCompletion completion = eventLoop.newCompletion();
+        EventLoop.Operation<Long> operation = eventLoop.begin(completion,
+                COUNT_CONVERTER);
+        AsynchronousFileChannel source = null;
+        try {
+            File from = checkFile();
+            if (from.getCanonicalFile().equals(target.getCanonicalFile())) {
+                throw new IOException("Cannot copy " + from + " to itself");
+            }
+            source = AsynchronousFileChannel.open(from.toPath(),
+                    StandardOpenOption.READ);
+            AsynchronousFileChannel destination = AsynchronousFileChannel
+                    .open(target.toPath(), COPY_TARGET_OPTIONS);
+            AsyncFileTransfer.copy(source, destination, operation);
+        } catch (IOException e) {
+            if (source != null) {
+                try {
+                    source.close();
+                } catch (IOException ignored) {
+                    // The open failure is reported
+                }
+            }
+            operation.failed(e);
+        }
+        return completion;
+    }
+
+    private File checkFile() throws IOException {
+        if (file == null) {
+            throw new IOException("Uninitialized File object");
+        }
+        return file;
+    }
+
+    private static final OpenOption[] COPY_TARGET_OPTIONS = {
+            StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING };
+
+    private static final EventLoop.ResultConverter<Long> COUNT_CONVERTER = new EventLoop.ResultConverter<Long>() {
+        public ESValue toESValue(Long result) {
+            return ESNumber.valueOf(result.longValue());
+        }
+    };
+
+} // class ESFile
@@ -0,0 +1,154 @@
+package FESI.Extensions;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A writer encoding text and copying binary data into a large direct
+ * buffer, written to a FileChannel according to a flush policy.
+ */
+class FileChannelWriter extends Writer {
+
+    /**
+     * When the buffer is written to the file, besides when it is full and
+     * on flush or close
+     */
+    enum FlushPolicy {
+        /** only when needed */
+        FULL,
+        /** after each line */
+        LINE,
+        /** after each write */
+        WRITE;
+
+        static FlushPolicy of(String name) {
+            for (FlushPolicy policy : values()) {
+                if (policy.name().equalsIgnoreCase(name)) {
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException("Unknown flush policy "
+                    + name + ", expected full, line or write");
+        }
+    }
+
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder;
+    private final FlushPolicy policy;
+
+    FileChannelWriter(FileChannel channel, Charset charset, int bufferSize,
+            FlushPolicy policy) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.policy = policy;
+    }
+
+    /**
+     * @return the smallest buffer able to hold the encoding of any
+     *         character, with a shift sequence or byte order mark
+     */
+    static int minBufferSize(Charset charset) {
+        return 2 * (int) Math.ceil(charset.newEncoder().maxBytesPerChar());
+    }
+
+    FileChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        encode(CharBuffer.wrap(cbuf, off, len));
+    }
+
+    @Override
+    public void write(String str) throws IOException {
+        encode(CharBuffer.wrap(str));
+    }
+
+    private void encode(CharBuffer chars) throws IOException {
+        encoder.reset();
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                drainForEncoding();
+            }
+        } while (result.isOverflow());
+        while (encoder.flush(buffer).isOverflow()) {
+            drainForEncoding();
+        }
+    }
+
+    /**
+     * Write bytes, directly to the file if they do not fit in the buffer
+     */
+    void write(ByteBuffer bytes) throws IOException {
+        if (bytes.remaining() > buffer.remaining()) {
+            drain();
+            if (bytes.remaining() >= buffer.capacity()) {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                return;
+            }
+        }
+        buffer.put(bytes);
+    }
+
+    /**
+     * Apply the flush policy at the end of a write
+     *
+     * @param line
+     *            true if a line was ended
+     */
+    void endWrite(boolean line) throws IOException {
+        if (policy == FlushPolicy.WRITE
+                || (line && policy == FlushPolicy.LINE)) {
+            drain();
+        }
+    }
+
+    // An empty buffer too small for the encoding would overflow forever
+    private void drainForEncoding() throws IOException {
+        if (buffer.position() == 0) {
+            throw new IOException("Buffer of " + buffer.capacity()
+                    + " bytes too small to encode " + encoder.charset());
+        }
+        drain();
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+}
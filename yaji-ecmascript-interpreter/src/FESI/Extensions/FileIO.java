@@ -21,15 +21,16 @@ package FESI.Extensions;
 import java.io.BufferedReader;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
-import java.io.PrintWriter;
-import java.io.Reader;
-import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.yaji.buffer.Buffers;
+import org.yaji.buffer.ESArrayBuffer;
+import org.yaji.event.ESCompletion;
 
 import FESI.Data.BuiltinFunctionObject;
 import FESI.Data.DatePrototype;
@@ -44,421 +45,10 @@ import FESI.Data.FunctionPrototype;
 import FESI.Data.GlobalObject;
 import FESI.Data.ObjectPrototype;
 import FESI.Exceptions.EcmaScriptException;
+import FESI.Exceptions.TypeError;
 import FESI.Interpreter.Evaluator;
 import FESI.Interpreter.ScopeChain;
 
-/**
- * An EcmaScript FileIO 'File' object
- */
-class ESFile extends ESObject {
-    private static final long serialVersionUID = -2502912532866913867L;
-    File file = null;
-    /**
-     * Advanced FESI GT Modified: 5/10/2002 Added the transient modifier to
-     * allow serialization.
-     */
-    transient Object readerWriter = null;
-    boolean atEOF = false;
-    String lastLine = null;
-    Throwable lastError = null;
-
-    ESFile(ESObject prototype, Evaluator evaluator, String fileName) {
-        super(prototype, evaluator);
-        file = new File(fileName);
-    }
-
-    ESFile(ESObject prototype, Evaluator evaluator, String pathName,
-            String fileName) {
-        super(prototype, evaluator);
-        file = new File(pathName, fileName);
-    }
-
-    // for subclass
-    protected ESFile(ESObject prototype, Evaluator evaluator) {
-        super(prototype, evaluator);
-    }
-
-    @Override
-    public String getESClassName() {
-        return "File";
-    }
-
-    @Override
-    public String toString() {
-        if (file == null)
-            return "<null>";
-        return file.toString();
-    }
-
-    @Override
-    public String toDetailString() {
-        return "ES:[Object: builtin " + this.getClass().getName() + ":"
-                + ((file == null) ? "null" : file.toString()) + "]";
-    }
-
-    protected void setError(Throwable e) {
-        lastError = e;
-    }
-
-    public boolean exists() {
-        if (file == null)
-            return false;
-        return file.exists();
-    }
-
-    public boolean open() {
-        if (readerWriter != null) {
-            setError(new IllegalStateException("File already open"));
-            return false;
-        }
-        if (file == null) {
-            setError(new IllegalArgumentException("Uninitialized File object"));
-            return false;
-        }
-
-        // We assume that the BufferedReader and PrintWriter creation
-        // cannot fail except if the FileReader/FileWriter fails.
-        // Otherwise we have an open file until the reader/writer
-        // get garbage collected.
-        try {
-            if (file.exists()) {
-                readerWriter = new BufferedReader(new FileReader(file));
-            } else {
-                readerWriter = new PrintWriter(new FileWriter(file));
-            }
-            return true;
-        } catch (IOException e) {
-            setError(e);
-            return false;
-        }
-    }
-
-    public boolean isOpened() {
-        return (readerWriter != null);
-    }
-
-    public boolean close() {
-        if (readerWriter == null)
-            return false;
-        try {
-            if (readerWriter instanceof Reader) {
-                ((Reader) readerWriter).close();
-            } else {
-                ((Writer) readerWriter).close();
-            }
-            readerWriter = null;
-            return true;
-        } catch (IOException e) {
-            setError(e);
-            readerWriter = null;
-            return false;
-        }
-    }
-
-    public boolean write(boolean ln, ESValue[] arguments) {
-        if (readerWriter == null) {
-            setError(new IllegalStateException("File not opened"));
-            return false;
-        }
-        if (!(readerWriter instanceof PrintWriter)) {
-            setError(new IllegalStateException("File not opened for writing"));
-            return false;
-        }
-        PrintWriter writer = (PrintWriter) readerWriter;
-        for (int i = 0; i < arguments.length; i++) {
-            writer.print(arguments[i].toString());
-        }
-        if (ln)
-            writer.println();
-        return true;
-    }
-
-    public String readln() {
-        if (readerWriter == null) {
-            setError(new IllegalStateException("File not opened"));
-            return null;
-        }
-        if (!(readerWriter instanceof BufferedReader)) {
-            setError(new IllegalStateException("File not opened for reading"));
-            return null;
-        }
-        if (atEOF) {
-            setError(new EOFException());
-            return null;
-        }
-        if (lastLine != null) {
-            String line = lastLine;
-            lastLine = null;
-            return line;
-        }
-        BufferedReader reader = (BufferedReader) readerWriter;
-        // Here lastLine is null, return a new line
-        try {
-            String line = reader.readLine();
-            if (line == null) {
-                atEOF = true;
-                setError(new EOFException());
-            }
-            return line;
-        } catch (IOException e) {
-            setError(e);
-            return null;
-        }
-    }
-
-    public boolean eof() {
-        if (readerWriter == null) {
-            setError(new IllegalStateException("File not opened"));
-            return true;
-        }
-        if (!(readerWriter instanceof BufferedReader)) {
-            setError(new IllegalStateException("File not opened for read"));
-            return true;
-        }
-        if (atEOF)
-            return true;
-        if (lastLine != null)
-            return false;
-        BufferedReader reader = (BufferedReader) readerWriter;
-        try {
-            lastLine = reader.readLine();
-            if (lastLine == null)
-                atEOF = true;
-            return atEOF;
-        } catch (IOException e) {
-            setError(e);
-            return true;
-        }
-    }
-
-    public boolean isFile() {
-        if (file == null) {
-            setError(new IllegalArgumentException("Uninitialized File object"));
-            return false;
-        }
-        return file.isFile();
-    }
-
-    public boolean isDirectory() {
-        if (file == null) {
-            setError(new IllegalArgumentException("Uninitialized File object"));
-            return false;
-        }
-        return file.isDirectory();
-    }
-
-    public boolean flush() {
-        if (readerWriter == null) {
-            setError(new IllegalStateException("File not opened"));
-            return false;
-        }
-        if (readerWriter instanceof Writer) {
-            try {
-                ((Writer) readerWriter).flush();
-            } catch (IOException e) {
-                setError(e);
-                return false;
-            }
-        } else {
-            setError(new IllegalStateException("File not opened for write"));
-            return false; // not supported by reader
-        }
-        return true;
-    }
-
-    public long getLength() {
-        if (file == null) {
-            setError(new IllegalArgumentException("Uninitialized File object"));
-            return -1;
-        }
-        return file.length();
-    }
-
-    public long lastModified() {
-        if (file == null) {
-            setError(new IllegalArgumentException("Uninitialized File object"));
-            return 0L;
-        }
-        return file.lastModified();
-    }
-
-    public String error() {
-        if (lastError == null) {
-            return "";
-        }
-        String exceptionName = lastError.getClass().getName();
-        int l = exceptionName.lastIndexOf(".");
-        if (l > 0)
-            exceptionName = exceptionName.substring(l + 1);
-        return exceptionName + ": " + lastError.getMessage();
-
-    }
-
-    public void clearError() {
-        lastError = null;
-    }
-
-    public boolean remove() {
-        if (file == null) {
-            setError(new IllegalArgumentException("Uninitialized File object"));
-            return false;
-        }
-        if (readerWriter != null) {
-            setError(new IllegalStateException(
-                    "An openened file cannot be removed"));
-            return false;
-        }
-        return file.delete();
-    }
-
-    public boolean renameTo(ESFile toFile) {
-        if (file == null) {
-            setError(new IllegalArgumentException(
-                    "Uninitialized source File object"));
-            return false;
-        }
-        if (toFile.file == null) {
-            setError(new IllegalArgumentException(
-                    "Uninitialized target File object"));
-            return false;
-        }
-        if (readerWriter != null) {
-            setError(new IllegalStateException(
-                    "An openened file cannot be renamed"));
-            return false;
-        }
-        if (toFile.readerWriter != null) {
-            setError(new IllegalStateException(
-                    "You cannot rename to an openened file"));
-            return false;
-        }
-        return file.renameTo(toFile.file);
-    }
-
-    public boolean canRead() {
-        if (file == null) {
-            setError(new IllegalArgumentException("Uninitialized File object"));
-            return false;
-        }
-        return file.canRead();
-    }
-
-    public boolean canWrite() {
-        if (file == null) {
-            setError(new IllegalArgumentException("Uninitialized File object"));
-            return false;
-        }
-        return file.canWrite();
-    }
-
-    public String getParent() {
-        if (file == null) {
-            setError(new IllegalArgumentException("Uninitialized File object"));
-            return "";
-        }
-        String parent = file.getParent();
-        return (parent == null ? "" : parent);
-    }
-
-    public String getName() {
-        if (file == null) {
-            setError(new IllegalArgumentException("Uninitialized File object"));
-            return "";
-        }
-        String name = file.getName();
-        return (name == null ? "" : name);
-    }
-
-    public String getPath() {
-        if (file == null) {
-            setError(new IllegalArgumentException("Uninitialized File object"));
-            return "";
-        }
-        String path = file.getPath();
-        return (path == null ? "" : path);
-    }
-
-    public String getAbsolutePath() {
-        if (file == null) {
-            setError(new IllegalArgumentException("Uninitialized File object"));
-            return "";
-        }
-        String absolutPath = file.getAbsolutePath();
-        return (absolutPath == null ? "" : absolutPath);
-    }
-
-    public boolean isAbsolute() {
-        if (file == null)
-            return false;
-        return file.isAbsolute();
-    }
-
-    public boolean mkdir() {
-        if (file == null)
-            return false;
-        if (readerWriter != null)
-            return false;
-        return file.mkdirs(); // Using multi directory version
-    }
-
-    public String[] list() {
-        if (file == null)
-            return null;
-        if (readerWriter != null)
-            return null;
-        if (!file.isDirectory())
-            return null;
-        return file.list();
-    }
-
-    public String readAll() {
-        // Open the file for readAll
-        if (readerWriter != null) {
-            setError(new IllegalStateException("File already open"));
-            return null;
-        }
-        if (file == null) {
-            setError(new IllegalArgumentException("Uninitialized File object"));
-            return null;
-        }
-        try {
-            if (file.exists()) {
-                readerWriter = new BufferedReader(new FileReader(file));
-            } else {
-                setError(new IllegalStateException("File does not exist"));
-                return null;
-            }
-            if (!file.isFile()) {
-                setError(new IllegalStateException("File is not a regular file"));
-                return null;
-            }
-
-            // read content line by line to setup properl eol
-            StringBuilder buffer = new StringBuilder(
-                    (int) (file.length() * 1.10));
-            BufferedReader reader = (BufferedReader) readerWriter;
-            while (true) {
-                String line = reader.readLine();
-                if (line == null) {
-                    break;
-                }
-                buffer.append(line);
-                buffer.append('\n'); // EcmaScript EOL
-            }
-
-            // Close the file
-            ((Reader) readerWriter).close();
-            readerWriter = null;
-            return buffer.toString();
-        } catch (IOException e) {
-            readerWriter = null;
-            setError(e);
-            return null;
-        }
-    }
-
-} // class ESFile
-
 /**
  * An EcmaScript FileIO File 'constant' as in, err or out
  */
@@ -1149,11 +739,288 @@ public class FileIO extends Extension {
         public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
                 throws EcmaScriptException {
             ESFile file = (ESFile) thisObject;
+            Charset charset = arguments.length > 0 ? toCharset(arguments[0])
+                    : Charset.defaultCharset();
+            return new ESString(file.readAll(charset));
+        }
+    }
+
+    static class FileOpenChannel extends BuiltinFunctionObject {
+        private static final long serialVersionUID = -5379035924467622017L;
+
+        FileOpenChannel(String name, Evaluator evaluator, FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 1);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESFile file = (ESFile) thisObject;
+            ESValue mode = getArg(arguments, 0);
+            ESValue bufferSize = getArg(arguments, 1);
+            ESValue flushPolicy = getArg(arguments, 2);
+            ESValue encoding = getArg(arguments, 3);
+            return ESBoolean.valueOf(file.openChannel(
+                    mode == ESUndefined.theUndefined ? "r" : mode.toString(),
+                    bufferSize == ESUndefined.theUndefined ? FileChannelWriter.DEFAULT_BUFFER_SIZE
+                            : bufferSize.toInt32(),
+                    flushPolicy == ESUndefined.theUndefined ? "full"
+                            : flushPolicy.toString(),
+                    encoding == ESUndefined.theUndefined ? "UTF-8" : encoding
+                            .toString()));
+        }
+    }
+
+    static class FileRead extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 1734165946431957203L;
 
-            return new ESString(file.readAll());
+        FileRead(String name, Evaluator evaluator, FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 2);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESFile file = (ESFile) thisObject;
+            ByteBuffer target = Buffers.getByteRange(getArg(arguments, 0));
+            if (target == null) {
+                throw new TypeError(
+                        "read(target, position) requires an ArrayBuffer or a view");
+            }
+            return ESNumber.valueOf(file.read(target, (long) getArg(
+                    arguments, 1).toInteger()));
         }
     }
 
+    static class FileReadBytes extends BuiltinFunctionObject {
+        private static final long serialVersionUID = -2217286335227592860L;
+
+        FileReadBytes(String name, Evaluator evaluator, FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 2);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESFile file = (ESFile) thisObject;
+            ByteBuffer bytes = file.readBytes((long) getArg(arguments, 0)
+                    .toInteger(), getArg(arguments, 1).toInt32());
+            if (bytes == null) {
+                return ESNull.theNull;
+            }
+            return Buffers.of(getEvaluator()).createArrayBuffer(bytes);
+        }
+    }
+
+    static class FileReadText extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 5209693389546405227L;
+
+        FileReadText(String name, Evaluator evaluator, FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 2);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESFile file = (ESFile) thisObject;
+            Charset charset = arguments.length > 2 ? toCharset(arguments[2])
+                    : Charset.forName("UTF-8");
+            String text = file.readText((long) getArg(arguments, 0)
+                    .toInteger(), getArg(arguments, 1).toInt32(), charset);
+            if (text == null) {
+                return ESNull.theNull;
+            }
+            return new ESString(text);
+        }
+    }
+
+    static class FileMap extends BuiltinFunctionObject {
+        private static final long serialVersionUID = -1969254718617880036L;
+
+        FileMap(String name, Evaluator evaluator, FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 0);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESFile file = (ESFile) thisObject;
+            ESValue length = getArg(arguments, 1);
+            ESArrayBuffer buffer = file.map((long) getArg(arguments, 0)
+                    .toInteger(),
+                    length == ESUndefined.theUndefined ? -1 : (long) length
+                            .toInteger(), getArg(arguments, 2).booleanValue());
+            if (buffer == null) {
+                return ESNull.theNull;
+            }
+            return buffer;
+        }
+    }
+
+    static Charset toCharset(ESValue encoding) throws EcmaScriptException {
+        try {
+            return Charset.forName(encoding.toString());
+        } catch (IllegalArgumentException e) {
+            throw new TypeError("Unsupported encoding " + encoding);
+        }
+    }
+
+    static class FileForEachLine extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 2687400935573069781L;
+
+        FileForEachLine(String name, Evaluator evaluator, FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 1);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESFile file = (ESFile) thisObject;
+            ESValue callback = getArg(arguments, 0);
+            if (!callback.isCallable()) {
+                throw new TypeError(
+                        "forEachLine(fn, delimiter) requires a function");
+            }
+            return ESNumber.valueOf(file.forEachLine(callback, toDelimiter(
+                    arguments, 1)));
+        }
+    }
+
+    static class FileReadLines extends BuiltinFunctionObject {
+        private static final long serialVersionUID = -7386117718767420962L;
+
+        FileReadLines(String name, Evaluator evaluator, FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 1);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESFile file = (ESFile) thisObject;
+            ESValue maxLines = getArg(arguments, 0);
+            ESObject lines = file.readLines(
+                    maxLines == ESUndefined.theUndefined ? Integer.MAX_VALUE
+                            : maxLines.toInt32(), toDelimiter(arguments, 1));
+            if (lines == null) {
+                return ESNull.theNull;
+            }
+            return lines;
+        }
+    }
+
+    static String toDelimiter(ESValue[] arguments, int index)
+            throws TypeError {
+        if (arguments.length <= index
+                || arguments[index] == ESUndefined.theUndefined
+                || arguments[index] == ESNull.theNull) {
+            return null;
+        }
+        String delimiter = arguments[index].toString();
+        if (delimiter.length() == 0) {
+            throw new TypeError("The field delimiter cannot be empty");
+        }
+        return delimiter;
+    }
+
+    static class FileReadAllAsync extends BuiltinFunctionObject {
+        private static final long serialVersionUID = -3300446591830447367L;
+
+        FileReadAllAsync(String name, Evaluator evaluator, FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 0);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESFile file = (ESFile) thisObject;
+            return file.readAllAsync();
+        }
+    }
+
+    static class FileReadAsync extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 6519483307457410128L;
+
+        FileReadAsync(String name, Evaluator evaluator, FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 2);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESFile file = (ESFile) thisObject;
+            ByteBuffer target = Buffers.getByteRange(getArg(arguments, 0));
+            if (target == null) {
+                throw new TypeError(
+                        "readAsync(target, position, callback) requires an ArrayBuffer or a view");
+            }
+            return withCallback(file.readAsync(target, (long) getArg(
+                    arguments, 1).toInteger()), arguments, 2);
+        }
+    }
+
+    static class FileWriteAsync extends BuiltinFunctionObject {
+        private static final long serialVersionUID = -804520468270958357L;
+
+        FileWriteAsync(String name, Evaluator evaluator, FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 1);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESFile file = (ESFile) thisObject;
+            ESValue value = getArg(arguments, 0);
+            ByteBuffer data = Buffers.getByteRange(value);
+            if (data == null) {
+                data = ByteBuffer.wrap(value.toString().getBytes(UTF8));
+            }
+            ESValue position = getArg(arguments, 1);
+            return withCallback(file.writeAsync(data,
+                    position == ESUndefined.theUndefined
+                            || position == ESNull.theNull ? -1
+                            : (long) position.toInteger()), arguments, 2);
+        }
+    }
+
+    static class FileCopyTo extends BuiltinFunctionObject {
+        private static final long serialVersionUID = -1409795380264624418L;
+
+        FileCopyTo(String name, Evaluator evaluator, FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 1);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments)
+                throws EcmaScriptException {
+            ESFile file = (ESFile) thisObject;
+            ESValue target = getArg(arguments, 0);
+            File targetFile;
+            if (target instanceof ESFile && ((ESFile) target).file != null) {
+                targetFile = ((ESFile) target).file;
+            } else if (target.isStringValue()) {
+                targetFile = new File(target.toString());
+            } else {
+                throw new TypeError(
+                        "copyTo(target, callback) requires a File or a path");
+            }
+            return withCallback(file.copyTo(targetFile), arguments, 1);
+        }
+    }
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Call the optional callback argument of an asynchronous operation when
+     * it completes
+     */
+    static ESCompletion withCallback(ESCompletion completion,
+            ESValue[] arguments, int index) {
+        if (arguments.length > index && arguments[index].isCallable()) {
+            completion.addCallback(arguments[index]);
+        }
+        return completion;
+    }
+
     ESObject esFilePrototype = null;
 
     public FileIO() {
@@ -1239,6 +1106,28 @@ public class FileIO extends Extension {
 
         esFilePrototype.putHiddenProperty("readAll", new FileReadAll("readAll",
                 evaluator, fp));
+        esFilePrototype.putHiddenProperty("readAllAsync", new FileReadAllAsync(
+                "readAllAsync", evaluator, fp));
+        esFilePrototype.putHiddenProperty("readAsync", new FileReadAsync(
+                "readAsync", evaluator, fp));
+        esFilePrototype.putHiddenProperty("writeAsync", new FileWriteAsync(
+                "writeAsync", evaluator, fp));
+        esFilePrototype.putHiddenProperty("copyTo", new FileCopyTo("copyTo",
+                evaluator, fp));
+        esFilePrototype.putHiddenProperty("forEachLine", new FileForEachLine(
+                "forEachLine", evaluator, fp));
+        esFilePrototype.putHiddenProperty("readLines", new FileReadLines(
+                "readLines", evaluator, fp));
+        esFilePrototype.putHiddenProperty("openChannel", new FileOpenChannel(
+                "openChannel", evaluator, fp));
+        esFilePrototype.putHiddenProperty("read", new FileRead("read",
+                evaluator, fp));
+        esFilePrototype.putHiddenProperty("readBytes", new FileReadBytes(
+                "readBytes", evaluator, fp));
+        esFilePrototype.putHiddenProperty("readText", new FileReadText(
+                "readText", evaluator, fp));
+        esFilePrototype.putHiddenProperty("map", new FileMap("map",
+                evaluator, fp));
 
         file.putHiddenProperty("stdin", infile);
         file.putHiddenProperty("stdout", outfile);
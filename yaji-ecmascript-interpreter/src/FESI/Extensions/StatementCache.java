@@ -0,0 +1,161 @@
+package FESI.Extensions;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The idle prepared statements of a connection by SQL text, the least
+ * recently used ones closed when the cache is full.
+ * <P>
+ * A statement is taken out of the cache while it is used, so that the same
+ * SQL can be executed again while the row set of a previous execution is
+ * still open, and offered back when it is no longer used.
+ */
+class StatementCache {
+
+    static final int DEFAULT_SIZE = 32;
+
+    private final Connection connection;
+    private final LinkedHashMap<String, PreparedStatement> idle;
+    private int maxSize;
+    private boolean closed = false;
+    private long hits = 0;
+    private long misses = 0;
+
+    StatementCache(Connection connection, int maxSize) {
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.idle = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > StatementCache.this.maxSize) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Take the idle statement prepared for a SQL text, or prepare a new one.
+     * The statement is prepared outside the lock of the cache, as it may
+     * take a round trip to the database.
+     *
+     * @throws SQLException
+     *             if the statement cannot be prepared, or the cache is
+     *             closed
+     */
+    PreparedStatement take(String sql) throws SQLException {
+        PreparedStatement statement;
+        synchronized (this) {
+            if (closed) {
+                throw new SQLException("Statement cache closed");
+            }
+            statement = idle.remove(sql);
+        }
+        if (statement != null && !statement.isClosed()) {
+            synchronized (this) {
+                hits++;
+            }
+            return statement;
+        }
+        statement = connection.prepareStatement(sql);
+        synchronized (this) {
+            if (!closed) {
+                misses++;
+                return statement;
+            }
+        }
+        // Closed while the statement was prepared
+        closeQuietly(statement);
+        throw new SQLException("Statement cache closed");
+    }
+
+    /**
+     * Give back a statement which is no longer used, closed if the cache is
+     * closed or already holds a statement for the same SQL text
+     */
+    void offer(String sql, PreparedStatement statement) {
+        try {
+            if (statement.isClosed()) {
+                return;
+            }
+            statement.clearParameters();
+        } catch (SQLException e) {
+            closeQuietly(statement);
+            return;
+        }
+        synchronized (this) {
+            if (!closed && maxSize > 0 && !idle.containsKey(sql)) {
+                idle.put(sql, statement);
+                return;
+            }
+        }
+        closeQuietly(statement);
+    }
+
+    synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Change the number of idle statements kept, closing the least recently
+     * used ones if needed
+     */
+    synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        Iterator<PreparedStatement> statements = idle.values().iterator();
+        while (idle.size() > maxSize && statements.hasNext()) {
+            closeQuietly(statements.next());
+            statements.remove();
+        }
+    }
+
+    synchronized int size() {
+        return idle.size();
+    }
+
+    /**
+     * @return the number of statements taken from the cache
+     */
+    synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return the number of statements prepared because none was idle
+     */
+    synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Close the idle statements, and the statements offered later
+     */
+    synchronized void close() {
+        closed = true;
+        for (PreparedStatement statement : idle.values()) {
+            closeQuietly(statement);
+        }
+        idle.clear();
+    }
+
+    static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // ignored
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package FESI.Interpreter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import FESI.Data.ConstructedFunctionObject;
+import FESI.Data.ESLoader;
+import FESI.Data.ESUndefined;
+import FESI.Data.ESValue;
+import FESI.Data.FunctionPrototype;
+import FESI.Exceptions.EcmaScriptException;
+
+/**
+ * Applies one function to a sequence of inputs, for example a per-record
+ * transform.
+ * <P>
+ * When possible (see {@link ConstructedFunctionObject#createCallFrame()}) all
+ * calls share the same call frame, so that the arguments object, scope chain
+ * and evaluation visitor are not rebuilt for each input. Each input is passed
+ * as the arguments of one call: an ESValue[] is used as is, an Object[] is
+ * converted element by element and any other value is converted to a single
+ * argument.
+ * <P>
+ * Like the evaluator, a batch evaluator must only be used by one thread at a
+ * time. The static <code>applyAll</code> methods partition the inputs between
+ * several evaluators, each one used by its own thread.
+ */
+public class BatchEvaluator {
+
+    // Number of inputs handed at once to an evaluator of a parallel batch
+    static final int CHUNK_SIZE = 64;
+
+    private final FunctionPrototype function;
+    private final Evaluator evaluator;
+    private final CallFrame frame;
+    private boolean frameInUse = false;
+    private ESValue thisObject = ESUndefined.theUndefined;
+    private final ESValue[] singleArgument = new ESValue[1];
+
+    public BatchEvaluator(FunctionPrototype function) {
+        this.function = function;
+        this.evaluator = function.getEvaluator();
+        this.frame = (function instanceof ConstructedFunctionObject)
+                ? ((ConstructedFunctionObject) function).createCallFrame() : null;
+    }
+
+    public FunctionPrototype getFunction() {
+        return function;
+    }
+
+    /**
+     * @return true if the calls share a call frame
+     */
+    public boolean isReusingFrame() {
+        return frame != null;
+    }
+
+    /**
+     * Set the this object of the following calls (undefined by default)
+     *
+     * @param thisObject
+     *            the this object
+     * @return this batch evaluator
+     */
+    public BatchEvaluator withThis(ESValue thisObject) {
+        this.thisObject = thisObject;
+        return this;
+    }
+
+    /**
+     * Call the function for a single input
+     *
+     * @param input
+     *            the input
+     * @return the result of the function
+     * @throws EcmaScriptException
+     */
+    public ESValue apply(Object input) throws EcmaScriptException {
+        ESValue[] arguments = toArguments(input);
+        try {
+            if (frame == null || frameInUse) {
+                return function.callFunction(thisObject, arguments);
+            }
+            frameInUse = true;
+            try {
+                return ((ConstructedFunctionObject) function).callFunctionInFrame(frame, thisObject, arguments);
+            } finally {
+                frameInUse = false;
+            }
+        } finally {
+            singleArgument[0] = null;
+        }
+    }
+
+    /**
+     * Call the function for each input
+     *
+     * @param inputs
+     *            the inputs
+     * @return the results, in the order of the inputs
+     * @throws EcmaScriptException
+     *             at the first input for which the function fails
+     */
+    public List<ESValue> applyAll(Iterator<?> inputs) throws EcmaScriptException {
+        List<ESValue> results = new ArrayList<ESValue>();
+        while (inputs.hasNext()) {
+            results.add(apply(inputs.next()));
+        }
+        return results;
+    }
+
+    public List<ESValue> applyAll(Spliterator<?> inputs) throws EcmaScriptException {
+        return applyAll(Spliterators.iterator(inputs));
+    }
+
+    private ESValue[] toArguments(Object input) throws EcmaScriptException {
+        if (input instanceof ESValue[]) {
+            return (ESValue[]) input;
+        }
+        if (input instanceof Object[]) {
+            Object[] values = (Object[]) input;
+            ESValue[] arguments = new ESValue[values.length];
+            for (int i = 0; i < values.length; i++) {
+                arguments[i] = ESLoader.normalizeValue(values[i], evaluator);
+            }
+            return arguments;
+        }
+        ESValue value = ESLoader.normalizeValue(input, evaluator);
+        if (!(function instanceof ConstructedFunctionObject)) {
+            // other functions may keep their argument array
+            return new ESValue[] { value };
+        }
+        singleArgument[0] = value;
+        return singleArgument;
+    }
+
+    /**
+     * Apply a global function to the inputs, partitioned between several
+     * evaluators each used by its own thread. Every evaluator must define the
+     * function, typically by having loaded the same script.
+     *
+     * @param evaluators
+     *            the evaluators, each one is locked while it is used
+     * @param functionName
+     *            the name of the function
+     * @param inputs
+     *            the inputs, consumed by one thread at a time
+     * @param ordered
+     *            true to return the results in the order of the inputs,
+     *            false to return them as they are produced
+     * @return the results converted to Java objects
+     * @throws EcmaScriptException
+     *             if the function fails for one of the inputs
+     */
+    public static List<Object> applyAll(List<? extends Evaluator> evaluators, String functionName,
+            Iterator<?> inputs, boolean ordered) throws EcmaScriptException {
+        ExecutorService executor = Executors.newFixedThreadPool(evaluators.size());
+        try {
+            return applyAll(evaluators, functionName, inputs, ordered, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public static List<Object> applyAll(List<? extends Evaluator> evaluators, String functionName,
+            Spliterator<?> inputs, boolean ordered) throws EcmaScriptException {
+        return applyAll(evaluators, functionName, Spliterators.iterator(inputs), ordered);
+    }
+
+    /**
+     * As {@link #applyAll(List, String, Iterator, boolean)}, running the
+     * evaluators on the threads of an executor
+     */
+    public static List<Object> applyAll(List<? extends Evaluator> evaluators, final String functionName,
+            Iterator<?> inputs, boolean ordered, ExecutorService executor) throws EcmaScriptException {
+        final Partition partition = new Partition(inputs, ordered);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (final Evaluator evaluator : evaluators) {
+            futures.add(executor.submit(new Callable<Void>() {
+                public Void call() throws EcmaScriptException {
+                    try {
+                        synchronized (evaluator) {
+                            BatchEvaluator batch = evaluator.getBatchEvaluator(functionName);
+                            Chunk chunk;
+                            while ((chunk = partition.nextChunk()) != null) {
+                                Object[] results = new Object[chunk.inputs.length];
+                                for (int i = 0; i < results.length; i++) {
+                                    results[i] = batch.apply(chunk.inputs[i]).toJavaObject();
+                                }
+                                partition.addResults(chunk.index, results);
+                            }
+                        }
+                    } catch (EcmaScriptException e) {
+                        partition.cancel();
+                        throw e;
+                    } catch (RuntimeException e) {
+                        partition.cancel();
+                        throw e;
+                    }
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            partition.cancel();
+            Throwable cause = e.getCause();
+            if (cause instanceof EcmaScriptException) {
+                throw (EcmaScriptException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new EcmaScriptException("Error in batch evaluation of " + functionName + ": " + cause, cause);
+        } catch (InterruptedException e) {
+            partition.cancel();
+            Thread.currentThread().interrupt();
+            throw new EcmaScriptException("Batch evaluation of " + functionName + " interrupted");
+        }
+        return partition.getResults();
+    }
+
+    private static class Chunk {
+        final int index;
+        final Object[] inputs;
+
+        Chunk(int index, Object[] inputs) {
+            this.index = index;
+            this.inputs = inputs;
+        }
+    }
+
+    /**
+     * The inputs shared by the evaluators of a parallel batch and their results
+     */
+    private static class Partition {
+        private final Iterator<?> inputs;
+        private final boolean ordered;
+        private final TreeMap<Integer, Object[]> orderedResults = new TreeMap<Integer, Object[]>();
+        private final List<Object> unorderedResults = new ArrayList<Object>();
+        private int chunkCount = 0;
+        private boolean cancelled = false;
+
+        Partition(Iterator<?> inputs, boolean ordered) {
+            this.inputs = inputs;
+            this.ordered = ordered;
+        }
+
+        synchronized Chunk nextChunk() {
+            if (cancelled || !inputs.hasNext()) {
+                return null;
+            }
+            Object[] chunk = new Object[CHUNK_SIZE];
+            int size = 0;
+            while (size < CHUNK_SIZE && inputs.hasNext()) {
+                chunk[size++] = inputs.next();
+            }
+            return new Chunk(chunkCount++, size == CHUNK_SIZE ? chunk : Arrays.copyOf(chunk, size));
+        }
+
+        synchronized void addResults(int index, Object[] results) {
+            if (ordered) {
+                orderedResults.put(index, results);
+            } else {
+                unorderedResults.addAll(Arrays.asList(results));
+            }
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+        }
+
+        synchronized List<Object> getResults() {
+            if (!ordered) {
+                return unorderedResults;
+            }
+            List<Object> results = new ArrayList<Object>();
+            for (Object[] chunkResults : orderedResults.values()) {
+                results.addAll(Arrays.asList(chunkResults));
+            }
+            return results;
+        }
+    }
+}
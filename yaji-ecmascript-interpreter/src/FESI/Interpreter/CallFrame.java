@@ -0,0 +1,26 @@
+package FESI.Interpreter;
+
+import FESI.Data.ESArguments;
+
+/**
+ * The activation of a function (variable object, scope chain and evaluation
+ * visitor) kept to be reused by successive calls of the same function.
+ * <P>
+ * A frame can only be used by one call at a time, and only for functions
+ * which cannot keep a reference to their activation once they return.
+ */
+public final class CallFrame {
+    final ESArguments variableObject;
+    final ScopeChain scopeChain;
+    final EcmaScriptEvaluateVisitor visitor;
+
+    CallFrame(ESArguments variableObject, ScopeChain scopeChain, EcmaScriptEvaluateVisitor visitor) {
+        this.variableObject = variableObject;
+        this.scopeChain = scopeChain;
+        this.visitor = visitor;
+    }
+
+    public ESArguments getVariableObject() {
+        return variableObject;
+    }
+}
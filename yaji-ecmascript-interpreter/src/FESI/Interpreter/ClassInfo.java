@@ -27,6 +27,8 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Hashtable;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import FESI.Data.ESLoader;
 import FESI.Exceptions.EcmaScriptException;
@@ -49,7 +51,10 @@ import FESI.Exceptions.ProgrammingError;
  * <P>
  * The cache is shared by all instance of the evaluator and class loaders (it is
  * enough to identify the classes by their Class object). So the access must be
- * synchronized and no evaluator specific information must be added.
+ * synchronized and no evaluator specific information must be added. Each
+ * ClassInfo is locked separately, so that evaluators running in different
+ * threads do not wait for each other when calling methods of unrelated
+ * classes.
  * <P>
  * The existence of this cache defeats class garbage collections for classes
  * accessed via EcmaScript. This should not be too severe a restriction, and can
@@ -58,7 +63,11 @@ import FESI.Exceptions.ProgrammingError;
 public class ClassInfo {
 
     /** Cache of information on all classes, using the class object as a key */
-    static private Hashtable<Class<?>, ClassInfo> allClassInfo = new Hashtable<Class<?>, ClassInfo>();
+    static private ConcurrentHashMap<Class<?>, ClassInfo> allClassInfo = new ConcurrentHashMap<Class<?>, ClassInfo>();
+
+    /** Lookups of public and bean methods found in the cache, or not */
+    static private final LongAdder methodCacheHits = new LongAdder();
+    static private final LongAdder methodCacheMisses = new LongAdder();
 
     /** Cache of public methods */
     private Hashtable<String, Method[]> publicMethods = null;
@@ -78,7 +87,7 @@ public class ClassInfo {
 
     /**
      * Ensure that the specified class has a ClassInfo object in the cached.
-     * Create an empty one if needed. Must be called synchronized.
+     * Create an empty one if needed.
      * 
      * @param cls
      *            The class for which we look for a ClassInfo
@@ -91,12 +100,38 @@ public class ClassInfo {
             if (debug)
                 System.out.println("** Class info for class '" + cls
                         + "' not found in cache, created");
-            classInfo = new ClassInfo();
-            allClassInfo.put(cls, classInfo);
+            ClassInfo newClassInfo = new ClassInfo();
+            classInfo = allClassInfo.putIfAbsent(cls, newClassInfo);
+            if (classInfo == null) {
+                classInfo = newClassInfo;
+            }
         }
         return classInfo;
     }
 
+    /**
+     * @return the number of method lookups found in the cache, by all
+     *         evaluators
+     */
+    public static long getMethodCacheHits() {
+        return methodCacheHits.sum();
+    }
+
+    /**
+     * @return the number of method lookups not found in the cache, by all
+     *         evaluators
+     */
+    public static long getMethodCacheMisses() {
+        return methodCacheMisses.sum();
+    }
+
+    /**
+     * @return the number of classes with cached information
+     */
+    public static int getCachedClassCount() {
+        return allClassInfo.size();
+    }
+
     /**
      * Get the property descriptor for the specified field of the specified
      * class, considered as a bean.
@@ -107,10 +142,12 @@ public class ClassInfo {
      *            The class for which we look for the property.
      * @return The PropertyDescriptor or null if not found or in case of error
      */
-    synchronized public static PropertyDescriptor lookupBeanField(
+    public static PropertyDescriptor lookupBeanField(
             String fieldName, Class<?> cls) {
         ClassInfo classInfo = ClassInfo.ensureClassInfo(cls);
-        return classInfo.cachedBeanFieldLookup(fieldName, cls);
+        synchronized (classInfo) {
+            return classInfo.cachedBeanFieldLookup(fieldName, cls);
+        }
     }
 
     /**
@@ -305,10 +342,12 @@ public class ClassInfo {
      *            The class of the method being looked up
      * @return The method array or null if none found or in case of error
      */
-    synchronized public static Method[] lookupPublicMethod(String functionName,
+    public static Method[] lookupPublicMethod(String functionName,
             Class<?> cls) throws EcmaScriptException {
         ClassInfo classInfo = ClassInfo.ensureClassInfo(cls);
-        return classInfo.cachedPublicMethodLookup(functionName, cls);
+        synchronized (classInfo) {
+            return classInfo.cachedPublicMethodLookup(functionName, cls);
+        }
     }
 
     /**
@@ -418,9 +457,11 @@ public class ClassInfo {
                     System.out.println("** " + methods.length
                             + " method(s) named '" + functionName
                             + "' found in cache");
+                methodCacheHits.increment();
                 return methods;
             }
         }
+        methodCacheMisses.increment();
         // Not in cache, find if any matching the same name can be found
         if (debug)
             System.out.println("** No method named '" + functionName
@@ -548,10 +589,12 @@ public class ClassInfo {
      *            The class of the method being looked up
      * @return The method array or null if none found or in case of error
      */
-    synchronized public static Method[] lookupBeanMethod(String functionName,
+    public static Method[] lookupBeanMethod(String functionName,
             Class<?> cls) {
         ClassInfo classInfo = ClassInfo.ensureClassInfo(cls);
-        return classInfo.cachedBeanMethodLookup(functionName, cls);
+        synchronized (classInfo) {
+            return classInfo.cachedBeanMethodLookup(functionName, cls);
+        }
     }
 
     /**
@@ -583,9 +626,11 @@ public class ClassInfo {
                     System.out.println("** " + methods.length
                             + " method(s) named '" + functionName
                             + "' found in cache");
+                methodCacheHits.increment();
                 return methods;
             }
         }
+        methodCacheMisses.increment();
         // Not in cache, find if any matching the same name can be found
         if (debug)
             System.out.println("** No method named '" + functionName
@@ -21,6 +21,10 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
 
+import org.yaji.buffer.ESTypedArray;
+import org.yaji.metrics.Metric;
+import org.yaji.metrics.MetricsRecorder;
+
 import FESI.AST.ASTAllocationExpression;
 import FESI.AST.ASTAndExpressionSequence;
 import FESI.AST.ASTArrayLiteral;
@@ -75,6 +79,7 @@ import FESI.AST.ASTWithStatement;
 import FESI.AST.AbstractEcmaScriptVisitor;
 import FESI.AST.Node;
 import FESI.AST.SimpleNode;
+import FESI.Data.BuiltinFunctionObject;
 import FESI.Data.ConstructedFunctionObject;
 import FESI.Data.ESAppendable;
 import FESI.Data.ESArguments;
@@ -149,6 +154,24 @@ public class EcmaScriptEvaluateVisitor extends AbstractEcmaScriptVisitor impleme
         this.evaluator = evaluator;
     }
 
+    /**
+     * Make this visitor available for a new evaluation, used when the visitor
+     * of a call frame is kept across calls
+     */
+    void reset() {
+        completionCode = -1;
+        targetLabel = null;
+    }
+
+    /**
+     * Return the source being evaluated
+     * 
+     * @return null before the evaluation
+     */
+    protected EvaluationSource getEvaluationSource() {
+        return evaluationSource;
+    }
+
     /**
      * Return the completion code of this evaluation
      * 
@@ -210,6 +233,7 @@ public class EcmaScriptEvaluateVisitor extends AbstractEcmaScriptVisitor impleme
         try {
             result = (ESValue) node.jjtAccept(this, FOR_VALUE);
         } catch (PackagedException e) {
+            recordException(e.exception);
             e.exception.appendEvaluationSource(new LineEvaluationSource(e.node
                     .getLineNumber(), es));
             throw e.exception;
@@ -244,6 +268,7 @@ public class EcmaScriptEvaluateVisitor extends AbstractEcmaScriptVisitor impleme
         try {
             result = (ESValue) node.jjtAccept(this, FOR_VALUE);
         } catch (PackagedException e) {
+            recordException(e.exception);
             e.exception.appendEvaluationSource(new LineEvaluationSource(e.node
                     .getLineNumber(), es));
             throw e.exception;
@@ -279,6 +304,7 @@ public class EcmaScriptEvaluateVisitor extends AbstractEcmaScriptVisitor impleme
         try {
             result = (ESValue) node.jjtAccept(this, FOR_VALUE);
         } catch (PackagedException e) {
+            recordException(e.exception);
             e.exception.appendEvaluationSource(new LineEvaluationSource(e.node
                     .getLineNumber(), es));
             throw e.exception;
@@ -288,6 +314,17 @@ public class EcmaScriptEvaluateVisitor extends AbstractEcmaScriptVisitor impleme
         return result;
     }
 
+    /**
+     * Count an exception in the metrics of the evaluator, the first time it
+     * is seen
+     */
+    private void recordException(EcmaScriptException exception) {
+        MetricsRecorder metrics = evaluator.getMetrics();
+        if (metrics != null && exception.markRecorded()) {
+            metrics.increment(Metric.EXCEPTION, 1);
+        }
+    }
+
     /*--------------------------------------------------------------------
      * The following routines implement the interpretation process
      * For detail see the EcmaScript standard to which they refer
@@ -894,6 +931,18 @@ public class EcmaScriptEvaluateVisitor extends AbstractEcmaScriptVisitor impleme
         }
     }
 
+    /**
+     * The index of an element of a typed array, accessed without converting
+     * the index to a property name
+     * 
+     * @return the index, or -1 to access the property by name
+     */
+    private static long elementIndex(ESObject base, ESValue property)
+            throws EcmaScriptException {
+        return base instanceof ESTypedArray ? ESTypedArray.toIndex(property)
+                : -1;
+    }
+
     /*
      * Attempt to minimize the creation of intermediate ESReferences. This is
      * prettry tricky. The trick is to keep the last result as a delayed
@@ -1074,8 +1123,8 @@ public class EcmaScriptEvaluateVisitor extends AbstractEcmaScriptVisitor impleme
                         // Via global or WITH, use current object
                         ESValue theFunction = lastResult
                                 .toESObject(evaluator); // Conversion needed ?
-                        lastResult = theFunction.callFunction(thisObject,
-                                arguments);
+                        lastResult = BuiltinFunctionObject.callProfiled(
+                                theFunction, thisObject, arguments);
                     }
                     completionCode = C_NORMAL;
 
@@ -1103,12 +1152,17 @@ public class EcmaScriptEvaluateVisitor extends AbstractEcmaScriptVisitor impleme
                                 "'undefined' is not an object with properties");
                     }
                     ESObject currentBase = lastResult.toESObject(evaluator);
-                    String propertyName = currentProperty.toString();
-                    // System.out.println("--->getProperty in cb: " +
-                    // currentBase + " pn: " + propertyName + "<---"); //
-                    // *******
-                    result = currentBase.getProperty(propertyName, propertyName
-                            .hashCode());
+                    long index = elementIndex(currentBase, currentProperty);
+                    if (index >= 0) {
+                        result = currentBase.getProperty(index);
+                    } else {
+                        String propertyName = currentProperty.toString();
+                        // System.out.println("--->getProperty in cb: " +
+                        // currentBase + " pn: " + propertyName + "<---"); //
+                        // *******
+                        result = currentBase.getProperty(propertyName,
+                                propertyName.hashCode());
+                    }
                 } else {
                     // Last value is already the final value
                     result = lastResult;
@@ -1123,11 +1177,16 @@ public class EcmaScriptEvaluateVisitor extends AbstractEcmaScriptVisitor impleme
                             + "' is not an assignable value");
                 } else {
                     ESObject currentBase = lastResult.toESObject(evaluator);
-                    String propertyName = currentProperty.toString();
-                    // System.out.println("--->Build ref cb: " + currentBase +
-                    // " pn: " + propertyName + "<---"); // ********
-                    result = new ESReference(currentBase, propertyName,
-                            propertyName.hashCode());
+                    long index = elementIndex(currentBase, currentProperty);
+                    if (index >= 0) {
+                        result = new ESReference(currentBase, index);
+                    } else {
+                        String propertyName = currentProperty.toString();
+                        // System.out.println("--->Build ref cb: " +
+                        // currentBase + " pn: " + propertyName + "<---");
+                        result = new ESReference(currentBase, propertyName,
+                                propertyName.hashCode());
+                    }
                 }
             }
 
@@ -1960,6 +2019,7 @@ public class EcmaScriptEvaluateVisitor extends AbstractEcmaScriptVisitor impleme
             B = node.jjtGetChild(0).jjtAccept(this, data);
             data = B;
         } catch ( PackagedException e ) {
+            recordException(e.exception);
             if (catchStatement != null) {
                 try {
                     C = catchStatement.jjtAccept(this, e.exception.getErrorObject(evaluator));
@@ -57,6 +57,15 @@ public abstract class EvaluationSource implements java.io.Serializable {
         return getEvaluationSourceText();
     }
 
+    /**
+     * Return the calling source
+     * 
+     * @return null if this is the first level of evaluation
+     */
+    public EvaluationSource getPreviousSource() {
+        return previousSource;
+    }
+
     /**
      * Return an evaluation source number if defined
      * 
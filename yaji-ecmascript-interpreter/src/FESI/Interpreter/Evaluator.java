@@ -36,17 +36,23 @@ import java.util.TimeZone;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
+import org.yaji.buffer.Buffers;
 import org.yaji.data.SparseArrayConstructor;
 import org.yaji.debugger.DebugEcmaScriptEvaluateVisitor;
 import org.yaji.debugger.Debugger;
+import org.yaji.event.EventLoop;
 import org.yaji.log.ILog;
 import org.yaji.log.Logs;
+import org.yaji.metrics.Metric;
+import org.yaji.metrics.MetricsRecorder;
+import org.yaji.profiler.CallStack;
 
 import FESI.AST.ASTProgram;
 import FESI.AST.ASTStatement;
 import FESI.AST.ASTStatementList;
 import FESI.Data.ArrayObject;
 import FESI.Data.BuiltinFunctionObject;
+import FESI.Data.ESArguments;
 import FESI.Data.ESLoader;
 import FESI.Data.ESNull;
 import FESI.Data.ESObject;
@@ -56,13 +62,17 @@ import FESI.Data.ESString;
 import FESI.Data.ESUndefined;
 import FESI.Data.ESValue;
 import FESI.Data.ESWrapper;
+import FESI.Data.FunctionInvoker;
+import FESI.Data.FunctionPrototype;
 import FESI.Data.GlobalObject;
 import FESI.Data.IObjectProfiler;
 import FESI.Data.JSGlobalWrapper;
+import FESI.Data.StandardProperty;
 import FESI.Exceptions.EcmaScriptException;
 import FESI.Exceptions.EcmaScriptLexicalException;
 import FESI.Exceptions.EcmaScriptParseException;
 import FESI.Exceptions.SyntaxError;
+import FESI.Exceptions.TypeError;
 import FESI.Extensions.Extension;
 import FESI.Parser.EcmaScript;
 import FESI.Parser.ParseException;
@@ -142,9 +152,15 @@ public class Evaluator implements Serializable {
     private Hashtable<String, Object> extensions = null;
 
     private long nextObjectId = 0;
+    // The object ids already counted as objects created by the metrics
+    private long recordedObjectId = 0;
+
+    private MetricsRecorder metrics = null;
 
     private ESObject regExpPrototype;
 
+    private Buffers buffers;
+
     /**
      * Reset the evaluator, forgetting all global definitions and loaded
      * extensions
@@ -159,6 +175,89 @@ public class Evaluator implements Serializable {
         extensions = new Hashtable<String, Object>(); // forget extensions
     }
 
+    // State restored by restoreCleanState
+    private PropertyJournal cleanStateJournal = null;
+    private List<String> cleanStateExtensions = null;
+    private Locale cleanStateLocale = null;
+    private TimeZone cleanStateTimeZone = null;
+
+    /**
+     * Mark the current state of the evaluator as the clean state, to which it
+     * can be returned by {@link #restoreCleanState()}. The changes to the
+     * properties of the global object, of the objects it contains (as the
+     * standard constructors), of their prototypes and of the prototype chains
+     * of these objects are journaled from now on, as well as the elements of
+     * those which are arrays, and loaded extensions and default locale are
+     * remembered.
+     * 
+     * @exception EcmaScriptException
+     *                In case of error accessing the global properties
+     */
+    public void markCleanState() throws EcmaScriptException {
+        if (cleanStateJournal != null) {
+            cleanStateJournal.close();
+        }
+        PropertyJournal journal = new PropertyJournal();
+        globalObject.setPropertyJournal(journal);
+        for (Enumeration<String> names = globalObject.getOwnPropertyNames(); names.hasMoreElements();) {
+            String name = names.nextElement();
+            ESValue value = globalObject.getOwnProperty(name, name.hashCode());
+            if (value instanceof ESObject) {
+                ESObject object = (ESObject) value;
+                object.setPropertyJournal(journal);
+                ESValue prototype = object.getOwnProperty(StandardProperty.PROTOTYPEstring, StandardProperty.PROTOTYPEhash);
+                if (prototype instanceof ESObject) {
+                    ((ESObject) prototype).setPropertyJournal(journal);
+                }
+            }
+        }
+        cleanStateJournal = journal;
+        cleanStateExtensions = new ArrayList<String>(extensions.keySet());
+        cleanStateLocale = defaultLocale;
+        cleanStateTimeZone = defaultTimeZone;
+    }
+
+    /**
+     * Return the evaluator to the state marked by {@link #markCleanState()},
+     * undoing the changes made to the global object and standard objects,
+     * forgetting the extensions loaded since and resetting the current
+     * execution context. This is much cheaper than creating a new evaluator,
+     * but objects not reachable as described by markCleanState (for example
+     * objects created by a loaded script) are not restored.
+     * 
+     * @exception IllegalStateException
+     *                If no clean state was marked
+     */
+    public void restoreCleanState() {
+        if (cleanStateJournal == null) {
+            throw new IllegalStateException("No clean state marked");
+        }
+        cleanStateJournal.rollback();
+        extensions.keySet().retainAll(cleanStateExtensions);
+        if (defaultLocale != cleanStateLocale) {
+            setDefaultLocale(cleanStateLocale);
+        }
+        defaultTimeZone = cleanStateTimeZone;
+        theScopeChain = null;
+        currentVariableObject = null;
+        currentThisObject = null;
+        currentEvaluationSource = null;
+        representationOutputBuffer = null;
+        strictMode = false;
+        directCallEval = false;
+        if (eventLoop != null) {
+            eventLoop.cancelAll();
+        }
+    }
+
+    /**
+     * @return the number of objects changed since the clean state was marked
+     *         or last restored, 0 if no clean state was marked
+     */
+    public int getChangedSinceCleanState() {
+        return cleanStateJournal == null ? 0 : cleanStateJournal.getChangedCount();
+    }
+
     // handler for profiling logging
     private static IProcedureProfiler procedureProfilingCallback = null;
 
@@ -301,6 +400,27 @@ public class Evaluator implements Serializable {
         regExpPrototype = o;
     }
 
+    /**
+     * Get the ArrayBuffer, DataView and typed array objects
+     * 
+     * @return the buffer objects
+     */
+    public Buffers getBuffers() {
+        return buffers;
+    }
+
+    /**
+     * Set the ArrayBuffer, DataView and typed array objects
+     * <P>
+     * Used only by initilization code
+     * 
+     * @param buffers
+     *            the buffer objects
+     */
+    public void setBuffers(Buffers buffers) {
+        this.buffers = buffers;
+    }
+
     /**
      * Set the Function object
      * <P>
@@ -652,6 +772,45 @@ public class Evaluator implements Serializable {
         return theScopeChain.doIndirectCall(this, thisObject, functionName, hash, arguments);
     }
 
+    /**
+     * Create an invoker for a global function, to call it repeatedly from
+     * Java with primitive arguments
+     * 
+     * @param functionName
+     *            The name of the function
+     * @return A new invoker
+     * @exception EmcaScriptException
+     *                If there is no such function
+     */
+    public FunctionInvoker getInvoker(String functionName)
+            throws EcmaScriptException {
+        return getGlobalFunction(functionName).createInvoker();
+    }
+
+    /**
+     * Create a batch evaluator for a global function, to apply it to many
+     * inputs in turn
+     * 
+     * @param functionName
+     *            The name of the function
+     * @return A new batch evaluator
+     * @exception EmcaScriptException
+     *                If there is no such function
+     */
+    public BatchEvaluator getBatchEvaluator(String functionName)
+            throws EcmaScriptException {
+        return new BatchEvaluator(getGlobalFunction(functionName));
+    }
+
+    private FunctionPrototype getGlobalFunction(String functionName)
+            throws EcmaScriptException {
+        ESValue function = globalObject.getProperty(functionName, functionName.hashCode());
+        if (!(function instanceof FunctionPrototype)) {
+            throw new TypeError(functionName + " is not a function");
+        }
+        return (FunctionPrototype) function;
+    }
+
     /**
      * Create variable only if does not already exist (do not overwrite
      * parameters and functions of the same name)
@@ -993,6 +1152,10 @@ public class Evaluator implements Serializable {
 
     private transient Debugger debugger;
 
+    private transient EventLoop eventLoop = null;
+
+    private transient CallStack callStack = null;
+
     private Locale defaultLocale;
 
     private TimeZone defaultTimeZone;
@@ -1000,6 +1163,58 @@ public class Evaluator implements Serializable {
     private List<ILocaleListener> localeListeners = new ArrayList<ILocaleListener>();
     private boolean directCallEval = false;
 
+    /**
+     * Record the metrics of this evaluator, replacing the previous recorder
+     * 
+     * @param metrics
+     *            the recorder, possibly shared with other evaluators, or null
+     *            to stop recording
+     */
+    public void setMetrics(MetricsRecorder metrics) {
+        this.metrics = metrics;
+        this.recordedObjectId = nextObjectId;
+    }
+
+    /**
+     * @return the recorder of the metrics of this evaluator, or null
+     */
+    public MetricsRecorder getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the script functions being called, for profilers
+     */
+    public CallStack getCallStack() {
+        if (callStack == null) {
+            callStack = new CallStack();
+        }
+        return callStack;
+    }
+
+    /**
+     * @return the event loop of this evaluator, created on first use
+     */
+    public EventLoop getEventLoop() {
+        if (eventLoop == null) {
+            eventLoop = new EventLoop(this);
+        }
+        return eventLoop;
+    }
+
+    /**
+     * Run the event loop until no timer, callback or asynchronous operation
+     * is left. Nop if the event loop was never used.
+     * 
+     * @exception EcmaScriptException
+     *                Thrown by a callback
+     */
+    public void runUntilIdle() throws EcmaScriptException {
+        if (eventLoop != null) {
+            eventLoop.runUntilIdle();
+        }
+    }
+
     public interface EvaluationResultBuilder {
         public EvaluationResult getEvaluationResult(ESValue theValue,EcmaScriptEvaluateVisitor evaluationVisitor)
                 throws EcmaScriptException;
@@ -1028,25 +1243,29 @@ public class Evaluator implements Serializable {
     public ESValue evaluateFunctionInScope(ASTStatementList node, EvaluationSource es,
             ESObject variableObject, List<String> localVariableNames,
             ESValue thisObject, ScopeChain scopeChain) throws EcmaScriptException {
-        return evaluateStatementList(node, es, variableObject, localVariableNames, thisObject, scopeChain, new EvaluationResultBuilder() {
-            public EvaluationResult getEvaluationResult(ESValue theValue,
-                    EcmaScriptEvaluateVisitor evaluationVisitor)
-                            throws EcmaScriptException {
-                int cc = evaluationVisitor.getCompletionCode();
-                if (cc == EcmaScriptEvaluateVisitor.C_NORMAL) {
-                    theValue = ESUndefined.theUndefined; // ES5.1 13.2.1.6
-                } else 
-                    if ((cc != EcmaScriptEvaluateVisitor.C_NORMAL)
-                            && (cc != EcmaScriptEvaluateVisitor.C_RETURN)) {
-                        throw new EcmaScriptException("Unexpected "
-                                + evaluationVisitor.getCompletionCodeString()
-                                + " in function");
-                    }
-                return new EvaluationResult(theValue,cc);
-            }
+        return evaluateStatementList(node, es, variableObject, localVariableNames, thisObject, scopeChain, FUNCTION_RESULT_BUILDER).value;
+    }
+
+    // Shared by all function calls, it does not depend on the call
+    private static final EvaluationResultBuilder FUNCTION_RESULT_BUILDER = new EvaluationResultBuilder() {
+        public EvaluationResult getEvaluationResult(ESValue theValue,
+                EcmaScriptEvaluateVisitor evaluationVisitor)
+                        throws EcmaScriptException {
+            int cc = evaluationVisitor.getCompletionCode();
+            if (cc == EcmaScriptEvaluateVisitor.C_NORMAL) {
+                theValue = ESUndefined.theUndefined; // ES5.1 13.2.1.6
+            } else 
+                if ((cc != EcmaScriptEvaluateVisitor.C_NORMAL)
+                        && (cc != EcmaScriptEvaluateVisitor.C_RETURN)) {
+                    throw new EcmaScriptException("Unexpected "
+                            + evaluationVisitor.getCompletionCodeString()
+                            + " in function");
+                }
+            return new EvaluationResult(theValue,cc);
+        }
+
+    };
 
-        }).value;
-    }
     public EvaluationResult evaluateStatementList(ASTStatementList node,
                 EvaluationSource es, ESObject variableObject,
                 List<String> localVariableNames, ESValue thisObject,
@@ -1058,11 +1277,7 @@ public class Evaluator implements Serializable {
         ScopeChain previousScopeChain = theScopeChain;
 
         currentVariableObject = variableObject;
-        if (isStrictMode()) {
-            currentThisObject = ( thisObject == globalObject ) ? ESUndefined.theUndefined : thisObject;
-        } else {
-            currentThisObject = (thisObject == ESUndefined.theUndefined || thisObject == ESNull.theNull || thisObject == null) ? getGlobalObject() : thisObject.toESObject(this);
-        }
+        currentThisObject = functionThisObject(thisObject);
         theScopeChain = new ScopeChain(variableObject, (scopeChain != null) ? scopeChain : globalScope, false);
         EvaluationSource savedEvaluationSource = currentEvaluationSource;
         currentEvaluationSource = es;
@@ -1084,6 +1299,74 @@ public class Evaluator implements Serializable {
         }
     }
 
+    private ESValue functionThisObject(ESValue thisObject) throws EcmaScriptException {
+        if (isStrictMode()) {
+            return ( thisObject == globalObject ) ? ESUndefined.theUndefined : thisObject;
+        }
+        return (thisObject == ESUndefined.theUndefined || thisObject == ESNull.theNull || thisObject == null) ? getGlobalObject() : thisObject.toESObject(this);
+    }
+
+    /**
+     * Create a call frame which can be used for many successive calls of a
+     * function, see {@link #evaluateFunctionInFrame}
+     * 
+     * @param variableObject
+     *            The variable object of the calls
+     * @param scopeChain
+     *            The scope in which the function was defined, or null for the
+     *            global scope
+     * @return the new call frame
+     */
+    public CallFrame newCallFrame(ESArguments variableObject, ScopeChain scopeChain) {
+        return new CallFrame(variableObject,
+                new ScopeChain(variableObject, (scopeChain != null) ? scopeChain : globalScope, false),
+                newEcmaScriptEvaluateVisitor());
+    }
+
+    /**
+     * Evaluate a function body in a call frame kept from a previous call,
+     * reusing its scope chain and evaluation visitor. The caller must have
+     * bound the arguments and local variables of the frame, and the function
+     * must not be able to capture the frame (the frame is not reentrant).
+     * 
+     * @param node
+     *            The AST node representing the list of statements
+     * @param es
+     *            The evaluation source information for backtrace
+     * @param frame
+     *            The frame
+     * @param thisObject
+     *            The this of this evaluation
+     * @return The result of the function
+     * @exception EcmaScriptException
+     *                In case of any error during evaluation
+     */
+    public ESValue evaluateFunctionInFrame(ASTStatementList node, EvaluationSource es,
+            CallFrame frame, ESValue thisObject) throws EcmaScriptException {
+        ESObject savedVariableObject = currentVariableObject;
+        ESValue savedThisObject = currentThisObject;
+        ScopeChain previousScopeChain = theScopeChain;
+        EvaluationSource savedEvaluationSource = currentEvaluationSource;
+
+        currentVariableObject = frame.variableObject;
+        currentThisObject = functionThisObject(thisObject);
+        theScopeChain = frame.scopeChain;
+        currentEvaluationSource = es;
+        try {
+            EcmaScriptEvaluateVisitor evaluationVisitor = frame.visitor;
+            evaluationVisitor.reset();
+            evaluationVisitor.setRepresentationOptimisation(
+                    useRepresentationOptimisation, representationOutputBuffer);
+            ESValue theValue = evaluationVisitor.evaluateFunction(node, es);
+            return FUNCTION_RESULT_BUILDER.getEvaluationResult(theValue, evaluationVisitor).value;
+        } finally {
+            currentVariableObject = savedVariableObject;
+            theScopeChain = previousScopeChain;
+            currentThisObject = savedThisObject;
+            currentEvaluationSource = savedEvaluationSource;
+        }
+    }
+
     public ESValue executeRepresentation(ASTStatementList node,
             EvaluationSource es, ESObject variableObject,
             List<String> localVariableNames, ESObject thisObject,
@@ -1147,6 +1430,31 @@ public class Evaluator implements Serializable {
 
     public ESValue evaluate(ParsedProgram program, ESValue thisObject,
             boolean acceptReturn) throws EcmaScriptException {
+        MetricsRecorder recorder = metrics;
+        if (recorder == null) {
+            return evaluateProgram(program, thisObject, acceptReturn);
+        }
+        long start = System.nanoTime();
+        try {
+            return evaluateProgram(program, thisObject, acceptReturn);
+        } catch (EcmaScriptException e) {
+            if (e.markRecorded()) {
+                recorder.increment(Metric.EXCEPTION, 1);
+            }
+            throw e;
+        } finally {
+            recorder.recordTime(Metric.EVALUATION, System.nanoTime() - start);
+            // The objects are counted from their ids, rather than one by one
+            long objectId = nextObjectId;
+            if (objectId > recordedObjectId) {
+                recorder.increment(Metric.OBJECT_CREATED, objectId - recordedObjectId);
+            }
+            recordedObjectId = objectId;
+        }
+    }
+
+    private ESValue evaluateProgram(ParsedProgram program, ESValue thisObject,
+            boolean acceptReturn) throws EcmaScriptException {
         ASTProgram node = program.getProgramNode();
         ESValue theValue = ESUndefined.theUndefined;
 
@@ -1235,7 +1543,59 @@ public class Evaluator implements Serializable {
      public ESValue evaluate(java.io.Reader is,
             ESValue thisObject, EvaluationSource es, boolean acceptReturn)
             throws EcmaScriptException {
-        ESValue theValue = ESUndefined.theUndefined;
+        ParsedProgram program = parseProgram(is, es);
+        return evaluate(program, thisObject, acceptReturn);
+    }
+
+    /**
+     * Parse a stream into a program which can be evaluated any number of
+     * times with {@link #evaluate(ParsedProgram, ESValue, boolean)} without
+     * being parsed again.
+     *
+     * @param is
+     *            Input stream to parse
+     * @param es
+     *            the identification of the source for back trace
+     * @return The parsed program
+     * @exception EmcaScriptException
+     *                In case of any parse or lexical error
+     */
+    public ParsedProgram parseProgram(java.io.Reader is, EvaluationSource es)
+            throws EcmaScriptException {
+        long start = System.nanoTime();
+        ASTProgram programNode = parseProgramNode(is, es, debugParse);
+        List<String> variableList = varDeclarationVisitor
+                .processVariableDeclarations(programNode, es);
+        MetricsRecorder recorder = metrics;
+        if (recorder != null) {
+            recorder.recordTime(Metric.PARSE, System.nanoTime() - start);
+        }
+        return new ParsedProgram(programNode, variableList, es);
+    }
+
+    /**
+     * Parse a stream into a program independently of any evaluator. The
+     * program can be evaluated by several evaluators, including concurrently,
+     * each one creating its own functions from the shared parse tree.
+     *
+     * @param is
+     *            Input stream to parse
+     * @param es
+     *            the identification of the source for back trace
+     * @return The parsed program
+     * @exception EmcaScriptException
+     *                In case of any parse or lexical error
+     */
+    public static ParsedProgram parseSharedProgram(java.io.Reader is, EvaluationSource es)
+            throws EcmaScriptException {
+        ASTProgram programNode = parseProgramNode(is, es, false);
+        List<String> variableList = new EcmaScriptVariableVisitor()
+                .processVariableDeclarations(programNode, es);
+        return new ParsedProgram(programNode, variableList, es);
+    }
+
+    private static ASTProgram parseProgramNode(java.io.Reader is, EvaluationSource es, boolean debugParse)
+            throws EcmaScriptException {
         EcmaScript parser = new EcmaScript(is);
         ASTProgram programNode = null;
         try {
@@ -1256,15 +1616,7 @@ public class Evaluator implements Serializable {
             }
             throw new EcmaScriptLexicalException(e, es);
         }
-
-        List<String> variableList = varDeclarationVisitor
-                .processVariableDeclarations(programNode, es);
-
-        ParsedProgram program = new ParsedProgram(programNode, variableList, es);
-
-        theValue = evaluate(program, thisObject, acceptReturn);
-
-        return theValue;
+        return programNode;
     }
 
     /**
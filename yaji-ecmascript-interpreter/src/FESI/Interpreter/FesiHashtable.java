@@ -36,7 +36,9 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.yaji.data.ESAccessorValue;
 import org.yaji.json.JsonState;
@@ -51,6 +53,7 @@ import FESI.Data.ObjectObject;
 import FESI.Data.ObjectPrototype;
 import FESI.Data.StandardProperty;
 import FESI.Exceptions.EcmaScriptException;
+import FESI.Exceptions.ProgrammingError;
 import FESI.Exceptions.TypeError;
 import FESI.Interpreter.FesiHashtable.Flag;
 
@@ -188,6 +191,20 @@ public class FesiHashtable implements Cloneable, java.io.Serializable {
 
     private final int initialCapacity;
 
+    /**
+     * The journal recording the changes of this table, if any, and the
+     * entries as they were before the first change of each key (with a null
+     * value for an absent key).
+     */
+    private transient PropertyJournal journal;
+    private transient Map<String, HashtableEntry> savedEntries;
+
+    /**
+     * True if the table is shared by several objects and cannot be changed,
+     * each object changing a copy (see {@link #share()}).
+     */
+    private transient boolean shared;
+
     public static enum Flag {
         False {
             @Override
@@ -458,6 +475,7 @@ public class FesiHashtable implements Cloneable, java.io.Serializable {
      */
     public ESValue put(String key, int hash, Flag hidden, Flag readonly,
             ESValue value, Flag configurable) {
+        checkNotShared();
         // Make sure the value is not null
         if (value == null) {
             throw new NullPointerException("value");
@@ -465,6 +483,9 @@ public class FesiHashtable implements Cloneable, java.io.Serializable {
 
         // Makes sure the key is not already in the hashtable.
         HashtableEntry e = getHashtableEntry(key, hash);
+        if (journal != null) {
+            saveEntry(key, hash, e);
+        }
         if (e != null) {
             ESValue old = e.value;
             e.set(value, hidden, readonly, configurable);
@@ -502,11 +523,15 @@ public class FesiHashtable implements Cloneable, java.io.Serializable {
      */
     public boolean remove(String key, int hash, boolean throwError)
             throws EcmaScriptException {
+        checkNotShared();
         HashtableEntry tab[] = getTable();
         int index = (hash & 0x7FFFFFFF) % tab.length;
         for (HashtableEntry e = tab[index], prev = null; e != null; prev = e, e = e.next) {
             if ((e.hash == hash) && e.key.equals(key)) {
                 if (e.configurable) {
+                    if (journal != null) {
+                        saveEntry(key, hash, e);
+                    }
                     if (prev != null) {
                         prev.next = e.next;
                     } else {
@@ -531,6 +556,10 @@ public class FesiHashtable implements Cloneable, java.io.Serializable {
      * @since JDK1.0
      */
     public void clear() {
+        checkNotShared();
+        if (journal != null) {
+            saveAllEntries();
+        }
         HashtableEntry tab[] = getTable();
         for (int index = tab.length; --index >= 0;) {
             tab[index] = null;
@@ -549,6 +578,9 @@ public class FesiHashtable implements Cloneable, java.io.Serializable {
     public Object clone() {
         try {
             FesiHashtable t = (FesiHashtable) super.clone();
+            t.journal = null;
+            t.savedEntries = null;
+            t.shared = false;
             t.table = (new HashtableEntry[getTable().length]);
             for (int i = getTable().length; i-- > 0;) {
                 t.getTable()[i] = (getTable()[i] != null) ? (HashtableEntry) getTable()[i]
@@ -589,6 +621,10 @@ public class FesiHashtable implements Cloneable, java.io.Serializable {
     }
 
     public void setAllNonConfigurable(boolean readOnly) {
+        checkNotShared();
+        if (journal != null) {
+            saveAllEntries();
+        }
         HashtableEntry[] tab = getTable();
         for (HashtableEntry hashtableEntry : tab) {
             for (HashtableEntry e = hashtableEntry; e != null; e = e.next) {
@@ -600,6 +636,129 @@ public class FesiHashtable implements Cloneable, java.io.Serializable {
         }
     }
 
+    /**
+     * Remove the key even if it is not configurable. Nop if the key is not in
+     * the hashtable.
+     * 
+     * @param key
+     *            the key that needs to be removed.
+     * @throws EcmaScriptException
+     */
+    public void removeAlways(String key, int hash) throws EcmaScriptException {
+        checkNotShared();
+        HashtableEntry e = getHashtableEntry(key, hash);
+        if (e != null) {
+            if (journal != null) {
+                saveEntry(key, hash, e);
+            }
+            e.configurable = true;
+            remove(key, hash, false);
+        }
+    }
+
+    /**
+     * Record the changes of this table in a journal, so that they can be
+     * undone by {@link PropertyJournal#rollback()}
+     * 
+     * @param journal
+     *            the journal, or null to stop recording changes
+     */
+    public void setJournal(PropertyJournal journal) {
+        checkNotShared();
+        this.journal = journal;
+        this.savedEntries = null;
+    }
+
+    /**
+     * Make this table immutable, so that it can be shared by objects of any
+     * evaluator. An object changing its properties must copy the table first,
+     * see {@link #isShared()}.
+     * 
+     * @return this table
+     */
+    public FesiHashtable share() {
+        getTable();
+        shared = true;
+        return this;
+    }
+
+    /**
+     * @return true if the table is shared and must be copied (with
+     *         {@link #clone()}) to be changed
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    private void checkNotShared() {
+        if (shared) {
+            throw new ProgrammingError("Shared property table cannot be changed");
+        }
+    }
+
+    /**
+     * @return the journal recording the changes of this table, or null
+     */
+    public PropertyJournal getJournal() {
+        return journal;
+    }
+
+    private void saveEntry(String key, int hash, HashtableEntry e) {
+        if (savedEntries == null) {
+            savedEntries = new HashMap<String, HashtableEntry>();
+            journal.tableChanged(this);
+        }
+        if (!savedEntries.containsKey(key)) {
+            HashtableEntry saved = new HashtableEntry();
+            saved.hash = hash;
+            saved.key = key;
+            if (e != null) {
+                saved.value = e.value;
+                saved.hidden = e.hidden;
+                saved.readonly = e.readonly;
+                saved.configurable = e.configurable;
+            }
+            savedEntries.put(key, saved);
+        }
+    }
+
+    private void saveAllEntries() {
+        HashtableEntry[] tab = getTable();
+        for (HashtableEntry hashtableEntry : tab) {
+            for (HashtableEntry e = hashtableEntry; e != null; e = e.next) {
+                saveEntry(e.key, e.hash, e);
+            }
+        }
+    }
+
+    /**
+     * Undo the changes made since the table was last rolled back, called by
+     * the journal
+     */
+    void rollback() {
+        if (savedEntries == null) {
+            return;
+        }
+        Map<String, HashtableEntry> entries = savedEntries;
+        PropertyJournal savedJournal = journal;
+        journal = null;
+        try {
+            for (HashtableEntry saved : entries.values()) {
+                if (saved.value == null) {
+                    removeAlways(saved.key, saved.hash);
+                } else {
+                    put(saved.key, saved.hash, Flag.fromBoolean(saved.hidden), Flag.fromBoolean(saved.readonly),
+                            saved.value, Flag.fromBoolean(saved.configurable));
+                }
+            }
+        } catch (EcmaScriptException e) {
+            throw new ProgrammingError(e.getMessage());
+        } finally {
+            journal = savedJournal;
+            savedEntries = null;
+        }
+    }
+
     public boolean isAllReadOnly() {
         boolean frozen = true;
         HashtableEntry[] tab = getTable();
@@ -721,6 +880,7 @@ public class FesiHashtable implements Cloneable, java.io.Serializable {
     }
     
     public boolean defineProperty(String propertyName, IDescriptor desc, IReporter reporter, boolean extensible, Evaluator evaluator) throws EcmaScriptException {
+        checkNotShared();
         int propertNameHash = propertyName.hashCode();
         HashtableEntry e = getHashtableEntry(propertyName, propertNameHash);
         boolean enumerable = false;
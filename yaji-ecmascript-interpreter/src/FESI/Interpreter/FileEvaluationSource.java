@@ -17,6 +17,8 @@
 
 package FESI.Interpreter;
 
+import java.io.File;
+
 /**
  * Describe a file used as a source.
  */
@@ -24,6 +26,7 @@ public class FileEvaluationSource extends EvaluationSource {
 
     private static final long serialVersionUID = -6838663105184583256L;
     private String theFileName;
+    private transient String theBaseName = null;
 
     /**
      * Create a file source description
@@ -39,6 +42,26 @@ public class FileEvaluationSource extends EvaluationSource {
         this.theFileName = theFileName;
     }
 
+    /**
+     * Return the name of the source file
+     */
+    public String getFileName() {
+        return theFileName;
+    }
+
+    /**
+     * Return the name of the source file without its directory, computed on
+     * first use only
+     */
+    public String getBaseName() {
+        String baseName = theBaseName;
+        if (baseName == null) {
+            baseName = new File(theFileName).getName();
+            theBaseName = baseName;
+        }
+        return baseName;
+    }
+
     @Override
     protected String getEvaluationSourceText() {
         return "in file: '" + theFileName + "'";
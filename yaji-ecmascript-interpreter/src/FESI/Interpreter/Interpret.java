@@ -32,6 +32,7 @@ import java.util.Enumeration;
 import java.util.StringTokenizer;
 
 import org.yaji.debugger.Debugger;
+import org.yaji.profiler.CallTreeProfiler;
 
 import FESI.Data.ESLoader;
 import FESI.Data.ESObject;
@@ -350,6 +351,10 @@ public class Interpret implements InterpreterCommands {
         errorStream
                 .println("      -h file   Expand the script in an html file");
         errorStream.println("      -D  turnon all debug flags");
+        errorStream
+                .println("      --debug[=port]  Accept a debugger on the port, 8888 by default");
+        errorStream
+                .println("      --profile[=prefix]  Write the time of the functions called to prefix.collapsed and prefix.txt on exit");
         errorStream
                 .println("      -f file   Load and execute the specified file");
         errorStream
@@ -424,7 +429,24 @@ public class Interpret implements InterpreterCommands {
                             }
                             Debugger debugger = new Debugger(port);
                             evaluator.setDebugger(debugger);
+                        } else if ("profile".equals(longArg[0])) {
+                            String prefix = longArg.length > 1 ? longArg[1]
+                                    : "fesi-profile";
+                            final CallTreeProfiler profiler = new CallTreeProfiler(
+                                    new File(prefix + ".collapsed"), new File(
+                                            prefix + ".txt"),
+                                    CallTreeProfiler.DEFAULT_TOP_COUNT);
+                            Evaluator.setProcedureProfilingCallback(profiler);
+                            Runtime.getRuntime().addShutdownHook(
+                                    new Thread("YAJI Profile Writer") {
+                                        @Override
+                                        public void run() {
+                                            profiler.endProfiling();
+                                        }
+                                    });
                         }
+                        // The letters of long options are not options
+                        continue OUTONE;
                     }
                 } // for
             } // if
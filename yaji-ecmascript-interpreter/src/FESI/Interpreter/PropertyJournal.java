@@ -0,0 +1,159 @@
+package FESI.Interpreter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import FESI.Data.ESObject;
+
+/**
+ * Records the changes made to the properties of a set of objects, so that
+ * the objects can be returned to the state they had when they started to be
+ * tracked. Only the properties which are actually changed are saved, on their
+ * first change, so that rolling back costs in proportion to the changes.
+ * <P>
+ * State kept outside the property table of an object, as the elements of an
+ * array or the indices of a sparse array, is saved as a {@link Snapshot}
+ * when the object starts to be tracked, and restored only if the object
+ * reported a change. The prototype of an object cannot change once it is created, and
+ * the objects of the prototype chain of a tracked object are tracked too.
+ * <P>
+ * Used to reset an evaluator to a clean state (see
+ * {@link Evaluator#markCleanState()}) without building a new global object.
+ */
+public class PropertyJournal {
+
+    /**
+     * The state of a tracked object which is not in its property table. The
+     * object calls {@link #changing()} before it changes that state, so that
+     * only the changed snapshots are restored.
+     */
+    public static abstract class Snapshot {
+        private PropertyJournal journal;
+        private boolean changed;
+
+        /**
+         * Report that the state of the object is about to change
+         */
+        public final void changing() {
+            if (!changed && journal != null) {
+                changed = true;
+                journal.changedSnapshots.add(this);
+            }
+        }
+
+        /**
+         * Return the object to the state of the snapshot
+         */
+        protected abstract void restore();
+    }
+
+    private final Set<ESObject> trackedObjects = Collections.newSetFromMap(new IdentityHashMap<ESObject, Boolean>());
+    private final List<FesiHashtable> trackedTables = new ArrayList<FesiHashtable>();
+    private final List<FesiHashtable> changedTables = new ArrayList<FesiHashtable>();
+    private final List<Snapshot> snapshots = new ArrayList<Snapshot>();
+    private final List<Snapshot> changedSnapshots = new ArrayList<Snapshot>();
+    // Objects whose extensible state changed, and their original state
+    private final Map<ESObject, Boolean> changedExtensible = new IdentityHashMap<ESObject, Boolean>();
+
+    /**
+     * Start tracking the changes of an object, called by
+     * {@link ESObject#setPropertyJournal(PropertyJournal)}
+     * 
+     * @param object
+     *            the object
+     * @param properties
+     *            its properties
+     */
+    public void track(ESObject object, FesiHashtable properties) {
+        if (!trackedObjects.add(object)) {
+            return;
+        }
+        trackedTables.add(properties);
+        properties.setJournal(this);
+    }
+
+    /**
+     * Add the snapshot of a tracked object, restored by the rollbacks
+     * following a change
+     * 
+     * @param snapshot
+     *            the state of the object when it started to be tracked
+     */
+    public void addSnapshot(Snapshot snapshot) {
+        snapshot.journal = this;
+        snapshots.add(snapshot);
+    }
+
+    void tableChanged(FesiHashtable table) {
+        changedTables.add(table);
+    }
+
+    /**
+     * Report that the extensible state of a tracked object is about to
+     * change, called by {@link ESObject#setExtensible(boolean)}
+     * 
+     * @param object
+     *            the object
+     * @param extensible
+     *            its current extensible state
+     */
+    public void extensibleChanging(ESObject object, boolean extensible) {
+        if (!changedExtensible.containsKey(object)) {
+            changedExtensible.put(object, Boolean.valueOf(extensible));
+        }
+    }
+
+    public boolean isTracking(ESObject object) {
+        return trackedObjects.contains(object);
+    }
+
+    /**
+     * @return the number of property tables, snapshots and extensible states
+     *         changed since the last rollback
+     */
+    public int getChangedCount() {
+        return changedTables.size() + changedSnapshots.size() + changedExtensible.size();
+    }
+
+    /**
+     * Undo all changes recorded since the objects were tracked or since the
+     * last rollback
+     */
+    public void rollback() {
+        for (FesiHashtable table : changedTables) {
+            table.rollback();
+        }
+        changedTables.clear();
+        for (Snapshot snapshot : changedSnapshots) {
+            snapshot.restore();
+            snapshot.changed = false;
+        }
+        changedSnapshots.clear();
+        for (Map.Entry<ESObject, Boolean> entry : changedExtensible.entrySet()) {
+            entry.getKey().setExtensible(entry.getValue().booleanValue());
+        }
+        changedExtensible.clear();
+    }
+
+    /**
+     * Stop tracking the objects, keeping their current state
+     */
+    public void close() {
+        for (FesiHashtable table : trackedTables) {
+            table.setJournal(null);
+        }
+        for (Snapshot snapshot : snapshots) {
+            snapshot.journal = null;
+        }
+        trackedTables.clear();
+        trackedObjects.clear();
+        changedTables.clear();
+        snapshots.clear();
+        changedSnapshots.clear();
+        changedExtensible.clear();
+    }
+}
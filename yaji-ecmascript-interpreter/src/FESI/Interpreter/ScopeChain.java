@@ -67,10 +67,19 @@ public class ScopeChain implements java.io.Serializable {
      * 
      * @return The previous element
      */
-    ScopeChain previousScope() {
+    public ScopeChain previousScope() {
         return previousElement;
     }
 
+    /**
+     * Return the object looked at at this level
+     * 
+     * @return The object
+     */
+    public ESObject getObject() {
+        return thisElement;
+    }
+
     /**
      * Return a reference to an object in the scope chain, so that the value can
      * be accessed or modified.
@@ -0,0 +1,90 @@
+package org.yaji.binding;
+
+import FESI.Data.ESBoolean;
+import FESI.Data.ESNull;
+import FESI.Data.ESNumber;
+import FESI.Data.ESObject;
+import FESI.Data.ESString;
+import FESI.Data.ESUndefined;
+import FESI.Data.ESValue;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Exceptions.TypeError;
+
+/**
+ * Typed conversions used as method handle filters by {@link HostFunctions}.
+ * Argument conversions take the argument array and the index of the
+ * argument, so that no intermediate array of Java objects is built.
+ */
+final class Coercions {
+
+    private Coercions() {
+        // static only
+    }
+
+    static ESValue arg(ESValue[] arguments, int index) {
+        return (index < arguments.length) ? arguments[index] : ESUndefined.theUndefined;
+    }
+
+    static double toDouble(ESValue[] arguments, int index) throws EcmaScriptException {
+        return arg(arguments, index).doubleValue();
+    }
+
+    static int toInt(ESValue[] arguments, int index) throws EcmaScriptException {
+        return arg(arguments, index).toInt32();
+    }
+
+    static long toLong(ESValue[] arguments, int index) throws EcmaScriptException {
+        return (long) arg(arguments, index).toInteger();
+    }
+
+    static boolean toBoolean(ESValue[] arguments, int index) throws EcmaScriptException {
+        return arg(arguments, index).booleanValue();
+    }
+
+    static String toString(ESValue[] arguments, int index) throws EcmaScriptException {
+        return arg(arguments, index).toString();
+    }
+
+    static ESValue toESValue(ESValue[] arguments, int index) {
+        return arg(arguments, index);
+    }
+
+    static ESObject toESObject(ESValue[] arguments, int index) throws EcmaScriptException {
+        ESValue value = arg(arguments, index);
+        if (value instanceof ESObject) {
+            return (ESObject) value;
+        }
+        throw new TypeError("argument " + (index + 1) + " expected to be an Object");
+    }
+
+    static ESObject thisAsESObject(ESValue thisObject) throws EcmaScriptException {
+        if (thisObject instanceof ESObject) {
+            return (ESObject) thisObject;
+        }
+        throw new TypeError("this expected to be an Object");
+    }
+
+    static ESValue fromDouble(double value) {
+        return ESNumber.valueOf(value);
+    }
+
+    static ESValue fromInt(int value) {
+        return ESNumber.valueOf(value);
+    }
+
+    static ESValue fromLong(long value) {
+        return ESNumber.valueOf(value);
+    }
+
+    static ESValue fromBoolean(boolean value) {
+        return ESBoolean.valueOf(value);
+    }
+
+    static ESValue fromString(String value) {
+        return value == null ? ESNull.theNull : new ESString(value);
+    }
+
+    static ESValue fromESValue(ESValue value) {
+        return value == null ? ESUndefined.theUndefined : value;
+    }
+}
@@ -0,0 +1,38 @@
+package org.yaji.binding;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a Java method to be exposed as an EcmaScript function by
+ * {@link HostFunctions#bind}.
+ * <P>
+ * Parameters may be <code>double</code>, <code>int</code>,
+ * <code>long</code>, <code>boolean</code>, <code>String</code>,
+ * <code>ESValue</code> or <code>ESObject</code>, each taking the next script
+ * argument with the usual EcmaScript conversion. A trailing
+ * <code>ESValue[]</code> parameter receives all the script arguments, an
+ * <code>Evaluator</code> parameter receives the evaluator and a parameter
+ * annotated with {@link This} receives the this object of the call. The
+ * return type may be <code>void</code>, a primitive, <code>String</code>
+ * or an <code>ESValue</code>.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface HostFunction {
+
+    /**
+     * @return the name of the function, the method name if empty
+     */
+    String name() default "";
+
+    /**
+     * @return the length property of the function, the number of script
+     *         arguments if negative
+     */
+    int length() default -1;
+}
@@ -0,0 +1,49 @@
+package org.yaji.binding;
+
+import java.lang.invoke.MethodHandle;
+
+import FESI.Data.BuiltinFunctionObject;
+import FESI.Data.ESValue;
+import FESI.Data.FunctionPrototype;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+
+/**
+ * A built-in function calling a {@link HostFunction} annotated method
+ * through its adapter method handle.
+ */
+public class HostFunctionObject extends BuiltinFunctionObject {
+    private static final long serialVersionUID = -2791476201845301385L;
+
+    private final transient MethodHandle invoker;
+    private final transient MethodHandle direct;
+
+    HostFunctionObject(FunctionPrototype fp, Evaluator evaluator, String name, int length, MethodHandle invoker,
+            MethodHandle direct) throws EcmaScriptException {
+        super(fp, evaluator, name, length);
+        this.invoker = invoker.asType(HostFunctions.CALL_TYPE);
+        this.direct = direct;
+    }
+
+    /**
+     * @return the annotated method bound to its receiver, if all its
+     *         parameters are script arguments, null otherwise
+     */
+    @Override
+    public MethodHandle getDirectHandle() {
+        return direct;
+    }
+
+    @Override
+    public ESValue callFunction(ESValue thisObject, ESValue[] arguments) throws EcmaScriptException {
+        try {
+            return (ESValue) invoker.invokeExact(thisObject, arguments);
+        } catch (EcmaScriptException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new EcmaScriptException("Error in host function " + getFunctionName() + ": " + e, e);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package org.yaji.binding;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import FESI.Data.ESObject;
+import FESI.Data.ESUndefined;
+import FESI.Data.ESValue;
+import FESI.Data.FunctionPrototype;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+
+/**
+ * Binds the {@link HostFunction} annotated methods of a Java class or object
+ * as EcmaScript functions.
+ * <P>
+ * The first time a class is bound, each annotated method is turned into a
+ * method handle of type
+ * <code>(Object receiver, Evaluator, ESValue thisObject, ESValue[] arguments)ESValue</code>
+ * in which every parameter is produced by a typed conversion of the argument
+ * array and the result converted back to an ESValue. The adapters are
+ * cached per class, binding only inserts the receiver and the evaluator.
+ */
+public final class HostFunctions {
+
+    static final MethodType CALL_TYPE = MethodType.methodType(ESValue.class, ESValue.class, ESValue[].class);
+
+    private static final MethodType ADAPTER_TYPE = CALL_TYPE.insertParameterTypes(0, Object.class, Evaluator.class);
+
+    private static final ClassValue<List<HostMethod>> HOST_METHODS = new ClassValue<List<HostMethod>>() {
+        @Override
+        protected List<HostMethod> computeValue(Class<?> type) {
+            return Collections.unmodifiableList(findHostMethods(type));
+        }
+    };
+
+    private HostFunctions() {
+        // static only
+    }
+
+    /**
+     * An annotated method and its adapter
+     */
+    static class HostMethod {
+        final String name;
+        final int length;
+        final boolean isStatic;
+        final MethodHandle adapter;
+        // The method itself, with the receiver as first parameter, if all its
+        // parameters are script arguments
+        final MethodHandle direct;
+
+        HostMethod(String name, int length, boolean isStatic, MethodHandle adapter, MethodHandle direct) {
+            this.name = name;
+            this.length = length;
+            this.isStatic = isStatic;
+            this.adapter = adapter;
+            this.direct = direct;
+        }
+    }
+
+    /**
+     * Define the annotated methods of host as hidden properties of target.
+     * If host is a Class only its static methods are bound, otherwise both
+     * its static and instance methods are bound, the latter on host.
+     *
+     * @param target
+     *            the object receiving the functions (for example the global
+     *            object or a prototype)
+     * @param host
+     *            a Class or an instance
+     * @return the number of functions defined
+     * @throws EcmaScriptException
+     */
+    public static int bind(ESObject target, Object host) throws EcmaScriptException {
+        Evaluator evaluator = target.getEvaluator();
+        boolean staticOnly = host instanceof Class<?>;
+        Class<?> type = staticOnly ? (Class<?>) host : host.getClass();
+        int count = 0;
+        for (HostMethod hostMethod : HOST_METHODS.get(type)) {
+            if (staticOnly && !hostMethod.isStatic) {
+                continue;
+            }
+            target.putHiddenProperty(hostMethod.name, createFunction(evaluator, hostMethod, staticOnly ? null : host));
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Create a function object for a single annotated method
+     *
+     * @param evaluator
+     *            the evaluator
+     * @param host
+     *            a Class or an instance
+     * @param name
+     *            the name of the function (as given by the annotation or the
+     *            method name)
+     * @return the function object
+     * @throws EcmaScriptException
+     *             if there is no such annotated method
+     */
+    public static HostFunctionObject createFunction(Evaluator evaluator, Object host, String name) throws EcmaScriptException {
+        boolean staticOnly = host instanceof Class<?>;
+        Class<?> type = staticOnly ? (Class<?>) host : host.getClass();
+        for (HostMethod hostMethod : HOST_METHODS.get(type)) {
+            if (hostMethod.name.equals(name) && (hostMethod.isStatic || !staticOnly)) {
+                return createFunction(evaluator, hostMethod, staticOnly ? null : host);
+            }
+        }
+        throw new EcmaScriptException("No host function " + name + " in " + type.getName());
+    }
+
+    private static HostFunctionObject createFunction(Evaluator evaluator, HostMethod hostMethod, Object receiver) throws EcmaScriptException {
+        MethodHandle invoker = MethodHandles.insertArguments(hostMethod.adapter, 0, receiver, evaluator);
+        MethodHandle direct = hostMethod.direct == null ? null : MethodHandles.insertArguments(hostMethod.direct, 0, receiver);
+        return new HostFunctionObject((FunctionPrototype) evaluator.getFunctionPrototype(), evaluator,
+                hostMethod.name, hostMethod.length, invoker, direct);
+    }
+
+    static List<HostMethod> findHostMethods(Class<?> type) {
+        List<HostMethod> hostMethods = new ArrayList<HostMethod>();
+        for (Method method : type.getMethods()) {
+            HostFunction annotation = method.getAnnotation(HostFunction.class);
+            if (annotation == null) {
+                continue;
+            }
+            String name = annotation.name().length() == 0 ? method.getName() : annotation.name();
+            int scriptArgumentCount = 0;
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+            for (int i = 0; i < parameterTypes.length; i++) {
+                if (!isThis(parameterAnnotations[i]) && parameterTypes[i] != Evaluator.class && parameterTypes[i] != ESValue[].class) {
+                    scriptArgumentCount++;
+                }
+            }
+            int length = annotation.length() < 0 ? scriptArgumentCount : annotation.length();
+            boolean isStatic = Modifier.isStatic(method.getModifiers());
+            MethodHandle direct = scriptArgumentCount == parameterTypes.length ? unreflect(method) : null;
+            hostMethods.add(new HostMethod(name, length, isStatic, makeAdapter(method), direct));
+        }
+        return hostMethods;
+    }
+
+    private static boolean isThis(Annotation[] annotations) {
+        for (Annotation annotation : annotations) {
+            if (annotation instanceof This) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Build the adapter of a method, of type ADAPTER_TYPE
+     */
+    static MethodHandle makeAdapter(Method method) {
+        MethodHandle target = unreflect(method);
+
+        // Replace each parameter by the conversion of (Evaluator, ESValue, ESValue[])
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+        int scriptIndex = 0;
+        for (int i = 0; i < parameterTypes.length; i++) {
+            MethodHandle filter;
+            if (isThis(parameterAnnotations[i])) {
+                filter = thisFilter(method, parameterTypes[i]);
+            } else if (parameterTypes[i] == Evaluator.class) {
+                filter = MethodHandles.dropArguments(MethodHandles.identity(Evaluator.class), 1, ESValue.class, ESValue[].class);
+            } else if (parameterTypes[i] == ESValue[].class) {
+                filter = MethodHandles.dropArguments(MethodHandles.identity(ESValue[].class), 0, Evaluator.class, ESValue.class);
+            } else {
+                filter = argumentFilter(method, parameterTypes[i], scriptIndex++);
+            }
+            target = MethodHandles.collectArguments(target, 1 + 3 * i, filter);
+        }
+
+        // Spread the single (Evaluator, ESValue, ESValue[]) triple on all parameters
+        int[] reorder = new int[1 + 3 * parameterTypes.length];
+        for (int i = 0; i < parameterTypes.length; i++) {
+            reorder[1 + 3 * i] = 1;
+            reorder[2 + 3 * i] = 2;
+            reorder[3 + 3 * i] = 3;
+        }
+        target = MethodHandles.permuteArguments(target,
+                MethodType.methodType(target.type().returnType(), Object.class, Evaluator.class, ESValue.class, ESValue[].class),
+                reorder);
+
+        return MethodHandles.filterReturnValue(target, returnFilter(method)).asType(ADAPTER_TYPE);
+    }
+
+    /**
+     * @return the handle of a method, with an Object receiver as first
+     *         parameter, ignored if the method is static
+     */
+    private static MethodHandle unreflect(Method method) {
+        MethodHandle target;
+        try {
+            method.setAccessible(true);
+            target = MethodHandles.lookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot access host function " + method, e);
+        } catch (SecurityException e) {
+            throw new IllegalArgumentException("Cannot access host function " + method, e);
+        }
+        if (Modifier.isStatic(method.getModifiers())) {
+            return MethodHandles.dropArguments(target, 0, Object.class);
+        }
+        return target.asType(target.type().changeParameterType(0, Object.class));
+    }
+
+    private static MethodHandle thisFilter(Method method, Class<?> type) {
+        MethodHandle filter;
+        if (type == ESValue.class) {
+            filter = MethodHandles.identity(ESValue.class);
+        } else if (type == ESObject.class) {
+            filter = coercion("thisAsESObject", ESObject.class, ESValue.class);
+        } else {
+            throw new IllegalArgumentException("@This parameter of " + method + " must be ESValue or ESObject");
+        }
+        filter = MethodHandles.dropArguments(filter, 0, Evaluator.class);
+        return MethodHandles.dropArguments(filter, 2, ESValue[].class);
+    }
+
+    private static MethodHandle argumentFilter(Method method, Class<?> type, int index) {
+        String name;
+        if (type == double.class) {
+            name = "toDouble";
+        } else if (type == int.class) {
+            name = "toInt";
+        } else if (type == long.class) {
+            name = "toLong";
+        } else if (type == boolean.class) {
+            name = "toBoolean";
+        } else if (type == String.class) {
+            name = "toString";
+        } else if (type == ESValue.class) {
+            name = "toESValue";
+        } else if (type == ESObject.class) {
+            name = "toESObject";
+        } else {
+            throw new IllegalArgumentException("Unsupported parameter type " + type.getName() + " in " + method);
+        }
+        MethodHandle filter = MethodHandles.insertArguments(coercion(name, type, ESValue[].class, int.class), 1, index);
+        return MethodHandles.dropArguments(filter, 0, Evaluator.class, ESValue.class);
+    }
+
+    private static MethodHandle returnFilter(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == void.class) {
+            return MethodHandles.constant(ESValue.class, ESUndefined.theUndefined);
+        } else if (type == double.class) {
+            return coercion("fromDouble", ESValue.class, double.class);
+        } else if (type == int.class) {
+            return coercion("fromInt", ESValue.class, int.class);
+        } else if (type == long.class) {
+            return coercion("fromLong", ESValue.class, long.class);
+        } else if (type == boolean.class) {
+            return coercion("fromBoolean", ESValue.class, boolean.class);
+        } else if (type == String.class) {
+            return coercion("fromString", ESValue.class, String.class);
+        } else if (ESValue.class.isAssignableFrom(type)) {
+            return coercion("fromESValue", ESValue.class, ESValue.class).asType(MethodType.methodType(ESValue.class, type));
+        }
+        throw new IllegalArgumentException("Unsupported return type " + type.getName() + " in " + method);
+    }
+
+    private static MethodHandle coercion(String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            return MethodHandles.lookup().findStatic(Coercions.class, name, MethodType.methodType(returnType, parameterTypes));
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
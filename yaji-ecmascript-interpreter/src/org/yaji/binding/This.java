@@ -0,0 +1,18 @@
+package org.yaji.binding;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the parameter of a {@link HostFunction} which receives the this
+ * object of the call. The parameter must be an <code>ESValue</code> or an
+ * <code>ESObject</code>.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface This {
+}
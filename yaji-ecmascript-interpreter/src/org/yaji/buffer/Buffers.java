@@ -0,0 +1,559 @@
+package org.yaji.buffer;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.yaji.binding.HostFunction;
+import org.yaji.binding.HostFunctions;
+import org.yaji.binding.This;
+
+import FESI.Data.BuiltinFunctionObject;
+import FESI.Data.ESNumber;
+import FESI.Data.ESObject;
+import FESI.Data.ESUndefined;
+import FESI.Data.ESValue;
+import FESI.Data.FunctionPrototype;
+import FESI.Data.ObjectPrototype;
+import FESI.Data.StandardProperty;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Exceptions.RangeError;
+import FESI.Exceptions.TypeError;
+import FESI.Interpreter.Evaluator;
+
+/**
+ * The ArrayBuffer, DataView and typed array constructors of an evaluator, and
+ * the factory methods creating these objects from Java.
+ * <P>
+ * Scripts create heap buffers with <code>new ArrayBuffer(length)</code> and
+ * direct buffers with <code>ArrayBuffer.allocateDirect(length)</code>; memory
+ * mapped buffers are created from Java with
+ * {@link #map(FileChannel, FileChannel.MapMode, long, long)}.
+ */
+public final class Buffers implements Serializable {
+    private static final long serialVersionUID = -2404669911932216208L;
+
+    private static final String BYTES_PER_ELEMENTstring = "BYTES_PER_ELEMENT";
+
+    private final Evaluator evaluator;
+    private final ESObject arrayBufferPrototype;
+    private final ESObject dataViewPrototype;
+    private final Map<ElementType, ESObject> typedArrayPrototypes = new EnumMap<ElementType, ESObject>(
+            ElementType.class);
+
+    private Buffers(Evaluator evaluator, ESObject objectPrototype) {
+        this.evaluator = evaluator;
+        arrayBufferPrototype = new ObjectPrototype(objectPrototype, evaluator);
+        dataViewPrototype = new ObjectPrototype(objectPrototype, evaluator);
+    }
+
+    /**
+     * @return the buffer objects of an evaluator
+     */
+    public static Buffers of(Evaluator evaluator) {
+        return evaluator.getBuffers();
+    }
+
+    /**
+     * Wrap a ByteBuffer, from its position to its limit, the content is
+     * shared
+     */
+    public ESArrayBuffer createArrayBuffer(ByteBuffer bytes) {
+        return createArrayBuffer(bytes, false);
+    }
+
+    ESArrayBuffer createArrayBuffer(ByteBuffer bytes, boolean mapped) {
+        return new ESArrayBuffer(arrayBufferPrototype, evaluator, bytes, mapped);
+    }
+
+    /**
+     * Allocate a buffer filled with zeros
+     *
+     * @param byteLength
+     *            the size of the buffer
+     * @param direct
+     *            true for a direct buffer, outside of the Java heap
+     * @return the buffer
+     */
+    public ESArrayBuffer allocate(int byteLength, boolean direct) {
+        return createArrayBuffer(direct ? ByteBuffer.allocateDirect(byteLength) : ByteBuffer.allocate(byteLength));
+    }
+
+    /**
+     * Map a region of a file in memory
+     *
+     * @param channel
+     *            the file, which can be closed once mapped
+     * @param mode
+     *            the mapping mode, changes are written to the file in
+     *            READ_WRITE mode
+     * @param position
+     *            the offset of the region in the file
+     * @param size
+     *            the size of the region
+     * @return the buffer
+     * @throws IOException
+     */
+    public ESArrayBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long size)
+            throws IOException {
+        return createArrayBuffer(channel.map(mode, position, size), true);
+    }
+
+    /**
+     * Create a typed array on a range of a buffer
+     *
+     * @param type
+     *            the element type
+     * @param buffer
+     *            the buffer
+     * @param byteOffset
+     *            the offset of the first element in the buffer
+     * @param length
+     *            the number of elements
+     * @return the typed array
+     * @throws EcmaScriptException
+     *             if the range is not inside the buffer or is not aligned
+     */
+    public ESTypedArray createTypedArray(ElementType type, ESArrayBuffer buffer, int byteOffset, int length)
+            throws EcmaScriptException {
+        buffer.checkAttached();
+        if (byteOffset < 0 || byteOffset % type.getSize() != 0) {
+            throw new RangeError("Start offset of " + type.getArrayName() + " should be a multiple of "
+                    + type.getSize());
+        }
+        if (length < 0 || (long) length * type.getSize() > buffer.getByteLength() - (long) byteOffset) {
+            throw new RangeError("Invalid " + type.getArrayName() + " length " + length);
+        }
+        return new ESTypedArray(typedArrayPrototypes.get(type), evaluator, type, buffer, byteOffset, length);
+    }
+
+    /**
+     * Create a typed array filled with zeros, on a new heap buffer
+     */
+    public ESTypedArray createTypedArray(ElementType type, int length) throws EcmaScriptException {
+        if (length < 0 || length > Integer.MAX_VALUE / type.getSize()) {
+            throw new RangeError("Invalid " + type.getArrayName() + " length " + length);
+        }
+        return createTypedArray(type, allocate(length * type.getSize(), false), 0, length);
+    }
+
+    /**
+     * Create a data view on a range of a buffer
+     *
+     * @throws EcmaScriptException
+     *             if the range is not inside the buffer
+     */
+    public ESDataView createDataView(ESArrayBuffer buffer, int byteOffset, int byteLength)
+            throws EcmaScriptException {
+        buffer.checkAttached();
+        if (byteOffset < 0 || byteOffset > buffer.getByteLength()) {
+            throw new RangeError("Start offset " + byteOffset + " is outside the bounds of the buffer");
+        }
+        if (byteLength < 0 || byteLength > buffer.getByteLength() - byteOffset) {
+            throw new RangeError("Invalid DataView length " + byteLength);
+        }
+        return new ESDataView(dataViewPrototype, evaluator, buffer, byteOffset, byteLength);
+    }
+
+    /**
+     * Create the constructors and prototypes of an evaluator, and define
+     * the constructors in its global object
+     */
+    public static void makeBufferObjects(Evaluator evaluator, ESObject globalObject, ObjectPrototype objectPrototype,
+            FunctionPrototype functionPrototype) throws EcmaScriptException {
+        Buffers buffers = new Buffers(evaluator, objectPrototype);
+        evaluator.setBuffers(buffers);
+
+        ESObject arrayBuffer = buffers.new ArrayBufferConstructor(evaluator, functionPrototype);
+        HostFunctions.bind(arrayBuffer, buffers.new ArrayBufferStatics());
+        HostFunctions.bind(buffers.arrayBufferPrototype, new ArrayBufferMethods());
+        defineConstructor(globalObject, "ArrayBuffer", arrayBuffer, buffers.arrayBufferPrototype);
+
+        ESObject dataView = buffers.new DataViewConstructor(evaluator, functionPrototype);
+        for (ElementType type : ElementType.values()) {
+            buffers.dataViewPrototype.putHiddenProperty("get" + type.getName(),
+                    new DataViewGet(evaluator, functionPrototype, type));
+            buffers.dataViewPrototype.putHiddenProperty("set" + type.getName(),
+                    new DataViewSet(evaluator, functionPrototype, type));
+        }
+        defineConstructor(globalObject, "DataView", dataView, buffers.dataViewPrototype);
+
+        // The functions of the typed array prototypes are shared
+        ESObject typedArrayPrototype = new ObjectPrototype(objectPrototype, evaluator);
+        HostFunctions.bind(typedArrayPrototype, new TypedArrayMethods());
+        for (ElementType type : ElementType.values()) {
+            ESObject prototype = new ObjectPrototype(typedArrayPrototype, evaluator);
+            ESObject constructor = buffers.new TypedArrayConstructor(evaluator, functionPrototype, type);
+            ESNumber bytesPerElement = ESNumber.valueOf(type.getSize());
+            constructor.putHiddenProperty(BYTES_PER_ELEMENTstring, bytesPerElement);
+            prototype.putHiddenProperty(BYTES_PER_ELEMENTstring, bytesPerElement);
+            buffers.typedArrayPrototypes.put(type, prototype);
+            defineConstructor(globalObject, type.getArrayName(), constructor, prototype);
+        }
+    }
+
+    private static void defineConstructor(ESObject globalObject, String name, ESObject constructor,
+            ESObject prototype) throws EcmaScriptException {
+        constructor.putHiddenProperty(StandardProperty.PROTOTYPEstring, prototype);
+        prototype.putHiddenProperty("constructor", constructor);
+        globalObject.putHiddenProperty(name, constructor);
+    }
+
+    /**
+     * The bytes of an ArrayBuffer, typed array or DataView, to read or write
+     * them in bulk
+     *
+     * @param value
+     *            the buffer or view
+     * @return a new ByteBuffer sharing the bytes of the buffer or view, with
+     *         its position and limit set to their range, or null if the value
+     *         is not a buffer or view
+     * @throws EcmaScriptException
+     *             if the buffer is detached
+     */
+    public static ByteBuffer getByteRange(ESValue value) throws EcmaScriptException {
+        ESArrayBuffer buffer;
+        int byteOffset;
+        int byteLength;
+        if (value instanceof ESArrayBuffer) {
+            buffer = (ESArrayBuffer) value;
+            byteOffset = 0;
+            byteLength = buffer.getByteLength();
+        } else if (value instanceof ESTypedArray) {
+            ESTypedArray array = (ESTypedArray) value;
+            buffer = array.getBuffer();
+            byteOffset = array.getByteOffset();
+            byteLength = array.getByteLength();
+        } else if (value instanceof ESDataView) {
+            ESDataView view = (ESDataView) value;
+            buffer = view.getBuffer();
+            byteOffset = view.getByteOffset();
+            byteLength = view.getByteLength();
+        } else {
+            return null;
+        }
+        ByteBuffer bytes = buffer.checkAttached().duplicate();
+        bytes.limit(byteOffset + byteLength).position(byteOffset);
+        return bytes;
+    }
+
+    static int toLength(ESValue value, String what) throws EcmaScriptException {
+        double length = value.toInteger();
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new RangeError("Invalid " + what + " " + value);
+        }
+        return (int) length;
+    }
+
+    /**
+     * An index relative to the end if negative, bounded by 0 and length
+     */
+    static int relativeIndex(ESValue value, int length, int defaultIndex) throws EcmaScriptException {
+        if (value == ESUndefined.theUndefined) {
+            return defaultIndex;
+        }
+        double index = value.toInteger();
+        if (index < 0) {
+            return (int) Math.max(length + index, 0);
+        }
+        return (int) Math.min(index, length);
+    }
+
+    static ESArrayBuffer toArrayBuffer(ESValue value) throws TypeError {
+        if (!(value instanceof ESArrayBuffer)) {
+            throw new TypeError("ArrayBuffer expected, not " + value);
+        }
+        return (ESArrayBuffer) value;
+    }
+
+    static ESTypedArray toTypedArray(ESValue value) throws TypeError {
+        if (!(value instanceof ESTypedArray)) {
+            throw new TypeError("Typed array expected, not " + value);
+        }
+        return (ESTypedArray) value;
+    }
+
+    static ESDataView toDataView(ESValue value) throws TypeError {
+        if (!(value instanceof ESDataView)) {
+            throw new TypeError("DataView expected, not " + value);
+        }
+        return (ESDataView) value;
+    }
+
+    class ArrayBufferConstructor extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 3014446574962383347L;
+
+        ArrayBufferConstructor(Evaluator evaluator, FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, "ArrayBuffer", 1);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments) throws EcmaScriptException {
+            throw new TypeError("Constructor ArrayBuffer requires 'new'");
+        }
+
+        @Override
+        public ESObject doConstruct(ESValue[] arguments) throws EcmaScriptException {
+            return allocate(toLength(getArg(arguments, 0), "array buffer length"), false);
+        }
+    }
+
+    /**
+     * The functions of the ArrayBuffer constructor
+     */
+    public class ArrayBufferStatics {
+
+        @HostFunction
+        public boolean isView(ESValue value) {
+            return value instanceof ESTypedArray || value instanceof ESDataView;
+        }
+
+        @HostFunction
+        public ESObject allocateDirect(ESValue length) throws EcmaScriptException {
+            return allocate(toLength(length, "array buffer length"), true);
+        }
+    }
+
+    /**
+     * The functions of the ArrayBuffer prototype
+     */
+    public static class ArrayBufferMethods {
+
+        @HostFunction(length = 2)
+        public ESObject slice(@This ESObject thisObject, ESValue begin, ESValue end) throws EcmaScriptException {
+            ESArrayBuffer buffer = toArrayBuffer(thisObject);
+            int length = buffer.getByteLength();
+            return buffer.slice(relativeIndex(begin, length, 0), relativeIndex(end, length, length));
+        }
+
+        @HostFunction
+        public boolean isDirect(@This ESObject thisObject) throws EcmaScriptException {
+            return toArrayBuffer(thisObject).isDirect();
+        }
+    }
+
+    class DataViewConstructor extends BuiltinFunctionObject {
+        private static final long serialVersionUID = -7711186937950867458L;
+
+        DataViewConstructor(Evaluator evaluator, FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, "DataView", 3);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments) throws EcmaScriptException {
+            throw new TypeError("Constructor DataView requires 'new'");
+        }
+
+        @Override
+        public ESObject doConstruct(ESValue[] arguments) throws EcmaScriptException {
+            ESArrayBuffer buffer = toArrayBuffer(getArg(arguments, 0));
+            int byteOffset = toLength(getArg(arguments, 1), "DataView offset");
+            ESValue byteLength = getArg(arguments, 2);
+            return createDataView(buffer, byteOffset, byteLength == ESUndefined.theUndefined ? buffer
+                    .getByteLength() - byteOffset : toLength(byteLength, "DataView length"));
+        }
+    }
+
+    static class DataViewGet extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 5606047745380453101L;
+        private final ElementType type;
+
+        DataViewGet(Evaluator evaluator, FunctionPrototype fp, ElementType type) throws EcmaScriptException {
+            super(fp, evaluator, "get" + type.getName(), 1);
+            this.type = type;
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments) throws EcmaScriptException {
+            ESDataView view = toDataView(thisObject);
+            int offset = toLength(getArg(arguments, 0), "DataView offset");
+            return ESNumber.valueOf(view.get(type, offset, getArg(arguments, 1).booleanValue()));
+        }
+    }
+
+    static class DataViewSet extends BuiltinFunctionObject {
+        private static final long serialVersionUID = -4449185815932906937L;
+        private final ElementType type;
+
+        DataViewSet(Evaluator evaluator, FunctionPrototype fp, ElementType type) throws EcmaScriptException {
+            super(fp, evaluator, "set" + type.getName(), 2);
+            this.type = type;
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments) throws EcmaScriptException {
+            ESDataView view = toDataView(thisObject);
+            int offset = toLength(getArg(arguments, 0), "DataView offset");
+            double value = getArg(arguments, 1).doubleValue();
+            view.set(type, offset, value, getArg(arguments, 2).booleanValue());
+            return ESUndefined.theUndefined;
+        }
+    }
+
+    class TypedArrayConstructor extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 8233389180003386788L;
+        private final ElementType type;
+
+        TypedArrayConstructor(Evaluator evaluator, FunctionPrototype fp, ElementType type)
+                throws EcmaScriptException {
+            super(fp, evaluator, type.getArrayName(), 3);
+            this.type = type;
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments) throws EcmaScriptException {
+            throw new TypeError("Constructor " + type.getArrayName() + " requires 'new'");
+        }
+
+        @Override
+        public ESObject doConstruct(ESValue[] arguments) throws EcmaScriptException {
+            ESValue source = getArg(arguments, 0);
+            if (source instanceof ESArrayBuffer) {
+                ESArrayBuffer buffer = (ESArrayBuffer) source;
+                int byteOffset = toLength(getArg(arguments, 1), type.getArrayName() + " offset");
+                ESValue length = getArg(arguments, 2);
+                if (length != ESUndefined.theUndefined) {
+                    return createTypedArray(type, buffer, byteOffset, toLength(length, type.getArrayName()
+                            + " length"));
+                }
+                int byteLength = buffer.getByteLength() - byteOffset;
+                if (byteLength < 0 || byteLength % type.getSize() != 0) {
+                    throw new RangeError("Byte length of " + type.getArrayName() + " should be a multiple of "
+                            + type.getSize());
+                }
+                return createTypedArray(type, buffer, byteOffset, byteLength / type.getSize());
+            } else if (source instanceof ESObject) {
+                return copyOf((ESObject) source);
+            } else if (source == ESUndefined.theUndefined) {
+                return createTypedArray(type, 0);
+            }
+            return createTypedArray(type, toLength(source, type.getArrayName() + " length"));
+        }
+
+        private ESTypedArray copyOf(ESObject source) throws EcmaScriptException {
+            if (source instanceof ESTypedArray) {
+                ESTypedArray sourceArray = (ESTypedArray) source;
+                ESTypedArray array = createTypedArray(type, sourceArray.getLength());
+                for (int i = 0; i < sourceArray.getLength(); i++) {
+                    array.setDouble(i, sourceArray.getDouble(i));
+                }
+                return array;
+            }
+            ESValue length = source.getProperty(StandardProperty.LENGTHstring, StandardProperty.LENGTHhash);
+            ESTypedArray array = createTypedArray(type, toLength(length, type.getArrayName() + " length"));
+            for (int i = 0; i < array.getLength(); i++) {
+                array.putElement(i, source.getProperty((long) i));
+            }
+            return array;
+        }
+    }
+
+    /**
+     * The functions shared by the typed array prototypes
+     */
+    public static class TypedArrayMethods {
+
+        @HostFunction(length = 1)
+        public void set(@This ESObject thisObject, ESValue source, ESValue offset) throws EcmaScriptException {
+            ESTypedArray array = toTypedArray(thisObject);
+            int start = toLength(offset, "offset");
+            if (source instanceof ESTypedArray) {
+                ESTypedArray sourceArray = (ESTypedArray) source;
+                int length = sourceArray.getLength();
+                checkFits(array, start, length);
+                // Read everything first, the arrays may share their buffer
+                double[] values = new double[length];
+                for (int i = 0; i < length; i++) {
+                    values[i] = sourceArray.getDouble(i);
+                }
+                for (int i = 0; i < length; i++) {
+                    array.setDouble(start + i, values[i]);
+                }
+            } else {
+                ESObject sourceObject = source.toESObject(thisObject.getEvaluator());
+                int length = toLength(sourceObject.getProperty(StandardProperty.LENGTHstring,
+                        StandardProperty.LENGTHhash), "length");
+                checkFits(array, start, length);
+                for (int i = 0; i < length; i++) {
+                    array.putElement(start + i, sourceObject.getProperty((long) i));
+                }
+            }
+        }
+
+        private static void checkFits(ESTypedArray array, int start, int length) throws RangeError {
+            if ((long) start + length > array.getLength()) {
+                throw new RangeError("Source is too large for offset " + start);
+            }
+        }
+
+        @HostFunction(length = 2)
+        public ESObject subarray(@This ESObject thisObject, ESValue begin, ESValue end) throws EcmaScriptException {
+            ESTypedArray array = toTypedArray(thisObject);
+            int length = array.getLength();
+            int first = relativeIndex(begin, length, 0);
+            int last = Math.max(relativeIndex(end, length, length), first);
+            ElementType type = array.getType();
+            return of(thisObject.getEvaluator()).createTypedArray(type, array.getBuffer(),
+                    array.getByteOffset() + first * type.getSize(), last - first);
+        }
+
+        @HostFunction(length = 2)
+        public ESObject slice(@This ESObject thisObject, ESValue begin, ESValue end) throws EcmaScriptException {
+            ESTypedArray array = toTypedArray(thisObject);
+            int length = array.getLength();
+            int first = relativeIndex(begin, length, 0);
+            int last = Math.max(relativeIndex(end, length, length), first);
+            ESTypedArray copy = of(thisObject.getEvaluator()).createTypedArray(array.getType(), last - first);
+            for (int i = first; i < last; i++) {
+                copy.setDouble(i - first, array.getDouble(i));
+            }
+            return copy;
+        }
+
+        @HostFunction(length = 1)
+        public ESObject fill(@This ESObject thisObject, double value, ESValue begin, ESValue end)
+                throws EcmaScriptException {
+            ESTypedArray array = toTypedArray(thisObject);
+            int length = array.getLength();
+            int last = relativeIndex(end, length, length);
+            for (int i = relativeIndex(begin, length, 0); i < last; i++) {
+                array.setDouble(i, value);
+            }
+            return array;
+        }
+
+        @HostFunction(length = 1)
+        public int indexOf(@This ESObject thisObject, double value, ESValue fromIndex) throws EcmaScriptException {
+            ESTypedArray array = toTypedArray(thisObject);
+            int length = array.getLength();
+            for (int i = relativeIndex(fromIndex, length, 0); i < length; i++) {
+                if (array.getDouble(i) == value) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @HostFunction(length = 1)
+        public String join(@This ESObject thisObject, ESValue separator) throws EcmaScriptException {
+            ESTypedArray array = toTypedArray(thisObject);
+            String sep = separator == ESUndefined.theUndefined ? "," : separator.toString();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < array.getLength(); i++) {
+                if (i > 0) {
+                    sb.append(sep);
+                }
+                sb.append(ESNumber.valueOf(array.getDouble(i)).toString());
+            }
+            return sb.toString();
+        }
+
+        @HostFunction
+        public String toString(@This ESObject thisObject) throws EcmaScriptException {
+            return join(thisObject, ESUndefined.theUndefined);
+        }
+    }
+}
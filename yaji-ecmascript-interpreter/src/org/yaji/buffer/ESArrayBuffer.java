@@ -0,0 +1,156 @@
+package org.yaji.buffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+
+import org.yaji.worker.Transferable;
+
+import FESI.Data.ESNumber;
+import FESI.Data.ESObject;
+import FESI.Data.ESValue;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Exceptions.TypeError;
+import FESI.Interpreter.Evaluator;
+
+/**
+ * An ArrayBuffer: a fixed length block of bytes, read and written through
+ * typed arrays and data views. The bytes are held by a ByteBuffer, which can
+ * be on the Java heap, direct or a memory mapped file.
+ * <P>
+ * The buffer can be transferred to another evaluator, after which it is
+ * detached: its length is 0 and the views on it are empty.
+ */
+public class ESArrayBuffer extends ESObject implements Transferable {
+    private static final long serialVersionUID = 4317734373651185227L;
+
+    private static final String BYTE_LENGTHstring = "byteLength";
+    private static final int BYTE_LENGTHhash = BYTE_LENGTHstring.hashCode();
+
+    // Both null once detached
+    private transient ByteBuffer bigEndian;
+    private transient ByteBuffer littleEndian;
+    private transient boolean mapped;
+
+    ESArrayBuffer(ESObject prototype, Evaluator evaluator, ByteBuffer bytes, boolean mapped) {
+        super(prototype, evaluator);
+        attach(bytes, mapped);
+    }
+
+    private void attach(ByteBuffer bytes, boolean isMapped) {
+        // Views from index 0 of the remaining bytes, whatever the position
+        // and order of the given buffer
+        bigEndian = bytes.slice().order(ByteOrder.BIG_ENDIAN);
+        littleEndian = bytes.slice().order(ByteOrder.LITTLE_ENDIAN);
+        mapped = isMapped;
+    }
+
+    @Override
+    public String getESClassName() {
+        return "ArrayBuffer";
+    }
+
+    public int getByteLength() {
+        return bigEndian == null ? 0 : bigEndian.capacity();
+    }
+
+    public boolean isDetached() {
+        return bigEndian == null;
+    }
+
+    public boolean isDirect() {
+        return bigEndian != null && bigEndian.isDirect();
+    }
+
+    public boolean isMapped() {
+        return bigEndian != null && mapped;
+    }
+
+    /**
+     * The bytes in the given order, shared with the views on this buffer
+     *
+     * @return the bytes, or null if the buffer is detached
+     */
+    public ByteBuffer getBytes(boolean littleEndianOrder) {
+        return littleEndianOrder ? littleEndian : bigEndian;
+    }
+
+    /**
+     * The bytes in the native order, as used by the typed arrays
+     *
+     * @return the bytes, or null if the buffer is detached
+     */
+    public ByteBuffer getBytes() {
+        return ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? littleEndian : bigEndian;
+    }
+
+    /**
+     * Write the changes of a memory mapped buffer to its file, nop for other
+     * buffers
+     */
+    public void force() {
+        if (isMapped()) {
+            ((MappedByteBuffer) bigEndian).force();
+        }
+    }
+
+    /**
+     * Copy a range of bytes to a new buffer, direct if this one is
+     *
+     * @param begin
+     *            the offset of the first byte
+     * @param end
+     *            the offset after the last byte
+     * @return the new buffer
+     * @throws EcmaScriptException
+     */
+    public ESArrayBuffer slice(int begin, int end) throws EcmaScriptException {
+        ByteBuffer source = checkAttached().duplicate();
+        int length = Math.max(end - begin, 0);
+        ByteBuffer bytes = isDirect() ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+        source.position(begin).limit(begin + length);
+        bytes.put(source).clear();
+        return new ESArrayBuffer(getPrototype(), getEvaluator(), bytes, false);
+    }
+
+    ByteBuffer checkAttached() throws TypeError {
+        if (bigEndian == null) {
+            throw new TypeError("ArrayBuffer is detached");
+        }
+        return bigEndian;
+    }
+
+    @Override
+    public ESValue getPropertyIfAvailable(String propertyName, int hash) throws EcmaScriptException {
+        if (hash == BYTE_LENGTHhash && propertyName.equals(BYTE_LENGTHstring)) {
+            return ESNumber.valueOf(getByteLength());
+        }
+        return super.getPropertyIfAvailable(propertyName, hash);
+    }
+
+    @Override
+    public void putProperty(String propertyName, ESValue propertyValue, int hash) throws EcmaScriptException {
+        if (hash == BYTE_LENGTHhash && propertyName.equals(BYTE_LENGTHstring)) {
+            return; // read only
+        }
+        super.putProperty(propertyName, propertyValue, hash);
+    }
+
+    public void checkTransferable() throws EcmaScriptException {
+        if (bigEndian == null) {
+            throw new TypeError("DataCloneError: ArrayBuffer already detached");
+        }
+    }
+
+    public Content detach() throws EcmaScriptException {
+        final ByteBuffer bytes = checkAttached();
+        final boolean isMapped = mapped;
+        bigEndian = null;
+        littleEndian = null;
+        return new Content() {
+            public ESObject attach(Evaluator evaluator) throws EcmaScriptException {
+                return Buffers.of(evaluator).createArrayBuffer(bytes, isMapped);
+            }
+        };
+    }
+}
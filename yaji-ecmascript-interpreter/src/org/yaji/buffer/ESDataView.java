@@ -0,0 +1,117 @@
+package org.yaji.buffer;
+
+import java.nio.ByteBuffer;
+
+import FESI.Data.ESNumber;
+import FESI.Data.ESObject;
+import FESI.Data.ESValue;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Exceptions.RangeError;
+import FESI.Interpreter.Evaluator;
+
+/**
+ * A DataView: reads and writes values of any {@link ElementType} at any byte
+ * offset of a range of an {@link ESArrayBuffer}, big endian unless little
+ * endian is requested.
+ */
+public class ESDataView extends ESObject {
+    private static final long serialVersionUID = 6043262958214407791L;
+
+    private static final String BYTE_LENGTHstring = "byteLength";
+    private static final int BYTE_LENGTHhash = BYTE_LENGTHstring.hashCode();
+    private static final String BYTE_OFFSETstring = "byteOffset";
+    private static final int BYTE_OFFSEThash = BYTE_OFFSETstring.hashCode();
+    private static final String BUFFERstring = "buffer";
+    private static final int BUFFERhash = BUFFERstring.hashCode();
+
+    private final ESArrayBuffer buffer;
+    private final int byteOffset;
+    private final int byteLength;
+
+    ESDataView(ESObject prototype, Evaluator evaluator, ESArrayBuffer buffer, int byteOffset, int byteLength) {
+        super(prototype, evaluator);
+        this.buffer = buffer;
+        this.byteOffset = byteOffset;
+        this.byteLength = byteLength;
+    }
+
+    @Override
+    public String getESClassName() {
+        return "DataView";
+    }
+
+    public ESArrayBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int getByteOffset() {
+        return buffer.isDetached() ? 0 : byteOffset;
+    }
+
+    public int getByteLength() {
+        return buffer.isDetached() ? 0 : byteLength;
+    }
+
+    /**
+     * Read a value
+     *
+     * @param type
+     *            the type of the value
+     * @param offset
+     *            the offset of the value in the view
+     * @param littleEndian
+     *            true for little endian, false for big endian
+     * @return the value
+     * @throws EcmaScriptException
+     *             if the value is not inside the view, or the buffer is
+     *             detached
+     */
+    public double get(ElementType type, int offset, boolean littleEndian) throws EcmaScriptException {
+        ByteBuffer bytes = bytes(littleEndian);
+        return type.get(bytes, checkOffset(type, offset));
+    }
+
+    /**
+     * Write a value
+     *
+     * @param type
+     *            the type of the value
+     * @param offset
+     *            the offset of the value in the view
+     * @param value
+     *            the value, converted to the type
+     * @param littleEndian
+     *            true for little endian, false for big endian
+     * @throws EcmaScriptException
+     *             if the value is not inside the view, or the buffer is
+     *             detached
+     */
+    public void set(ElementType type, int offset, double value, boolean littleEndian) throws EcmaScriptException {
+        ByteBuffer bytes = bytes(littleEndian);
+        type.set(bytes, checkOffset(type, offset), value);
+    }
+
+    private ByteBuffer bytes(boolean littleEndian) throws EcmaScriptException {
+        buffer.checkAttached();
+        return buffer.getBytes(littleEndian);
+    }
+
+    private int checkOffset(ElementType type, int offset) throws RangeError {
+        if (offset < 0 || offset > byteLength - type.getSize()) {
+            throw new RangeError("Offset " + offset + " is outside the bounds of the DataView");
+        }
+        return byteOffset + offset;
+    }
+
+    @Override
+    public ESValue getPropertyIfAvailable(String propertyName, int hash) throws EcmaScriptException {
+        if (hash == BYTE_LENGTHhash && propertyName.equals(BYTE_LENGTHstring)) {
+            return ESNumber.valueOf(getByteLength());
+        } else if (hash == BYTE_OFFSEThash && propertyName.equals(BYTE_OFFSETstring)) {
+            return ESNumber.valueOf(getByteOffset());
+        } else if (hash == BUFFERhash && propertyName.equals(BUFFERstring)) {
+            return buffer;
+        }
+        return super.getPropertyIfAvailable(propertyName, hash);
+    }
+}
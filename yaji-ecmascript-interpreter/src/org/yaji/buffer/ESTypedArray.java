@@ -0,0 +1,262 @@
+package org.yaji.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.Enumeration;
+
+import FESI.Data.ESNumber;
+import FESI.Data.ESObject;
+import FESI.Data.ESValue;
+import FESI.Data.StandardProperty;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+
+/**
+ * A typed array: a view of elements of one {@link ElementType} on a range of
+ * an {@link ESArrayBuffer}, in the native byte order.
+ * <P>
+ * The elements are read and written directly in the buffer, never stored in
+ * the property map. Indexes out of range are ignored on writes and read as
+ * undefined, the length is fixed.
+ */
+public class ESTypedArray extends ESObject {
+    private static final long serialVersionUID = -5193467728004566541L;
+
+    private static final String BYTE_LENGTHstring = "byteLength";
+    private static final int BYTE_LENGTHhash = BYTE_LENGTHstring.hashCode();
+    private static final String BYTE_OFFSETstring = "byteOffset";
+    private static final int BYTE_OFFSEThash = BYTE_OFFSETstring.hashCode();
+    private static final String BUFFERstring = "buffer";
+    private static final int BUFFERhash = BUFFERstring.hashCode();
+
+    private final ElementType type;
+    private final ESArrayBuffer buffer;
+    private final int byteOffset;
+    private final int length;
+
+    ESTypedArray(ESObject prototype, Evaluator evaluator, ElementType type, ESArrayBuffer buffer, int byteOffset,
+            int length) {
+        super(prototype, evaluator);
+        this.type = type;
+        this.buffer = buffer;
+        this.byteOffset = byteOffset;
+        this.length = length;
+    }
+
+    @Override
+    public String getESClassName() {
+        return type.getArrayName();
+    }
+
+    public ElementType getType() {
+        return type;
+    }
+
+    public ESArrayBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the offset of the first element in the buffer, 0 once the
+     *         buffer is detached
+     */
+    public int getByteOffset() {
+        return buffer.isDetached() ? 0 : byteOffset;
+    }
+
+    /**
+     * @return the number of elements, 0 once the buffer is detached
+     */
+    public int getLength() {
+        return buffer.isDetached() ? 0 : length;
+    }
+
+    public int getByteLength() {
+        return getLength() * type.getSize();
+    }
+
+    /**
+     * Read an element
+     *
+     * @return the element as a number, or NaN if the index is out of range
+     */
+    public double getDouble(int index) {
+        ByteBuffer bytes = buffer.getBytes();
+        if (bytes == null || index < 0 || index >= length) {
+            return Double.NaN;
+        }
+        return type.get(bytes, byteOffset + index * type.getSize());
+    }
+
+    /**
+     * Write an element, ignored if the index is out of range
+     */
+    public void setDouble(int index, double value) {
+        ByteBuffer bytes = buffer.getBytes();
+        if (bytes != null && index >= 0 && index < length) {
+            type.set(bytes, byteOffset + index * type.getSize(), value);
+        }
+    }
+
+    /**
+     * Read an element
+     *
+     * @return the element, or null if the index is out of range
+     */
+    public ESValue getElement(long index) {
+        ByteBuffer bytes = buffer.getBytes();
+        if (bytes == null || index < 0 || index >= length) {
+            return null;
+        }
+        return ESNumber.valueOf(type.get(bytes, byteOffset + (int) index * type.getSize()));
+    }
+
+    /**
+     * Convert a value and write it as an element, ignored if the index is out
+     * of range
+     */
+    public void putElement(long index, ESValue value) throws EcmaScriptException {
+        // The value is converted even if it is not stored
+        double number = value.doubleValue();
+        if (index <= Integer.MAX_VALUE) {
+            setDouble((int) index, number);
+        }
+    }
+
+    /**
+     * The index designated by a property value, to access the elements from
+     * the evaluator without converting the index to a property name
+     *
+     * @return the index, or -1 if the value is not an integral number
+     */
+    public static long toIndex(ESValue propertyValue) throws EcmaScriptException {
+        if (propertyValue instanceof ESNumber) {
+            double d = propertyValue.doubleValue();
+            long index = (long) d;
+            if (index == d && index >= 0) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The index designated by a property name
+     *
+     * @return the index, or -1 if the name is not a canonical array index
+     */
+    static long toIndex(String propertyName) {
+        int n = propertyName.length();
+        if (n == 0 || n > 10 || (n > 1 && propertyName.charAt(0) == '0')) {
+            return -1;
+        }
+        long index = 0;
+        for (int i = 0; i < n; i++) {
+            char c = propertyName.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+
+    @Override
+    public ESValue getPropertyIfAvailable(long index) throws EcmaScriptException {
+        return getElement(index);
+    }
+
+    @Override
+    public void putProperty(long index, ESValue propertyValue) throws EcmaScriptException {
+        putElement(index, propertyValue);
+    }
+
+    @Override
+    public ESValue getPropertyIfAvailable(String propertyName, int hash) throws EcmaScriptException {
+        long index = toIndex(propertyName);
+        if (index >= 0) {
+            return getElement(index);
+        }
+        if (hash == StandardProperty.LENGTHhash && propertyName.equals(StandardProperty.LENGTHstring)) {
+            return ESNumber.valueOf(getLength());
+        } else if (hash == BYTE_LENGTHhash && propertyName.equals(BYTE_LENGTHstring)) {
+            return ESNumber.valueOf(getByteLength());
+        } else if (hash == BYTE_OFFSEThash && propertyName.equals(BYTE_OFFSETstring)) {
+            return ESNumber.valueOf(getByteOffset());
+        } else if (hash == BUFFERhash && propertyName.equals(BUFFERstring)) {
+            return buffer;
+        }
+        return super.getPropertyIfAvailable(propertyName, hash);
+    }
+
+    @Override
+    public void putProperty(String propertyName, ESValue propertyValue, int hash) throws EcmaScriptException {
+        long index = toIndex(propertyName);
+        if (index >= 0) {
+            putElement(index, propertyValue);
+        } else if (!isViewProperty(propertyName, hash)) {
+            super.putProperty(propertyName, propertyValue, hash);
+        }
+    }
+
+    private static boolean isViewProperty(String propertyName, int hash) {
+        return (hash == StandardProperty.LENGTHhash && propertyName.equals(StandardProperty.LENGTHstring))
+                || (hash == BYTE_LENGTHhash && propertyName.equals(BYTE_LENGTHstring))
+                || (hash == BYTE_OFFSEThash && propertyName.equals(BYTE_OFFSETstring))
+                || (hash == BUFFERhash && propertyName.equals(BUFFERstring));
+    }
+
+    @Override
+    public boolean deleteProperty(String propertyName, int hash) throws EcmaScriptException {
+        long index = toIndex(propertyName);
+        if (index >= 0) {
+            return index >= getLength();
+        }
+        return super.deleteProperty(propertyName, hash);
+    }
+
+    @Override
+    public boolean hasEnumerableProperty(String propertyName, int hashCode) {
+        long index = toIndex(propertyName);
+        if (index >= 0) {
+            return index < getLength();
+        }
+        return super.hasEnumerableProperty(propertyName, hashCode);
+    }
+
+    @Override
+    public Enumeration<String> getProperties() {
+        return new IndexEnumeration(getLength(), super.getProperties());
+    }
+
+    @Override
+    public Enumeration<String> getOwnPropertyNames() {
+        return new IndexEnumeration(getLength(), super.getOwnPropertyNames());
+    }
+
+    @Override
+    public Enumeration<String> keys() {
+        return new IndexEnumeration(getLength(), super.keys());
+    }
+
+    /**
+     * The element indexes followed by other property names
+     */
+    private static class IndexEnumeration implements Enumeration<String> {
+        private final int length;
+        private final Enumeration<String> names;
+        private int next = 0;
+
+        IndexEnumeration(int length, Enumeration<String> names) {
+            this.length = length;
+            this.names = names;
+        }
+
+        public boolean hasMoreElements() {
+            return next < length || names.hasMoreElements();
+        }
+
+        public String nextElement() {
+            return next < length ? Integer.toString(next++) : names.nextElement();
+        }
+    }
+}
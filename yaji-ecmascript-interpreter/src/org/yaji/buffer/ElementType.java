@@ -0,0 +1,159 @@
+package org.yaji.buffer;
+
+import java.nio.ByteBuffer;
+
+import FESI.Data.ESValue;
+import FESI.Exceptions.EcmaScriptException;
+
+/**
+ * The element types of the typed arrays and of the DataView accessors, with
+ * the conversions between script numbers and their binary representation.
+ * Offsets are absolute byte offsets in the buffer, whose byte order applies.
+ */
+public enum ElementType {
+    INT8("Int8", 1) {
+        @Override
+        public double get(ByteBuffer buffer, int offset) {
+            return buffer.get(offset);
+        }
+
+        @Override
+        public void set(ByteBuffer buffer, int offset, double value) {
+            buffer.put(offset, (byte) toInt32(value));
+        }
+    },
+    UINT8("Uint8", 1) {
+        @Override
+        public double get(ByteBuffer buffer, int offset) {
+            return buffer.get(offset) & 0xFF;
+        }
+
+        @Override
+        public void set(ByteBuffer buffer, int offset, double value) {
+            buffer.put(offset, (byte) toInt32(value));
+        }
+    },
+    INT16("Int16", 2) {
+        @Override
+        public double get(ByteBuffer buffer, int offset) {
+            return buffer.getShort(offset);
+        }
+
+        @Override
+        public void set(ByteBuffer buffer, int offset, double value) {
+            buffer.putShort(offset, (short) toInt32(value));
+        }
+    },
+    UINT16("Uint16", 2) {
+        @Override
+        public double get(ByteBuffer buffer, int offset) {
+            return buffer.getShort(offset) & 0xFFFF;
+        }
+
+        @Override
+        public void set(ByteBuffer buffer, int offset, double value) {
+            buffer.putShort(offset, (short) toInt32(value));
+        }
+    },
+    INT32("Int32", 4) {
+        @Override
+        public double get(ByteBuffer buffer, int offset) {
+            return buffer.getInt(offset);
+        }
+
+        @Override
+        public void set(ByteBuffer buffer, int offset, double value) {
+            buffer.putInt(offset, toInt32(value));
+        }
+    },
+    UINT32("Uint32", 4) {
+        @Override
+        public double get(ByteBuffer buffer, int offset) {
+            return buffer.getInt(offset) & 0xFFFFFFFFL;
+        }
+
+        @Override
+        public void set(ByteBuffer buffer, int offset, double value) {
+            buffer.putInt(offset, toInt32(value));
+        }
+    },
+    FLOAT32("Float32", 4) {
+        @Override
+        public double get(ByteBuffer buffer, int offset) {
+            return buffer.getFloat(offset);
+        }
+
+        @Override
+        public void set(ByteBuffer buffer, int offset, double value) {
+            buffer.putFloat(offset, (float) value);
+        }
+    },
+    FLOAT64("Float64", 8) {
+        @Override
+        public double get(ByteBuffer buffer, int offset) {
+            return buffer.getDouble(offset);
+        }
+
+        @Override
+        public void set(ByteBuffer buffer, int offset, double value) {
+            buffer.putDouble(offset, value);
+        }
+    };
+
+    private final String name;
+    private final int size;
+
+    private ElementType(String name, int size) {
+        this.name = name;
+        this.size = size;
+    }
+
+    /**
+     * @return the name of the type, as in the DataView accessor names
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the name of the typed array constructor
+     */
+    public String getArrayName() {
+        return name + "Array";
+    }
+
+    /**
+     * @return the number of bytes of an element
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Read an element
+     */
+    public abstract double get(ByteBuffer buffer, int offset);
+
+    /**
+     * Convert a number to this type and write it
+     */
+    public abstract void set(ByteBuffer buffer, int offset, double value);
+
+    /**
+     * Convert a value to this type and write it
+     */
+    public final void put(ByteBuffer buffer, int offset, ESValue value) throws EcmaScriptException {
+        set(buffer, offset, value.doubleValue());
+    }
+
+    /**
+     * The 32 low bits of the integer part, as ESValue.toInt32(), from which
+     * the shorter integer types are truncated
+     */
+    static int toInt32(double value) {
+        if (Double.isInfinite(value) || Double.isNaN(value)) {
+            return 0;
+        }
+        return (int) (long) value;
+    }
+}
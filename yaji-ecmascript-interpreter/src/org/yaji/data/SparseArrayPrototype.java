@@ -18,11 +18,14 @@ import FESI.Exceptions.RangeError;
 import FESI.Exceptions.TypeError;
 import FESI.Interpreter.Evaluator;
 import FESI.Interpreter.IDescriptor;
+import FESI.Interpreter.PropertyJournal;
 
 public class SparseArrayPrototype extends ESObject {
 
     private static final long serialVersionUID = 7416031370358821189L;
     private UInt32BitSet sparseValues = null;
+    // The indices saved by the journal of the clean state, if any
+    private transient IndicesSnapshot snapshot;
 
     protected SparseArrayPrototype(ESObject prototype, Evaluator evaluator) throws EcmaScriptException {
         super(prototype, evaluator);
@@ -65,6 +68,7 @@ public class SparseArrayPrototype extends ESObject {
                 throw new RangeError("Index is greater than possible maximum");
             }
             if (index > length) {
+                indicesChanging();
                 if (sparseValues == null) {
                     sparseValues = new UInt32BitSet();
                     sparseValues.set(0L,length);
@@ -75,6 +79,40 @@ public class SparseArrayPrototype extends ESObject {
         }
     }
 
+    /**
+     * Record the changes of the properties of this array in a journal, so
+     * that they can be undone, as well as the indices it holds
+     * 
+     * @param journal
+     *            the journal
+     */
+    @Override
+    public void setPropertyJournal(PropertyJournal journal) {
+        if (!journal.isTracking(this)) {
+            snapshot = new IndicesSnapshot();
+            journal.addSnapshot(snapshot);
+        }
+        super.setPropertyJournal(journal);
+    }
+
+    private void indicesChanging() {
+        if (snapshot != null) {
+            snapshot.changing();
+        }
+    }
+
+    /**
+     * The indices of the array when it started to be journaled
+     */
+    private class IndicesSnapshot extends PropertyJournal.Snapshot {
+        private final UInt32BitSet saved = sparseValues == null ? null : sparseValues.copy();
+
+        @Override
+        protected void restore() {
+            sparseValues = saved == null ? null : saved.copy();
+        }
+    }
+
     private long getLength() throws EcmaScriptException {
         return ArrayUtil.getArrayLength(this);
     }
@@ -194,6 +232,7 @@ public class SparseArrayPrototype extends ESObject {
         boolean result = super.deleteProperty(propertyName,propertyName.hashCode());
         if (result) {
             if (sparseValues != null) {
+                indicesChanging();
                 sparseValues.clear(index);
             }
         }
@@ -208,6 +247,7 @@ public class SparseArrayPrototype extends ESObject {
             long longResult = Long.parseLong(propertyName);
             if (longResult < 0xFFFFFFFFL && longResult >= 0) {
                 if (sparseValues != null) {
+                    indicesChanging();
                     sparseValues.clear(longResult);
                 }
             }
@@ -15,7 +15,9 @@ public class DebugEcmaScriptEvaluateVisitor extends EcmaScriptEvaluateVisitor {
 
     @Override
     public Object visit(ASTStatement node, Object data) {
-        debugger.check(node.getLineNumber());
+        if (debugger.isArmed()) {
+            debugger.check(getEvaluationSource(), node.getLineNumber());
+        }
         return super.visit(node, data);
     }
 }
@@ -2,6 +2,7 @@ package org.yaji.debugger;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
@@ -9,20 +10,32 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.yaji.profiler.HeapSnapshot;
+import org.yaji.profiler.Profile;
+import org.yaji.profiler.SamplingProfiler;
 
 import FESI.Data.ESNumber;
 import FESI.Data.ESObject;
 import FESI.Data.ESString;
 import FESI.Data.ESValue;
+import FESI.Data.ObjectObject;
 import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.EvaluationSource;
 import FESI.Interpreter.Evaluator;
+import FESI.Interpreter.FileEvaluationSource;
 
 public class Debugger {
 
     private V8Debugger v8debugger;
+    private Evaluator evaluator;
+    private SamplingProfiler profiler;
     private final int port;
 
     public Debugger(int port) {
@@ -30,23 +43,197 @@ public class Debugger {
     }
 
     public void setEvaluator(Evaluator evaluator) {
+        this.evaluator = evaluator;
         this.v8debugger = new V8Debugger(this,evaluator);
         new Thread(new DebugListener(this, port, evaluator),"YAJI Debugger").start();
     }
 
-    private Object latch = new Object();
     private List<File> scripts = new ArrayList<File>();
-    
-    public void check(int lineNumber) {
+
+    // The lines with a breakpoint by script name. A set is replaced rather
+    // than modified, so that it can be read without locking.
+    private final ConcurrentHashMap<String, BitSet> breakpointLines = new ConcurrentHashMap<String, BitSet>();
+    // The breakpoints by id, guarded by this
+    private final Map<Integer, Breakpoint> breakpoints = new TreeMap<Integer, Breakpoint>();
+    private int nextBreakpointId = 1;
+
+    // True if a breakpoint is set or a pause is requested, so that the
+    // statements are only checked when they may have to pause
+    private volatile boolean armed = false;
+    private volatile boolean pauseRequested = false;
+    private volatile boolean paused = false;
+    private final Object latch = new Object();
+
+    /**
+     * A breakpoint on a line of a script
+     */
+    public static class Breakpoint {
+        private final int id;
+        private final String scriptName;
+        private final int lineNumber;
+
+        Breakpoint(int id, String scriptName, int lineNumber) {
+            this.id = id;
+            this.scriptName = scriptName;
+            this.lineNumber = lineNumber;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getScriptName() {
+            return scriptName;
+        }
+
+        public int getLineNumber() {
+            return lineNumber;
+        }
+    }
+
+    /**
+     * @return true if a statement may have to pause, the only check made
+     *         when no breakpoint is set
+     */
+    public boolean isArmed() {
+        return armed;
+    }
+
+    /**
+     * Pause before a statement if a pause was requested or it is on a line
+     * with a breakpoint, until resumed. Only called when armed.
+     * 
+     * @param source
+     *            the source of the statement
+     * @param lineNumber
+     *            the line of the statement
+     */
+    public void check(EvaluationSource source, int lineNumber) {
+        if (pauseRequested || hasBreakpoint(source, lineNumber)) {
+            pause();
+        }
+    }
+
+    private boolean hasBreakpoint(EvaluationSource source, int lineNumber) {
+        String scriptName = getScriptName(source);
+        if (scriptName == null) {
+            return false;
+        }
+        BitSet lines = breakpointLines.get(scriptName);
+        return lines != null && lineNumber >= 0 && lines.get(lineNumber);
+    }
+
+    /**
+     * @return the name of the file a source comes from, as listed by the
+     *         scripts command, or null if it does not come from a file. The
+     *         name is kept by the file source, so that checking a statement
+     *         allocates nothing.
+     */
+    static String getScriptName(EvaluationSource source) {
+        for (; source != null; source = source.getPreviousSource()) {
+            if (source instanceof FileEvaluationSource) {
+                return ((FileEvaluationSource) source).getBaseName();
+            }
+        }
+        return null;
+    }
+
+    private void pause() {
         synchronized (latch) {
+            pauseRequested = false;
+            updateArmed();
+            paused = true;
             try {
-                latch.wait();
+                while (paused) {
+                    latch.wait();
+                }
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                paused = false;
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Resume the evaluation if it is paused
+     * 
+     * @param step
+     *            true to pause again before the next statement
+     */
+    public void resume(boolean step) {
+        synchronized (latch) {
+            if (step) {
+                requestPause();
             }
+            paused = false;
+            latch.notifyAll();
+        }
+    }
+
+    /**
+     * Pause before the next statement
+     */
+    public synchronized void requestPause() {
+        pauseRequested = true;
+        armed = true;
+    }
+
+    /**
+     * Set a breakpoint on a line of a script
+     * 
+     * @param lineNumber
+     *            the line, counted from 1
+     * @return the breakpoint
+     * @throws IllegalArgumentException
+     *             if the line is not positive
+     */
+    public synchronized Breakpoint setBreakpoint(String scriptName, int lineNumber) {
+        if (lineNumber < 1) {
+            throw new IllegalArgumentException("Invalid line number " + lineNumber);
         }
+        Breakpoint breakpoint = new Breakpoint(nextBreakpointId++, scriptName, lineNumber);
+        breakpoints.put(Integer.valueOf(breakpoint.getId()), breakpoint);
+        updateLines(scriptName);
+        return breakpoint;
     }
-    
+
+    /**
+     * Remove a breakpoint
+     * 
+     * @return false if there is no breakpoint with that id
+     */
+    public synchronized boolean clearBreakpoint(int id) {
+        Breakpoint breakpoint = breakpoints.remove(Integer.valueOf(id));
+        if (breakpoint == null) {
+            return false;
+        }
+        updateLines(breakpoint.getScriptName());
+        return true;
+    }
+
+    public synchronized List<Breakpoint> getBreakpoints() {
+        return new ArrayList<Breakpoint>(breakpoints.values());
+    }
+
+    private void updateLines(String scriptName) {
+        BitSet lines = new BitSet();
+        for (Breakpoint breakpoint : breakpoints.values()) {
+            if (breakpoint.getScriptName().equals(scriptName)) {
+                lines.set(breakpoint.getLineNumber());
+            }
+        }
+        if (lines.isEmpty()) {
+            breakpointLines.remove(scriptName);
+        } else {
+            breakpointLines.put(scriptName, lines);
+        }
+        updateArmed();
+    }
+
+    private synchronized void updateArmed() {
+        armed = pauseRequested || !breakpointLines.isEmpty();
+    }
+
     private static class DebugListener implements Runnable {
 
         private static final String CHROME_DEV_TOOLS_HANDSHAKE = "ChromeDevToolsHandshake\r\n";
@@ -189,6 +376,68 @@ public class Debugger {
                     });
                 }
             });
+            commandSets.put("Profiler", new CommandSet(ProfilerResultCode.UNKNOWN_COMMAND) {
+                private static final long serialVersionUID = 1L;
+                {
+                    put("start", new CommandHandler() {
+                        public boolean apply(Debugger debugger, ESObject commandContent, Result result, Evaluator evaluator) throws EcmaScriptException {
+                            SamplingProfiler profiler = debugger.getProfiler();
+                            ESValue data = commandContent.getPropertyIfAvailable("data", "data".hashCode());
+                            if (data instanceof ESObject) {
+                                ESValue interval = ((ESObject) data).getPropertyIfAvailable("interval", "interval".hashCode());
+                                if (interval != null && interval.toInt32() > 0) {
+                                    profiler.setInterval(interval.toInt32());
+                                }
+                            }
+                            result.setCode(profiler.start() ? ProfilerResultCode.OK : ProfilerResultCode.ALREADY_STARTED);
+                            return true;
+                        }
+                    });
+                    put("stop", new CommandHandler() {
+                        public boolean apply(Debugger debugger, ESObject commandContent, Result result, Evaluator evaluator) throws EcmaScriptException {
+                            Profile profile = debugger.getProfiler().stop();
+                            if (profile == null) {
+                                result.setCode(ProfilerResultCode.NOT_STARTED);
+                            } else {
+                                ESObject data = ObjectObject.createObject(evaluator);
+                                data.putProperty("profile", profile.toCpuProfile(evaluator), "profile".hashCode());
+                                result.setData(data);
+                                result.setCode(ProfilerResultCode.OK);
+                            }
+                            return true;
+                        }
+                    });
+                }
+            });
+            commandSets.put("HeapProfiler", new CommandSet(HeapProfilerResultCode.UNKNOWN_COMMAND) {
+                private static final long serialVersionUID = 1L;
+                {
+                    put("takeHeapSnapshot", new CommandHandler() {
+                        public boolean apply(Debugger debugger, ESObject commandContent, Result result, Evaluator evaluator) throws EcmaScriptException {
+                            // Commands run on the listener thread: the
+                            // objects can only be walked while the
+                            // evaluator thread is paused
+                            if (!debugger.isPaused()) {
+                                result.setCode(HeapProfilerResultCode.NOT_PAUSED);
+                                return true;
+                            }
+                            // Sent as the text of a .heapsnapshot file, too
+                            // large to be built as a script object
+                            StringWriter snapshot = new StringWriter();
+                            try {
+                                HeapSnapshot.take(evaluator).write(snapshot);
+                            } catch (IOException e) {
+                                throw new EcmaScriptException("Cannot write heap snapshot", e);
+                            }
+                            ESObject data = ObjectObject.createObject(evaluator);
+                            data.putProperty("snapshot", new ESString(snapshot.toString()), "snapshot".hashCode());
+                            result.setData(data);
+                            result.setCode(HeapProfilerResultCode.OK);
+                            return true;
+                        }
+                    });
+                }
+            });
         }
         
         private Result dispatch(Command command) throws EcmaScriptException {
@@ -212,12 +461,22 @@ public class Debugger {
         
     }
 
+    /**
+     * @return the CPU profiler of the evaluator, created on first use
+     */
+    protected synchronized SamplingProfiler getProfiler() {
+        if (profiler == null) {
+            profiler = new SamplingProfiler(evaluator.getCallStack());
+        }
+        return profiler;
+    }
+
     protected V8Debugger getV8Debugger() {
         return v8debugger;
     }
 
     public boolean isPaused() {
-        return false;
+        return paused;
     }
 
     public void addScript(File file) {
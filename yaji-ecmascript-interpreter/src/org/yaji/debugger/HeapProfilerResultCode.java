@@ -0,0 +1,17 @@
+package org.yaji.debugger;
+
+enum HeapProfilerResultCode implements ResultCode {
+    OK(0),
+    UNKNOWN_COMMAND(1),
+    NOT_PAUSED(2); // a snapshot was requested while the evaluation was running
+    
+    private final int code;
+
+    private HeapProfilerResultCode(int code) {
+        this.code = code;
+    }
+    
+    public int getCode() {
+        return code;
+    }
+}
@@ -0,0 +1,18 @@
+package org.yaji.debugger;
+
+enum ProfilerResultCode implements ResultCode {
+    OK(0),
+    UNKNOWN_COMMAND(1),
+    NOT_STARTED(2), // stop was requested while the profiler was not started
+    ALREADY_STARTED(3); // start was requested while the profiler was started
+    
+    private final int code;
+
+    private ProfilerResultCode(int code) {
+        this.code = code;
+    }
+    
+    public int getCode() {
+        return code;
+    }
+}
@@ -83,6 +83,10 @@ public class V8Debugger {
             put("continue", new CommandHandler() {
                 @Override
                 public void invoke(ESObject request, ESObject response) throws EcmaScriptException {
+                    ESValue arguments = request.getPropertyIfAvailable("arguments","arguments".hashCode());
+                    boolean step = arguments instanceof ESObject
+                            && ((ESObject) arguments).getPropertyIfAvailable("stepaction","stepaction".hashCode()) != null;
+                    debugger.resume(step);
                     response.putProperty("success", ESBoolean.valueOf(true));
                     response.putProperty("running", ESBoolean.valueOf(true));
                 }
@@ -172,8 +176,24 @@ public class V8Debugger {
             });
             put("setbreakpoint", new CommandHandler() {
                 @Override
-                public void invoke(ESObject request, ESObject response) {
-                    // TODO
+                public void invoke(ESObject request, ESObject response) throws EcmaScriptException {
+                    ESObject arguments = (ESObject) request.getProperty("arguments","arguments".hashCode());
+                    String target = arguments.getProperty("target","target".hashCode()).toString();
+                    // Lines are counted from 0 by the protocol, from 1 by the parser
+                    int line = arguments.getProperty("line","line".hashCode()).toInt32();
+                    if (line < 0) {
+                        response.putProperty("message", new ESString("Invalid line " + line), "message".hashCode());
+                        response.putProperty("running", ESBoolean.valueOf(!debugger.isPaused()));
+                        response.putProperty("success", ESBoolean.valueOf(false));
+                        return;
+                    }
+                    Debugger.Breakpoint breakpoint = debugger.setBreakpoint(target, line + 1);
+                    ESObject body = ObjectObject.createObject(evaluator);
+                    body.putProperty("type", ESString.valueOf("script"), "type".hashCode());
+                    body.putProperty("breakpoint", ESNumber.valueOf(breakpoint.getId()), "breakpoint".hashCode());
+                    response.putProperty("body", body, "body".hashCode());
+                    response.putProperty("running", ESBoolean.valueOf(!debugger.isPaused()));
+                    response.putProperty("success", ESBoolean.valueOf(true));
                 }
             });
             put("changebreakpoint", new CommandHandler() {
@@ -184,8 +204,15 @@ public class V8Debugger {
             });
             put("clearbreakpoint", new CommandHandler() {
                 @Override
-                public void invoke(ESObject request, ESObject response) {
-                    // TODO
+                public void invoke(ESObject request, ESObject response) throws EcmaScriptException {
+                    ESObject arguments = (ESObject) request.getProperty("arguments","arguments".hashCode());
+                    ESValue id = arguments.getProperty("breakpoint","breakpoint".hashCode());
+                    boolean cleared = debugger.clearBreakpoint(id.toInt32());
+                    ESObject body = ObjectObject.createObject(evaluator);
+                    body.putProperty("breakpoint", id, "breakpoint".hashCode());
+                    response.putProperty("body", body, "body".hashCode());
+                    response.putProperty("running", ESBoolean.valueOf(!debugger.isPaused()));
+                    response.putProperty("success", ESBoolean.valueOf(cleared));
                 }
             });
             put("setexceptionbreak", new CommandHandler() {
@@ -222,7 +249,17 @@ public class V8Debugger {
                 @Override
                 public void invoke(ESObject request, ESObject response) throws EcmaScriptException {
                     ESObject object = ObjectObject.createObject(evaluator);
-                    object.putProperty("breakpints", createArray(), "breakpoints".hashCode());
+                    ESObject list = createArray();
+                    long index = 0;
+                    for (Debugger.Breakpoint breakpoint : debugger.getBreakpoints()) {
+                        ESObject description = ObjectObject.createObject(evaluator);
+                        description.putProperty("type", ESString.valueOf("scriptName"), "type".hashCode());
+                        description.putProperty("script_name", new ESString(breakpoint.getScriptName()), "script_name".hashCode());
+                        description.putProperty("number", ESNumber.valueOf(breakpoint.getId()), "number".hashCode());
+                        description.putProperty("line", ESNumber.valueOf(breakpoint.getLineNumber() - 1), "line".hashCode());
+                        list.putProperty(index++, description);
+                    }
+                    object.putProperty("breakpoints", list, "breakpoints".hashCode());
                     object.putProperty("breakOnExceptions", ESBoolean.valueOf(true), "breakOnExceptions".hashCode());
                     object.putProperty("breakOnUncaughtExceptions", ESBoolean.valueOf(true), "breakOnUncaughtExceptions".hashCode());
                     response.putProperty("body", object, "body".hashCode());
@@ -0,0 +1,296 @@
+package org.yaji.event;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.yaji.binding.HostFunction;
+import org.yaji.binding.This;
+
+import FESI.Data.BuiltinFunctionObject;
+import FESI.Data.ESNull;
+import FESI.Data.ESObject;
+import FESI.Data.ESUndefined;
+import FESI.Data.ESValue;
+import FESI.Data.FunctionPrototype;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Exceptions.TypeError;
+
+/**
+ * A Promise-like completion: the eventual result of an asynchronous
+ * operation, fulfilled with a value or rejected with a reason.
+ * <P>
+ * Resolving a completion with another completion, or with an object having
+ * a then function, makes it follow that object. The reactions registered by
+ * <code>then</code> and <code>catch</code> run as microtasks of the event
+ * loop, never synchronously.
+ */
+public class ESCompletion extends ESObject {
+    private static final long serialVersionUID = -2620380394153301838L;
+
+    public enum State {
+        PENDING, FULFILLED, REJECTED
+    }
+
+    /**
+     * Called once the completion is settled
+     */
+    interface Reaction {
+        void settled(boolean fulfilled, ESValue result) throws EcmaScriptException;
+    }
+
+    private final transient EventLoop eventLoop;
+    private State state = State.PENDING;
+    private ESValue result = ESUndefined.theUndefined;
+    // Resolved with a completion or thenable which is not settled yet
+    private boolean following = false;
+    private transient List<Reaction> reactions = new ArrayList<Reaction>(2);
+
+    ESCompletion(ESObject prototype, EventLoop eventLoop) {
+        super(prototype, eventLoop.getEvaluator());
+        this.eventLoop = eventLoop;
+    }
+
+    @Override
+    public String getESClassName() {
+        return "Completion";
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isSettled() {
+        return state != State.PENDING;
+    }
+
+    /**
+     * @return the value or the reason of the completion, undefined while
+     *         pending
+     */
+    public ESValue getResult() {
+        return result;
+    }
+
+    /**
+     * Resolve the completion, nop if already resolved
+     *
+     * @param value
+     *            the value, or a completion or thenable to follow
+     * @throws EcmaScriptException
+     */
+    public void resolve(ESValue value) throws EcmaScriptException {
+        if (state == State.PENDING && !following) {
+            resolveValue(value);
+        }
+    }
+
+    /**
+     * Reject the completion, nop if already resolved
+     *
+     * @param reason
+     *            the reason, usually an Error object
+     */
+    public void reject(ESValue reason) {
+        if (state == State.PENDING && !following) {
+            settle(false, reason);
+        }
+    }
+
+    private void resolveValue(ESValue value) throws EcmaScriptException {
+        if (value == this) {
+            settle(false, new TypeError("Completion resolved with itself").getErrorObject(getEvaluator()));
+            return;
+        }
+        if (value instanceof ESCompletion) {
+            following = true;
+            ((ESCompletion) value).addReaction(new Reaction() {
+                public void settled(boolean fulfilled, ESValue value) {
+                    settle(fulfilled, value);
+                }
+            });
+            return;
+        }
+        if (value instanceof ESObject) {
+            final ESObject thenable = (ESObject) value;
+            ESValue then;
+            try {
+                then = thenable.getProperty("then", "then".hashCode());
+            } catch (EcmaScriptException e) {
+                settle(false, e.getErrorObject(getEvaluator()));
+                return;
+            }
+            if (then.isCallable()) {
+                following = true;
+                final ESObject thenFunction = (ESObject) then;
+                eventLoop.enqueueMicrotask(new EventLoop.Job() {
+                    public void run() throws EcmaScriptException {
+                        ESValue[] resolvingFunctions = createResolvingFunctions();
+                        try {
+                            thenFunction.callFunction(thenable, resolvingFunctions);
+                        } catch (EcmaScriptException e) {
+                            resolvingFunctions[1].callFunction(ESUndefined.theUndefined,
+                                    new ESValue[] { e.getErrorObject(getEvaluator()) });
+                        }
+                    }
+                });
+                return;
+            }
+        }
+        settle(true, value);
+    }
+
+    void settle(boolean fulfilled, ESValue value) {
+        if (state != State.PENDING) {
+            return;
+        }
+        state = fulfilled ? State.FULFILLED : State.REJECTED;
+        result = value;
+        following = false;
+        List<Reaction> settledReactions = reactions;
+        reactions = null;
+        for (Reaction reaction : settledReactions) {
+            schedule(reaction);
+        }
+    }
+
+    void addReaction(Reaction reaction) {
+        if (state == State.PENDING) {
+            reactions.add(reaction);
+        } else {
+            schedule(reaction);
+        }
+    }
+
+    private void schedule(final Reaction reaction) {
+        final boolean fulfilled = state == State.FULFILLED;
+        final ESValue settledResult = result;
+        eventLoop.enqueueMicrotask(new EventLoop.Job() {
+            public void run() throws EcmaScriptException {
+                reaction.settled(fulfilled, settledResult);
+            }
+        });
+    }
+
+    /**
+     * Register reactions to the settlement of this completion
+     *
+     * @param onFulfilled
+     *            called with the value if the completion is fulfilled,
+     *            ignored if not a function
+     * @param onRejected
+     *            called with the reason if the completion is rejected,
+     *            ignored if not a function
+     * @return a completion resolved with the result of the reaction
+     * @throws EcmaScriptException
+     */
+    public ESCompletion then(final ESValue onFulfilled, final ESValue onRejected) throws EcmaScriptException {
+        final ESCompletion derived = eventLoop.newCompletion();
+        addReaction(new Reaction() {
+            public void settled(boolean fulfilled, ESValue value) throws EcmaScriptException {
+                ESValue handler = fulfilled ? onFulfilled : onRejected;
+                if (!handler.isCallable()) {
+                    if (fulfilled) {
+                        derived.resolveValue(value);
+                    } else {
+                        derived.settle(false, value);
+                    }
+                    return;
+                }
+                ESValue handlerResult;
+                try {
+                    handlerResult = handler.callFunction(ESUndefined.theUndefined, new ESValue[] { value });
+                } catch (EcmaScriptException e) {
+                    derived.settle(false, e.getErrorObject(getEvaluator()));
+                    return;
+                }
+                derived.resolveValue(handlerResult);
+            }
+        });
+        return derived;
+    }
+
+    /**
+     * Call a function once the completion is settled, in the Node.js style:
+     * with null and the value if it is fulfilled, with the reason if it is
+     * rejected. Exceptions thrown by the function propagate to the event
+     * loop.
+     *
+     * @param callback
+     *            the function, called with the global object as this
+     */
+    public void addCallback(final ESValue callback) {
+        addReaction(new Reaction() {
+            public void settled(boolean fulfilled, ESValue value) throws EcmaScriptException {
+                ESValue[] arguments = fulfilled ? new ESValue[] { ESNull.theNull, value } : new ESValue[] { value };
+                callback.callFunction(getEvaluator().getGlobalObject(), arguments);
+            }
+        });
+    }
+
+    /**
+     * @return the resolve and reject functions given to an executor or a then
+     *         function, only the first call of either has an effect
+     */
+    ESValue[] createResolvingFunctions() throws EcmaScriptException {
+        boolean[] called = new boolean[1];
+        FunctionPrototype fp = (FunctionPrototype) getEvaluator().getFunctionPrototype();
+        return new ESValue[] { new ResolvingFunction(fp, this, called, true),
+                new ResolvingFunction(fp, this, called, false) };
+    }
+
+    static class ResolvingFunction extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 4937712874049716131L;
+        private final ESCompletion completion;
+        private final boolean[] called;
+        private final boolean resolve;
+
+        ResolvingFunction(FunctionPrototype fp, ESCompletion completion, boolean[] called, boolean resolve)
+                throws EcmaScriptException {
+            super(fp, completion.getEvaluator(), resolve ? "resolve" : "reject", 1);
+            this.completion = completion;
+            this.called = called;
+            this.resolve = resolve;
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments) throws EcmaScriptException {
+            if (called[0]) {
+                return ESUndefined.theUndefined;
+            }
+            called[0] = true;
+            ESValue value = arguments.length > 0 ? arguments[0] : ESUndefined.theUndefined;
+            if (completion.state == State.PENDING) {
+                if (resolve) {
+                    completion.resolveValue(value);
+                } else {
+                    completion.settle(false, value);
+                }
+            }
+            return ESUndefined.theUndefined;
+        }
+    }
+
+    /**
+     * The functions of the completion prototype
+     */
+    public static class Methods {
+
+        @HostFunction
+        public ESValue then(@This ESObject thisObject, ESValue onFulfilled, ESValue onRejected)
+                throws EcmaScriptException {
+            return toCompletion(thisObject).then(onFulfilled, onRejected);
+        }
+
+        @HostFunction(name = "catch")
+        public ESValue catchRejection(@This ESObject thisObject, ESValue onRejected) throws EcmaScriptException {
+            return toCompletion(thisObject).then(ESUndefined.theUndefined, onRejected);
+        }
+
+        private static ESCompletion toCompletion(ESObject thisObject) throws EcmaScriptException {
+            if (!(thisObject instanceof ESCompletion)) {
+                throw new TypeError("Completion expected, not " + thisObject.getESClassName());
+            }
+            return (ESCompletion) thisObject;
+        }
+    }
+}
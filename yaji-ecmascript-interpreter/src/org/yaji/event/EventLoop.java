@@ -0,0 +1,561 @@
+package org.yaji.event;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.yaji.binding.HostFunctions;
+
+import FESI.Data.ESObject;
+import FESI.Data.ESValue;
+import FESI.Data.ObjectPrototype;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+
+/**
+ * The event loop of an evaluator: timers, immediate callbacks, a microtask
+ * queue and the completions of asynchronous host operations.
+ * <P>
+ * Asynchronous operations started by {@link #execute(Callable, ResultConverter)}
+ * run their blocking part on an I/O executor and settle their
+ * {@link ESCompletion} on the thread running the loop, so that one evaluator
+ * can have many operations in flight. Everything except {@link #post(Job)}
+ * must be called by the thread using the evaluator.
+ * <P>
+ * Each turn of the loop runs the completed operations, then the expired
+ * timers, then the immediate callbacks queued before the turn, running the
+ * microtasks after each callback.
+ */
+public class EventLoop {
+
+    /**
+     * A callback run by the loop
+     */
+    public interface Job {
+        void run() throws EcmaScriptException;
+    }
+
+    /**
+     * Converts the result of an asynchronous operation into a script value,
+     * on the loop thread
+     */
+    public interface ResultConverter<T> {
+        ESValue toESValue(T result) throws EcmaScriptException;
+
+        /**
+         * Release the result of an operation ended after {@link EventLoop#cancelAll()},
+         * which is not converted. Nothing by default.
+         */
+        default void discard(T result) {
+        }
+    }
+
+    /**
+     * An asynchronous operation started by {@link EventLoop#begin(ESCompletion, ResultConverter)},
+     * ended by exactly one call of either method, from any thread
+     */
+    public interface Operation<T> {
+        void succeeded(T result);
+
+        void failed(Throwable failure);
+    }
+
+    /**
+     * An event source living outside the loop, as a worker, stopped when the
+     * loop is cancelled
+     */
+    public interface CancelListener {
+        void cancelled();
+    }
+
+    private static final ExecutorService defaultIoExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private int count = 0;
+
+        public synchronized Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "yaji-io-" + (++count));
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final long MIN_INTERVAL = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * A timer or an immediate callback
+     */
+    static class Timer implements Comparable<Timer> {
+        final int id;
+        final ESObject function;
+        final ESValue[] arguments;
+        final long interval; // negative if not repeated
+        long due;
+        long sequence;
+        boolean cancelled = false;
+
+        Timer(int id, ESObject function, ESValue[] arguments, long due, long interval) {
+            this.id = id;
+            this.function = function;
+            this.arguments = arguments;
+            this.due = due;
+            this.interval = interval;
+        }
+
+        public int compareTo(Timer other) {
+            if (due != other.due) {
+                return due - other.due < 0 ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    private final Evaluator evaluator;
+    private final PriorityQueue<Timer> timers = new PriorityQueue<Timer>();
+    private final ArrayDeque<Timer> immediates = new ArrayDeque<Timer>();
+    private final Map<Integer, Timer> activeTimers = new HashMap<Integer, Timer>();
+    private final ArrayDeque<Job> microtasks = new ArrayDeque<Job>();
+    // Filled by the I/O threads
+    private final LinkedBlockingQueue<Job> completions = new LinkedBlockingQueue<Job>();
+    private ExecutorService ioExecutor = defaultIoExecutor;
+    private ESObject completionPrototype = null;
+    private int pendingOperations = 0;
+    // References keeping the loop alive, see hold()
+    private int holds = 0;
+    private final List<CancelListener> cancelListeners = new ArrayList<CancelListener>();
+    // Incremented by cancelAll, operations of older generations are ignored
+    private int generation = 0;
+    private int nextTimerId = 1;
+    private long nextSequence = 0;
+
+    public EventLoop(Evaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    public Evaluator getEvaluator() {
+        return evaluator;
+    }
+
+    /**
+     * Set the executor running the blocking part of asynchronous operations,
+     * by default a shared pool of daemon threads
+     */
+    public void setIoExecutor(ExecutorService ioExecutor) {
+        this.ioExecutor = ioExecutor;
+    }
+
+    /**
+     * @return the prototype of the completion objects of this evaluator
+     * @throws EcmaScriptException
+     */
+    public ESObject getCompletionPrototype() throws EcmaScriptException {
+        if (completionPrototype == null) {
+            ESObject prototype = new ObjectPrototype(evaluator.getObjectPrototype(), evaluator);
+            HostFunctions.bind(prototype, new ESCompletion.Methods());
+            completionPrototype = prototype;
+        }
+        return completionPrototype;
+    }
+
+    /**
+     * @return a new pending completion
+     * @throws EcmaScriptException
+     */
+    public ESCompletion newCompletion() throws EcmaScriptException {
+        return new ESCompletion(getCompletionPrototype(), this);
+    }
+
+    /**
+     * Schedule a function call
+     *
+     * @param function
+     *            the function, called with the global object as this
+     * @param delay
+     *            the delay in milliseconds
+     * @param arguments
+     *            the arguments of the call
+     * @param repeat
+     *            true to call the function every delay until cleared
+     * @return the timer id
+     */
+    public int setTimer(ESObject function, double delay, ESValue[] arguments, boolean repeat) {
+        long delayNanos = delay > 0 ? (long) (delay * 1000000.0) : 0;
+        long interval = repeat ? Math.max(delayNanos, MIN_INTERVAL) : -1;
+        Timer timer = new Timer(nextTimerId++, function, arguments, System.nanoTime() + delayNanos, interval);
+        timer.sequence = nextSequence++;
+        activeTimers.put(Integer.valueOf(timer.id), timer);
+        timers.add(timer);
+        return timer.id;
+    }
+
+    /**
+     * Schedule a function call after the current turn of the loop
+     *
+     * @return the timer id
+     */
+    public int setImmediate(ESObject function, ESValue[] arguments) {
+        Timer timer = new Timer(nextTimerId++, function, arguments, 0, -1);
+        activeTimers.put(Integer.valueOf(timer.id), timer);
+        immediates.add(timer);
+        return timer.id;
+    }
+
+    /**
+     * Cancel a timer or immediate callback
+     *
+     * @return false if there was no such active timer
+     */
+    public boolean clearTimer(int id) {
+        Timer timer = activeTimers.remove(Integer.valueOf(id));
+        if (timer == null) {
+            return false;
+        }
+        // Cancelled immediates are skipped when their turn comes
+        timer.cancelled = true;
+        timers.remove(timer);
+        return true;
+    }
+
+    /**
+     * Queue a job to run as soon as the current callback ends
+     */
+    public void enqueueMicrotask(Job job) {
+        microtasks.add(job);
+    }
+
+    /**
+     * Queue a job to run in the next turn of the loop. This can be called
+     * from any thread, but the loop only waits for jobs of pending
+     * operations or while it is held.
+     */
+    public void post(Job job) {
+        completions.add(job);
+    }
+
+    /**
+     * Start an asynchronous operation
+     *
+     * @param operation
+     *            the blocking part of the operation, run on the I/O executor
+     * @param converter
+     *            converts the result of the operation, on the loop thread
+     * @return the completion of the operation, rejected with the exception
+     *         thrown by the operation or the converter
+     * @throws EcmaScriptException
+     */
+    public <T> ESCompletion execute(final Callable<T> operation, final ResultConverter<T> converter)
+            throws EcmaScriptException {
+        ESCompletion completion = newCompletion();
+        final Operation<T> pending = begin(completion, converter);
+        ioExecutor.execute(new Runnable() {
+            public void run() {
+                T result;
+                try {
+                    result = operation.call();
+                } catch (Throwable t) {
+                    pending.failed(t);
+                    return;
+                }
+                pending.succeeded(result);
+            }
+        });
+        return completion;
+    }
+
+    /**
+     * Start an asynchronous operation ended by the caller, as the completion
+     * handler of an asynchronous channel, instead of running on the I/O
+     * executor. The loop keeps running until the operation ends.
+     *
+     * @param completion
+     *            settled on the loop thread when the operation ends, rejected
+     *            with its failure or the exception thrown by the converter
+     * @param converter
+     *            converts the result of the operation, on the loop thread
+     * @return the operation, to end from any thread
+     */
+    public <T> Operation<T> begin(final ESCompletion completion, final ResultConverter<T> converter) {
+        final int operationGeneration = generation;
+        pendingOperations++;
+        return new Operation<T>() {
+            public void succeeded(T result) {
+                end(result, null);
+            }
+
+            public void failed(Throwable failure) {
+                end(null, failure);
+            }
+
+            private void end(T result, Throwable failure) {
+                post(new OperationEnd<T>(operationGeneration, completion, converter, result, failure));
+            }
+        };
+    }
+
+    /**
+     * The job settling the completion of an operation
+     */
+    private class OperationEnd<T> implements Job {
+        private final int operationGeneration;
+        private final ESCompletion completion;
+        private final ResultConverter<T> converter;
+        private final T result;
+        private final Throwable failure;
+
+        OperationEnd(int operationGeneration, ESCompletion completion, ResultConverter<T> converter, T result,
+                Throwable failure) {
+            this.operationGeneration = operationGeneration;
+            this.completion = completion;
+            this.converter = converter;
+            this.result = result;
+            this.failure = failure;
+        }
+
+        public void run() throws EcmaScriptException {
+            if (operationGeneration != generation) {
+                discard();
+                return;
+            }
+            pendingOperations--;
+            if (failure != null) {
+                completion.reject(errorValue(failure));
+                return;
+            }
+            ESValue value;
+            try {
+                value = converter.toESValue(result);
+            } catch (EcmaScriptException e) {
+                completion.reject(e.getErrorObject(evaluator));
+                return;
+            }
+            completion.resolve(value);
+        }
+
+        void discard() {
+            if (failure == null) {
+                converter.discard(result);
+            }
+        }
+    }
+
+    ESValue errorValue(Throwable t) throws EcmaScriptException {
+        EcmaScriptException exception;
+        if (t instanceof EcmaScriptException) {
+            exception = (EcmaScriptException) t;
+        } else {
+            exception = new EcmaScriptException(t.toString(), t);
+        }
+        return exception.getErrorObject(evaluator);
+    }
+
+    /**
+     * @return true if nothing is scheduled nor pending
+     */
+    public boolean isIdle() {
+        return timers.isEmpty() && immediates.isEmpty() && microtasks.isEmpty() && completions.isEmpty()
+                && pendingOperations == 0 && holds == 0;
+    }
+
+    /**
+     * Keep the loop running, waiting for posted jobs, until a matching call
+     * to {@link #release()}. Used for event sources which are not
+     * operations, as the messages of a worker.
+     */
+    public void hold() {
+        holds++;
+    }
+
+    public void release() {
+        if (holds > 0) {
+            holds--;
+        }
+    }
+
+    /**
+     * Call a listener at the next {@link #cancelAll()}, unless it is removed
+     * before
+     */
+    public void addCancelListener(CancelListener listener) {
+        cancelListeners.add(listener);
+    }
+
+    public void removeCancelListener(CancelListener listener) {
+        cancelListeners.remove(listener);
+    }
+
+    /**
+     * @return the number of calls to {@link #cancelAll()}, for the posters
+     *         of jobs to detect that their jobs are obsolete
+     */
+    public int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return the number of asynchronous operations not completed yet
+     */
+    public int getPendingOperationCount() {
+        return pendingOperations;
+    }
+
+    /**
+     * Run the loop until nothing is scheduled nor pending
+     *
+     * @throws EcmaScriptException
+     *             thrown by a callback, the loop can be run again to go on
+     */
+    public void runUntilIdle() throws EcmaScriptException {
+        run(-1, null);
+    }
+
+    /**
+     * Run the loop until nothing is scheduled nor pending, or the timeout
+     * expires
+     *
+     * @return true if the loop is idle, false on timeout or interruption
+     * @throws EcmaScriptException
+     *             thrown by a callback
+     */
+    public boolean runUntilIdle(long timeout, TimeUnit unit) throws EcmaScriptException {
+        return run(unit.toNanos(timeout), null);
+    }
+
+    /**
+     * Run the loop until a completion is settled
+     *
+     * @return the value of the completion
+     * @throws EcmaScriptException
+     *             with the reason of the completion as error object if it is
+     *             rejected, or if the loop gets idle before it is settled
+     */
+    public ESValue await(ESCompletion completion) throws EcmaScriptException {
+        run(-1, completion);
+        switch (completion.getState()) {
+        case FULFILLED:
+            return completion.getResult();
+        case REJECTED:
+            EcmaScriptException exception = new EcmaScriptException(completion.getResult().toString());
+            exception.setErrorObject(completion.getResult());
+            throw exception;
+        default:
+            throw new EcmaScriptException("Completion cannot be settled, the event loop is idle");
+        }
+    }
+
+    private boolean run(long timeout, ESCompletion until) throws EcmaScriptException {
+        long deadline = System.nanoTime() + timeout;
+        runMicrotasks();
+        while (until == null || !until.isSettled()) {
+            Job job;
+            while ((job = completions.poll()) != null) {
+                job.run();
+                runMicrotasks();
+            }
+            runDueTimers();
+            runImmediates();
+            if (isIdle()) {
+                return true;
+            }
+            if (until != null && until.isSettled()) {
+                break;
+            }
+            if (!immediates.isEmpty()) {
+                continue;
+            }
+            long now = System.nanoTime();
+            long wait = timers.isEmpty() ? Long.MAX_VALUE : Math.max(0, timers.peek().due - now);
+            if (timeout >= 0) {
+                if (deadline - now <= 0) {
+                    return false;
+                }
+                wait = Math.min(wait, deadline - now);
+            }
+            try {
+                job = wait == Long.MAX_VALUE ? completions.take() : completions.poll(wait, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (job != null) {
+                job.run();
+                runMicrotasks();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Run the queued microtasks, including the ones they queue
+     */
+    public void runMicrotasks() throws EcmaScriptException {
+        Job job;
+        while ((job = microtasks.poll()) != null) {
+            job.run();
+        }
+    }
+
+    private void runDueTimers() throws EcmaScriptException {
+        long now = System.nanoTime();
+        while (!timers.isEmpty() && timers.peek().due - now <= 0) {
+            Timer timer = timers.poll();
+            if (timer.interval >= 0) {
+                timer.due = now + timer.interval;
+                timer.sequence = nextSequence++;
+                timers.add(timer);
+            } else {
+                activeTimers.remove(Integer.valueOf(timer.id));
+            }
+            call(timer);
+        }
+    }
+
+    private void runImmediates() throws EcmaScriptException {
+        // Immediates queued by these callbacks run in the next turn
+        for (int count = immediates.size(); count > 0; count--) {
+            Timer timer = immediates.poll();
+            if (!timer.cancelled) {
+                activeTimers.remove(Integer.valueOf(timer.id));
+                call(timer);
+            }
+        }
+    }
+
+    private void call(Timer timer) throws EcmaScriptException {
+        timer.function.callFunction(evaluator.getGlobalObject(), timer.arguments);
+        runMicrotasks();
+    }
+
+    /**
+     * Cancel all timers, queued jobs, holds and pending operations, whose
+     * completions will be ignored and results discarded, and notify the
+     * cancel listeners, which are then removed
+     */
+    public void cancelAll() {
+        timers.clear();
+        immediates.clear();
+        activeTimers.clear();
+        microtasks.clear();
+        List<Job> dropped = new ArrayList<Job>();
+        completions.drainTo(dropped);
+        pendingOperations = 0;
+        holds = 0;
+        generation++;
+        for (Job job : dropped) {
+            if (job instanceof OperationEnd) {
+                ((OperationEnd<?>) job).discard();
+            }
+        }
+        List<CancelListener> listeners = new ArrayList<CancelListener>(cancelListeners);
+        cancelListeners.clear();
+        for (CancelListener listener : listeners) {
+            listener.cancelled();
+        }
+    }
+}
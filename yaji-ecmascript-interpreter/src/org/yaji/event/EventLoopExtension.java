@@ -0,0 +1,218 @@
+package org.yaji.event;
+
+import org.yaji.binding.HostFunction;
+import org.yaji.binding.HostFunctions;
+
+import FESI.Data.BuiltinFunctionObject;
+import FESI.Data.ESNumber;
+import FESI.Data.ESObject;
+import FESI.Data.ESUndefined;
+import FESI.Data.ESValue;
+import FESI.Data.FunctionPrototype;
+import FESI.Data.GlobalObject;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Exceptions.TypeError;
+import FESI.Extensions.Extension;
+import FESI.Interpreter.Evaluator;
+
+/**
+ * Defines the script interface of the event loop of the evaluator:
+ * setTimeout, setInterval, setImmediate, their clear functions,
+ * queueMicrotask and the Completion constructor.
+ * <P>
+ * The callbacks only run while the host runs the loop, see
+ * {@link Evaluator#runUntilIdle()}.
+ */
+public class EventLoopExtension extends Extension {
+    private static final long serialVersionUID = -5204329484458183093L;
+
+    public EventLoopExtension() {
+        super();
+    }
+
+    /**
+     * The global functions
+     */
+    public static class Functions {
+        private final EventLoop eventLoop;
+
+        Functions(EventLoop eventLoop) {
+            this.eventLoop = eventLoop;
+        }
+
+        @HostFunction(length = 2)
+        public int setTimeout(ESValue[] arguments) throws EcmaScriptException {
+            return eventLoop.setTimer(function("setTimeout", arguments), delay(arguments),
+                    extraArguments(arguments, 2), false);
+        }
+
+        @HostFunction(length = 2)
+        public int setInterval(ESValue[] arguments) throws EcmaScriptException {
+            return eventLoop.setTimer(function("setInterval", arguments), delay(arguments),
+                    extraArguments(arguments, 2), true);
+        }
+
+        @HostFunction(length = 1)
+        public int setImmediate(ESValue[] arguments) throws EcmaScriptException {
+            return eventLoop.setImmediate(function("setImmediate", arguments), extraArguments(arguments, 1));
+        }
+
+        @HostFunction
+        public void clearTimeout(ESValue id) throws EcmaScriptException {
+            clear(id);
+        }
+
+        @HostFunction
+        public void clearInterval(ESValue id) throws EcmaScriptException {
+            clear(id);
+        }
+
+        @HostFunction
+        public void clearImmediate(ESValue id) throws EcmaScriptException {
+            clear(id);
+        }
+
+        @HostFunction
+        public void queueMicrotask(ESValue callback) throws EcmaScriptException {
+            final ESObject function = function("queueMicrotask", new ESValue[] { callback });
+            eventLoop.enqueueMicrotask(new EventLoop.Job() {
+                public void run() throws EcmaScriptException {
+                    function.callFunction(ESUndefined.theUndefined, ESValue.EMPTY_ARRAY);
+                }
+            });
+        }
+
+        private void clear(ESValue id) throws EcmaScriptException {
+            if (id instanceof ESNumber) {
+                eventLoop.clearTimer(id.toInt32());
+            }
+        }
+
+        private static ESObject function(String name, ESValue[] arguments) throws TypeError {
+            if (arguments.length == 0 || !arguments[0].isCallable()) {
+                throw new TypeError(name + " requires a function");
+            }
+            return (ESObject) arguments[0];
+        }
+
+        private static double delay(ESValue[] arguments) throws EcmaScriptException {
+            if (arguments.length < 2) {
+                return 0;
+            }
+            double delay = arguments[1].doubleValue();
+            return Double.isNaN(delay) ? 0 : delay;
+        }
+
+        private static ESValue[] extraArguments(ESValue[] arguments, int start) {
+            if (arguments.length <= start) {
+                return ESValue.EMPTY_ARRAY;
+            }
+            ESValue[] extra = new ESValue[arguments.length - start];
+            System.arraycopy(arguments, start, extra, 0, extra.length);
+            return extra;
+        }
+    }
+
+    /**
+     * The Completion constructor, taking an executor function called with
+     * the resolve and reject functions of the new completion
+     */
+    public static class CompletionConstructor extends BuiltinFunctionObject {
+        private static final long serialVersionUID = -1183207233869716385L;
+        private final transient EventLoop eventLoop;
+
+        CompletionConstructor(FunctionPrototype fp, EventLoop eventLoop) throws EcmaScriptException {
+            super(fp, eventLoop.getEvaluator(), "Completion", 1);
+            this.eventLoop = eventLoop;
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments) throws EcmaScriptException {
+            return doConstruct(arguments);
+        }
+
+        @Override
+        public ESObject doConstruct(ESValue[] arguments) throws EcmaScriptException {
+            if (arguments.length == 0 || !arguments[0].isCallable()) {
+                throw new TypeError("Completion requires an executor function");
+            }
+            ESCompletion completion = eventLoop.newCompletion();
+            ESValue[] resolvingFunctions = completion.createResolvingFunctions();
+            try {
+                arguments[0].callFunction(ESUndefined.theUndefined, resolvingFunctions);
+            } catch (EcmaScriptException e) {
+                resolvingFunctions[1].callFunction(ESUndefined.theUndefined,
+                        new ESValue[] { e.getErrorObject(getEvaluator()) });
+            }
+            return completion;
+        }
+
+        @HostFunction
+        public ESValue resolve(ESValue value) throws EcmaScriptException {
+            if (value instanceof ESCompletion) {
+                return value;
+            }
+            ESCompletion completion = eventLoop.newCompletion();
+            completion.resolve(value);
+            return completion;
+        }
+
+        @HostFunction
+        public ESValue reject(ESValue reason) throws EcmaScriptException {
+            ESCompletion completion = eventLoop.newCompletion();
+            completion.reject(reason);
+            return completion;
+        }
+
+        /**
+         * @return a completion fulfilled with the array of the values of the
+         *         given completions (or values) when all are fulfilled, or
+         *         rejected as soon as one is rejected
+         */
+        @HostFunction
+        public ESValue all(ESObject values) throws EcmaScriptException {
+            final ESCompletion all = eventLoop.newCompletion();
+            final ESObject results = getEvaluator().createArray();
+            int length = values.getProperty("length", "length".hashCode()).toInt32();
+            final int[] remaining = new int[] { length };
+            if (length == 0) {
+                all.resolve(results);
+                return all;
+            }
+            for (int i = 0; i < length; i++) {
+                final int index = i;
+                ESValue value = values.getProperty((long) i);
+                ESCompletion completion = (ESCompletion) resolve(value);
+                completion.addReaction(new ESCompletion.Reaction() {
+                    public void settled(boolean fulfilled, ESValue result) throws EcmaScriptException {
+                        if (!fulfilled) {
+                            all.reject(result);
+                            return;
+                        }
+                        results.putProperty((long) index, result);
+                        if (--remaining[0] == 0) {
+                            all.resolve(results);
+                        }
+                    }
+                });
+            }
+            return all;
+        }
+    }
+
+    @Override
+    public void initializeExtension(Evaluator evaluator) throws EcmaScriptException {
+        GlobalObject go = evaluator.getGlobalObject();
+        FunctionPrototype fp = (FunctionPrototype) evaluator.getFunctionPrototype();
+        EventLoop eventLoop = evaluator.getEventLoop();
+
+        HostFunctions.bind(go, new Functions(eventLoop));
+
+        ESObject prototype = eventLoop.getCompletionPrototype();
+        CompletionConstructor completion = new CompletionConstructor(fp, eventLoop);
+        HostFunctions.bind(completion, completion);
+        completion.putHiddenProperty("prototype", prototype);
+        prototype.putHiddenProperty("constructor", completion);
+        go.putHiddenProperty("Completion", completion);
+    }
+}
@@ -0,0 +1,155 @@
+package org.yaji.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import FESI.Interpreter.ClassInfo;
+
+/**
+ * Metrics kept in memory with LongAdder counters, so that they can be shared
+ * by the evaluators of a pool recording concurrently. They can be registered
+ * as an MBean, under the domain {@value #DOMAIN}.
+ */
+public class EvaluatorMetrics implements MetricsRecorder, EvaluatorMetricsMBean {
+
+    public static final String DOMAIN = "org.yaji";
+
+    private final LongAdder[] counts = newAdders();
+    private final LongAdder[] nanos = newAdders();
+    private ObjectName registeredName = null;
+
+    private static LongAdder[] newAdders() {
+        LongAdder[] adders = new LongAdder[Metric.values().length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    public void increment(Metric metric, long count) {
+        counts[metric.ordinal()].add(count);
+    }
+
+    public void recordTime(Metric metric, long duration) {
+        counts[metric.ordinal()].increment();
+        nanos[metric.ordinal()].add(duration);
+    }
+
+    /**
+     * @return the number of occurrences of an event, or the sum of its counts
+     */
+    public long getCount(Metric metric) {
+        return counts[metric.ordinal()].sum();
+    }
+
+    /**
+     * @return the total duration of a timed event, in nanoseconds
+     */
+    public long getTotalNanos(Metric metric) {
+        return nanos[metric.ordinal()].sum();
+    }
+
+    public long getEvaluations() {
+        return getCount(Metric.EVALUATION);
+    }
+
+    public double getEvaluationTimeMillis() {
+        return getTotalNanos(Metric.EVALUATION) / 1e6;
+    }
+
+    public long getParses() {
+        return getCount(Metric.PARSE);
+    }
+
+    public double getParseTimeMillis() {
+        return getTotalNanos(Metric.PARSE) / 1e6;
+    }
+
+    public long getProgramCacheHits() {
+        return getCount(Metric.PROGRAM_CACHE_HIT);
+    }
+
+    public long getProgramCacheMisses() {
+        return getCount(Metric.PROGRAM_CACHE_MISS);
+    }
+
+    public long getFunctionCalls() {
+        return getCount(Metric.FUNCTION_CALL);
+    }
+
+    public long getExceptions() {
+        return getCount(Metric.EXCEPTION);
+    }
+
+    public long getObjectsCreated() {
+        return getCount(Metric.OBJECT_CREATED);
+    }
+
+    public long getRegexCompilations() {
+        return getCount(Metric.REGEX_COMPILATION);
+    }
+
+    public long getJsonParsedCharacters() {
+        return getCount(Metric.JSON_PARSED_CHARACTERS);
+    }
+
+    public long getJsonStringifiedCharacters() {
+        return getCount(Metric.JSON_STRINGIFIED_CHARACTERS);
+    }
+
+    public long getJavaMethodCacheHits() {
+        return ClassInfo.getMethodCacheHits();
+    }
+
+    public long getJavaMethodCacheMisses() {
+        return ClassInfo.getMethodCacheMisses();
+    }
+
+    public int getJavaClassesCached() {
+        return ClassInfo.getCachedClassCount();
+    }
+
+    /**
+     * Restart the counts of this instance from 0
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i].reset();
+            nanos[i].reset();
+        }
+    }
+
+    /**
+     * Register as an MBean of the platform MBean server
+     * 
+     * @param name
+     *            the name of the evaluator or pool measured
+     * @return the name of the MBean, org.yaji:type=Evaluator,name=...
+     */
+    public synchronized ObjectName register(String name) throws JMException {
+        unregister();
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=Evaluator,name=" + ObjectName.quote(name));
+        getServer().registerMBean(this, objectName);
+        registeredName = objectName;
+        return objectName;
+    }
+
+    /**
+     * Remove the MBean registered by {@link #register(String)}, if any
+     */
+    public synchronized void unregister() throws JMException {
+        if (registeredName != null) {
+            ObjectName objectName = registeredName;
+            registeredName = null;
+            getServer().unregisterMBean(objectName);
+        }
+    }
+
+    private static MBeanServer getServer() {
+        return ManagementFactory.getPlatformMBeanServer();
+    }
+}
@@ -0,0 +1,42 @@
+package org.yaji.metrics;
+
+/**
+ * The management interface of {@link EvaluatorMetrics}
+ */
+public interface EvaluatorMetricsMBean {
+
+    long getEvaluations();
+
+    double getEvaluationTimeMillis();
+
+    long getParses();
+
+    double getParseTimeMillis();
+
+    long getProgramCacheHits();
+
+    long getProgramCacheMisses();
+
+    long getFunctionCalls();
+
+    long getExceptions();
+
+    long getObjectsCreated();
+
+    long getRegexCompilations();
+
+    long getJsonParsedCharacters();
+
+    long getJsonStringifiedCharacters();
+
+    /** Shared by all evaluators of the JVM */
+    long getJavaMethodCacheHits();
+
+    /** Shared by all evaluators of the JVM */
+    long getJavaMethodCacheMisses();
+
+    /** Shared by all evaluators of the JVM */
+    int getJavaClassesCached();
+
+    void reset();
+}
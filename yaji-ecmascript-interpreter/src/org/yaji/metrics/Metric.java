@@ -0,0 +1,38 @@
+package org.yaji.metrics;
+
+/**
+ * The events measured by an evaluator. A timed metric is recorded once per
+ * occurrence with its duration, the others are counted.
+ */
+public enum Metric {
+    /** A program evaluated, timed from after parsing */
+    EVALUATION(true),
+    /** A program parsed */
+    PARSE(true),
+    /** A script found parsed in the cache of a shared realm */
+    PROGRAM_CACHE_HIT(false),
+    /** A script parsed as it was not in the cache of a shared realm */
+    PROGRAM_CACHE_MISS(false),
+    /** A call of a script or builtin function */
+    FUNCTION_CALL(false),
+    /** An exception thrown by a script or raised by the runtime */
+    EXCEPTION(false),
+    /** An object created, counted at the end of each evaluation */
+    OBJECT_CREATED(false),
+    /** A regular expression compiled */
+    REGEX_COMPILATION(false),
+    /** The characters of the text parsed by JSON.parse */
+    JSON_PARSED_CHARACTERS(false),
+    /** The characters of the text produced by JSON.stringify */
+    JSON_STRINGIFIED_CHARACTERS(false);
+
+    private final boolean timed;
+
+    private Metric(boolean timed) {
+        this.timed = timed;
+    }
+
+    public boolean isTimed() {
+        return timed;
+    }
+}
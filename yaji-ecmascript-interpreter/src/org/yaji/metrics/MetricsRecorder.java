@@ -0,0 +1,23 @@
+package org.yaji.metrics;
+
+/**
+ * Receives the metrics of the evaluators it is installed in, with
+ * {@link FESI.Interpreter.Evaluator#setMetrics(MetricsRecorder)}. It is called
+ * on the threads of the evaluators, possibly concurrently when shared, and
+ * must be cheap.
+ */
+public interface MetricsRecorder {
+
+    /**
+     * Count occurrences of an event
+     */
+    void increment(Metric metric, long count);
+
+    /**
+     * Record an occurrence of a timed event
+     * 
+     * @param nanos
+     *            its duration, in nanoseconds
+     */
+    void recordTime(Metric metric, long nanos);
+}
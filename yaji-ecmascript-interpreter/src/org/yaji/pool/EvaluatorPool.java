@@ -0,0 +1,247 @@
+package org.yaji.pool;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+
+/**
+ * A bounded pool of initialised evaluators, for running many short scripts
+ * without creating an evaluator for each.
+ * <P>
+ * Each evaluator is created and prepared by the pool {@link Initializer} (to
+ * load extensions and shared scripts), then its state is marked clean (see
+ * {@link Evaluator#markCleanState()}). When an evaluator is released it is
+ * restored to that clean state, undoing the changes of the previous user, and
+ * made available to the next checkout. The most recently released evaluators
+ * are reused first, so that evaluators left idle longer than the idle timeout
+ * can be evicted.
+ * <P>
+ * The pool is thread-safe, but an evaluator must only be used by the thread
+ * which checked it out, until it is released.
+ */
+public class EvaluatorPool {
+
+    /**
+     * Prepares the evaluators created by a pool
+     */
+    public interface Initializer {
+        void initialize(Evaluator evaluator) throws EcmaScriptException;
+    }
+
+    private static class IdleEvaluator {
+        final Evaluator evaluator;
+        final long releasedAt;
+
+        IdleEvaluator(Evaluator evaluator, long releasedAt) {
+            this.evaluator = evaluator;
+            this.releasedAt = releasedAt;
+        }
+    }
+
+    private final Initializer initializer;
+    private final int maxSize;
+    private final long idleTimeoutNanos;
+    private final Semaphore permits;
+
+    // Most recently released first
+    private final Deque<IdleEvaluator> idle = new ArrayDeque<IdleEvaluator>();
+    private final Set<Evaluator> checkedOut = Collections.newSetFromMap(new IdentityHashMap<Evaluator, Boolean>());
+    private boolean closed = false;
+    private long createdCount = 0;
+    private long evictedCount = 0;
+
+    /**
+     * Create a pool
+     *
+     * @param initializer
+     *            prepares each new evaluator
+     * @param maxSize
+     *            the maximum number of evaluators checked out at once
+     * @param idleTimeout
+     *            the time after which an idle evaluator is evicted
+     * @param unit
+     *            the unit of idleTimeout
+     */
+    public EvaluatorPool(Initializer initializer, int maxSize, long idleTimeout, TimeUnit unit) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.initializer = initializer;
+        this.maxSize = maxSize;
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Check out an evaluator, waiting until one is available if maxSize
+     * evaluators are checked out
+     *
+     * @return the evaluator, to be given back with {@link #release} or
+     *         {@link #discard}
+     * @throws EcmaScriptException
+     *             if a new evaluator could not be initialised
+     * @throws InterruptedException
+     */
+    public Evaluator checkout() throws EcmaScriptException, InterruptedException {
+        permits.acquire();
+        return checkoutWithPermit();
+    }
+
+    /**
+     * Check out an evaluator, waiting at most the given time until one is
+     * available
+     *
+     * @return the evaluator, or null if none was available in time
+     * @throws EcmaScriptException
+     *             if a new evaluator could not be initialised
+     * @throws InterruptedException
+     */
+    public Evaluator checkout(long timeout, TimeUnit unit) throws EcmaScriptException, InterruptedException {
+        if (!permits.tryAcquire(timeout, unit)) {
+            return null;
+        }
+        return checkoutWithPermit();
+    }
+
+    private Evaluator checkoutWithPermit() throws EcmaScriptException {
+        boolean success = false;
+        try {
+            Evaluator evaluator = null;
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("Evaluator pool is closed");
+                }
+                evictIdle(System.nanoTime());
+                IdleEvaluator idleEvaluator = idle.pollFirst();
+                if (idleEvaluator != null) {
+                    evaluator = idleEvaluator.evaluator;
+                }
+            }
+            if (evaluator == null) {
+                evaluator = createEvaluator();
+            }
+            synchronized (this) {
+                checkedOut.add(evaluator);
+            }
+            success = true;
+            return evaluator;
+        } finally {
+            if (!success) {
+                permits.release();
+            }
+        }
+    }
+
+    private Evaluator createEvaluator() throws EcmaScriptException {
+        Evaluator evaluator = new Evaluator();
+        initializer.initialize(evaluator);
+        evaluator.markCleanState();
+        synchronized (this) {
+            createdCount++;
+        }
+        return evaluator;
+    }
+
+    /**
+     * Give back an evaluator after use, it is restored to its clean state
+     * before being reused
+     *
+     * @param evaluator
+     *            an evaluator checked out of this pool
+     */
+    public void release(Evaluator evaluator) {
+        removeCheckedOut(evaluator);
+        try {
+            evaluator.restoreCleanState();
+            synchronized (this) {
+                if (!closed) {
+                    idle.addFirst(new IdleEvaluator(evaluator, System.nanoTime()));
+                }
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Give back an evaluator which must not be reused, for example because a
+     * script left it in an inconsistent state
+     *
+     * @param evaluator
+     *            an evaluator checked out of this pool
+     */
+    public void discard(Evaluator evaluator) {
+        removeCheckedOut(evaluator);
+        permits.release();
+    }
+
+    private synchronized void removeCheckedOut(Evaluator evaluator) {
+        if (!checkedOut.remove(evaluator)) {
+            throw new IllegalArgumentException("Evaluator not checked out of this pool");
+        }
+    }
+
+    /**
+     * Evict the evaluators idle for longer than the idle timeout. This is
+     * also done at each checkout.
+     *
+     * @return the number of evaluators evicted
+     */
+    public synchronized int evictIdle() {
+        return evictIdle(System.nanoTime());
+    }
+
+    private int evictIdle(long now) {
+        int count = 0;
+        IdleEvaluator oldest;
+        while ((oldest = idle.peekLast()) != null && now - oldest.releasedAt >= idleTimeoutNanos) {
+            idle.pollLast();
+            count++;
+        }
+        evictedCount += count;
+        return count;
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public synchronized int getActiveCount() {
+        return checkedOut.size();
+    }
+
+    /**
+     * @return the number of evaluators created since the pool was created
+     */
+    public synchronized long getCreatedCount() {
+        return createdCount;
+    }
+
+    /**
+     * @return the number of idle evaluators evicted since the pool was
+     *         created
+     */
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * Drop the idle evaluators and refuse further checkouts, the evaluators
+     * checked out can still be released
+     */
+    public synchronized void close() {
+        closed = true;
+        idle.clear();
+    }
+}
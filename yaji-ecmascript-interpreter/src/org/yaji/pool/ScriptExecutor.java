@@ -0,0 +1,152 @@
+package org.yaji.pool;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import FESI.Interpreter.Evaluator;
+
+/**
+ * Runs script tasks, each on its own thread with an evaluator checked out of
+ * a pool for the duration of the task.
+ * <P>
+ * By default the tasks run on virtual threads when the Java runtime provides
+ * them, so that scripts blocked in host calls (JDBC, file or network I/O) do
+ * not hold a platform thread, and the number of scripts in flight is only
+ * bounded by the size of the pool. On older runtimes a cached pool of
+ * platform threads is used.
+ * <P>
+ * The evaluator is owned by the task until it ends, it is not locked: tasks
+ * must not give the evaluator or the script objects it creates to other
+ * threads, nor keep them after they return.
+ */
+public class ScriptExecutor {
+
+    /**
+     * A unit of work using an evaluator
+     */
+    public interface ScriptTask<T> {
+        T run(Evaluator evaluator) throws Exception;
+    }
+
+    private final EvaluatorPool pool;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    /**
+     * Create an executor using virtual threads if available
+     *
+     * @param pool
+     *            the pool providing the evaluators
+     */
+    public ScriptExecutor(EvaluatorPool pool) {
+        ExecutorService virtualExecutor = newVirtualThreadExecutor();
+        this.pool = pool;
+        this.virtualThreads = virtualExecutor != null;
+        this.executor = virtualThreads ? virtualExecutor : Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Create an executor running the tasks on the threads of an executor
+     * service
+     *
+     * @param pool
+     *            the pool providing the evaluators
+     * @param executor
+     *            the executor service, shut down with this executor
+     */
+    public ScriptExecutor(EvaluatorPool pool, ExecutorService executor) {
+        this.pool = pool;
+        this.executor = executor;
+        this.virtualThreads = false;
+    }
+
+    /**
+     * @return an executor starting a virtual thread per task, or null if the
+     *         runtime does not support virtual threads
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            // Virtual threads present but not enabled (preview feature)
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the tasks run on virtual threads
+     */
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public EvaluatorPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Submit a task, it will wait for an evaluator if all are in use
+     *
+     * @param task
+     *            the task
+     * @return the future result of the task
+     */
+    public <T> Future<T> submit(final ScriptTask<T> task) {
+        return executor.submit(new Callable<T>() {
+            public T call() throws Exception {
+                return execute(task);
+            }
+        });
+    }
+
+    /**
+     * Run a task in the calling thread with an evaluator of the pool
+     *
+     * @param task
+     *            the task
+     * @return the result of the task
+     * @throws Exception
+     *             the exception thrown by the task, or if no evaluator could
+     *             be created
+     */
+    public <T> T execute(ScriptTask<T> task) throws Exception {
+        Evaluator evaluator = pool.checkout();
+        boolean reusable = false;
+        try {
+            T result = task.run(evaluator);
+            reusable = true;
+            return result;
+        } catch (Exception e) {
+            // Script and host errors leave the evaluator consistent
+            reusable = true;
+            throw e;
+        } finally {
+            if (reusable) {
+                pool.release(evaluator);
+            } else {
+                pool.discard(evaluator);
+            }
+        }
+    }
+
+    /**
+     * Stop accepting tasks, the submitted tasks are still run
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,210 @@
+package org.yaji.pool;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.yaji.metrics.Metric;
+import org.yaji.metrics.MetricsRecorder;
+
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.EvaluationSource;
+import FESI.Interpreter.Evaluator;
+import FESI.Interpreter.ParsedProgram;
+import FESI.Interpreter.UserEvaluationSource;
+
+/**
+ * The code shared by a family of evaluators: extensions to load and modules
+ * parsed once and evaluated by each evaluator, and a cache of parsed scripts.
+ * <P>
+ * The parse trees are shared by all evaluators, each evaluator creating its
+ * own function objects and globals from them, so that adding evaluators does
+ * not multiply the memory used by the code. The property tables of the
+ * builtin functions are shared too, copied by an evaluator only when it
+ * changes them (see {@link FESI.Interpreter.FesiHashtable#share()}). The
+ * builtin function objects and the standard prototypes themselves are still
+ * created per evaluator, since their identity and prototype chain are
+ * visible to scripts; per evaluator changes are undone by the journaled
+ * reset of {@link EvaluatorPool}.
+ * <P>
+ * A realm is an {@link EvaluatorPool.Initializer}, so that a pool can create
+ * its evaluators from it. It is thread-safe.
+ * <P>
+ * The evaluators initialised from a realm record their metrics, and the realm
+ * those of its cache, in the recorder of the realm if one is set.
+ */
+public class SharedRealm implements EvaluatorPool.Initializer {
+
+    static final int DEFAULT_CACHE_SIZE = 256;
+
+    private final List<String> extensions = new CopyOnWriteArrayList<String>();
+    private final List<ParsedProgram> modules = new CopyOnWriteArrayList<ParsedProgram>();
+    private final Map<String, ParsedProgram> programCache;
+    private volatile MetricsRecorder metrics = null;
+
+    public SharedRealm() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize
+     *            the maximum number of scripts kept parsed by
+     *            {@link #getProgram(String)}
+     */
+    public SharedRealm(final int cacheSize) {
+        programCache = new LinkedHashMap<String, ParsedProgram>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ParsedProgram> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Add an extension to load in each evaluator
+     *
+     * @param extensionName
+     *            the class name of the extension
+     * @return this realm
+     */
+    public SharedRealm addExtension(String extensionName) {
+        extensions.add(extensionName);
+        return this;
+    }
+
+    /**
+     * Parse a module to evaluate in each evaluator, after the extensions and
+     * the modules added before it
+     *
+     * @param name
+     *            the name of the module, for error messages
+     * @param source
+     *            the source of the module
+     * @return the parsed module
+     * @throws EcmaScriptException
+     *             in case of syntax error
+     */
+    public ParsedProgram addModule(String name, Reader source) throws EcmaScriptException {
+        ParsedProgram program = parse(source, new UserEvaluationSource(name, null));
+        modules.add(program);
+        return program;
+    }
+
+    public ParsedProgram addModule(String name, String source) throws EcmaScriptException {
+        return addModule(name, new StringReader(source));
+    }
+
+    /**
+     * Get the parsed form of a script, parsing it only if it is not in the
+     * cache of recently used scripts
+     *
+     * @param source
+     *            the source of the script
+     * @return the parsed script, which can be evaluated by any evaluator of
+     *         the realm
+     * @throws EcmaScriptException
+     *             in case of syntax error
+     */
+    public ParsedProgram getProgram(String source) throws EcmaScriptException {
+        ParsedProgram program;
+        synchronized (programCache) {
+            program = programCache.get(source);
+        }
+        MetricsRecorder recorder = metrics;
+        if (recorder != null) {
+            recorder.increment(program == null ? Metric.PROGRAM_CACHE_MISS : Metric.PROGRAM_CACHE_HIT, 1);
+        }
+        if (program == null) {
+            EvaluationSource es = new UserEvaluationSource("<shared script>", null);
+            program = parse(new StringReader(source), es);
+            synchronized (programCache) {
+                ParsedProgram existing = programCache.get(source);
+                if (existing != null) {
+                    program = existing;
+                } else {
+                    programCache.put(source, program);
+                }
+            }
+        }
+        return program;
+    }
+
+    private ParsedProgram parse(Reader source, EvaluationSource es) throws EcmaScriptException {
+        long start = System.nanoTime();
+        ParsedProgram program = Evaluator.parseSharedProgram(source, es);
+        MetricsRecorder recorder = metrics;
+        if (recorder != null) {
+            recorder.recordTime(Metric.PARSE, System.nanoTime() - start);
+        }
+        return program;
+    }
+
+    /**
+     * Record the metrics of the realm and of the evaluators initialised from
+     * it afterwards
+     * 
+     * @param metrics
+     *            the recorder, or null to stop recording
+     * @return this realm
+     */
+    public SharedRealm setMetrics(MetricsRecorder metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public MetricsRecorder getMetrics() {
+        return metrics;
+    }
+
+    public List<String> getExtensions() {
+        return new ArrayList<String>(extensions);
+    }
+
+    public List<ParsedProgram> getModules() {
+        return new ArrayList<ParsedProgram>(modules);
+    }
+
+    /**
+     * Load the extensions and evaluate the modules of the realm in an
+     * evaluator
+     */
+    public void initialize(Evaluator evaluator) throws EcmaScriptException {
+        MetricsRecorder recorder = metrics;
+        if (recorder != null) {
+            evaluator.setMetrics(recorder);
+        }
+        for (String extension : extensions) {
+            evaluator.addMandatoryExtension(extension);
+        }
+        for (ParsedProgram module : modules) {
+            evaluator.evaluate(module, null, false);
+        }
+    }
+
+    /**
+     * @return a new evaluator initialised from this realm
+     * @throws EcmaScriptException
+     */
+    public Evaluator newEvaluator() throws EcmaScriptException {
+        Evaluator evaluator = new Evaluator();
+        initialize(evaluator);
+        return evaluator;
+    }
+
+    /**
+     * Create a pool of evaluators initialised from this realm
+     *
+     * @see EvaluatorPool#EvaluatorPool(EvaluatorPool.Initializer, int, long,
+     *      TimeUnit)
+     */
+    public EvaluatorPool newPool(int maxSize, long idleTimeout, TimeUnit unit) {
+        return new EvaluatorPool(this, maxSize, idleTimeout, unit);
+    }
+}
@@ -0,0 +1,41 @@
+package org.yaji.profiler;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * The bytes allocated by the current thread, as measured by the HotSpot
+ * ThreadMXBean, whose measure is enabled on first use.
+ */
+public final class Allocations {
+
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationBean();
+
+    private Allocations() {
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        try {
+            Object bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) bean;
+                if (allocations.isThreadAllocatedMemorySupported()) {
+                    allocations.setThreadAllocatedMemoryEnabled(true);
+                    return allocations;
+                }
+            }
+        } catch (LinkageError e) {
+            // Not a HotSpot based JVM
+        } catch (UnsupportedOperationException e) {
+            // ignored
+        }
+        return null;
+    }
+
+    /**
+     * @return the bytes allocated by the current thread since it started, 0
+     *         if the JVM does not measure allocations
+     */
+    public static long allocatedBytes() {
+        return ALLOCATIONS == null ? 0 : ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,75 @@
+package org.yaji.profiler;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import FESI.Data.ConstructedFunctionObject;
+
+/**
+ * The script functions being called by an evaluator, innermost last, kept by
+ * {@link ConstructedFunctionObject} so that a profiler can sample them from
+ * another thread.
+ * <P>
+ * Pushing and popping a function only stores into an array and updates the
+ * depth with an ordered write, the sampler reading the depth first then the
+ * frames below it.
+ */
+public class CallStack {
+
+    static final int INITIAL_CAPACITY = 64;
+
+    private volatile ConstructedFunctionObject[] frames = new ConstructedFunctionObject[INITIAL_CAPACITY];
+    private final AtomicInteger depth = new AtomicInteger();
+
+    /**
+     * Enter a function, to be matched by a call to {@link #pop()}
+     */
+    public void push(ConstructedFunctionObject function) {
+        int top = depth.get();
+        ConstructedFunctionObject[] current = frames;
+        if (top == current.length) {
+            current = Arrays.copyOf(current, top * 2);
+            frames = current;
+        }
+        current[top] = function;
+        depth.lazySet(top + 1);
+    }
+
+    /**
+     * Leave the innermost function
+     */
+    public void pop() {
+        int top = depth.get() - 1;
+        depth.lazySet(top);
+        // Not kept alive by the stack
+        frames[top] = null;
+    }
+
+    /**
+     * @return the innermost function, or null outside any function, read by
+     *         the thread of the evaluator
+     */
+    public ConstructedFunctionObject peek() {
+        int top = depth.get() - 1;
+        return top < 0 ? null : frames[top];
+    }
+
+    public int getDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Copy the functions being called, outermost first. As the stack keeps
+     * changing, a function may have already returned by the time it is read.
+     * 
+     * @return the number of functions copied, the slots of those which
+     *         returned meanwhile set to null
+     */
+    public int snapshot(ConstructedFunctionObject[] into) {
+        int count = Math.min(depth.get(), into.length);
+        ConstructedFunctionObject[] current = frames;
+        count = Math.min(count, current.length);
+        System.arraycopy(current, 0, into, 0, count);
+        return count;
+    }
+}
@@ -0,0 +1,341 @@
+package org.yaji.profiler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.yaji.log.ILog;
+import org.yaji.log.Logs;
+
+import FESI.Interpreter.IProcedureProfiler;
+
+/**
+ * A procedure profiler measuring the time and memory allocated by each
+ * function, as its own (exclusive) part and including the functions it
+ * calls (inclusive). It writes the call stacks in the collapsed format of
+ * flame graph tools, one stack per line weighted by its exclusive time in
+ * microseconds, and a summary of the functions with the most exclusive
+ * time.
+ * <P>
+ * Installed with {@link FESI.Interpreter.Evaluator#setProcedureProfilingCallback},
+ * it is called on entry and exit of script functions, builtin functions and
+ * Java methods.
+ */
+public class CallTreeProfiler implements IProcedureProfiler {
+
+    private static final ILog log = Logs.getLog(CallTreeProfiler.class);
+
+    /** The number of functions listed by default in the summary */
+    public static final int DEFAULT_TOP_COUNT = 20;
+
+    /**
+     * The calls and accumulated costs of a function
+     */
+    public static class FunctionStatistics {
+        private final String name;
+        private long calls = 0;
+        private long inclusiveNanos = 0;
+        private long exclusiveNanos = 0;
+        private long inclusiveBytes = 0;
+        private long exclusiveBytes = 0;
+
+        FunctionStatistics(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        /**
+         * @return the time spent in the function and the functions it calls,
+         *         counted once for recursive calls
+         */
+        public long getInclusiveNanos() {
+            return inclusiveNanos;
+        }
+
+        public long getExclusiveNanos() {
+            return exclusiveNanos;
+        }
+
+        /**
+         * @return the bytes allocated by the function and the functions it
+         *         calls, 0 if the JVM does not measure allocations
+         */
+        public long getInclusiveBytes() {
+            return inclusiveBytes;
+        }
+
+        public long getExclusiveBytes() {
+            return exclusiveBytes;
+        }
+    }
+
+    /**
+     * A node of the call tree: a function called by the stack of its parent.
+     * Used with the profiler lock held.
+     */
+    private static class Frame {
+        final String name;
+        final Map<String, Frame> callees = new HashMap<String, Frame>();
+        long exclusiveNanos = 0;
+
+        Frame(String name) {
+            this.name = name;
+        }
+
+        Frame getCallee(String calleeName) {
+            Frame callee = callees.get(calleeName);
+            if (callee == null) {
+                callee = new Frame(calleeName);
+                callees.put(calleeName, callee);
+            }
+            return callee;
+        }
+    }
+
+    /**
+     * A call in progress, returned by startProcedure
+     */
+    private static class Call {
+        final Call caller;
+        final String name;
+        final long startNanos;
+        final long startBytes;
+        long calleeNanos = 0;
+        long calleeBytes = 0;
+        // Resolved when the call or one of its callees ends
+        Frame frame = null;
+
+        Call(Call caller, String name, long startNanos, long startBytes) {
+            this.caller = caller;
+            this.name = name;
+            this.startNanos = startNanos;
+            this.startBytes = startBytes;
+        }
+
+        boolean isRecursive() {
+            for (Call call = caller; call != null; call = call.caller) {
+                if (call.name.equals(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final ThreadLocal<Call> currentCall = new ThreadLocal<Call>();
+    private final Map<String, FunctionStatistics> functions = new HashMap<String, FunctionStatistics>();
+    // The outermost calls are its callees
+    private Frame root = new Frame(null);
+    private final File collapsedStackFile;
+    private final File summaryFile;
+    private final int topCount;
+
+    /**
+     * Create a profiler keeping its measures in memory
+     */
+    public CallTreeProfiler() {
+        this(null, null, DEFAULT_TOP_COUNT);
+    }
+
+    /**
+     * Create a profiler writing its measures when profiling ends
+     *
+     * @param collapsedStackFile
+     *            the file of the collapsed stacks, or null
+     * @param summaryFile
+     *            the file of the summary, or null
+     * @param topCount
+     *            the number of functions listed in the summary
+     */
+    public CallTreeProfiler(File collapsedStackFile, File summaryFile, int topCount) {
+        this.collapsedStackFile = collapsedStackFile;
+        this.summaryFile = summaryFile;
+        this.topCount = topCount;
+    }
+
+    public Object[] startProcedure(String className, String functionName) {
+        String name = className == null || className.length() == 0 ? functionName : functionName + " ("
+                + className + ")";
+        Call call = new Call(currentCall.get(), name, System.nanoTime(), Allocations.allocatedBytes());
+        currentCall.set(call);
+        return new Object[] { call };
+    }
+
+    /**
+     * @param endTime
+     *            the time the call ended, from {@link System#nanoTime()}
+     */
+    public void endProcedure(String className, String functionName, Object[] start, long endTime) {
+        Call call = (Call) start[0];
+        long bytes = Allocations.allocatedBytes() - call.startBytes;
+        long nanos = endTime - call.startNanos;
+        currentCall.set(call.caller);
+        if (call.caller != null) {
+            call.caller.calleeNanos += nanos;
+            call.caller.calleeBytes += bytes;
+        }
+        boolean recursive = call.isRecursive();
+        synchronized (this) {
+            FunctionStatistics statistics = functions.get(call.name);
+            if (statistics == null) {
+                statistics = new FunctionStatistics(call.name);
+                functions.put(call.name, statistics);
+            }
+            statistics.calls++;
+            if (!recursive) {
+                statistics.inclusiveNanos += nanos;
+                statistics.inclusiveBytes += bytes;
+            }
+            statistics.exclusiveNanos += nanos - call.calleeNanos;
+            statistics.exclusiveBytes += bytes - call.calleeBytes;
+            getFrame(call).exclusiveNanos += nanos - call.calleeNanos;
+        }
+    }
+
+    // Called with the lock held
+    private Frame getFrame(Call call) {
+        if (call.frame == null) {
+            call.frame = (call.caller == null ? root : getFrame(call.caller)).getCallee(call.name);
+        }
+        return call.frame;
+    }
+
+    public void addElement(String message) {
+        // Only calls are measured
+    }
+
+    /**
+     * Forget the previous measures
+     */
+    public synchronized void startProfiling() {
+        functions.clear();
+        root = new Frame(null);
+    }
+
+    /**
+     * Write the files given when created
+     */
+    public void endProfiling() {
+        try {
+            if (collapsedStackFile != null) {
+                Writer writer = new OutputStreamWriter(new FileOutputStream(collapsedStackFile), "UTF-8");
+                try {
+                    writeCollapsedStacks(writer);
+                } finally {
+                    writer.close();
+                }
+            }
+            if (summaryFile != null) {
+                Writer writer = new OutputStreamWriter(new FileOutputStream(summaryFile), "UTF-8");
+                try {
+                    writeSummary(writer, topCount);
+                } finally {
+                    writer.close();
+                }
+            }
+        } catch (IOException e) {
+            log.asError("Cannot write profile", e);
+        }
+    }
+
+    public void writeHeader() {
+        // Nothing written until profiling ends
+    }
+
+    public void writeFooter() {
+        // Nothing written until profiling ends
+    }
+
+    /**
+     * @return the statistics of the functions called, most exclusive time
+     *         first
+     */
+    public synchronized List<FunctionStatistics> getFunctionStatistics() {
+        List<FunctionStatistics> sorted = new ArrayList<FunctionStatistics>(functions.values());
+        Collections.sort(sorted, new Comparator<FunctionStatistics>() {
+            public int compare(FunctionStatistics first, FunctionStatistics second) {
+                if (first.exclusiveNanos != second.exclusiveNanos) {
+                    return first.exclusiveNanos > second.exclusiveNanos ? -1 : 1;
+                }
+                return first.name.compareTo(second.name);
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Write the call stacks as "outer;inner microseconds" lines, sorted by
+     * stack, for flame graph tools
+     */
+    public synchronized void writeCollapsedStacks(Writer writer) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        for (Frame frame : root.callees.values()) {
+            collapse(frame, new StringBuilder(), lines);
+        }
+        Collections.sort(lines);
+        for (String line : lines) {
+            writer.write(line);
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    /**
+     * Add the lines of a frame and its callees
+     *
+     * @param stack
+     *            the names of the callers of the frame, restored on return
+     */
+    private static void collapse(Frame frame, StringBuilder stack, List<String> lines) {
+        int length = stack.length();
+        if (length > 0) {
+            stack.append(';');
+        }
+        stack.append(frame.name);
+        long micros = frame.exclusiveNanos / 1000;
+        if (micros > 0) {
+            // Frames are separated by ';' and the weight by the last space
+            lines.add(stack.toString() + ' ' + micros);
+        }
+        for (Frame callee : frame.callees.values()) {
+            collapse(callee, stack, lines);
+        }
+        stack.setLength(length);
+    }
+
+    /**
+     * Write a table of the functions with the most exclusive time
+     *
+     * @param count
+     *            the maximum number of functions listed
+     */
+    public void writeSummary(Writer writer, int count) throws IOException {
+        List<FunctionStatistics> sorted = getFunctionStatistics();
+        PrintWriter out = new PrintWriter(writer);
+        out.printf("%10s %12s %12s %12s %12s  %s%n", "calls", "self ms", "total ms", "self KB", "total KB",
+                "function");
+        for (FunctionStatistics statistics : sorted.subList(0, Math.min(count, sorted.size()))) {
+            out.printf("%10d %12.3f %12.3f %12d %12d  %s%n", Long.valueOf(statistics.calls),
+                    Double.valueOf(statistics.exclusiveNanos / 1e6), Double.valueOf(statistics.inclusiveNanos / 1e6),
+                    Long.valueOf(statistics.exclusiveBytes / 1024), Long.valueOf(statistics.inclusiveBytes / 1024),
+                    statistics.name);
+        }
+        out.flush();
+    }
+}
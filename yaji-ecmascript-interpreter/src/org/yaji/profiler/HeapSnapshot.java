@@ -0,0 +1,549 @@
+package org.yaji.profiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.yaji.buffer.ESArrayBuffer;
+import org.yaji.data.ESAccessorValue;
+import org.yaji.json.JsonUtil;
+
+import FESI.Data.ArrayPrototype;
+import FESI.Data.ConstructedFunctionObject;
+import FESI.Data.ESAppendable;
+import FESI.Data.ESObject;
+import FESI.Data.ESStringPrimitive;
+import FESI.Data.ESValue;
+import FESI.Data.ESWrapper;
+import FESI.Data.FunctionPrototype;
+import FESI.Data.RegExpPrototype;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+import FESI.Interpreter.IPropertyDescriptor;
+import FESI.Interpreter.ScopeChain;
+
+/**
+ * The graph of the script objects reachable from the global object and the
+ * current scope chain of an evaluator, with edges named by property, and the
+ * size each object retains: its own size and the size of the objects only
+ * reachable through it.
+ * <P>
+ * It is written in the .heapsnapshot format of the Chrome DevTools. Sizes are
+ * estimated from the number of properties and elements, as the JVM does not
+ * measure objects. The graph should be taken on the thread of the evaluator,
+ * or while it is paused.
+ */
+public class HeapSnapshot {
+
+    static final String[] NODE_TYPES = { "hidden", "array", "string", "object", "code", "closure", "regexp",
+            "number", "native", "synthetic", "concatenated string", "sliced string" };
+    static final int STRING = 2;
+    static final int OBJECT = 3;
+    static final int CLOSURE = 5;
+    static final int REGEXP = 6;
+    static final int NATIVE = 8;
+    static final int SYNTHETIC = 9;
+    static final int CONCATENATED_STRING = 10;
+
+    static final String[] EDGE_TYPES = { "context", "element", "property", "internal", "hidden", "shortcut", "weak" };
+    static final int CONTEXT = 0;
+    static final int ELEMENT = 1;
+    static final int PROPERTY = 2;
+
+    // Estimated sizes in bytes, on a 64 bit JVM with compressed references
+    static final int OBJECT_SIZE = 48;
+    static final int PROPERTY_SIZE = 40;
+    static final int ARRAY_SIZE = 40;
+    static final int ELEMENT_SIZE = 4;
+    static final int STRING_SIZE = 56;
+    static final int CHARACTER_SIZE = 2;
+
+    // The longest string kept as the name of a string node
+    static final int MAX_NAME_LENGTH = 1024;
+
+    private static final int NODE_FIELD_COUNT = 6;
+
+    /**
+     * An object of the graph
+     */
+    public static class Node {
+        private final int type;
+        private final String name;
+        private final long id;
+        private final int index;
+        private long selfSize;
+        private long retainedSize;
+        private final List<Edge> edges = new ArrayList<Edge>();
+
+        Node(int type, String name, long id, int index, long selfSize) {
+            this.type = type;
+            this.name = name;
+            this.id = id;
+            this.index = index;
+            this.selfSize = selfSize;
+        }
+
+        /**
+         * @return the type of the node, as named in the .heapsnapshot format
+         */
+        public String getType() {
+            return NODE_TYPES[type];
+        }
+
+        /**
+         * @return the class name of an object, the name of a function or the
+         *         value of a string
+         */
+        public String getName() {
+            return name;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * @return the estimated size of the object itself, in bytes
+         */
+        public long getSelfSize() {
+            return selfSize;
+        }
+
+        /**
+         * @return the estimated size of the object and of the objects only
+         *         reachable through it, in bytes
+         */
+        public long getRetainedSize() {
+            return retainedSize;
+        }
+
+        public List<Edge> getEdges() {
+            return Collections.unmodifiableList(edges);
+        }
+
+        /**
+         * @return the node referenced by the edge of a name, or null
+         */
+        public Node getChild(String edgeName) {
+            for (Edge edge : edges) {
+                if (edge.getName().equals(edgeName)) {
+                    return edge.to;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return getType() + " " + name + " @" + id;
+        }
+    }
+
+    /**
+     * A reference from one node to another
+     */
+    public static class Edge {
+        private final int type;
+        private final String name;
+        private final int elementIndex;
+        private final Node to;
+
+        Edge(int type, String name, int elementIndex, Node to) {
+            this.type = type;
+            this.name = name;
+            this.elementIndex = elementIndex;
+            this.to = to;
+        }
+
+        /**
+         * @return the type of the edge, as named in the .heapsnapshot format
+         */
+        public String getType() {
+            return EDGE_TYPES[type];
+        }
+
+        /**
+         * @return the property name, or the index of an element
+         */
+        public String getName() {
+            return name == null ? Integer.toString(elementIndex) : name;
+        }
+
+        public Node getTarget() {
+            return to;
+        }
+    }
+
+    private final List<Node> nodes = new ArrayList<Node>();
+    private final Map<ESValue, Node> visited = new IdentityHashMap<ESValue, Node>();
+    private final ArrayDeque<ESObject> pending = new ArrayDeque<ESObject>();
+    private int edgeCount = 0;
+    // Objects have odd ids, from their object id, and other nodes even ones
+    private long nextId = 2;
+
+    private HeapSnapshot() {
+    }
+
+    /**
+     * Take a snapshot of the objects reachable from the global object and
+     * the current scope chain of an evaluator
+     */
+    public static HeapSnapshot take(Evaluator evaluator) throws EcmaScriptException {
+        HeapSnapshot snapshot = new HeapSnapshot();
+        Node root = snapshot.newNode(SYNTHETIC, "", 0);
+        snapshot.addEdge(root, PROPERTY, "global", evaluator.getGlobalObject());
+        ScopeChain scopeChain = evaluator.getScopeChain();
+        if (scopeChain != null) {
+            Node scopes = snapshot.newNode(SYNTHETIC, "(scope chain)", 0);
+            root.edges.add(new Edge(PROPERTY, "(scope chain)", 0, scopes));
+            snapshot.edgeCount++;
+            int depth = 0;
+            for (ScopeChain scope = scopeChain; scope != null; scope = scope.previousScope()) {
+                snapshot.addEdge(scopes, ELEMENT, null, depth++, scope.getObject());
+            }
+        }
+        while (!snapshot.pending.isEmpty()) {
+            ESObject object = snapshot.pending.removeFirst();
+            snapshot.expand(object, snapshot.visited.get(object));
+        }
+        snapshot.computeRetainedSizes();
+        return snapshot;
+    }
+
+    public Node getRoot() {
+        return nodes.get(0);
+    }
+
+    /**
+     * @return the node of an object or a string, or null if it was not
+     *         reachable
+     */
+    public Node getNode(ESValue value) {
+        return visited.get(value);
+    }
+
+    public int getNodeCount() {
+        return nodes.size();
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    private Node newNode(int type, String name, long selfSize) {
+        Node node = newNode(type, name, nextId, selfSize);
+        nextId += 2;
+        return node;
+    }
+
+    private Node newNode(int type, String name, long id, long selfSize) {
+        Node node = new Node(type, name, id, nodes.size(), selfSize);
+        nodes.add(node);
+        return node;
+    }
+
+    /**
+     * A node for an object, with an id kept between snapshots of the
+     * evaluator so that they can be compared
+     */
+    private Node newNode(int type, String name, ESObject object) {
+        long objectId = object.getObjectId();
+        if (objectId == 0) {
+            return newNode(type, name, 0);
+        }
+        return newNode(type, name, objectId * 2 + 1, 0);
+    }
+
+    private void addEdge(Node from, int type, String name, ESValue value) {
+        addEdge(from, type, name, 0, value);
+    }
+
+    private void addEdge(Node from, int type, String name, int elementIndex, ESValue value) {
+        Node to = nodeFor(value);
+        if (to != null) {
+            from.edges.add(new Edge(type, name, elementIndex, to));
+            edgeCount++;
+        }
+    }
+
+    /**
+     * @return the node of an object or a non empty string, created if needed,
+     *         or null for other values
+     */
+    private Node nodeFor(ESValue value) {
+        if (!(value instanceof ESObject || value instanceof ESStringPrimitive)) {
+            return null;
+        }
+        Node node = visited.get(value);
+        if (node != null) {
+            return node;
+        }
+        if (value instanceof ESStringPrimitive) {
+            int length = ((ESStringPrimitive) value).getStringLength();
+            if (length == 0) {
+                return null;
+            }
+            String string = value.toString();
+            node = newNode(value instanceof ESAppendable ? CONCATENATED_STRING : STRING,
+                    string.length() > MAX_NAME_LENGTH ? string.substring(0, MAX_NAME_LENGTH) : string,
+                    STRING_SIZE + (long) length * CHARACTER_SIZE);
+        } else {
+            ESObject object = (ESObject) value;
+            if (object instanceof FunctionPrototype) {
+                node = newNode(CLOSURE, ((FunctionPrototype) object).getFunctionName(), object);
+            } else if (object instanceof RegExpPrototype) {
+                node = newNode(REGEXP, object.getESClassName(), object);
+            } else if (object instanceof ESWrapper) {
+                Object javaObject = ((ESWrapper) object).getJavaObject();
+                node = newNode(NATIVE, javaObject == null ? object.getESClassName() : javaObject.getClass()
+                        .getName(), object);
+            } else {
+                node = newNode(OBJECT, object.getESClassName(), object);
+            }
+            pending.addLast(object);
+        }
+        visited.put(value, node);
+        return node;
+    }
+
+    /**
+     * Add the edges of the properties, prototype and scope of an object, and
+     * estimate its size
+     */
+    private void expand(ESObject object, Node node) throws EcmaScriptException {
+        long size = OBJECT_SIZE;
+        for (Enumeration<String> names = object.getOwnPropertyNames(); names.hasMoreElements();) {
+            String name = names.nextElement();
+            int hash = name.hashCode();
+            IPropertyDescriptor descriptor = object.getOwnPropertyDescriptor(name, hash);
+            if (descriptor == null) {
+                // An element, not kept in the property map
+                ESValue value = object.getPropertyIfAvailable(name, hash);
+                int elementIndex = elementIndex(name);
+                if (elementIndex < 0) {
+                    addEdge(node, PROPERTY, name, value);
+                } else {
+                    addEdge(node, ELEMENT, null, elementIndex, value);
+                }
+                continue;
+            }
+            size += PROPERTY_SIZE;
+            ESValue value = descriptor.getValue();
+            if (value instanceof ESAccessorValue) {
+                ESAccessorValue accessor = (ESAccessorValue) value;
+                addEdge(node, PROPERTY, "get " + name, accessor.getGetAccessorDescriptor());
+                addEdge(node, PROPERTY, "set " + name, accessor.getSetAccessorDescriptor());
+            } else {
+                addEdge(node, PROPERTY, name, value);
+            }
+        }
+        addEdge(node, PROPERTY, "__proto__", object.getPrototype());
+        if (object instanceof ArrayPrototype) {
+            size += ARRAY_SIZE + (long) ((ArrayPrototype) object).size() * ELEMENT_SIZE;
+        } else if (object instanceof ESArrayBuffer) {
+            size += ((ESArrayBuffer) object).getByteLength();
+        } else if (object instanceof ConstructedFunctionObject) {
+            int depth = 0;
+            ScopeChain scopeChain = ((ConstructedFunctionObject) object).getScopeChain();
+            for (ScopeChain scope = scopeChain; scope != null; scope = scope.previousScope()) {
+                addEdge(node, CONTEXT, "(scope " + depth++ + ")", scope.getObject());
+            }
+        }
+        node.selfSize = size;
+    }
+
+    private static int elementIndex(String name) {
+        if (name.length() == 0 || name.length() > 9) {
+            return -1;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9' || (c == '0' && i == 0 && name.length() > 1)) {
+                return -1;
+            }
+        }
+        return Integer.parseInt(name);
+    }
+
+    /**
+     * Compute the retained sizes from the dominator tree of the graph, with
+     * the iterative algorithm of Cooper, Harvey and Kennedy
+     */
+    private void computeRetainedSizes() {
+        int count = nodes.size();
+        // Depth first post order, from the root
+        int[] postOrder = new int[count];
+        int[] byPostOrder = new int[count];
+        int[] nextEdge = new int[count];
+        boolean[] seen = new boolean[count];
+        int[] stack = new int[count];
+        int top = 0;
+        int numbered = 0;
+        stack[top++] = 0;
+        seen[0] = true;
+        while (top > 0) {
+            Node node = nodes.get(stack[top - 1]);
+            if (nextEdge[node.index] < node.edges.size()) {
+                Node child = node.edges.get(nextEdge[node.index]++).to;
+                if (!seen[child.index]) {
+                    seen[child.index] = true;
+                    stack[top++] = child.index;
+                }
+            } else {
+                top--;
+                postOrder[node.index] = numbered;
+                byPostOrder[numbered++] = node.index;
+            }
+        }
+
+        int[][] predecessors = predecessors();
+        int[] dominator = new int[count];
+        Arrays.fill(dominator, -1);
+        dominator[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            // Reverse post order, skipping the root numbered last
+            for (int i = numbered - 2; i >= 0; i--) {
+                int index = byPostOrder[i];
+                int newDominator = -1;
+                for (int predecessor : predecessors[index]) {
+                    if (dominator[predecessor] < 0) {
+                        continue;
+                    }
+                    newDominator = newDominator < 0 ? predecessor : intersect(predecessor, newDominator, dominator,
+                            postOrder);
+                }
+                if (dominator[index] != newDominator) {
+                    dominator[index] = newDominator;
+                    changed = true;
+                }
+            }
+        }
+
+        for (Node node : nodes) {
+            node.retainedSize = node.selfSize;
+        }
+        // Dominated nodes come before their dominator in post order
+        for (int i = 0; i < numbered - 1; i++) {
+            int index = byPostOrder[i];
+            nodes.get(dominator[index]).retainedSize += nodes.get(index).retainedSize;
+        }
+    }
+
+    private int[][] predecessors() {
+        int count = nodes.size();
+        int[] predecessorCount = new int[count];
+        for (Node node : nodes) {
+            for (Edge edge : node.edges) {
+                predecessorCount[edge.to.index]++;
+            }
+        }
+        int[][] predecessors = new int[count][];
+        for (int i = 0; i < count; i++) {
+            predecessors[i] = new int[predecessorCount[i]];
+        }
+        for (Node node : nodes) {
+            for (Edge edge : node.edges) {
+                int to = edge.to.index;
+                predecessors[to][--predecessorCount[to]] = node.index;
+            }
+        }
+        return predecessors;
+    }
+
+    private static int intersect(int first, int second, int[] dominator, int[] postOrder) {
+        while (first != second) {
+            while (postOrder[first] < postOrder[second]) {
+                first = dominator[first];
+            }
+            while (postOrder[second] < postOrder[first]) {
+                second = dominator[second];
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Write the snapshot in the .heapsnapshot format, which can be loaded in
+     * the memory panel of the Chrome DevTools
+     */
+    public void write(Writer writer) throws IOException {
+        Map<String, Integer> strings = new HashMap<String, Integer>();
+        List<String> stringTable = new ArrayList<String>();
+        writer.write("{\"snapshot\":{\"meta\":{\"node_fields\":[\"type\",\"name\",\"id\",\"self_size\","
+                + "\"edge_count\",\"trace_node_id\"],\"node_types\":[");
+        writeNames(writer, NODE_TYPES);
+        writer.write(",\"string\",\"number\",\"number\",\"number\",\"number\"],"
+                + "\"edge_fields\":[\"type\",\"name_or_index\",\"to_node\"],\"edge_types\":[");
+        writeNames(writer, EDGE_TYPES);
+        writer.write(",\"string_or_number\",\"node\"],\"trace_function_info_fields\":[],\"trace_node_fields\":[],"
+                + "\"sample_fields\":[],\"location_fields\":[]},");
+        writer.write("\"node_count\":" + nodes.size() + ",\"edge_count\":" + edgeCount
+                + ",\"trace_function_count\":0},\n\"nodes\":[");
+        for (Node node : nodes) {
+            if (node.index > 0) {
+                writer.write(",\n");
+            }
+            writer.write(node.type + "," + intern(node.name, strings, stringTable) + "," + node.id + ","
+                    + node.selfSize + "," + node.edges.size() + ",0");
+        }
+        writer.write("],\n\"edges\":[");
+        boolean first = true;
+        for (Node node : nodes) {
+            for (Edge edge : node.edges) {
+                if (!first) {
+                    writer.write(",\n");
+                }
+                first = false;
+                int nameOrIndex = edge.name == null ? edge.elementIndex : intern(edge.name, strings, stringTable);
+                writer.write(edge.type + "," + nameOrIndex + "," + edge.to.index * NODE_FIELD_COUNT);
+            }
+        }
+        writer.write("],\n\"trace_function_infos\":[],\"trace_tree\":[],\"samples\":[],\"locations\":[],\n"
+                + "\"strings\":[");
+        for (int i = 0; i < stringTable.size(); i++) {
+            if (i > 0) {
+                writer.write(",\n");
+            }
+            writeString(writer, stringTable.get(i));
+        }
+        writer.write("]}\n");
+        writer.flush();
+    }
+
+    private static int intern(String string, Map<String, Integer> strings, List<String> stringTable) {
+        Integer index = strings.get(string);
+        if (index == null) {
+            index = Integer.valueOf(stringTable.size());
+            strings.put(string, index);
+            stringTable.add(string);
+        }
+        return index.intValue();
+    }
+
+    private static void writeNames(Writer writer, String[] names) throws IOException {
+        writer.write('[');
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeString(writer, names[i]);
+        }
+        writer.write(']');
+    }
+
+    private static void writeString(Writer writer, String string) throws IOException {
+        writer.write('"');
+        JsonUtil.escape(writer, string);
+        writer.write('"');
+    }
+}
@@ -0,0 +1,259 @@
+package org.yaji.profiler;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import FESI.Data.ConstructedFunctionObject;
+import FESI.Data.ESObject;
+import FESI.Data.IObjectProfiler;
+import FESI.Interpreter.Evaluator;
+
+/**
+ * An object profiler counting the objects created and still reachable by
+ * class and by allocation site, the innermost script function at the time
+ * of creation. Only one object in sampleInterval is tracked, the counts
+ * being estimated from the sample.
+ * <P>
+ * Installed with {@link ESObject#setObjectProfiler}, it replaces the log of
+ * each creation and finalization by counters updated without locking.
+ * <P>
+ * An object is reported while its constructor runs, when its class name
+ * may not be known yet. Only its Java class and a weak reference to it are
+ * recorded then, the class name being resolved when the statistics are
+ * reported.
+ */
+public class ObjectTracker implements IObjectProfiler {
+
+    /** The number of sites listed by default in the summary */
+    public static final int DEFAULT_TOP_COUNT = 20;
+
+    /**
+     * The objects of a class created at a site
+     */
+    public static class SiteStatistics {
+        private final String className;
+        private final String site;
+        private final int sampleInterval;
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong released = new AtomicLong();
+        private volatile long markedLive = 0;
+
+        SiteStatistics(String className, String site, int sampleInterval) {
+            this.className = className;
+            this.site = site;
+            this.sampleInterval = sampleInterval;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * @return "function (file:line)" of the function creating the
+         *         objects, or "(program)" outside any function
+         */
+        public String getSite() {
+            return site;
+        }
+
+        /**
+         * @return the estimated number of objects created
+         */
+        public long getCreated() {
+            return created.get() * sampleInterval;
+        }
+
+        /**
+         * @return the estimated number of objects no longer reachable
+         */
+        public long getReleased() {
+            return released.get() * sampleInterval;
+        }
+
+        /**
+         * @return the estimated number of objects still reachable, or not yet
+         *         collected
+         */
+        public long getLive() {
+            return getCreated() - getReleased();
+        }
+
+        /**
+         * @return the change of the live objects since the heap was marked
+         */
+        public long getGrowth() {
+            return getLive() - markedLive;
+        }
+    }
+
+    /**
+     * An object tracked, until its class name is resolved
+     */
+    private static class Tracked {
+        final Class<?> javaClass;
+        final String site;
+        final WeakReference<ESObject> object;
+        // Set when resolved, both guarded by the Tracked
+        SiteStatistics statistics = null;
+        boolean released = false;
+
+        Tracked(ESObject object, String site) {
+            this.javaClass = object.getClass();
+            this.site = site;
+            this.object = new WeakReference<ESObject>(object);
+        }
+    }
+
+    private final int sampleInterval;
+    private final ConcurrentHashMap<String, SiteStatistics> sites = new ConcurrentHashMap<String, SiteStatistics>();
+    private final ConcurrentLinkedQueue<Tracked> unresolved = new ConcurrentLinkedQueue<Tracked>();
+
+    /**
+     * Create a tracker of all objects
+     */
+    public ObjectTracker() {
+        this(1);
+    }
+
+    /**
+     * @param sampleInterval
+     *            the number of objects created for each one tracked
+     */
+    public ObjectTracker(int sampleInterval) {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("Sample interval must be positive: " + sampleInterval);
+        }
+        this.sampleInterval = sampleInterval;
+    }
+
+    @Override
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    @Override
+    public Object created(Evaluator evaluator, ESObject object, Object context) {
+        // The object is being constructed, its class name is resolved later
+        Tracked tracked = new Tracked(object, getSite(evaluator));
+        unresolved.add(tracked);
+        return tracked;
+    }
+
+    @Override
+    public void released(Evaluator evaluator, Object state) {
+        Tracked tracked = (Tracked) state;
+        SiteStatistics statistics;
+        synchronized (tracked) {
+            statistics = tracked.statistics;
+            tracked.released = true;
+        }
+        if (statistics != null) {
+            statistics.released.incrementAndGet();
+        }
+    }
+
+    /**
+     * Count the objects created since the last report under their class
+     * name, or the name of their Java class if already released
+     */
+    private void resolve() {
+        Tracked tracked;
+        while ((tracked = unresolved.poll()) != null) {
+            ESObject object = tracked.object.get();
+            String className = object != null ? object.getESClassName() : tracked.javaClass.getSimpleName();
+            SiteStatistics statistics = getSiteStatistics(className, tracked.site);
+            statistics.created.incrementAndGet();
+            boolean released;
+            synchronized (tracked) {
+                tracked.statistics = statistics;
+                released = tracked.released;
+            }
+            if (released) {
+                statistics.released.incrementAndGet();
+            }
+        }
+    }
+
+    private SiteStatistics getSiteStatistics(String className, String site) {
+        String key = className + '\u0000' + site;
+        SiteStatistics statistics = sites.get(key);
+        if (statistics == null) {
+            statistics = new SiteStatistics(className, site, sampleInterval);
+            SiteStatistics existing = sites.putIfAbsent(key, statistics);
+            if (existing != null) {
+                statistics = existing;
+            }
+        }
+        return statistics;
+    }
+
+    private static String getSite(Evaluator evaluator) {
+        ConstructedFunctionObject function = evaluator == null ? null : evaluator.getCallStack().peek();
+        if (function == null) {
+            return "(program)";
+        }
+        return function.getFunctionName() + " (" + Profile.getScriptUrl(function.getEvaluationSource()) + ":"
+                + function.getLineNumber() + ")";
+    }
+
+    public void write(Evaluator evaluator, long currentTime, ESObject object, Object context, String state) {
+        // Only counted
+    }
+
+    /**
+     * Remember the live objects, so that their growth can be reported
+     */
+    public void markHeap() {
+        resolve();
+        for (SiteStatistics statistics : sites.values()) {
+            statistics.markedLive = statistics.getLive();
+        }
+    }
+
+    /**
+     * @return the statistics of the sites, most live objects first
+     */
+    public List<SiteStatistics> getStatistics() {
+        resolve();
+        List<SiteStatistics> sorted = new ArrayList<SiteStatistics>(sites.values());
+        Collections.sort(sorted, new Comparator<SiteStatistics>() {
+            public int compare(SiteStatistics first, SiteStatistics second) {
+                long firstLive = first.getLive();
+                long secondLive = second.getLive();
+                if (firstLive != secondLive) {
+                    return firstLive > secondLive ? -1 : 1;
+                }
+                int order = first.site.compareTo(second.site);
+                return order != 0 ? order : first.className.compareTo(second.className);
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Write a table of the sites with the most live objects
+     *
+     * @param count
+     *            the maximum number of sites listed
+     */
+    public void writeSummary(Writer writer, int count) throws IOException {
+        List<SiteStatistics> sorted = getStatistics();
+        PrintWriter out = new PrintWriter(writer);
+        out.printf("%10s %10s %10s %10s  %-12s %s%n", "live", "growth", "created", "released", "class", "site");
+        for (SiteStatistics statistics : sorted.subList(0, Math.min(count, sorted.size()))) {
+            out.printf("%10d %10d %10d %10d  %-12s %s%n", Long.valueOf(statistics.getLive()),
+                    Long.valueOf(statistics.getGrowth()), Long.valueOf(statistics.getCreated()),
+                    Long.valueOf(statistics.getReleased()), statistics.className, statistics.site);
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,239 @@
+package org.yaji.profiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import FESI.Data.ConstructedFunctionObject;
+import FESI.Data.ESNumber;
+import FESI.Data.ESObject;
+import FESI.Data.ESString;
+import FESI.Data.ObjectObject;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.EvaluationSource;
+import FESI.Interpreter.Evaluator;
+import FESI.Interpreter.FileEvaluationSource;
+
+/**
+ * The call stacks sampled by a {@link SamplingProfiler}, merged into a tree
+ * of calls, which can be exported in the cpuprofile format of the DevTools
+ * Profiler domain.
+ */
+public class Profile {
+
+    /**
+     * A function called from the functions of its parent nodes
+     */
+    public static class Node {
+        private final int id;
+        private final String functionName;
+        private final String url;
+        private final int lineNumber;
+        // By function body, shared by the closures of a function
+        private final Map<Object, Node> childrenByFunction = new IdentityHashMap<Object, Node>();
+        private final List<Node> children = new ArrayList<Node>();
+        private int hitCount = 0;
+
+        Node(int id, String functionName, String url, int lineNumber) {
+            this.id = id;
+            this.functionName = functionName;
+            this.url = url;
+            this.lineNumber = lineNumber;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getFunctionName() {
+            return functionName;
+        }
+
+        /**
+         * @return the path of the script file, "" if the function does not
+         *         come from a file
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return the line of the start of the function, from 1, 0 if
+         *         unknown
+         */
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        /**
+         * @return the number of samples in which this was the innermost
+         *         function
+         */
+        public int getHitCount() {
+            return hitCount;
+        }
+
+        public List<Node> getChildren() {
+            return children;
+        }
+    }
+
+    private final List<Node> nodes = new ArrayList<Node>();
+    private final Node root;
+    private final Node program;
+    private final List<Integer> samples = new ArrayList<Integer>();
+    private final List<Long> timeDeltas = new ArrayList<Long>();
+    private final long startTime;
+    private long endTime;
+
+    /**
+     * @param startTime
+     *            the time profiling started, in microseconds
+     */
+    Profile(long startTime) {
+        this.startTime = startTime;
+        this.endTime = startTime;
+        root = newNode("(root)", "", 0);
+        // Samples taken outside any function
+        program = newNode("(program)", "", 0);
+        root.children.add(program);
+    }
+
+    private Node newNode(String functionName, String url, int lineNumber) {
+        Node node = new Node(nodes.size() + 1, functionName, url, lineNumber);
+        nodes.add(node);
+        return node;
+    }
+
+    /**
+     * Add a call stack sample
+     * 
+     * @param frames
+     *            the functions being called, outermost first, null for those
+     *            which returned while sampled
+     * @param count
+     *            the number of frames
+     * @param time
+     *            the time of the sample, in microseconds
+     */
+    void addSample(ConstructedFunctionObject[] frames, int count, long time) {
+        Node node = root;
+        for (int i = 0; i < count; i++) {
+            ConstructedFunctionObject function = frames[i];
+            if (function != null) {
+                node = child(node, function);
+            }
+        }
+        if (node == root) {
+            node = program;
+        }
+        node.hitCount++;
+        samples.add(Integer.valueOf(node.id));
+        timeDeltas.add(Long.valueOf(time - endTime));
+        endTime = time;
+    }
+
+    private Node child(Node parent, ConstructedFunctionObject function) {
+        Object key = function.getFunctionBody();
+        Node child = parent.childrenByFunction.get(key);
+        if (child == null) {
+            child = newNode(function.getFunctionName(), getScriptUrl(function.getEvaluationSource()),
+                    function.getLineNumber());
+            parent.childrenByFunction.put(key, child);
+            parent.children.add(child);
+        }
+        return child;
+    }
+
+    void setEndTime(long endTime) {
+        this.endTime = Math.max(this.endTime, endTime);
+    }
+
+    /**
+     * @return the path of the file a source comes from, or "" if it does not
+     *         come from a file
+     */
+    static String getScriptUrl(EvaluationSource source) {
+        for (; source != null; source = source.getPreviousSource()) {
+            if (source instanceof FileEvaluationSource) {
+                return ((FileEvaluationSource) source).getFileName();
+            }
+        }
+        return "";
+    }
+
+    public Node getRoot() {
+        return root;
+    }
+
+    public int getSampleCount() {
+        return samples.size();
+    }
+
+    /**
+     * @return the duration of the profile, in microseconds
+     */
+    public long getDuration() {
+        return endTime - startTime;
+    }
+
+    /**
+     * Create the profile in the cpuprofile format, with its nodes, the node
+     * of each sample, and the times in microseconds
+     */
+    public ESObject toCpuProfile(Evaluator evaluator) throws EcmaScriptException {
+        Map<String, Integer> scriptIds = new HashMap<String, Integer>();
+        ESObject nodeArray = evaluator.createArray();
+        long index = 0;
+        for (Node node : nodes) {
+            Integer scriptId = scriptIds.get(node.url);
+            if (scriptId == null) {
+                scriptId = Integer.valueOf(node.url.length() == 0 ? 0 : scriptIds.size() + 1);
+                scriptIds.put(node.url, scriptId);
+            }
+            ESObject callFrame = ObjectObject.createObject(evaluator);
+            putString(callFrame, "functionName", node.functionName);
+            putString(callFrame, "scriptId", scriptId.toString());
+            putString(callFrame, "url", node.url);
+            // Counted from 0 by the protocol
+            putNumber(callFrame, "lineNumber", node.lineNumber - 1);
+            putNumber(callFrame, "columnNumber", -1);
+            ESObject description = ObjectObject.createObject(evaluator);
+            putNumber(description, "id", node.id);
+            description.putProperty("callFrame", callFrame, "callFrame".hashCode());
+            putNumber(description, "hitCount", node.hitCount);
+            if (!node.children.isEmpty()) {
+                ESObject children = evaluator.createArray();
+                long childIndex = 0;
+                for (Node child : node.children) {
+                    children.putProperty(childIndex++, ESNumber.valueOf(child.id));
+                }
+                description.putProperty("children", children, "children".hashCode());
+            }
+            nodeArray.putProperty(index++, description);
+        }
+        ESObject sampleArray = evaluator.createArray();
+        ESObject deltaArray = evaluator.createArray();
+        for (int i = 0; i < samples.size(); i++) {
+            sampleArray.putProperty((long) i, ESNumber.valueOf(samples.get(i).intValue()));
+            deltaArray.putProperty((long) i, ESNumber.valueOf(timeDeltas.get(i).longValue()));
+        }
+        ESObject profile = ObjectObject.createObject(evaluator);
+        profile.putProperty("nodes", nodeArray, "nodes".hashCode());
+        putNumber(profile, "startTime", startTime);
+        putNumber(profile, "endTime", endTime);
+        profile.putProperty("samples", sampleArray, "samples".hashCode());
+        profile.putProperty("timeDeltas", deltaArray, "timeDeltas".hashCode());
+        return profile;
+    }
+
+    private static void putString(ESObject object, String name, String value) throws EcmaScriptException {
+        object.putProperty(name, new ESString(value), name.hashCode());
+    }
+
+    private static void putNumber(ESObject object, String name, double value) throws EcmaScriptException {
+        object.putProperty(name, ESNumber.valueOf(value), name.hashCode());
+    }
+}
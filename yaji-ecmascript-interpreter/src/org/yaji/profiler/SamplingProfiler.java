@@ -0,0 +1,124 @@
+package org.yaji.profiler;
+
+import java.util.concurrent.locks.LockSupport;
+
+import FESI.Data.ConstructedFunctionObject;
+
+/**
+ * A CPU profiler sampling the {@link CallStack} of an evaluator from its own
+ * thread at a fixed interval, so that the evaluation itself is not
+ * instrumented beyond the calls of script functions.
+ */
+public class SamplingProfiler {
+
+    /** The default interval between samples, in microseconds */
+    public static final long DEFAULT_INTERVAL = 1000;
+
+    private final CallStack callStack;
+    private volatile long interval = DEFAULT_INTERVAL;
+    private volatile boolean running = false;
+    private Thread sampler = null;
+    private Profile profile = null;
+
+    public SamplingProfiler(CallStack callStack) {
+        this.callStack = callStack;
+    }
+
+    /**
+     * Set the interval between samples, taking effect at the next sample
+     * 
+     * @param interval
+     *            in microseconds
+     */
+    public void setInterval(long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Invalid sampling interval " + interval);
+        }
+        this.interval = interval;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public synchronized boolean isRunning() {
+        return sampler != null;
+    }
+
+    /**
+     * Start sampling, discarding the previous profile
+     * 
+     * @return false if already sampling
+     */
+    public synchronized boolean start() {
+        if (sampler != null) {
+            return false;
+        }
+        final Profile target = new Profile(now());
+        profile = target;
+        running = true;
+        sampler = new Thread(new Runnable() {
+            public void run() {
+                sample(target);
+            }
+        }, "YAJI Profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+        return true;
+    }
+
+    /**
+     * Stop sampling
+     * 
+     * @return the profile, or null if not sampling
+     */
+    public synchronized Profile stop() {
+        if (sampler == null) {
+            return null;
+        }
+        running = false;
+        LockSupport.unpark(sampler);
+        boolean interrupted = false;
+        while (sampler.isAlive()) {
+            try {
+                sampler.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        sampler = null;
+        Profile result = profile;
+        profile = null;
+        result.setEndTime(now());
+        return result;
+    }
+
+    /**
+     * Sample until stopped
+     * 
+     * @param target
+     *            the profile, only used by the sampler thread until it ends
+     */
+    private void sample(Profile target) {
+        ConstructedFunctionObject[] frames = new ConstructedFunctionObject[CallStack.INITIAL_CAPACITY];
+        while (running) {
+            LockSupport.parkNanos(interval * 1000);
+            if (!running) {
+                break;
+            }
+            int depth = callStack.getDepth();
+            if (depth > frames.length) {
+                frames = new ConstructedFunctionObject[depth * 2];
+            }
+            int count = callStack.snapshot(frames);
+            target.addSample(frames, count, now());
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000;
+    }
+}
@@ -0,0 +1,150 @@
+package org.yaji.script;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.script.Bindings;
+
+import FESI.Data.ESValue;
+import FESI.Data.GlobalObject;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+
+/**
+ * Engine scope bindings which are a live view of the global object of an
+ * evaluator, so that values put by the host and variables declared by
+ * scripts are the same thing.
+ */
+class GlobalObjectBindings extends AbstractMap<String, Object> implements Bindings {
+
+    private final Evaluator evaluator;
+    // The lock of the engine, held while accessing the global object
+    private final ReentrantLock lock;
+
+    GlobalObjectBindings(Evaluator evaluator, ReentrantLock lock) {
+        this.evaluator = evaluator;
+        this.lock = lock;
+    }
+
+    private GlobalObject global() {
+        return evaluator.getGlobalObject();
+    }
+
+    @Override
+    public Object put(String name, Object value) {
+        checkKey(name);
+        lock.lock();
+        try {
+            Object previous = get(name);
+            global().putProperty(name, YajiScriptEngine.toESValue(value, evaluator), name.hashCode());
+            return previous;
+        } catch (EcmaScriptException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Object get(Object key) {
+        String name = checkKey(key);
+        lock.lock();
+        try {
+            ESValue value = global().getPropertyIfAvailable(name, name.hashCode());
+            return value == null ? null : value.toJavaObject();
+        } catch (EcmaScriptException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        String name = checkKey(key);
+        lock.lock();
+        try {
+            return global().hasProperty(name, name.hashCode());
+        } catch (EcmaScriptException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Object remove(Object key) {
+        String name = checkKey(key);
+        lock.lock();
+        try {
+            Object previous = get(name);
+            global().deleteProperty(name, name.hashCode());
+            return previous;
+        } catch (EcmaScriptException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        final List<Entry<String, Object>> entries = new ArrayList<Entry<String, Object>>();
+        lock.lock();
+        try {
+            Enumeration<String> names = global().getProperties();
+            while (names.hasMoreElements()) {
+                String name = names.nextElement();
+                entries.add(new SimpleImmutableEntry<String, Object>(name, get(name)));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                final Iterator<Entry<String, Object>> iterator = entries.iterator();
+                return new Iterator<Entry<String, Object>>() {
+                    private Entry<String, Object> current;
+
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    public Entry<String, Object> next() {
+                        current = iterator.next();
+                        return current;
+                    }
+
+                    public void remove() {
+                        GlobalObjectBindings.this.remove(current.getKey());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return entries.size();
+            }
+        };
+    }
+
+    private static String checkKey(Object key) {
+        if (key == null) {
+            throw new NullPointerException("key can not be null");
+        }
+        if (!(key instanceof String)) {
+            throw new ClassCastException("key should be a String");
+        }
+        if (((String) key).length() == 0) {
+            throw new IllegalArgumentException("key can not be empty");
+        }
+        return (String) key;
+    }
+}
@@ -0,0 +1,38 @@
+package org.yaji.script;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import FESI.Interpreter.ParsedProgram;
+
+/**
+ * A script parsed once by a {@link YajiScriptEngine}, which can be evaluated
+ * any number of times with different bindings.
+ */
+public class YajiCompiledScript extends CompiledScript {
+
+    private final YajiScriptEngine engine;
+    private final ParsedProgram program;
+
+    YajiCompiledScript(YajiScriptEngine engine, ParsedProgram program) {
+        this.engine = engine;
+        this.program = program;
+    }
+
+    public ParsedProgram getParsedProgram() {
+        return program;
+    }
+
+    @Override
+    public Object eval(ScriptContext context) throws ScriptException {
+        return engine.evaluate(program, context);
+    }
+
+    @Override
+    public ScriptEngine getEngine() {
+        return engine;
+    }
+
+}
@@ -0,0 +1,414 @@
+package org.yaji.script;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import javax.script.SimpleScriptContext;
+
+import FESI.Data.BuiltinFunctionObject;
+import FESI.Data.ESLoader;
+import FESI.Data.ESObject;
+import FESI.Data.ESUndefined;
+import FESI.Data.ESValue;
+import FESI.Data.FunctionPrototype;
+import FESI.Data.GlobalObject;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.EvaluationSource;
+import FESI.Interpreter.Evaluator;
+import FESI.Interpreter.ParsedProgram;
+import FESI.Interpreter.UserEvaluationSource;
+
+/**
+ * JSR-223 script engine on top of an {@link Evaluator}.
+ * <P>
+ * The default engine scope bindings are a view of the global object of the
+ * evaluator. When a script is evaluated with other bindings, their values are
+ * installed as global variables for the duration of the evaluation and the
+ * final values copied back into the bindings. The global variables created
+ * by such an evaluation (declared variables and functions, or assigned
+ * undeclared variables) are moved into the engine scope bindings, so that
+ * they are not seen by evaluations with other bindings. Compiled scripts
+ * keep the parsed program, so that they can be evaluated again with any
+ * bindings without being parsed again.
+ * <P>
+ * All entry points of the engine and of its global bindings are serialized
+ * by a lock of the engine (see {@link YajiScriptEngineFactory#THREADING}),
+ * a {@link ReentrantLock} rather than a monitor so that a virtual thread
+ * blocked in a host call of the script does not pin its carrier thread. An
+ * evaluator given to the engine must not be used by other threads.
+ */
+public class YajiScriptEngine extends AbstractScriptEngine implements Compilable, Invocable {
+
+    private final YajiScriptEngineFactory factory;
+    private final Evaluator evaluator;
+    private final GlobalObjectBindings globalBindings;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // The context of the evaluation in progress, used by write and writeln
+    private ScriptContext currentContext;
+
+    public YajiScriptEngine() {
+        this(new YajiScriptEngineFactory());
+    }
+
+    YajiScriptEngine(YajiScriptEngineFactory factory) {
+        this(factory, new Evaluator());
+    }
+
+    /**
+     * Create an engine over an existing evaluator, for example one with
+     * extensions already loaded.
+     */
+    public YajiScriptEngine(YajiScriptEngineFactory factory, Evaluator evaluator) {
+        this.factory = factory;
+        this.evaluator = evaluator;
+        this.globalBindings = new GlobalObjectBindings(evaluator, lock);
+        SimpleScriptContext defaultContext = new SimpleScriptContext();
+        defaultContext.setBindings(globalBindings, ScriptContext.ENGINE_SCOPE);
+        setContext(defaultContext);
+        currentContext = defaultContext;
+        try {
+            installOutputFunctions();
+        } catch (EcmaScriptException e) {
+            throw new IllegalStateException("Cannot initialize script engine", e);
+        }
+    }
+
+    public Evaluator getEvaluator() {
+        return evaluator;
+    }
+
+    public ScriptEngineFactory getFactory() {
+        return factory;
+    }
+
+    public Bindings createBindings() {
+        return new SimpleBindings();
+    }
+
+    public Object eval(String script, ScriptContext context) throws ScriptException {
+        return eval(new StringReader(script.endsWith("\n") ? script : script + "\n"), context);
+    }
+
+    public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+        return evaluate(parse(reader, context), context);
+    }
+
+    public CompiledScript compile(String script) throws ScriptException {
+        return compile(new StringReader(script.endsWith("\n") ? script : script + "\n"));
+    }
+
+    public CompiledScript compile(Reader script) throws ScriptException {
+        return new YajiCompiledScript(this, parse(script, context));
+    }
+
+    private ParsedProgram parse(Reader reader, ScriptContext context) throws ScriptException {
+        EvaluationSource es = new UserEvaluationSource(getFileName(context), null);
+        lock.lock();
+        try {
+            return evaluator.parseProgram(reader, es);
+        } catch (EcmaScriptException e) {
+            throw toScriptException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String getFileName(ScriptContext context) {
+        Object fileName = context.getAttribute(ScriptEngine.FILENAME);
+        return fileName == null ? "<JSR-223 script>" : fileName.toString();
+    }
+
+    Object evaluate(ParsedProgram program, ScriptContext context) throws ScriptException {
+        lock.lock();
+        try {
+            ScriptContext savedContext = currentContext;
+            currentContext = context;
+            BoundGlobals bound = bind(context);
+            try {
+                ESValue value = evaluator.evaluate(program, null, false);
+                return value == null ? null : value.toJavaObject();
+            } catch (EcmaScriptException e) {
+                throw toScriptException(e);
+            } finally {
+                unbind(context, bound);
+                currentContext = savedContext;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The state of the global object replaced by {@link #bind(ScriptContext)}
+     */
+    private static class BoundGlobals {
+        // The global values replaced, null for variables which did not exist
+        final Map<String, ESValue> saved = new HashMap<String, ESValue>();
+        // The global names before the evaluation, null when evaluating with
+        // the global object as engine scope
+        Set<String> initialNames = null;
+    }
+
+    /**
+     * Install the bindings of the context which are not the global object
+     * itself as global variables. Engine scope bindings hide global scope
+     * bindings of the same name.
+     *
+     * @return the global values replaced and, for other engine scope
+     *         bindings than the global object, the global names
+     */
+    private BoundGlobals bind(ScriptContext context) throws ScriptException {
+        BoundGlobals bound = new BoundGlobals();
+        Map<String, ESValue> saved = bound.saved;
+        try {
+            Bindings engineBindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+            Bindings globalScopeBindings = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+            if (globalScopeBindings != null && globalScopeBindings != globalBindings) {
+                for (Map.Entry<String, Object> entry : globalScopeBindings.entrySet()) {
+                    if (engineBindings == null || !engineBindings.containsKey(entry.getKey())) {
+                        bindGlobal(entry.getKey(), entry.getValue(), saved);
+                    }
+                }
+            }
+            if (engineBindings != null && engineBindings != globalBindings) {
+                bound.initialNames = new HashSet<String>();
+                GlobalObject go = evaluator.getGlobalObject();
+                for (Enumeration<String> names = go.getOwnPropertyNames(); names.hasMoreElements();) {
+                    bound.initialNames.add(names.nextElement());
+                }
+                for (Map.Entry<String, Object> entry : engineBindings.entrySet()) {
+                    bindGlobal(entry.getKey(), entry.getValue(), saved);
+                }
+            }
+        } catch (EcmaScriptException e) {
+            unbind(null, bound);
+            throw toScriptException(e);
+        }
+        return bound;
+    }
+
+    private void bindGlobal(String name, Object value, Map<String, ESValue> saved) throws EcmaScriptException {
+        GlobalObject go = evaluator.getGlobalObject();
+        int hash = name.hashCode();
+        if (!saved.containsKey(name)) {
+            saved.put(name, go.getPropertyIfAvailable(name, hash));
+        }
+        go.putProperty(name, toESValue(value, evaluator), hash);
+    }
+
+    /**
+     * Copy the final value of the bound variables back into the engine scope
+     * bindings of the context, move the global variables created since
+     * {@link #bind(ScriptContext)} into them, and restore the global object.
+     */
+    private void unbind(ScriptContext context, BoundGlobals bound) {
+        GlobalObject go = evaluator.getGlobalObject();
+        Bindings engineBindings = context == null ? null : context.getBindings(ScriptContext.ENGINE_SCOPE);
+        if (bound.initialNames != null) {
+            List<String> created = new ArrayList<String>();
+            for (Enumeration<String> names = go.getOwnPropertyNames(); names.hasMoreElements();) {
+                String name = names.nextElement();
+                if (!bound.initialNames.contains(name) && !bound.saved.containsKey(name)) {
+                    created.add(name);
+                }
+            }
+            for (String name : created) {
+                int hash = name.hashCode();
+                try {
+                    if (engineBindings != null) {
+                        ESValue value = go.getPropertyIfAvailable(name, hash);
+                        engineBindings.put(name, value == null ? null : value.toJavaObject());
+                    }
+                    go.removeOwnProperty(name, hash);
+                } catch (EcmaScriptException ignore) {
+                    // Leave the global as it is
+                }
+            }
+        }
+        for (Map.Entry<String, ESValue> entry : bound.saved.entrySet()) {
+            String name = entry.getKey();
+            int hash = name.hashCode();
+            try {
+                if (engineBindings != null && engineBindings != globalBindings && engineBindings.containsKey(name)) {
+                    ESValue value = go.getPropertyIfAvailable(name, hash);
+                    engineBindings.put(name, value == null ? null : value.toJavaObject());
+                }
+                if (entry.getValue() == null) {
+                    go.removeOwnProperty(name, hash);
+                } else {
+                    go.putProperty(name, entry.getValue(), hash);
+                }
+            } catch (EcmaScriptException ignore) {
+                // Leave the global as it is
+            }
+        }
+    }
+
+    public Object invokeFunction(String name, Object... args) throws ScriptException, NoSuchMethodException {
+        lock.lock();
+        try {
+            return invoke(evaluator.getGlobalObject(), name, args);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Object invokeMethod(Object thiz, String name, Object... args) throws ScriptException, NoSuchMethodException {
+        if (thiz == null) {
+            throw new IllegalArgumentException("target object can not be null");
+        }
+        lock.lock();
+        try {
+            ESValue target;
+            try {
+                target = toESValue(thiz, evaluator);
+            } catch (EcmaScriptException e) {
+                throw toScriptException(e);
+            }
+            if (!(target instanceof ESObject)) {
+                throw new IllegalArgumentException("target object is not a script object");
+            }
+            return invoke((ESObject) target, name, args);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Object invoke(ESObject thisObject, String name, Object[] args) throws ScriptException, NoSuchMethodException {
+        try {
+            ESValue function = thisObject.getPropertyIfAvailable(name, name.hashCode());
+            if (function == null || !function.isCallable()) {
+                throw new NoSuchMethodException(name);
+            }
+            int length = args == null ? 0 : args.length;
+            ESValue[] esArgs = new ESValue[length];
+            for (int i = 0; i < length; i++) {
+                esArgs[i] = toESValue(args[i], evaluator);
+            }
+            return function.callFunction(thisObject, esArgs).toJavaObject();
+        } catch (EcmaScriptException e) {
+            throw toScriptException(e);
+        }
+    }
+
+    public <T> T getInterface(Class<T> clasz) {
+        return getInterface(null, clasz);
+    }
+
+    public <T> T getInterface(final Object thiz, Class<T> clasz) {
+        if (clasz == null || !clasz.isInterface()) {
+            throw new IllegalArgumentException("interface Class expected");
+        }
+        lock.lock();
+        try {
+            ESObject target = evaluator.getGlobalObject();
+            if (thiz != null) {
+                try {
+                    ESValue value = toESValue(thiz, evaluator);
+                    if (!(value instanceof ESObject)) {
+                        throw new IllegalArgumentException("target object is not a script object");
+                    }
+                    target = (ESObject) value;
+                } catch (EcmaScriptException e) {
+                    throw new IllegalArgumentException(e.getMessage(), e);
+                }
+            }
+            for (Method method : clasz.getMethods()) {
+                try {
+                    ESValue function = target.getPropertyIfAvailable(method.getName(), method.getName().hashCode());
+                    if (function == null || !function.isCallable()) {
+                        return null;
+                    }
+                } catch (EcmaScriptException e) {
+                    return null;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        InvocationHandler handler = new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (thiz == null) {
+                    return invokeFunction(method.getName(), args);
+                }
+                return invokeMethod(thiz, method.getName(), args);
+            }
+        };
+        return clasz.cast(Proxy.newProxyInstance(clasz.getClassLoader(), new Class<?>[] { clasz }, handler));
+    }
+
+    static ESValue toESValue(Object value, Evaluator evaluator) throws EcmaScriptException {
+        if (value instanceof ESValue) {
+            return (ESValue) value;
+        }
+        return ESLoader.normalizeValue(value, evaluator);
+    }
+
+    static ScriptException toScriptException(EcmaScriptException e) {
+        ScriptException se = new ScriptException(e.getMessage(), null, e.getLineNumber());
+        se.initCause(e);
+        return se;
+    }
+
+    private void installOutputFunctions() throws EcmaScriptException {
+        GlobalObject go = evaluator.getGlobalObject();
+        FunctionPrototype fp = (FunctionPrototype) evaluator.getFunctionPrototype();
+        go.putHiddenProperty("write", new ContextWrite("write", fp, false));
+        go.putHiddenProperty("writeln", new ContextWrite("writeln", fp, true));
+    }
+
+    /**
+     * write and writeln output to the writer of the context of the evaluation
+     * in progress.
+     */
+    private class ContextWrite extends BuiltinFunctionObject {
+        private static final long serialVersionUID = 4319066233622484562L;
+        private final boolean newLine;
+
+        ContextWrite(String name, FunctionPrototype fp, boolean newLine) throws EcmaScriptException {
+            super(fp, evaluator, name, 1);
+            this.newLine = newLine;
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments) throws EcmaScriptException {
+            Writer writer = currentContext.getWriter();
+            try {
+                for (int i = 0; i < arguments.length; i++) {
+                    writer.write(arguments[i].toString());
+                }
+                if (newLine) {
+                    writer.write(System.getProperty("line.separator", "\n"));
+                }
+                writer.flush();
+            } catch (IOException e) {
+                throw new EcmaScriptException("IO error writing to script context: " + e.getMessage(), e);
+            }
+            return ESUndefined.theUndefined;
+        }
+    }
+}
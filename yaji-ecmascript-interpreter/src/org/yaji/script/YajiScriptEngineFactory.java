@@ -0,0 +1,113 @@
+package org.yaji.script;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+import FESI.Interpreter.Evaluator;
+
+/**
+ * JSR-223 factory for the YAJI interpreter. Registered through
+ * META-INF/services so that a ScriptEngineManager can find it by name,
+ * extension or mime type.
+ */
+public class YajiScriptEngineFactory implements ScriptEngineFactory {
+
+    private static final List<String> NAMES = Collections.unmodifiableList(Arrays.asList("yaji", "fesi", "ecmascript", "EcmaScript"));
+    private static final List<String> EXTENSIONS = Collections.unmodifiableList(Arrays.asList("js", "es", "esw"));
+    private static final List<String> MIME_TYPES = Collections.unmodifiableList(Arrays.asList("application/ecmascript", "text/ecmascript"));
+
+    /**
+     * Every entry point of the engine synchronizes on its evaluator, so an
+     * engine may be shared between threads, and script side effects are
+     * visible to all of them.
+     */
+    static final String THREADING = "MULTITHREADED";
+
+    public String getEngineName() {
+        return "YAJI";
+    }
+
+    public String getEngineVersion() {
+        return Evaluator.getVersion();
+    }
+
+    public List<String> getExtensions() {
+        return EXTENSIONS;
+    }
+
+    public List<String> getMimeTypes() {
+        return MIME_TYPES;
+    }
+
+    public List<String> getNames() {
+        return NAMES;
+    }
+
+    public String getLanguageName() {
+        return "ECMAScript";
+    }
+
+    public String getLanguageVersion() {
+        return "5.1";
+    }
+
+    public Object getParameter(String key) {
+        if (ScriptEngine.ENGINE.equals(key)) {
+            return getEngineName();
+        } else if (ScriptEngine.ENGINE_VERSION.equals(key)) {
+            return getEngineVersion();
+        } else if (ScriptEngine.NAME.equals(key)) {
+            return NAMES.get(0);
+        } else if (ScriptEngine.LANGUAGE.equals(key)) {
+            return getLanguageName();
+        } else if (ScriptEngine.LANGUAGE_VERSION.equals(key)) {
+            return getLanguageVersion();
+        } else if ("THREADING".equals(key)) {
+            return THREADING;
+        }
+        return null;
+    }
+
+    public String getMethodCallSyntax(String obj, String m, String... args) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(obj).append('.').append(m).append('(');
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(args[i]);
+        }
+        sb.append(')');
+        return sb.toString();
+    }
+
+    public String getOutputStatement(String toDisplay) {
+        StringBuilder sb = new StringBuilder("writeln(\"");
+        for (int i = 0; i < toDisplay.length(); i++) {
+            char c = toDisplay.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        sb.append("\")");
+        return sb.toString();
+    }
+
+    public String getProgram(String... statements) {
+        StringBuilder sb = new StringBuilder();
+        for (String statement : statements) {
+            sb.append(statement).append(";\n");
+        }
+        return sb.toString();
+    }
+
+    public ScriptEngine getScriptEngine() {
+        return new YajiScriptEngine(this);
+    }
+
+}
@@ -1,6 +1,7 @@
 package org.yaji.util;
 
 import java.util.HashMap;
+import java.util.Map;
 
 
 public class UInt32BitSet {
@@ -61,6 +62,20 @@ public class UInt32BitSet {
         
     }
     private HashMapBits64 hashMapBits = new HashMapBits64(); 
+
+    /**
+     * @return a set of the same bits, independent of this one
+     */
+    public UInt32BitSet copy() {
+        UInt32BitSet copy = new UInt32BitSet();
+        for (Map.Entry<Integer, Bits64> entry : hashMapBits.entrySet()) {
+            Bits64 bits = new Bits64();
+            bits.l = entry.getValue().l;
+            copy.hashMapBits.put(entry.getKey(), bits);
+        }
+        return copy;
+    }
+
     
     public void set(long start, long end) {
         if (end<start) {
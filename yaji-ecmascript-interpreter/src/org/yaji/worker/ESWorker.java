@@ -0,0 +1,288 @@
+package org.yaji.worker;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.yaji.binding.HostFunction;
+import org.yaji.binding.HostFunctions;
+import org.yaji.event.EventLoop;
+import org.yaji.log.ILog;
+import org.yaji.log.Logs;
+
+import FESI.Data.ESObject;
+import FESI.Data.ESString;
+import FESI.Data.ESUndefined;
+import FESI.Data.ESValue;
+import FESI.Data.ObjectObject;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+import FESI.Interpreter.FileEvaluationSource;
+import FESI.Interpreter.ParsedProgram;
+
+/**
+ * A worker: a script running in its own evaluator and thread, exchanging
+ * messages with the evaluator which started it. This object is the handle
+ * of the worker in the starting evaluator.
+ * <P>
+ * Messages are copied with {@link StructuredClone} and delivered by the
+ * event loops of the receiving evaluators, to the <code>onmessage</code>
+ * function of the handle on one side and of the global object of the worker
+ * on the other, as an event object whose <code>data</code> property is the
+ * message. A running worker keeps the event loop of its parent alive.
+ * <P>
+ * The worker ends when it calls <code>close()</code>, when its parent calls
+ * <code>terminate()</code> or when a callback throws an exception, reported
+ * to the <code>onerror</code> function of the handle. Termination takes
+ * effect between two callbacks, a running script is not interrupted. The
+ * worker is also terminated when the event loop of its parent is
+ * cancelled, as when the parent evaluator is restored to its clean state.
+ */
+public class ESWorker extends ESObject {
+    private static final long serialVersionUID = 8064426208463637493L;
+
+    private static final ILog log = Logs.getLog(ESWorker.class);
+
+    private static int workerCount = 0;
+
+    private final transient EventLoop parentLoop;
+    private final transient int parentGeneration;
+    private final transient WorkerThread thread;
+    private final transient EventLoop.CancelListener cancelListener = new EventLoop.CancelListener() {
+        public void cancelled() {
+            terminate();
+        }
+    };
+    private boolean running = true;
+
+    ESWorker(ESObject prototype, Evaluator parent, String name, ParsedProgram program, List<String> extensions,
+            Map<String, ParsedProgram> modules) {
+        super(prototype, parent);
+        parentLoop = parent.getEventLoop();
+        parentGeneration = parentLoop.getGeneration();
+        thread = new WorkerThread(name, program, extensions, modules);
+        parentLoop.hold();
+        parentLoop.addCancelListener(cancelListener);
+        thread.start();
+    }
+
+    @Override
+    public String getESClassName() {
+        return "Worker";
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    Thread getThread() {
+        return thread;
+    }
+
+    /**
+     * Send a message to the worker
+     *
+     * @param message
+     *            the message, copied
+     * @param transfer
+     *            the objects to transfer, or undefined
+     * @throws EcmaScriptException
+     *             if the message cannot be cloned
+     */
+    public void postMessage(ESValue message, ESValue transfer) throws EcmaScriptException {
+        final StructuredClone clone = StructuredClone.of(message, transfer);
+        thread.send(new EventLoop.Job() {
+            public void run() throws EcmaScriptException {
+                Evaluator evaluator = thread.evaluator;
+                dispatch(evaluator, evaluator.getGlobalObject(), "onmessage", messageEvent(evaluator, clone));
+            }
+        });
+    }
+
+    /**
+     * Stop the worker after its current callback
+     */
+    public void terminate() {
+        thread.send(new EventLoop.Job() {
+            public void run() {
+                thread.evaluator.getEventLoop().cancelAll();
+            }
+        });
+        thread.close();
+    }
+
+    static ESObject messageEvent(Evaluator evaluator, StructuredClone clone) throws EcmaScriptException {
+        ESObject event = ObjectObject.createObject(evaluator);
+        event.putProperty("data", clone.materialize(evaluator), "data".hashCode());
+        return event;
+    }
+
+    /**
+     * Call a handler if it is a function
+     *
+     * @return false if there is no handler
+     */
+    static boolean dispatch(Evaluator evaluator, ESObject target, String handlerName, ESValue event)
+            throws EcmaScriptException {
+        ESValue handler = target.getProperty(handlerName, handlerName.hashCode());
+        if (!handler.isCallable()) {
+            return false;
+        }
+        handler.callFunction(target, new ESValue[] { event });
+        return true;
+    }
+
+    /**
+     * Post a job to the parent, ignored if the parent loop was cancelled
+     * since the worker started
+     */
+    private void postToParent(final EventLoop.Job job) {
+        parentLoop.post(new EventLoop.Job() {
+            public void run() throws EcmaScriptException {
+                if (parentLoop.getGeneration() == parentGeneration) {
+                    job.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * The global functions of the worker
+     */
+    public class Scope {
+
+        @HostFunction(length = 1)
+        public void postMessage(ESValue[] arguments) throws EcmaScriptException {
+            ESValue message = arguments.length > 0 ? arguments[0] : ESUndefined.theUndefined;
+            ESValue transfer = arguments.length > 1 ? arguments[1] : ESUndefined.theUndefined;
+            final StructuredClone clone = StructuredClone.of(message, transfer);
+            postToParent(new EventLoop.Job() {
+                public void run() throws EcmaScriptException {
+                    Evaluator evaluator = getEvaluator();
+                    dispatch(evaluator, ESWorker.this, "onmessage", messageEvent(evaluator, clone));
+                }
+            });
+        }
+
+        @HostFunction
+        public void close() {
+            thread.evaluator.getEventLoop().cancelAll();
+            thread.close();
+        }
+    }
+
+    /**
+     * The thread running the worker evaluator
+     */
+    class WorkerThread extends Thread {
+        private final String scriptName;
+        private final ParsedProgram program;
+        private final List<String> extensions;
+        private final Map<String, ParsedProgram> modules;
+        // Messages sent before the event loop is created
+        private List<EventLoop.Job> pending = new ArrayList<EventLoop.Job>();
+        private EventLoop eventLoop = null;
+        private boolean closed = false;
+        Evaluator evaluator;
+
+        WorkerThread(String scriptName, ParsedProgram program, List<String> extensions,
+                Map<String, ParsedProgram> modules) {
+            super(nextThreadName());
+            this.scriptName = scriptName;
+            this.program = program;
+            this.extensions = extensions;
+            this.modules = modules;
+            setDaemon(true);
+        }
+
+        synchronized void send(EventLoop.Job job) {
+            if (closed) {
+                return;
+            }
+            if (eventLoop == null) {
+                pending.add(job);
+            } else {
+                eventLoop.post(job);
+            }
+        }
+
+        synchronized void close() {
+            closed = true;
+        }
+
+        private synchronized boolean attach(EventLoop loop) {
+            eventLoop = loop;
+            for (EventLoop.Job job : pending) {
+                loop.post(job);
+            }
+            pending = null;
+            return !closed;
+        }
+
+        @Override
+        public void run() {
+            try {
+                evaluator = new Evaluator();
+                for (String extension : extensions) {
+                    evaluator.addMandatoryExtension(extension);
+                }
+                WorkerExtension workerExtension = (WorkerExtension) evaluator.getExtension(WorkerExtension.class
+                        .getName());
+                if (workerExtension != null) {
+                    workerExtension.getModules().putAll(modules);
+                }
+                HostFunctions.bind(evaluator.getGlobalObject(), new Scope());
+                EventLoop loop = evaluator.getEventLoop();
+                loop.hold();
+                if (attach(loop)) {
+                    evaluator.evaluate(program == null ? parse(scriptName) : program, null, false);
+                    loop.runUntilIdle();
+                }
+            } catch (EcmaScriptException e) {
+                reportError(e.getMessage());
+            } catch (IOException e) {
+                reportError("Cannot read worker script " + scriptName + ": " + e.getMessage());
+            } catch (RuntimeException e) {
+                log.asError("Worker " + scriptName + " failed", e);
+                reportError(e.toString());
+            } finally {
+                close();
+                postToParent(new EventLoop.Job() {
+                    public void run() {
+                        running = false;
+                        parentLoop.release();
+                        parentLoop.removeCancelListener(cancelListener);
+                    }
+                });
+            }
+        }
+
+        private ParsedProgram parse(String fileName) throws IOException, EcmaScriptException {
+            Reader reader = new FileReader(fileName);
+            try {
+                return Evaluator.parseSharedProgram(reader, new FileEvaluationSource(fileName, null));
+            } finally {
+                reader.close();
+            }
+        }
+
+        private void reportError(final String message) {
+            postToParent(new EventLoop.Job() {
+                public void run() throws EcmaScriptException {
+                    Evaluator evaluator = getEvaluator();
+                    ESValue error = evaluator.newError("Error", new ESString(message));
+                    if (!dispatch(evaluator, ESWorker.this, "onerror", error)) {
+                        throw new EcmaScriptException("Uncaught error in worker " + scriptName + ": " + message);
+                    }
+                }
+            });
+        }
+    }
+
+    private static synchronized String nextThreadName() {
+        return "yaji-worker-" + (++workerCount);
+    }
+}
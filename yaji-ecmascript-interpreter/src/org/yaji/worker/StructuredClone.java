@@ -0,0 +1,424 @@
+package org.yaji.worker;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.yaji.buffer.Buffers;
+import org.yaji.buffer.ESArrayBuffer;
+import org.yaji.buffer.ESDataView;
+import org.yaji.buffer.ESTypedArray;
+import org.yaji.buffer.ElementType;
+import org.yaji.util.ArrayUtil;
+
+import FESI.Data.ArrayPrototype;
+import FESI.Data.ErrorPrototype;
+import FESI.Data.ESNumber;
+import FESI.Data.ESObject;
+import FESI.Data.ESString;
+import FESI.Data.ESValue;
+import FESI.Data.ObjectObject;
+import FESI.Data.StandardProperty;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Exceptions.TypeError;
+import FESI.Interpreter.Evaluator;
+
+/**
+ * A deep copy of a graph of script values, detached from any evaluator, to
+ * pass values between evaluators running on different threads.
+ * <P>
+ * The copy is taken in the sending evaluator by {@link #of(ESValue, ESValue)}
+ * and turned into new objects of the receiving evaluator by
+ * {@link #materialize(Evaluator)}, each in the thread of its evaluator.
+ * Plain objects, arrays, dates, errors, array buffers and their views, and
+ * primitive values are supported, shared references and cycles are
+ * preserved. Functions and host objects cannot be cloned.
+ * <P>
+ * The arrays of primitive values and the {@link Transferable} objects listed
+ * in the transfer list are moved rather than copied: the receiver gets their
+ * content and they are left empty.
+ */
+public final class StructuredClone {
+
+    private static final String DATA_CLONE_ERROR = "DataCloneError: ";
+
+    /**
+     * A copied object or array
+     */
+    static final class ObjectNode {
+        final boolean array;
+        final long length;
+        final List<String> names = new ArrayList<String>();
+        final List<Object> values = new ArrayList<Object>();
+
+        ObjectNode(boolean array, long length) {
+            this.array = array;
+            this.length = length;
+        }
+    }
+
+    static final class DateNode {
+        final double time;
+
+        DateNode(double time) {
+            this.time = time;
+        }
+    }
+
+    static final class ErrorNode {
+        final String name;
+        final String message;
+
+        ErrorNode(String name, String message) {
+            this.name = name;
+            this.message = message;
+        }
+    }
+
+    static final class BufferNode {
+        final byte[] bytes;
+
+        BufferNode(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * A typed array, or a data view if the type is null
+     */
+    static final class ViewNode {
+        final ElementType type;
+        final Object buffer;
+        final int byteOffset;
+        final int length;
+
+        ViewNode(ElementType type, Object buffer, int byteOffset, int length) {
+            this.type = type;
+            this.buffer = buffer;
+            this.byteOffset = byteOffset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A transferred object, its content is detached once the whole graph is
+     * copied
+     */
+    static final class TransferNode {
+        final ESObject source;
+        ArrayList<ESValue> elements;
+        Transferable.Content content;
+
+        TransferNode(ESObject source) {
+            this.source = source;
+        }
+    }
+
+    // A primitive ESValue or a node
+    private final Object root;
+
+    private StructuredClone(Object root) {
+        this.root = root;
+    }
+
+    /**
+     * Copy a value
+     *
+     * @param value
+     *            the value
+     * @param transfer
+     *            an array of the objects to transfer, or undefined
+     * @return the copy
+     * @throws EcmaScriptException
+     *             if the value contains an object which cannot be cloned, or
+     *             the transfer list an object which cannot be transferred
+     */
+    public static StructuredClone of(ESValue value, ESValue transfer) throws EcmaScriptException {
+        Map<ESObject, Object> copies = new IdentityHashMap<ESObject, Object>();
+        List<TransferNode> transferNodes = new ArrayList<TransferNode>();
+        if (transfer instanceof ESObject) {
+            ESObject transferList = (ESObject) transfer;
+            long length = ArrayUtil.getArrayLength(transferList);
+            for (long i = 0; i < length; i++) {
+                ESValue item = transferList.getProperty(i);
+                if (!(item instanceof ESObject)) {
+                    throw new TypeError(DATA_CLONE_ERROR + "Only objects can be transferred");
+                }
+                ESObject object = (ESObject) item;
+                if (!copies.containsKey(object)) {
+                    checkTransferable(object);
+                    TransferNode node = new TransferNode(object);
+                    copies.put(object, node);
+                    transferNodes.add(node);
+                }
+            }
+        }
+        Object root = copy(value, copies);
+        // Nothing is detached unless the whole graph could be copied
+        for (TransferNode node : transferNodes) {
+            if (node.source instanceof Transferable) {
+                node.content = ((Transferable) node.source).detach();
+            } else {
+                node.elements = detachElements(node.source);
+            }
+        }
+        return new StructuredClone(root);
+    }
+
+    private static Object copy(ESValue value, Map<ESObject, Object> copies) throws EcmaScriptException {
+        if (!(value instanceof ESObject)) {
+            return copyPrimitive(value);
+        }
+        ESObject object = (ESObject) value;
+        Object copy = copies.get(object);
+        if (copy != null) {
+            return copy;
+        }
+        if (object.isCallable()) {
+            throw new TypeError(DATA_CLONE_ERROR + "A function cannot be cloned");
+        }
+        String className = object.getESClassName();
+        if (object instanceof ESArrayBuffer) {
+            BufferNode node = new BufferNode(copyBytes((ESArrayBuffer) object));
+            copies.put(object, node);
+            return node;
+        } else if (object instanceof ESTypedArray) {
+            ESTypedArray array = (ESTypedArray) object;
+            ViewNode node = new ViewNode(array.getType(), copy(array.getBuffer(), copies), array.getByteOffset(),
+                    array.getLength());
+            copies.put(object, node);
+            return node;
+        } else if (object instanceof ESDataView) {
+            ESDataView view = (ESDataView) object;
+            ViewNode node = new ViewNode(null, copy(view.getBuffer(), copies), view.getByteOffset(),
+                    view.getByteLength());
+            copies.put(object, node);
+            return node;
+        } else if (object.isArray()) {
+            ObjectNode node = new ObjectNode(true, ArrayUtil.getArrayLength(object));
+            copies.put(object, node);
+            if (object instanceof ArrayPrototype) {
+                // The elements are not in the property map
+                for (long i = 0; i < node.length; i++) {
+                    ESValue element = object.getPropertyIfAvailable(i);
+                    if (element != null) {
+                        node.names.add(Long.toString(i));
+                        node.values.add(copy(element, copies));
+                    }
+                }
+            } else {
+                copyProperties(object, node, copies);
+            }
+            return node;
+        } else if (isError(object)) {
+            ErrorNode node = new ErrorNode(object.getProperty("name", "name".hashCode()).toString(),
+                    object.getProperty("message", "message".hashCode()).toString());
+            copies.put(object, node);
+            return node;
+        } else if ("Object".equals(className)) {
+            ObjectNode node = new ObjectNode(false, 0);
+            copies.put(object, node);
+            copyProperties(object, node, copies);
+            return node;
+        } else if ("Date".equals(className)) {
+            DateNode node = new DateNode(object.doubleValue());
+            copies.put(object, node);
+            return node;
+        }
+        throw new TypeError(DATA_CLONE_ERROR + className + " object cannot be cloned");
+    }
+
+    private static boolean isError(ESObject object) {
+        if ("Error".equals(object.getESClassName())) {
+            return true;
+        }
+        // Native errors are plain objects inheriting from an error prototype
+        for (ESObject prototype = object.getPrototype(); prototype != null; prototype = prototype.getPrototype()) {
+            if (prototype instanceof ErrorPrototype) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] copyBytes(ESArrayBuffer buffer) throws EcmaScriptException {
+        ByteBuffer bytes = buffer.getBytes(false);
+        if (bytes == null) {
+            throw new TypeError(DATA_CLONE_ERROR + "A detached ArrayBuffer cannot be cloned");
+        }
+        byte[] copy = new byte[bytes.capacity()];
+        ByteBuffer source = bytes.duplicate();
+        source.clear();
+        source.get(copy);
+        return copy;
+    }
+
+    private static void copyProperties(ESObject object, ObjectNode node, Map<ESObject, Object> copies)
+            throws EcmaScriptException {
+        for (Enumeration<String> keys = object.keys(); keys.hasMoreElements();) {
+            String name = keys.nextElement();
+            node.names.add(name);
+            node.values.add(copy(object.getProperty(name, name.hashCode()), copies));
+        }
+    }
+
+    private static ESValue copyPrimitive(ESValue value) {
+        if (value.isStringValue() && !(value instanceof ESString)) {
+            // Appendable strings are mutable
+            return new ESString(value.toString());
+        }
+        return value;
+    }
+
+    private static void checkTransferable(ESObject object) throws EcmaScriptException {
+        if (object instanceof Transferable) {
+            ((Transferable) object).checkTransferable();
+            return;
+        }
+        if (!object.isArray()) {
+            throw new TypeError(DATA_CLONE_ERROR + object.getESClassName() + " object cannot be transferred");
+        }
+        long length = ArrayUtil.getArrayLength(object);
+        for (long i = 0; i < length; i++) {
+            ESValue element = object.getPropertyIfAvailable(i);
+            if (element instanceof ESObject) {
+                throw new TypeError(DATA_CLONE_ERROR + "Only arrays of primitive values can be transferred");
+            }
+        }
+    }
+
+    private static ArrayList<ESValue> detachElements(ESObject array) throws EcmaScriptException {
+        ArrayList<ESValue> elements;
+        if (array instanceof ArrayPrototype) {
+            elements = ((ArrayPrototype) array).detachElements();
+        } else {
+            int length = (int) ArrayUtil.getArrayLength(array);
+            elements = new ArrayList<ESValue>(length);
+            for (int i = 0; i < length; i++) {
+                elements.add(array.getPropertyIfAvailable((long) i));
+            }
+            array.putProperty(StandardProperty.LENGTHstring, ESNumber.valueOf(0), StandardProperty.LENGTHhash);
+        }
+        for (int i = 0; i < elements.size(); i++) {
+            ESValue element = elements.get(i);
+            if (element != null) {
+                elements.set(i, copyPrimitive(element));
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Create the copied values in an evaluator. This can be done only once if
+     * objects were transferred.
+     *
+     * @param evaluator
+     *            the receiving evaluator
+     * @return the copy of the value
+     * @throws EcmaScriptException
+     */
+    public ESValue materialize(Evaluator evaluator) throws EcmaScriptException {
+        return materialize(root, evaluator, new IdentityHashMap<Object, ESObject>());
+    }
+
+    private ESValue materialize(Object copy, Evaluator evaluator, Map<Object, ESObject> objects)
+            throws EcmaScriptException {
+        if (copy instanceof ESValue) {
+            return (ESValue) copy;
+        }
+        ESObject object = objects.get(copy);
+        if (object != null) {
+            return object;
+        }
+        if (copy instanceof ObjectNode) {
+            ObjectNode node = (ObjectNode) copy;
+            object = node.array ? evaluator.createArray() : ObjectObject.createObject(evaluator);
+            objects.put(copy, object);
+            for (int i = 0; i < node.names.size(); i++) {
+                String name = node.names.get(i);
+                ESValue value = materialize(node.values.get(i), evaluator, objects);
+                long index = node.array ? toIndex(name) : -1;
+                if (index >= 0) {
+                    object.putProperty(index, value);
+                } else {
+                    object.putProperty(name, value, name.hashCode());
+                }
+            }
+            if (node.array) {
+                object.putProperty(StandardProperty.LENGTHstring, ESNumber.valueOf(node.length),
+                        StandardProperty.LENGTHhash);
+            }
+        } else if (copy instanceof DateNode) {
+            ESValue dateConstructor = evaluator.getGlobalObject().getProperty("Date", "Date".hashCode());
+            object = dateConstructor.doConstruct(new ESValue[] { ESNumber.valueOf(((DateNode) copy).time) });
+            objects.put(copy, object);
+        } else if (copy instanceof ErrorNode) {
+            ErrorNode node = (ErrorNode) copy;
+            ESValue error = evaluator.newError(node.name, new ESString(node.message));
+            if (!(error instanceof ESObject)) {
+                error = evaluator.newError("Error", new ESString(node.message));
+            }
+            object = (ESObject) error;
+            objects.put(copy, object);
+        } else if (copy instanceof BufferNode) {
+            object = Buffers.of(evaluator).createArrayBuffer(ByteBuffer.wrap(((BufferNode) copy).bytes));
+            objects.put(copy, object);
+        } else if (copy instanceof ViewNode) {
+            ViewNode node = (ViewNode) copy;
+            ESArrayBuffer buffer = (ESArrayBuffer) materialize(node.buffer, evaluator, objects);
+            if (node.type == null) {
+                object = Buffers.of(evaluator).createDataView(buffer, node.byteOffset, node.length);
+            } else {
+                object = Buffers.of(evaluator).createTypedArray(node.type, buffer, node.byteOffset, node.length);
+            }
+            objects.put(copy, object);
+        } else {
+            TransferNode node = (TransferNode) copy;
+            if (node.content != null) {
+                object = node.content.attach(evaluator);
+                node.content = null;
+            } else if (node.elements != null) {
+                object = attachElements(node.elements, evaluator);
+                node.elements = null;
+            } else {
+                throw new EcmaScriptException("Transferred object already materialized");
+            }
+            objects.put(copy, object);
+        }
+        return object;
+    }
+
+    private static long toIndex(String name) {
+        if (name.length() == 0 || name.length() > 10) {
+            return -1;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) < '0' || name.charAt(i) > '9') {
+                return -1;
+            }
+        }
+        long index = Long.parseLong(name);
+        return index < 0xFFFFFFFFL ? index : -1;
+    }
+
+    private static ESObject attachElements(ArrayList<ESValue> elements, Evaluator evaluator)
+            throws EcmaScriptException {
+        ESObject array = evaluator.createArray();
+        if (array instanceof ArrayPrototype) {
+            ((ArrayPrototype) array).attachElements(elements);
+        } else {
+            for (int i = 0; i < elements.size(); i++) {
+                ESValue element = elements.get(i);
+                if (element != null) {
+                    array.putProperty((long) i, element);
+                }
+            }
+            array.putProperty(StandardProperty.LENGTHstring, ESNumber.valueOf(elements.size()),
+                    StandardProperty.LENGTHhash);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,37 @@
+package org.yaji.worker;
+
+import FESI.Data.ESObject;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+
+/**
+ * An object whose content can be moved to another evaluator by
+ * {@link StructuredClone} instead of being copied, the object itself being
+ * left empty.
+ */
+public interface Transferable {
+
+    /**
+     * The content detached from a transferable object, owned by no
+     * evaluator until attached
+     */
+    interface Content {
+        ESObject attach(Evaluator evaluator) throws EcmaScriptException;
+    }
+
+    /**
+     * Check that the content can be detached, before anything is detached
+     *
+     * @throws EcmaScriptException
+     *             if it cannot
+     */
+    void checkTransferable() throws EcmaScriptException;
+
+    /**
+     * Detach the content of this object, which is left empty
+     *
+     * @return the content
+     * @throws EcmaScriptException
+     */
+    Content detach() throws EcmaScriptException;
+}
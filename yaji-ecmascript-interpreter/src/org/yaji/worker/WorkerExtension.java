@@ -0,0 +1,152 @@
+package org.yaji.worker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.yaji.binding.HostFunction;
+import org.yaji.binding.HostFunctions;
+import org.yaji.binding.This;
+
+import FESI.Data.BuiltinFunctionObject;
+import FESI.Data.ESObject;
+import FESI.Data.ESUndefined;
+import FESI.Data.ESValue;
+import FESI.Data.FunctionPrototype;
+import FESI.Data.ObjectPrototype;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Exceptions.TypeError;
+import FESI.Extensions.Extension;
+import FESI.Interpreter.Evaluator;
+import FESI.Interpreter.ParsedProgram;
+
+/**
+ * Defines the Worker constructor, starting a script in a new evaluator on
+ * its own thread. <code>new Worker(name)</code> runs the module registered
+ * under that name with {@link #addModule(String, ParsedProgram)}, or else the
+ * script file of that name.
+ * <P>
+ * The worker evaluator loads the same extensions as the evaluator starting
+ * it, and inherits its registered modules. Inside the worker the global
+ * functions <code>postMessage(message, transfer)</code> and
+ * <code>close()</code> are defined.
+ *
+ * @see ESWorker
+ */
+public class WorkerExtension extends Extension {
+    private static final long serialVersionUID = 2998356413468224722L;
+
+    private final Map<String, ParsedProgram> modules = Collections
+            .synchronizedMap(new HashMap<String, ParsedProgram>());
+    private ESObject workerPrototype = null;
+
+    public WorkerExtension() {
+        super();
+    }
+
+    /**
+     * Register a parsed script to be run by <code>new Worker(name)</code>
+     */
+    public void addModule(String name, ParsedProgram program) {
+        modules.put(name, program);
+    }
+
+    Map<String, ParsedProgram> getModules() {
+        return modules;
+    }
+
+    /**
+     * Start a worker from Java
+     *
+     * @param evaluator
+     *            the parent evaluator, which must have loaded this extension
+     * @param name
+     *            the name of the worker script, for error messages
+     * @param program
+     *            the script run by the worker
+     * @return the worker handle
+     * @throws EcmaScriptException
+     */
+    public static ESWorker start(Evaluator evaluator, String name, ParsedProgram program) throws EcmaScriptException {
+        WorkerExtension extension = (WorkerExtension) evaluator.getExtension(WorkerExtension.class.getName());
+        if (extension == null) {
+            throw new EcmaScriptException("Extension " + WorkerExtension.class.getName() + " not loaded");
+        }
+        return extension.createWorker(evaluator, name, program);
+    }
+
+    ESWorker createWorker(Evaluator evaluator, String name, ParsedProgram program) {
+        List<String> extensions = new ArrayList<String>();
+        for (Enumeration<String> names = evaluator.getExtensions(); names.hasMoreElements();) {
+            extensions.add(names.nextElement());
+        }
+        Map<String, ParsedProgram> inheritedModules;
+        synchronized (modules) {
+            inheritedModules = new HashMap<String, ParsedProgram>(modules);
+        }
+        return new ESWorker(workerPrototype, evaluator, name, program, extensions, inheritedModules);
+    }
+
+    class GlobalObjectWorker extends BuiltinFunctionObject {
+        private static final long serialVersionUID = -3961880815283106151L;
+
+        GlobalObjectWorker(String name, Evaluator evaluator, FunctionPrototype fp) throws EcmaScriptException {
+            super(fp, evaluator, name, 1);
+        }
+
+        @Override
+        public ESValue callFunction(ESValue thisObject, ESValue[] arguments) throws EcmaScriptException {
+            return doConstruct(arguments);
+        }
+
+        @Override
+        public ESObject doConstruct(ESValue[] arguments) throws EcmaScriptException {
+            if (arguments.length == 0) {
+                throw new TypeError("Worker requires a module or script name");
+            }
+            String name = arguments[0].toString();
+            // The script file is read by the worker thread
+            return createWorker(getEvaluator(), name, modules.get(name));
+        }
+    }
+
+    /**
+     * The functions of the worker prototype
+     */
+    public static class Methods {
+
+        @HostFunction(length = 1)
+        public void postMessage(@This ESObject thisObject, ESValue[] arguments) throws EcmaScriptException {
+            ESValue message = arguments.length > 0 ? arguments[0] : ESUndefined.theUndefined;
+            ESValue transfer = arguments.length > 1 ? arguments[1] : ESUndefined.theUndefined;
+            toWorker(thisObject).postMessage(message, transfer);
+        }
+
+        @HostFunction
+        public void terminate(@This ESObject thisObject) throws EcmaScriptException {
+            toWorker(thisObject).terminate();
+        }
+
+        private static ESWorker toWorker(ESObject thisObject) throws TypeError {
+            if (!(thisObject instanceof ESWorker)) {
+                throw new TypeError("Worker expected, not " + thisObject.getESClassName());
+            }
+            return (ESWorker) thisObject;
+        }
+    }
+
+    @Override
+    public void initializeExtension(Evaluator evaluator) throws EcmaScriptException {
+        FunctionPrototype fp = (FunctionPrototype) evaluator.getFunctionPrototype();
+        workerPrototype = new ObjectPrototype(evaluator.getObjectPrototype(), evaluator);
+        HostFunctions.bind(workerPrototype, new Methods());
+
+        ESObject worker = new GlobalObjectWorker("Worker", evaluator, fp);
+        worker.putHiddenProperty("prototype", workerPrototype);
+        workerPrototype.putHiddenProperty("constructor", worker);
+        evaluator.getGlobalObject().putHiddenProperty("Worker", worker);
+    }
+}
@@ -0,0 +1,90 @@
+package FESI.Data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.yaji.binding.HostFunction;
+import org.yaji.binding.HostFunctions;
+
+import FESI.Exceptions.TypeError;
+
+public class FunctionInvokerTest extends EvaluatorTestCase {
+
+    public static class Scoring {
+        static int calls;
+
+        @HostFunction
+        public static double weight(double a, double b) {
+            calls++;
+            return a * b;
+        }
+    }
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        evaluator.evaluate("function score(a, b) { return a * 2 + b; }\n"
+                + "function greet(name, excited) { return 'hello ' + name + (excited ? '!' : ''); }\n"
+                + "function count() { return arguments.length; }\n"
+                + "function self() { return this; }\n");
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        super.tearDown();
+    }
+
+    @Test
+    public void invokesWithPrimitiveArguments() throws Exception {
+        FunctionInvoker invoker = evaluator.getInvoker("score");
+        assertEquals(7.0, invoker.invokeDouble(3, 1), 0.0);
+        assertEquals(9.5, invoker.invokeDouble(4, 1.5), 0.0);
+        assertEquals(7L, invoker.invokeLong(3L, 1L));
+    }
+
+    @Test
+    public void accumulatesMixedArguments() throws Exception {
+        FunctionInvoker invoker = evaluator.getInvoker("greet");
+        assertEquals("hello bob!", invoker.arg("bob").arg(true).invokeString());
+        assertEquals("hello ann", invoker.arg("ann").arg(false).invokeString());
+    }
+
+    @Test
+    public void passesNumberOfArguments() throws Exception {
+        FunctionInvoker invoker = evaluator.getInvoker("count");
+        assertEquals(1L, invoker.invokeLong(5L));
+        assertEquals(0L, invoker.invokeLong());
+        assertEquals(3.0, invoker.invokeDouble(1, 2, 3), 0.0);
+    }
+
+    @Test
+    public void usesThisObject() throws Exception {
+        FunctionInvoker invoker = evaluator.getInvoker("self");
+        assertEquals(globalObject, invoker.invoke());
+        ESObject o = ObjectObject.createObject(evaluator);
+        assertEquals(o, invoker.withThis(o).invoke());
+    }
+
+    @Test
+    public void callsHostFunctionDirectly() throws Exception {
+        HostFunctions.bind(globalObject, Scoring.class);
+        FunctionInvoker invoker = evaluator.getInvoker("weight");
+        Scoring.calls = 0;
+        assertEquals(6.0, invoker.invokeDouble(2, 3), 0.0);
+        assertEquals(1, Scoring.calls);
+        assertTrue(Double.isNaN(invoker.invokeDouble(2)));
+        assertNull(FunctionPrototype.class.cast(globalObject.getProperty("score")).getDirectHandle());
+    }
+
+    @Test(expected = TypeError.class)
+    public void rejectsNonFunction() throws Exception {
+        evaluator.evaluate("var notAFunction = 1;");
+        evaluator.getInvoker("notAFunction");
+    }
+}
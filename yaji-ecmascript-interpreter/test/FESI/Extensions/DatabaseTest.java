@@ -0,0 +1,226 @@
+package FESI.Extensions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringWriter;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import FESI.Data.ESWrapper;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+
+public class DatabaseTest {
+
+    private Evaluator evaluator;
+
+    @Before
+    public void setUp() throws Exception {
+        StubDriver.reset();
+        evaluator = new Evaluator();
+        evaluator.addMandatoryExtension("FESI.Extensions.Database");
+        eval("var db = new Database('FESI.Extensions.StubDriver'); db.connect('jdbc:stub:test');");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        eval("db.disconnect()");
+        ConnectionPool.closeAll();
+    }
+
+    private String eval(String script) throws EcmaScriptException {
+        return evaluator.evaluate(script).toString();
+    }
+
+    @Test
+    public void bindsParametersWithTheirTypes() throws Exception {
+        StubDriver.setRows("SELECT name FROM t WHERE id = ?", new Object[][] { { "name" }, { "first" } });
+        assertEquals("first", eval("var query = db.prepare('SELECT name FROM t WHERE id = ?');"
+                + "var rows = query.executeRetrieval(1); rows.next(); rows.name"));
+        eval("rows.release();"
+                + "db.executeCommand('UPDATE t SET a = ?, b = ?, c = ?, d = ?, e = ?, f = ?', "
+                + "1.5, 'x', true, null, 4294967296, new Date(0))");
+        assertEquals(Arrays.asList("query SELECT name FROM t WHERE id = ? [1]",
+                "update UPDATE t SET a = ?, b = ?, c = ?, d = ?, e = ?, f = ? [1.5, x, true, null, 4294967296, "
+                        + new java.sql.Timestamp(0) + "]"), StubDriver.logged("query", "update"));
+    }
+
+    @Test
+    public void reusesCachedStatements() throws Exception {
+        eval("var update = db.prepare('UPDATE t SET a = ?');"
+                + "for (var i = 0; i < 100; i++) update.executeCommand(i);");
+        assertEquals(1, StubDriver.logged("prepare").size());
+        assertEquals(100, StubDriver.logged("update").size());
+
+        // A statement in use by an open row set is not shared
+        eval("var query = db.prepare('SELECT a FROM t');"
+                + "var first = query.executeRetrieval(); var second = query.executeRetrieval();"
+                + "first.release(); second.release(); query.executeRetrieval().release();");
+        assertEquals(Arrays.asList("prepare UPDATE t SET a = ?", "prepare SELECT a FROM t", "prepare SELECT a FROM t"),
+                StubDriver.logged("prepare"));
+        // The second statement is closed, as the first one is already idle
+        assertEquals(Arrays.asList("close SELECT a FROM t"), StubDriver.logged("close SELECT"));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedStatements() throws Exception {
+        eval("db.setStatementCacheSize(2);"
+                + "db.executeCommand('UPDATE a SET x = ?', 1);"
+                + "db.executeCommand('UPDATE b SET x = ?', 1);"
+                + "db.executeCommand('UPDATE a SET x = ?', 2);"
+                + "db.executeCommand('UPDATE c SET x = ?', 1);");
+        assertEquals(Arrays.asList("close UPDATE b SET x = ?"), StubDriver.logged("close"));
+        eval("db.setStatementCacheSize(0);");
+        assertEquals(3, StubDriver.logged("close").size());
+        assertEquals("false", eval("db.prepare('INVALID')"));
+        assertTrue(eval("db.getLastError()").contains("Syntax error"));
+    }
+
+    @Test
+    public void executesRowsInBatches() throws Exception {
+        String insert = "INSERT INTO t (id, name) VALUES (?, ?)";
+        eval("db.setAutoCommit(false);"
+                + "var insert = db.prepareInsert('t', ['id', 'name']); insert.setBatchSize(2);"
+                + "insert.addBatch([1, 'a']); insert.addBatch({ id: 2, name: 'b' }); insert.addBatch(3, 'c');");
+        assertEquals(Arrays.asList("batch [" + insert + " [1, a], " + insert + " [2, b]]"), StubDriver.logged("batch"));
+        assertEquals("3", eval("insert.executeBatch()"));
+        assertEquals("0", eval("insert.executeBatch()"));
+        assertEquals("true,false", eval("db.commit() + ',' + db.getAutoCommit()"));
+        eval("db.rollback()");
+        assertEquals(Arrays.asList("autoCommit false", "commit", "rollback"),
+                StubDriver.logged("autoCommit", "commit", "rollback"));
+        assertEquals(Arrays.asList("prepare " + insert), StubDriver.logged("prepare"));
+        try {
+            eval("db.prepare('UPDATE t SET a = ?').addBatch({ a: 1 })");
+            fail("TypeError expected");
+        } catch (EcmaScriptException e) {
+            assertTrue(e.getErrorObject(evaluator).toString().startsWith("TypeError"));
+        }
+    }
+
+    @Test
+    public void fetchesRowsInBulk() throws Exception {
+        StubDriver.setRows("SELECT * FROM t", new Object[][] { { "id", "name", "price", "at", "ok" },
+                { 1, "a", 1.5, new Timestamp(0), true }, { 2, null, 2.0, null, false }, { 3, "c\"", 0.25, null, null } });
+        evaluator.evaluate("var rows = db.executeRetrieval('SELECT * FROM t');");
+        assertEquals("2:1,a,1.5,0,true;2,,2,,false",
+                eval("var batch = rows.fetchBatch(2); batch.length + ':' + batch.map(function(row) {"
+                        + "  return [row.id, row.name, row.price, row.at && row.at.getTime(), row.ok].join(); }).join(';')"));
+        assertEquals("1:c\",0", eval("var rest = rows.fetchAll(); rest.length + ':' + rest[0].name + ',' + rows.fetchBatch(5).length"));
+        evaluator.evaluate("rows.release()");
+
+        StringWriter writer = new StringWriter();
+        evaluator.getGlobalObject().putProperty("out", new ESWrapper(writer, evaluator), "out".hashCode());
+        assertEquals("2", eval("rows = db.executeRetrieval('SELECT * FROM t'); rows.next(); rows.toJson(out)"));
+        assertEquals("[\n{\"id\":2,\"name\":null,\"price\":2,\"at\":null,\"ok\":false},\n"
+                + "{\"id\":3,\"name\":\"c\\\"\",\"price\":0.25,\"at\":null,\"ok\":null}\n]\n", writer.toString());
+        assertEquals("2,c\"", eval("var parsed = JSON.parse(out.toString()); parsed[0].id + ',' + parsed[1].name"));
+    }
+
+    @Test
+    public void closesOpenStatementsOnDisconnect() throws Exception {
+        String insert = "INSERT INTO t (a) VALUES (?)";
+        eval("var plain = db.executeRetrieval('SELECT a FROM t');"
+                + "var cached = db.executeRetrieval('SELECT b FROM t WHERE id = ?', 1);"
+                + "var insert = db.prepare('" + insert + "'); insert.addBatch(1);");
+        StubDriver.log.clear();
+        eval("db.disconnect()");
+        List<String> closed = StubDriver.logged("close");
+        Collections.sort(closed);
+        assertEquals(Arrays.asList("close " + insert, "close SELECT b FROM t WHERE id = ?", "close null"), closed);
+        for (String rows : new String[] { "plain.next()", "cached.fetchAll()" }) {
+            try {
+                eval(rows);
+                fail("EcmaScriptException expected");
+            } catch (EcmaScriptException e) {
+                assertTrue(e.getMessage().contains("released result set"));
+            }
+        }
+        // The rows pending in the batch are discarded, not run on the next borrower
+        assertEquals("0", eval("insert.executeBatch()"));
+        eval("db.connect('jdbc:stub:test'); insert.addBatch(2);");
+        assertEquals("1", eval("insert.executeBatch()"));
+        assertEquals(Arrays.asList("batch [" + insert + " [2]]"), StubDriver.logged("batch"));
+    }
+
+    @Test
+    public void runsQueriesAsynchronously() throws Exception {
+        StubDriver.setRows("SELECT a FROM t", new Object[][] { { "a" }, { 1 }, { 2 } });
+        evaluator.addMandatoryExtension("org.yaji.event.EventLoopExtension");
+        eval("var log = [];"
+                + "db.executeRetrievalAsync('SELECT a FROM t').then(function(rows) {"
+                + "  log.push(rows.fetchAll().length); rows.release();"
+                + "  return db.executeCommandAsync('UPDATE t SET a = 0'); })"
+                + ".then(function(count) { log.push(count); });");
+        evaluator.runUntilIdle();
+        assertEquals("2,1", eval("log.join()"));
+
+        // Disconnecting waits for the query, whose result set is then closed
+        StubDriver.log.clear();
+        eval("db.executeRetrievalAsync('SELECT a FROM t').then(function(rows) { log.push('rows'); },"
+                + "  function(e) { log.push(e.message); });"
+                + "db.disconnect();");
+        evaluator.runUntilIdle();
+        assertEquals("2,1,Database disconnected", eval("log.join()").replaceFirst("java.sql.SQLException: ", ""));
+        assertEquals(StubDriver.logged("query").size(), StubDriver.logged("close null").size());
+    }
+
+    @Test
+    public void closesTheResultsOfCancelledQueries() throws Exception {
+        eval("db.executeRetrievalAsync('SELECT a FROM t')");
+        evaluator.getEventLoop().cancelAll();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (StubDriver.logged("close null").isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+            evaluator.runUntilIdle();
+        }
+        assertEquals(Arrays.asList("query SELECT a FROM t", "close null"), StubDriver.logged("query", "close"));
+    }
+
+    @Test
+    public void sharesPooledConnectionsBetweenEvaluators() throws Exception {
+        Evaluator other = new Evaluator();
+        other.addMandatoryExtension("FESI.Extensions.Database");
+        other.evaluate("var db = new Database('FESI.Extensions.StubDriver'); db.connect('jdbc:stub:test');");
+        assertEquals(2, StubDriver.logged("connect").size());
+        eval("db.setAutoCommit(false); db.disconnect(); db.connect('jdbc:stub:test')");
+        other.evaluate("db.disconnect(); db.connect('jdbc:stub:test'); db.disconnect()");
+        assertEquals(2, StubDriver.logged("connect").size());
+        // The transaction left pending is rolled back
+        assertEquals(Arrays.asList("autoCommit false", "rollback", "autoCommit true"),
+                StubDriver.logged("autoCommit", "rollback"));
+        assertEquals("1,1,4,2", eval("var stats = db.getPoolStatistics();"
+                + "[stats.active, stats.idle, stats.borrowed, stats.created].join()"));
+
+        // An idle connection closed behind the back of the pool is replaced
+        StubDriver.connections.get(1).close();
+        other.evaluate("db.connect('jdbc:stub:test')");
+        assertEquals(3, StubDriver.logged("connect").size());
+
+        eval("db.setPoolOptions({ maxSize: 2, maxWait: 20 })");
+        assertEquals("false", eval("var third = new Database('FESI.Extensions.StubDriver');"
+                + "third.connect('jdbc:stub:test')"));
+        assertTrue(eval("third.getLastError()").contains("Timed out"));
+        assertEquals("1,1", eval("stats = db.getPoolStatistics(); [stats.timeouts, stats.waited].join()"));
+
+        // Connections idle for longer than the timeout are closed
+        StubDriver.log.clear();
+        eval("db.setPoolOptions({ idleTimeout: 0 })");
+        other.evaluate("db.disconnect()");
+        assertEquals(Arrays.asList("close connection"), StubDriver.logged("close"));
+        try {
+            eval("db.setPoolOptions({ maxSize: 0 })");
+            fail("RangeError expected");
+        } catch (EcmaScriptException e) {
+            assertTrue(e.getErrorObject(evaluator).toString().startsWith("RangeError"));
+        }
+    }
+}
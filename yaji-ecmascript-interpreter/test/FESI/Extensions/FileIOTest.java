@@ -0,0 +1,180 @@
+package FESI.Extensions;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import FESI.Data.ESString;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+
+public class FileIOTest {
+
+    private Evaluator evaluator;
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        evaluator = new Evaluator();
+        evaluator.addMandatoryExtension("FESI.Extensions.FileIO");
+        file = File.createTempFile("fileio", ".txt");
+        evaluator.getGlobalObject().putProperty("path", new ESString(file.getPath()), "path".hashCode());
+        evaluator.evaluate("var f = new File(path);");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private String eval(String script) throws EcmaScriptException {
+        return evaluator.evaluate(script).toString();
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void readAllEndsEachLineWithANewline() throws Exception {
+        write("café\r\nb\rc".getBytes("UTF-8"));
+        assertEquals("café\nb\nc\n", eval("f.readAll('UTF-8')"));
+        write(new byte[0]);
+        assertEquals("", eval("f.readAll()"));
+    }
+
+    @Test
+    public void readAllMapsLargeFiles() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < ESFile.MAP_THRESHOLD) {
+            sb.append("0123456789café\n");
+        }
+        write(sb.toString().getBytes("UTF-8"));
+        assertEquals(sb.toString(), eval("f.readAll('UTF-8')"));
+    }
+
+    @Test
+    public void writesTextAndBinaryThroughAChannel() throws Exception {
+        assertEquals("true", eval("f.openChannel('w', 16, 'line')"));
+        eval("f.write('head', new Uint8Array([0x41, 0x42]));"
+                + "f.writeln(' x');"
+                + "f.write('more');");
+        // The line was flushed, the last write is still buffered
+        assertEquals("headAB x" + ESFile.LINE_SEPARATOR, new String(readFile(), "UTF-8"));
+        eval("f.write(' and a longer text than the buffer'); f.close();"
+                + "f.openChannel('a'); f.write('!'); f.close()");
+        assertEquals("headAB x" + ESFile.LINE_SEPARATOR + "more and a longer text than the buffer!", new String(
+                readFile(), "UTF-8"));
+    }
+
+    @Test
+    public void readsAtPositions() throws Exception {
+        write(new byte[] { 0, 1, 2, 3, 4, 5, 6, 7, 'a', 'b', 'c' });
+        assertEquals("3;1,2,3", eval("var target = new Uint8Array(4);"
+                + "f.read(target.subarray(1), 1) + ';' + target.subarray(1).join()"));
+        assertEquals("2;6,7", eval("var bytes = f.readBytes(6, 2);"
+                + "bytes.byteLength + ';' + new Uint8Array(bytes).join()"));
+        assertEquals("bc", eval("f.readText(9, 5)"));
+        assertEquals("0", eval("f.read(target, 20)"));
+        assertEquals("true", eval("f.openChannel('r'); f.readln(); f.read(target, 4) == 4"));
+        assertEquals("4,5,6,7", eval("f.close(); target.join()"));
+        // A channel opened for writing is not used for the read
+        assertEquals("4;7,97,98,99", eval("f.openChannel('a'); var n = f.read(target, 7);"
+                + "f.close(); n + ';' + target.join()"));
+    }
+
+    @Test
+    public void raisesBuffersTooSmallForTheEncoding() throws Exception {
+        assertEquals("false", eval("f.openChannel('w', 0)"));
+        assertEquals("true", eval("f.openChannel('w', 1, 'full', 'UTF-8')"));
+        eval("f.write('h\u00e9\u20ac\ud83d\ude00'); f.close()");
+        assertEquals("h\u00e9\u20ac\ud83d\ude00", new String(readFile(), "UTF-8"));
+    }
+
+    @Test
+    public void iteratesOverLines() throws Exception {
+        write("a;1\nb;2\n\nc;3;x\n".getBytes("UTF-8"));
+        assertEquals("4:0=a;1 1=b;2 2= 3=c;3;x", eval("var seen = [];"
+                + "var n = f.forEachLine(function(line, i) { seen.push(i + '=' + line); });"
+                + "n + ':' + seen.join(' ')"));
+        assertEquals("2:a|1 b|2", eval("seen = [];"
+                + "n = f.forEachLine(function(fields) { seen.push(fields.join('|')); return fields[0] != 'b'; }, ';');"
+                + "n + ':' + seen.join(' ')"));
+        assertEquals("false", eval("f.isOpened()"));
+    }
+
+    @Test
+    public void readsLinesInBatches() throws Exception {
+        write("a,1\nb,2\nc,3\n".getBytes("UTF-8"));
+        eval("f.open(); f.readln(); f.eof();");
+        assertEquals("1:b,2", eval("var batch = f.readLines(1, ','); batch.length + ':' + batch[0].join()"));
+        assertEquals("1,0", eval("var last = f.readLines(10); last.length + ',' + f.readLines(10).length"));
+        assertEquals("c,3", eval("f.close(); last[0]"));
+    }
+
+    @Test
+    public void mapsRegions() throws Exception {
+        write(new byte[] { 0, 1, 2, 3 });
+        eval("var mapped = f.map(2, 2, true); new Uint8Array(mapped)[1] = 9;");
+        assertEquals("0,1,2,9", eval("new Uint8Array(f.map(0)).join()"));
+    }
+
+    @Test
+    public void transfersAsynchronously() throws Exception {
+        File copy = new File(file.getPath() + ".copy");
+        copy.deleteOnExit();
+        eval("var log = [];"
+                + "f.writeAsync('hello ');"
+                + "f.writeAsync(new Uint8Array([119, 111, 114, 108, 100]));"
+                + "f.writeAsync('!', 11, function(e, n) { log.push('wrote ' + n); });");
+        evaluator.getEventLoop().runUntilIdle();
+        assertEquals("hello world!", new String(readFile(), "UTF-8"));
+
+        eval("var bytes = new Uint8Array(8);"
+                + "f.readAsync(bytes, 6).then(function(n) { log.push(n + ':' + bytes.join()); });"
+                + "f.copyTo(path + '.copy', function(e, n) { log.push('copied ' + n); });"
+                + "new File(path + '.missing').readAsync(bytes, 0, function(e) { log.push(e.name); });");
+        evaluator.getEventLoop().runUntilIdle();
+        assertEquals("wrote 1", eval("log.shift()"));
+        assertEquals("6:119,111,114,108,100,33,0,0,Error,copied 12", eval("log.sort().join()"));
+        assertEquals("true", eval("f.close()"));
+        assertEquals(12, copy.length());
+        copy.delete();
+    }
+
+    @Test
+    public void iteratesOverLinesWhileReadingAsynchronously() throws Exception {
+        write("ab\ncd\n".getBytes("UTF-8"));
+        eval("var log = [], bytes = new Uint8Array(2);"
+                + "f.readAsync(bytes, 3).then(function(n) { log.push(n + ':' + bytes.join()); },"
+                + "  function(e) { log.push(e.name); });"
+                + "f.forEachLine(function(line) { log.push(line); });");
+        evaluator.getEventLoop().runUntilIdle();
+        assertEquals("ab,cd,2:99,100", eval("log.join()"));
+        // The asynchronous channel is still open
+        assertEquals("true", eval("f.close()"));
+    }
+
+    private byte[] readFile() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package FESI.Extensions;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * An in-process JDBC driver for the tests of the Database extension, for
+ * the URLs starting with jdbc:stub:. It logs the statements and answers
+ * queries with the rows registered by {@link #setRows(String, Object[][])}.
+ */
+public class StubDriver implements Driver {
+
+    static final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+    static final Map<String, Object[][]> results = Collections.synchronizedMap(new HashMap<String, Object[][]>());
+    static final List<Connection> connections = Collections.synchronizedList(new ArrayList<Connection>());
+
+    static {
+        try {
+            DriverManager.registerDriver(new StubDriver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Forget the log, rows and connections of the previous test
+     */
+    static void reset() {
+        log.clear();
+        results.clear();
+        connections.clear();
+    }
+
+    /**
+     * Register the result of a query
+     *
+     * @param rows
+     *            the column labels, then the rows
+     */
+    static void setRows(String sql, Object[][] rows) {
+        results.put(sql, rows);
+    }
+
+    /**
+     * @return the entries of the log starting with one of the prefixes, as
+     *         "query SELECT ..."
+     */
+    static List<String> logged(String... prefixes) {
+        List<String> entries = new ArrayList<String>();
+        synchronized (log) {
+            for (String entry : log) {
+                for (String prefix : prefixes) {
+                    if (entry.startsWith(prefix)) {
+                        entries.add(entry);
+                        break;
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        if (url.endsWith("fail")) {
+            throw new SQLException("Cannot connect to " + url);
+        }
+        Connection connection = proxy(Connection.class, new ConnectionHandler());
+        connections.add(connection);
+        log.add("connect " + url);
+        return connection;
+    }
+
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith("jdbc:stub:");
+    }
+
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(StubDriver.class.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+
+    static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        } else if (type == int.class) {
+            return Integer.valueOf(0);
+        } else if (type == long.class) {
+            return Long.valueOf(0);
+        } else if (type == double.class) {
+            return Double.valueOf(0);
+        } else if (type == float.class) {
+            return Float.valueOf(0);
+        } else if (type == short.class) {
+            return Short.valueOf((short) 0);
+        } else if (type == byte.class) {
+            return Byte.valueOf((byte) 0);
+        }
+        return null;
+    }
+
+    static class ConnectionHandler implements InvocationHandler {
+        boolean closed = false;
+        boolean autoCommit = true;
+        boolean valid = true;
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                closed = true;
+                log.add("close connection");
+                return null;
+            } else if (name.equals("isClosed")) {
+                return Boolean.valueOf(closed);
+            } else if (name.equals("isValid")) {
+                return Boolean.valueOf(valid && !closed);
+            } else if (name.equals("setAutoCommit")) {
+                autoCommit = ((Boolean) args[0]).booleanValue();
+                log.add("autoCommit " + autoCommit);
+                return null;
+            } else if (name.equals("getAutoCommit")) {
+                return Boolean.valueOf(autoCommit);
+            } else if (name.equals("commit") || name.equals("rollback")) {
+                log.add(name);
+                return null;
+            } else if (name.equals("equals")) {
+                return Boolean.valueOf(proxy == args[0]);
+            } else if (name.equals("hashCode")) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            } else if (name.equals("toString")) {
+                return "StubConnection";
+            }
+            if (closed) {
+                throw new SQLException("Connection closed");
+            }
+            if (name.equals("createStatement")) {
+                return proxy(Statement.class, new StatementHandler(proxy, null));
+            } else if (name.equals("prepareStatement")) {
+                String sql = (String) args[0];
+                if (sql.startsWith("INVALID")) {
+                    throw new SQLException("Syntax error in " + sql);
+                }
+                log.add("prepare " + sql);
+                return proxy(PreparedStatement.class, new StatementHandler(proxy, sql));
+            }
+            return defaultValue(method.getReturnType());
+        }
+    }
+
+    static class StatementHandler implements InvocationHandler {
+        final Object connection;
+        final String preparedSql;
+        final TreeMap<Integer, Object> parameters = new TreeMap<Integer, Object>();
+        final List<String> batch = new ArrayList<String>();
+        boolean closed = false;
+        int fetchSize = 0;
+        ResultSet current = null;
+
+        StatementHandler(Object connection, String preparedSql) {
+            this.connection = connection;
+            this.preparedSql = preparedSql;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                closed = true;
+                log.add("close " + preparedSql);
+                return null;
+            } else if (name.equals("isClosed")) {
+                return Boolean.valueOf(closed);
+            } else if (name.equals("equals")) {
+                return Boolean.valueOf(proxy == args[0]);
+            } else if (name.equals("hashCode")) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            } else if (name.equals("toString")) {
+                return "StubStatement " + preparedSql;
+            }
+            if (closed) {
+                throw new SQLException("Statement closed");
+            }
+            if (name.equals("getConnection")) {
+                return connection;
+            } else if (name.equals("setFetchSize")) {
+                fetchSize = ((Integer) args[0]).intValue();
+                return null;
+            } else if (name.equals("getFetchSize")) {
+                return Integer.valueOf(fetchSize);
+            } else if (name.equals("setNull")) {
+                parameters.put((Integer) args[0], null);
+                return null;
+            } else if (name.startsWith("set") && args != null && args.length == 2 && args[0] instanceof Integer) {
+                parameters.put((Integer) args[0], args[1]);
+                return null;
+            } else if (name.equals("clearParameters")) {
+                parameters.clear();
+                return null;
+            } else if (name.equals("addBatch")) {
+                batch.add(args == null ? preparedSql + " " + parameters.values() : (String) args[0]);
+                return null;
+            } else if (name.equals("executeBatch")) {
+                int[] counts = new int[batch.size()];
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = 1;
+                }
+                log.add("batch " + batch);
+                batch.clear();
+                return counts;
+            } else if (name.equals("executeQuery")) {
+                String sql = args == null ? preparedSql : (String) args[0];
+                log.add("query " + sql + (args == null ? " " + parameters.values() : ""));
+                if (current != null) {
+                    current.close();
+                }
+                Object[][] rows = results.get(sql);
+                if (rows == null) {
+                    rows = new Object[][] { {} };
+                }
+                current = proxy(ResultSet.class, new ResultSetHandler(proxy, rows));
+                return current;
+            } else if (name.equals("executeUpdate")) {
+                String sql = args == null ? preparedSql : (String) args[0];
+                if (sql.startsWith("FAIL")) {
+                    throw new SQLException("Update failed");
+                }
+                log.add("update " + sql + (args == null ? " " + parameters.values() : ""));
+                return Integer.valueOf(1);
+            }
+            return defaultValue(method.getReturnType());
+        }
+    }
+
+    static class ResultSetHandler implements InvocationHandler {
+        final Object statement;
+        final Object[][] rows;
+        int row = 0;
+        boolean closed = false;
+        boolean wasNull = false;
+
+        ResultSetHandler(Object statement, Object[][] rows) {
+            this.statement = statement;
+            this.rows = rows;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                closed = true;
+                return null;
+            } else if (name.equals("isClosed")) {
+                return Boolean.valueOf(closed);
+            } else if (name.equals("equals")) {
+                return Boolean.valueOf(proxy == args[0]);
+            } else if (name.equals("hashCode")) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            } else if (name.equals("toString")) {
+                return "StubResultSet";
+            }
+            if (closed) {
+                throw new SQLException("Result set closed");
+            }
+            if (name.equals("next")) {
+                if (row < rows.length) {
+                    row++;
+                }
+                return Boolean.valueOf(row < rows.length);
+            } else if (name.equals("getStatement")) {
+                return statement;
+            } else if (name.equals("getMetaData")) {
+                return proxy(ResultSetMetaData.class, new MetaDataHandler(rows));
+            } else if (name.equals("wasNull")) {
+                return Boolean.valueOf(wasNull);
+            } else if (name.startsWith("get") && args != null && args.length == 1) {
+                int column = args[0] instanceof Integer ? ((Integer) args[0]).intValue() : columnIndex((String) args[0]);
+                if (row == 0 || row >= rows.length || column < 1 || column > rows[0].length) {
+                    throw new SQLException("No value for column " + args[0] + " at row " + row);
+                }
+                Object value = rows[row][column - 1];
+                wasNull = value == null;
+                return convert(value, method.getReturnType());
+            }
+            return defaultValue(method.getReturnType());
+        }
+
+        private int columnIndex(String label) throws SQLException {
+            for (int i = 0; i < rows[0].length; i++) {
+                if (label.equalsIgnoreCase((String) rows[0][i])) {
+                    return i + 1;
+                }
+            }
+            throw new SQLException("No column " + label);
+        }
+
+        private static Object convert(Object value, Class<?> type) {
+            if (value == null) {
+                return defaultValue(type);
+            } else if (type == String.class) {
+                return value.toString();
+            } else if (type == int.class) {
+                return Integer.valueOf(((Number) value).intValue());
+            } else if (type == long.class) {
+                return Long.valueOf(((Number) value).longValue());
+            } else if (type == double.class) {
+                return Double.valueOf(((Number) value).doubleValue());
+            } else if (type == boolean.class) {
+                return value;
+            } else if (type == BigDecimal.class) {
+                return new BigDecimal(value.toString());
+            }
+            return value;
+        }
+    }
+
+    static class MetaDataHandler implements InvocationHandler {
+        final Object[][] rows;
+
+        MetaDataHandler(Object[][] rows) {
+            this.rows = rows;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("getColumnCount")) {
+                return Integer.valueOf(rows[0].length);
+            }
+            int column = ((Integer) args[0]).intValue() - 1;
+            if (name.equals("getColumnLabel") || name.equals("getColumnName")) {
+                return rows[0][column];
+            } else if (name.equals("getColumnType")) {
+                return Integer.valueOf(columnType(column));
+            } else if (name.equals("getColumnTypeName")) {
+                return typeName(columnType(column));
+            }
+            return defaultValue(method.getReturnType());
+        }
+
+        // The type of the first value which is not null
+        private int columnType(int column) {
+            for (int i = 1; i < rows.length; i++) {
+                Object value = rows[i][column];
+                if (value instanceof Integer) {
+                    return Types.INTEGER;
+                } else if (value instanceof Long) {
+                    return Types.BIGINT;
+                } else if (value instanceof Double) {
+                    return Types.DOUBLE;
+                } else if (value instanceof BigDecimal) {
+                    return Types.DECIMAL;
+                } else if (value instanceof Boolean) {
+                    return Types.BOOLEAN;
+                } else if (value instanceof Timestamp) {
+                    return Types.TIMESTAMP;
+                } else if (value != null) {
+                    return Types.VARCHAR;
+                }
+            }
+            return Types.VARCHAR;
+        }
+
+        private static String typeName(int type) {
+            switch (type) {
+            case Types.INTEGER:
+                return "INTEGER";
+            case Types.BIGINT:
+                return "BIGINT";
+            case Types.DOUBLE:
+                return "DOUBLE";
+            case Types.DECIMAL:
+                return "DECIMAL";
+            case Types.BOOLEAN:
+                return "BOOLEAN";
+            case Types.TIMESTAMP:
+                return "TIMESTAMP";
+            default:
+                return "VARCHAR";
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package FESI.Interpreter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import FESI.Data.ESNumber;
+import FESI.Data.ESValue;
+import FESI.Exceptions.EcmaScriptException;
+
+public class BatchEvaluatorTest {
+
+    private static final String SCRIPT = "function scale(x) { var y = x * 2; return y + 1; }\n"
+            + "function local(x) { var seen; var result = seen === undefined; seen = x; return result; }\n"
+            + "function sum(a, b) { return a + b; }\n"
+            + "function closure(x) { return function() { return x; }; }\n"
+            + "function check(x) { if (x > 100) throw 'too big'; return x; }\n";
+
+    private Evaluator evaluator;
+
+    @Before
+    public void setUp() throws Exception {
+        evaluator = newEvaluator();
+    }
+
+    private static Evaluator newEvaluator() throws EcmaScriptException {
+        Evaluator evaluator = new Evaluator();
+        evaluator.evaluate(SCRIPT);
+        return evaluator;
+    }
+
+    private static List<Integer> range(int n) {
+        List<Integer> inputs = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) {
+            inputs.add(i);
+        }
+        return inputs;
+    }
+
+    @Test
+    public void appliesFunctionToEachInput() throws Exception {
+        BatchEvaluator batch = evaluator.getBatchEvaluator("scale");
+        assertTrue(batch.isReusingFrame());
+        List<ESValue> results = batch.applyAll(Arrays.asList(1, 2, 3).iterator());
+        assertEquals(3, results.size());
+        assertEquals(3, results.get(0).toInt32());
+        assertEquals(7, results.get(2).toInt32());
+    }
+
+    @Test
+    public void localVariablesAreResetBetweenCalls() throws Exception {
+        BatchEvaluator batch = evaluator.getBatchEvaluator("local");
+        for (ESValue result : batch.applyAll(range(3).iterator())) {
+            assertTrue(result.booleanValue());
+        }
+    }
+
+    @Test
+    public void passesArgumentArrays() throws Exception {
+        BatchEvaluator batch = evaluator.getBatchEvaluator("sum");
+        List<ESValue> results = batch.applyAll(Arrays.asList(
+                new Object[] { 1, 2 },
+                new ESValue[] { ESNumber.valueOf(3), ESNumber.valueOf(4) },
+                new Object[] { 5 }).spliterator());
+        assertEquals(3, results.get(0).toInt32());
+        assertEquals(7, results.get(1).toInt32());
+        assertTrue(Double.isNaN(results.get(2).doubleValue()));
+    }
+
+    @Test
+    public void functionsCapturingTheirScopeUseNewFrames() throws Exception {
+        BatchEvaluator batch = evaluator.getBatchEvaluator("closure");
+        assertFalse(batch.isReusingFrame());
+        List<ESValue> closures = batch.applyAll(Arrays.asList(1, 2).iterator());
+        evaluator.getGlobalObject().putProperty("f", closures.get(0), "f".hashCode());
+        assertEquals(1, evaluator.evaluate("f()").toInt32());
+    }
+
+    @Test
+    public void partitionsInputsInOrder() throws Exception {
+        List<Evaluator> evaluators = Arrays.asList(evaluator, newEvaluator(), newEvaluator());
+        List<Object> results = BatchEvaluator.applyAll(evaluators, "scale", range(1000).iterator(), true);
+        assertEquals(1000, results.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(2 * i + 1, ((Number) results.get(i)).intValue());
+        }
+    }
+
+    @Test
+    public void partitionsInputsUnordered() throws Exception {
+        List<Evaluator> evaluators = Arrays.asList(evaluator, newEvaluator());
+        List<Object> results = BatchEvaluator.applyAll(evaluators, "scale", range(500).spliterator(), false);
+        List<Integer> values = new ArrayList<Integer>();
+        for (Object result : results) {
+            values.add(((Number) result).intValue());
+        }
+        Collections.sort(values);
+        for (int i = 0; i < 500; i++) {
+            assertEquals(2 * i + 1, values.get(i).intValue());
+        }
+    }
+
+    @Test
+    public void reportsFailureOfParallelBatch() throws Exception {
+        List<Evaluator> evaluators = Arrays.asList(evaluator, newEvaluator());
+        try {
+            BatchEvaluator.applyAll(evaluators, "check", range(500).iterator(), true);
+            fail("EcmaScriptException expected");
+        } catch (EcmaScriptException e) {
+            assertTrue(e.getMessage().contains("too big"));
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.yaji.binding;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import FESI.Data.ESObject;
+import FESI.Data.ESValue;
+import FESI.Data.GlobalObject;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Exceptions.TypeError;
+import FESI.Interpreter.Evaluator;
+
+public class HostFunctionsTest {
+
+    private Evaluator evaluator;
+    private GlobalObject globalObject;
+
+    public static class Host {
+        private int calls;
+
+        @HostFunction
+        public static double hypot(double a, double b) {
+            return Math.sqrt(a * a + b * b);
+        }
+
+        @HostFunction(name = "repeat")
+        public static String repeatString(String s, int count) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                sb.append(s);
+            }
+            return sb.toString();
+        }
+
+        @HostFunction
+        public boolean not(boolean b) {
+            calls++;
+            return !b;
+        }
+
+        @HostFunction
+        public void count() {
+            calls++;
+        }
+
+        @HostFunction
+        public long calls() {
+            return calls;
+        }
+
+        @HostFunction
+        public static ESValue self(@This ESValue thisObject) {
+            return thisObject;
+        }
+
+        @HostFunction
+        public static ESValue firstProperty(ESObject object, String name) throws EcmaScriptException {
+            return object.getProperty(name, name.hashCode());
+        }
+
+        @HostFunction
+        public static int argumentCount(Evaluator evaluator, ESValue[] arguments) {
+            return evaluator != null ? arguments.length : -1;
+        }
+
+        @HostFunction(length = 5)
+        public static void fail(String message) {
+            throw new IllegalStateException(message);
+        }
+
+        public static void notAnnotated() {
+            // not bound
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        evaluator = new Evaluator();
+        globalObject = evaluator.getGlobalObject();
+    }
+
+    @Test
+    public void bindsStaticMethodsOfClass() throws Exception {
+        assertEquals(6, HostFunctions.bind(globalObject, Host.class));
+        assertEquals(5.0, evaluator.evaluate("hypot(3, 4)").doubleValue(), 0.0);
+        assertEquals("ababab", evaluator.evaluate("repeat('ab', '3')").toString());
+        assertEquals("undefined", evaluator.evaluate("typeof not").toString());
+    }
+
+    @Test
+    public void bindsInstanceMethodsOnObject() throws Exception {
+        Host host = new Host();
+        HostFunctions.bind(globalObject, host);
+        assertEquals(false, evaluator.evaluate("not(1)").booleanValue());
+        assertEquals("undefined", evaluator.evaluate("count()").toString());
+        assertEquals(2, evaluator.evaluate("calls()").toInt32());
+        assertEquals(2, host.calls);
+    }
+
+    @Test
+    public void lengthIsNumberOfScriptArguments() throws Exception {
+        HostFunctions.bind(globalObject, Host.class);
+        assertEquals(2, evaluator.evaluate("hypot.length").toInt32());
+        assertEquals(0, evaluator.evaluate("self.length").toInt32());
+        assertEquals(5, evaluator.evaluate("fail.length").toInt32());
+    }
+
+    @Test
+    public void passesThisObject() throws Exception {
+        HostFunctions.bind(globalObject, Host.class);
+        ESValue o = evaluator.evaluate("var o = { self: self }; o");
+        assertSame(o, evaluator.evaluate("o.self()"));
+    }
+
+    @Test
+    public void passesObjectsEvaluatorAndArguments() throws Exception {
+        HostFunctions.bind(globalObject, Host.class);
+        assertEquals(7, evaluator.evaluate("firstProperty({ a: 7 }, 'a')").toInt32());
+        assertEquals(3, evaluator.evaluate("argumentCount(1, 2, 3)").toInt32());
+    }
+
+    @Test
+    public void missingArgumentsAreUndefined() throws Exception {
+        HostFunctions.bind(globalObject, Host.class);
+        assertTrue(Double.isNaN(evaluator.evaluate("hypot(3)").doubleValue()));
+    }
+
+    @Test(expected = TypeError.class)
+    public void objectArgumentIsChecked() throws Exception {
+        HostFunctions.bind(globalObject, Host.class);
+        evaluator.evaluate("firstProperty(1, 'a')");
+    }
+
+    @Test
+    public void javaExceptionsBecomeScriptExceptions() throws Exception {
+        HostFunctions.bind(globalObject, Host.class);
+        try {
+            evaluator.evaluate("fail('boom')");
+        } catch (EcmaScriptException e) {
+            assertTrue(e.getMessage().contains("boom"));
+            return;
+        }
+        throw new AssertionError("EcmaScriptException expected");
+    }
+
+    @Test
+    public void createsSingleFunction() throws Exception {
+        HostFunctionObject function = HostFunctions.createFunction(evaluator, Host.class, "repeat");
+        assertEquals("repeat", function.getFunctionName());
+    }
+}
@@ -0,0 +1,112 @@
+package org.yaji.buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+
+public class TypedArrayTest {
+
+    private Evaluator evaluator;
+
+    @Before
+    public void setUp() throws Exception {
+        evaluator = new Evaluator();
+    }
+
+    private String eval(String script) throws EcmaScriptException {
+        return evaluator.evaluate(script).toString();
+    }
+
+    @Test
+    public void convertsElementsToTheirType() throws Exception {
+        assertEquals("-1,127,-128,0", eval("var a = new Int8Array(4); a[0] = 255; a[1] = 127; a[2] = 128;"
+                + "a[3] = 'x'; a.join()"));
+        assertEquals("255,0,44", eval("var u = new Uint8Array([-1, 256, 300]); u.join()"));
+        assertEquals("65535,4294967295", eval("new Uint16Array([-1]) + ',' + new Uint32Array([-1])"));
+        assertEquals("0.5,0.1", eval("var f = new Float32Array([0.5]); var d = new Float64Array([0.1]);"
+                + "f[0] + ',' + d[0]"));
+        assertEquals("4,undefined,4", eval("a.length + ',' + a[4] + ',' + Int32Array.BYTES_PER_ELEMENT"));
+        assertEquals("4", eval("a[7] = 1; a.length = 10; a.length"));
+    }
+
+    @Test
+    public void sharesTheBufferBetweenViews() throws Exception {
+        eval("var buffer = new ArrayBuffer(8);"
+                + "var bytes = new Uint8Array(buffer);"
+                + "var words = new Uint16Array(buffer, 2, 2);"
+                + "var view = new DataView(buffer);"
+                + "view.setUint16(2, 0x1234);"
+                + "view.setUint16(4, 0x1234, true);");
+        assertEquals("0,0,18,52,52,18,0,0", eval("bytes.join()"));
+        assertEquals("0x3412", eval("'0x' + words[0].toString(16)"));
+        assertEquals("8,2,4,2", eval("buffer.byteLength + ',' + words.byteOffset + ',' + words.byteLength + ','"
+                + " + words.length"));
+        assertEquals("52,18", eval("bytes.subarray(-4, -2).join()"));
+        assertEquals("true", eval("bytes.subarray(2).buffer === buffer"));
+        assertEquals("false", eval("bytes.slice(2).buffer === buffer"));
+        assertEquals("1,1,18,52", eval("bytes.fill(1, 0, 2); bytes.slice(0, 4).join()"));
+        assertEquals("0,1,2", eval("var names = []; for (var i in words) names.push(i);"
+                + "words.length = 1; names.push(words.length); names.join()"));
+    }
+
+    @Test
+    public void checksBounds() throws Exception {
+        assertRangeError("new Int32Array(new ArrayBuffer(8), 2)");
+        assertRangeError("new Int32Array(new ArrayBuffer(6))");
+        assertRangeError("new Int16Array(new ArrayBuffer(8), 0, 5)");
+        assertRangeError("new DataView(new ArrayBuffer(8)).getFloat64(1)");
+        assertRangeError("new Uint8Array(2).set([1, 2, 3])");
+        assertRangeError("new ArrayBuffer(-1)");
+    }
+
+    private void assertRangeError(String script) throws Exception {
+        try {
+            eval(script);
+            fail("RangeError expected from " + script);
+        } catch (EcmaScriptException e) {
+            assertTrue(e.getErrorObject(evaluator).toString(), e.getErrorObject(evaluator).toString().startsWith(
+                    "RangeError"));
+        }
+    }
+
+    @Test
+    public void setsFromArraysAndOverlappingViews() throws Exception {
+        assertEquals("1,1,2,3,8", eval("var a = new Int16Array([1, 2, 3, 5, 8]);"
+                + "a.set(a.subarray(0, 3), 1); a.set([1], 0); a.join()"));
+        assertEquals("3", eval("a.indexOf(3)"));
+        assertEquals("1,2", eval("new Float64Array(new Int8Array([1, 2])).toString()"));
+    }
+
+    @Test
+    public void usesDirectAndMappedBuffers() throws Exception {
+        assertEquals("true,16", eval("var direct = ArrayBuffer.allocateDirect(16);"
+                + "direct.isDirect() + ',' + direct.byteLength"));
+
+        File file = File.createTempFile("mapped", ".bin");
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(8);
+            FileChannel channel = raf.getChannel();
+            ESArrayBuffer buffer = Buffers.of(evaluator).map(channel, FileChannel.MapMode.READ_WRITE, 0, 8);
+            assertTrue(buffer.isMapped());
+            evaluator.getGlobalObject().putProperty("mapped", buffer);
+            eval("new DataView(mapped).setInt32(4, 0x01020304);");
+            buffer.force();
+            raf.seek(4);
+            assertEquals(0x01020304, raf.readInt());
+        } finally {
+            raf.close();
+        }
+    }
+}
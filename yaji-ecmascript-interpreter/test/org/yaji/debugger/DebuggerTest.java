@@ -0,0 +1,95 @@
+package org.yaji.debugger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import FESI.Interpreter.EvaluationSource;
+import FESI.Interpreter.FileEvaluationSource;
+import FESI.Interpreter.FunctionEvaluationSource;
+
+public class DebuggerTest {
+
+    private final Debugger debugger = new Debugger(0);
+
+    @Test
+    public void isOnlyArmedWithBreakpointsOrPauseRequests() throws Exception {
+        assertFalse(debugger.isArmed());
+        Debugger.Breakpoint first = debugger.setBreakpoint("test.js", 3);
+        Debugger.Breakpoint second = debugger.setBreakpoint("test.js", 5);
+        assertTrue(debugger.isArmed());
+        assertTrue(debugger.clearBreakpoint(first.getId()));
+        assertFalse(debugger.clearBreakpoint(first.getId()));
+        assertTrue(debugger.isArmed());
+        assertTrue(debugger.clearBreakpoint(second.getId()));
+        assertFalse(debugger.isArmed());
+        debugger.requestPause();
+        assertTrue(debugger.isArmed());
+    }
+
+    @Test
+    public void rejectsInvalidLinesAndKeepsTheOtherBreakpoints() throws Exception {
+        Debugger.Breakpoint breakpoint = debugger.setBreakpoint("test.js", 3);
+        try {
+            debugger.setBreakpoint("test.js", -1);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(1, debugger.getBreakpoints().size());
+        assertTrue(debugger.clearBreakpoint(breakpoint.getId()));
+        assertFalse(debugger.isArmed());
+    }
+
+    @Test
+    public void pausesOnBreakpointsUntilResumed() throws Exception {
+        EvaluationSource file = new FileEvaluationSource("scripts/test.js", null);
+        final EvaluationSource function = new FunctionEvaluationSource(file, "f");
+        debugger.setBreakpoint("test.js", 3);
+        // Other lines and scripts go on
+        debugger.check(function, 2);
+        debugger.check(new FileEvaluationSource("other.js", null), 3);
+        assertFalse(debugger.isPaused());
+
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread evaluation = new Thread() {
+            @Override
+            public void run() {
+                debugger.check(function, 3);
+                debugger.check(function, 4);
+                done.countDown();
+            }
+        };
+        evaluation.start();
+        waitForPause();
+        debugger.resume(true);
+        // Stepped to the next statement
+        waitForPause();
+        assertEquals(1, done.getCount());
+        debugger.resume(false);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertFalse(debugger.isPaused());
+    }
+
+    @Test
+    public void resolvesScriptNamesOncePerSource() throws Exception {
+        EvaluationSource function = new FunctionEvaluationSource(new FileEvaluationSource("scripts/test.js", null), "f");
+        String name = Debugger.getScriptName(function);
+        assertEquals("test.js", name);
+        assertSame(name, Debugger.getScriptName(function));
+    }
+
+    private void waitForPause() throws InterruptedException {
+        for (int i = 0; i < 500 && !debugger.isPaused(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(debugger.isPaused());
+    }
+}
@@ -137,6 +137,19 @@ public class V8DebuggerTest {
         assertTrue(string,pattern.matcher(string).matches());
     }
 
+    @Test
+    public void rejectsBreakpointsOnInvalidLines() throws Exception {
+        String data = "{\"command\":\"debugger_command\",\"data\":{\"seq\":7,\"type\":\"request\","
+                + "\"command\":\"setbreakpoint\",\"arguments\":{\"type\":\"script\",\"target\":\"test.js\",\"line\":-2}}}";
+        String string = processV8Request("Tool:V8Debugger\r\n" + 
+                "Destination:0\r\n" + 
+                "Content-Length:" + data.length() + "\r\n" + 
+                "\r\n" + 
+                data);
+        assertTrue(string, string.contains("\"success\":false"));
+        assertTrue(debugger.getBreakpoints().isEmpty());
+    }
+
     private String processV8Request(String requestText)
             throws UnsupportedEncodingException, EcmaScriptException,
             IOException {
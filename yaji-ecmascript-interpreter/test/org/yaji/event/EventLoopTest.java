@@ -0,0 +1,118 @@
+package org.yaji.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+
+public class EventLoopTest {
+
+    private Evaluator evaluator;
+
+    @Before
+    public void setUp() throws Exception {
+        evaluator = new Evaluator();
+        evaluator.addMandatoryExtension("org.yaji.event.EventLoopExtension");
+        evaluator.addMandatoryExtension("FESI.Extensions.FileIO");
+        evaluator.evaluate("var log = [];");
+    }
+
+    private String log() throws EcmaScriptException {
+        return evaluator.evaluate("log.join()").toString();
+    }
+
+    @Test
+    public void runsCallbacksInOrder() throws Exception {
+        evaluator.evaluate("setTimeout(function(x) { log.push(x); }, 20, 'late');"
+                + "setTimeout(function() { log.push('timeout'); }, 0);"
+                + "setImmediate(function() { log.push('immediate'); });"
+                + "Completion.resolve(1).then(function() { log.push('microtask'); });"
+                + "queueMicrotask(function() { log.push('queued'); });"
+                + "log.push('script');");
+        evaluator.runUntilIdle();
+        assertEquals("script,microtask,queued,timeout,immediate,late", log());
+        assertTrue(evaluator.getEventLoop().isIdle());
+    }
+
+    @Test
+    public void clearsTimers() throws Exception {
+        evaluator.evaluate("var count = 0;"
+                + "var id = setInterval(function() { if (++count == 3) clearInterval(id); }, 1);"
+                + "clearTimeout(setTimeout(function() { log.push('cleared'); }, 0));"
+                + "clearImmediate(setImmediate(function() { log.push('cleared'); }));");
+        evaluator.runUntilIdle();
+        assertEquals(3, evaluator.evaluate("count").toInt32());
+        assertEquals("", log());
+    }
+
+    @Test
+    public void chainsCompletions() throws Exception {
+        evaluator.evaluate("new Completion(function(resolve) { setTimeout(resolve, 5, 2); })"
+                + ".then(function(x) { return Completion.resolve(x * 3); })"
+                + ".then(function(x) { throw new Error('failed at ' + x); })"
+                + ".then(function() { log.push('skipped'); })"
+                + "['catch'](function(e) { log.push(e.message); });"
+                + "Completion.all([1, Completion.resolve(2), { then: function(r) { r(3); } }])"
+                + ".then(function(values) { log.push(values.join('+')); });");
+        evaluator.runUntilIdle();
+        assertEquals("1+2+3,failed at 6", log());
+    }
+
+    @Test
+    public void awaitsCompletions() throws Exception {
+        EventLoop eventLoop = evaluator.getEventLoop();
+        ESCompletion completion = (ESCompletion) evaluator.evaluate("Completion.reject(new TypeError('no'))");
+        try {
+            eventLoop.await(completion);
+            fail("EcmaScriptException expected");
+        } catch (EcmaScriptException e) {
+            assertEquals("TypeError: no", e.getErrorObject(evaluator).toString());
+        }
+        completion = (ESCompletion) evaluator.evaluate("new Completion(function(resolve) { setTimeout(resolve, 10000); })");
+        assertFalse(eventLoop.runUntilIdle(10, TimeUnit.MILLISECONDS));
+        assertFalse(completion.isSettled());
+        eventLoop.cancelAll();
+        try {
+            eventLoop.await(completion);
+            fail("EcmaScriptException expected");
+        } catch (EcmaScriptException e) {
+            assertEquals(ESCompletion.State.PENDING, completion.getState());
+        }
+    }
+
+    @Test
+    public void readsFilesAsynchronously() throws Exception {
+        File file = File.createTempFile("eventloop", ".txt");
+        file.deleteOnExit();
+        FileWriter writer = new FileWriter(file);
+        writer.write("first\nsecond\n");
+        writer.close();
+        evaluator.evaluate("var file = new File('" + file.getPath().replace("\\", "\\\\") + "');"
+                + "var missing = new File('" + file.getPath().replace("\\", "\\\\") + ".missing');"
+                + "file.readAllAsync().then(function(text) { log.push(text.split('\\n')[1]); });"
+                + "missing.readAllAsync()['catch'](function(e) { log.push('missing'); });");
+        assertEquals(2, evaluator.getEventLoop().getPendingOperationCount());
+        evaluator.runUntilIdle();
+        assertTrue(log().equals("second,missing") || log().equals("missing,second"));
+    }
+
+    @Test
+    public void cancelsEverythingOnReset() throws Exception {
+        evaluator.markCleanState();
+        evaluator.evaluate("setTimeout(function() { log.push('timeout'); }, 0);");
+        evaluator.restoreCleanState();
+        assertTrue(evaluator.getEventLoop().isIdle());
+        evaluator.runUntilIdle();
+        assertEquals("", log());
+    }
+}
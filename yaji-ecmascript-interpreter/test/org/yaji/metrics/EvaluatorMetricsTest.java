@@ -0,0 +1,95 @@
+package org.yaji.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import org.yaji.pool.EvaluatorPool;
+import org.yaji.pool.SharedRealm;
+
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+
+public class EvaluatorMetricsTest {
+
+    @Test
+    public void recordsTheEventsOfAnEvaluator() throws Exception {
+        Evaluator evaluator = new Evaluator();
+        EvaluatorMetrics metrics = new EvaluatorMetrics();
+        evaluator.setMetrics(metrics);
+        evaluator.evaluate("function f(x) { return x + 1; }\n"
+                + "for (var i = 0; i < 10; i++) { f(i); }");
+        assertEquals(10, metrics.getFunctionCalls());
+        evaluator.evaluate("try { null.x; } catch (e) {}\n"
+                + "try { throw new Error('thrown'); } catch (e) {}\n"
+                + "new RegExp('a+').test('aa');\n"
+                + "JSON.parse(JSON.stringify({ a: [1, 2] }));");
+        try {
+            evaluator.evaluate("function g() { throw 'uncaught'; }\n g();");
+        } catch (EcmaScriptException e) {
+            // expected
+        }
+
+        assertEquals(3, metrics.getEvaluations());
+        assertEquals(3, metrics.getParses());
+        assertTrue(metrics.getEvaluationTimeMillis() > 0);
+        // With g, test, parse, stringify and the builtins they call
+        assertTrue(metrics.getFunctionCalls() > 14);
+        assertEquals(3, metrics.getExceptions());
+        assertEquals(1, metrics.getRegexCompilations());
+        assertEquals(11, metrics.getJsonParsedCharacters());
+        assertEquals(11, metrics.getJsonStringifiedCharacters());
+        assertTrue(metrics.getObjectsCreated() > 0);
+
+        long created = metrics.getObjectsCreated();
+        evaluator.evaluate("var objects = []; for (var i = 0; i < 100; i++) { objects.push(new Date(i)); }");
+        assertTrue(metrics.getObjectsCreated() - created >= 100);
+
+        metrics.reset();
+        assertEquals(0, metrics.getEvaluations());
+    }
+
+    @Test
+    public void sharesTheMetricsOfAPool() throws Exception {
+        EvaluatorMetrics metrics = new EvaluatorMetrics();
+        SharedRealm realm = new SharedRealm().setMetrics(metrics);
+        EvaluatorPool pool = realm.newPool(2, 1, TimeUnit.MINUTES);
+        for (int i = 0; i < 3; i++) {
+            Evaluator evaluator = pool.checkout();
+            try {
+                evaluator.evaluate(realm.getProgram("var x = " + (i % 2) + ";"), null, false);
+            } finally {
+                pool.release(evaluator);
+            }
+        }
+        assertEquals(1, metrics.getProgramCacheHits());
+        assertEquals(2, metrics.getProgramCacheMisses());
+        assertEquals(2, metrics.getParses());
+        assertEquals(3, metrics.getEvaluations());
+    }
+
+    @Test
+    public void registersAnMBean() throws Exception {
+        EvaluatorMetrics metrics = new EvaluatorMetrics();
+        ObjectName name = metrics.register("test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertEquals("org.yaji:type=Evaluator,name=\"test\"", name.toString());
+            Evaluator evaluator = new Evaluator();
+            evaluator.addMandatoryExtension("FESI.Extensions.JavaAccess");
+            evaluator.setMetrics(metrics);
+            evaluator.evaluate("java.lang.Math.max(1, 2); java.lang.Math.max(3, 4);");
+            assertEquals(Long.valueOf(1), server.getAttribute(name, "Evaluations"));
+            assertTrue((Long) server.getAttribute(name, "JavaMethodCacheHits") > 0);
+        } finally {
+            metrics.unregister();
+        }
+        assertTrue(!server.isRegistered(name));
+    }
+}
@@ -0,0 +1,153 @@
+package org.yaji.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import FESI.Data.GlobalObject;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+
+public class EvaluatorPoolTest {
+
+    private EvaluatorPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new EvaluatorPool(new EvaluatorPool.Initializer() {
+            public void initialize(Evaluator evaluator) throws EcmaScriptException {
+                evaluator.evaluate("var shared = 1; function double(x) { return x * 2; }"
+                        + "var list = [1, 2, 3]; var holes = []; holes[5] = 1;"
+                        + "var child = Object.create({ greeting: 'hello' });");
+            }
+        }, 2, 1, TimeUnit.HOURS);
+    }
+
+    @Test
+    public void reusesReleasedEvaluator() throws Exception {
+        Evaluator evaluator = pool.checkout();
+        assertEquals(4, evaluator.evaluate("double(2)").toInt32());
+        pool.release(evaluator);
+        assertSame(evaluator, pool.checkout());
+        assertEquals(1, pool.getCreatedCount());
+    }
+
+    @Test
+    public void restoresGlobalsOnRelease() throws Exception {
+        Evaluator evaluator = pool.checkout();
+        evaluator.evaluate("var tenant = 1; shared = 2; delete parseInt; double = null;");
+        pool.release(evaluator);
+        evaluator = pool.checkout();
+        assertEquals("undefined", evaluator.evaluate("typeof tenant").toString());
+        assertEquals(1, evaluator.evaluate("shared").toInt32());
+        assertEquals("function", evaluator.evaluate("typeof parseInt").toString());
+        assertEquals(6, evaluator.evaluate("double(3)").toInt32());
+    }
+
+    @Test
+    public void restoresStandardPrototypesOnRelease() throws Exception {
+        Evaluator evaluator = pool.checkout();
+        evaluator.evaluate("Array.prototype.first = function() { return this[0]; };"
+                + "String.prototype.trim = null; Math.square = function(x) { return x * x; };"
+                + "Object.freeze(Object.prototype);");
+        assertEquals(5, evaluator.getChangedSinceCleanState());
+        pool.release(evaluator);
+        evaluator = pool.checkout();
+        assertEquals("undefined", evaluator.evaluate("typeof [].first").toString());
+        assertEquals("a", evaluator.evaluate("' a '.trim()").toString());
+        assertEquals("undefined", evaluator.evaluate("typeof Math.square").toString());
+        assertEquals(false, evaluator.evaluate("Object.isFrozen(Object.prototype)").booleanValue());
+        assertEquals(0, evaluator.getChangedSinceCleanState());
+    }
+
+    @Test
+    public void restoresArrayElementsOnRelease() throws Exception {
+        Evaluator evaluator = pool.checkout();
+        evaluator.evaluate("list[0] = 9; list.push(4); list.reverse(); Array.prototype[0] = 'x';"
+                + "Array.prototype.length = 5;");
+        assertEquals(2, evaluator.getChangedSinceCleanState());
+        pool.release(evaluator);
+        evaluator = pool.checkout();
+        assertEquals("1,2,3;3", evaluator.evaluate("list.join() + ';' + list.length").toString());
+        assertEquals(0, evaluator.evaluate("Array.prototype.length").toInt32());
+        assertEquals("undefined", evaluator.evaluate("typeof [][0]").toString());
+        assertEquals(0, evaluator.getChangedSinceCleanState());
+    }
+
+    @Test
+    public void restoresSparseArraysOnRelease() throws Exception {
+        Evaluator evaluator = pool.checkout();
+        evaluator.evaluate("delete holes[5];");
+        pool.release(evaluator);
+        evaluator = pool.checkout();
+        assertEquals("1;undefined", evaluator.evaluate("var kept = holes[5]; holes.length = 0;"
+                + "kept + ';' + typeof holes[5]").toString());
+    }
+
+    @Test
+    public void restoresDenseArrayElements() throws Exception {
+        boolean useSparse = GlobalObject.useSparse;
+        GlobalObject.useSparse = false;
+        try {
+            Evaluator evaluator = new Evaluator();
+            evaluator.evaluate("var list = new Array(1, 2, 3);");
+            evaluator.markCleanState();
+            evaluator.evaluate("list.join(); list.slice(1); list.indexOf(2);");
+            assertEquals(0, evaluator.getChangedSinceCleanState());
+            evaluator.evaluate("list[0] = 9; list.push(4); list.reverse(); Array.prototype[0] = 'x';");
+            evaluator.restoreCleanState();
+            assertEquals("1,2,3;3", evaluator.evaluate("list.join() + ';' + list.length").toString());
+            assertEquals("undefined", evaluator.evaluate("typeof [][0]").toString());
+        } finally {
+            GlobalObject.useSparse = useSparse;
+        }
+    }
+
+    @Test
+    public void restoresPrototypeChainsOnRelease() throws Exception {
+        Evaluator evaluator = pool.checkout();
+        evaluator.evaluate("Object.getPrototypeOf(child).greeting = 'bye';");
+        pool.release(evaluator);
+        evaluator = pool.checkout();
+        assertEquals("hello", evaluator.evaluate("child.greeting").toString());
+    }
+
+    @Test
+    public void limitsCheckedOutEvaluators() throws Exception {
+        Evaluator first = pool.checkout();
+        Evaluator second = pool.checkout();
+        assertNotSame(first, second);
+        assertNull(pool.checkout(10, TimeUnit.MILLISECONDS));
+        pool.discard(first);
+        assertEquals(1, pool.getActiveCount());
+        Evaluator third = pool.checkout(10, TimeUnit.MILLISECONDS);
+        assertNotSame(first, third);
+        assertEquals(3, pool.getCreatedCount());
+    }
+
+    @Test
+    public void evictsIdleEvaluators() throws Exception {
+        EvaluatorPool shortLived = new EvaluatorPool(new EvaluatorPool.Initializer() {
+            public void initialize(Evaluator evaluator) {
+                // nothing to prepare
+            }
+        }, 2, 0, TimeUnit.MILLISECONDS);
+        Evaluator evaluator = shortLived.checkout();
+        shortLived.release(evaluator);
+        assertEquals(1, shortLived.evictIdle());
+        assertEquals(0, shortLived.getIdleCount());
+        assertNotSame(evaluator, shortLived.checkout());
+        assertEquals(1, shortLived.getEvictedCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsForeignEvaluator() {
+        pool.release(new Evaluator());
+    }
+}
@@ -0,0 +1,111 @@
+package org.yaji.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.yaji.binding.HostFunction;
+import org.yaji.binding.HostFunctions;
+
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+
+public class ScriptExecutorTest {
+
+    private static final int TASKS = 8;
+
+    public static class Service {
+        static CountDownLatch allWaiting;
+
+        // Blocks until all tasks are blocked in it
+        @HostFunction
+        public static boolean waitForAll() throws InterruptedException {
+            allWaiting.countDown();
+            return allWaiting.await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private EvaluatorPool pool;
+    private ScriptExecutor executor;
+
+    @Before
+    public void setUp() {
+        pool = new EvaluatorPool(new EvaluatorPool.Initializer() {
+            public void initialize(Evaluator evaluator) throws EcmaScriptException {
+                HostFunctions.bind(evaluator.getGlobalObject(), Service.class);
+                evaluator.evaluate("function square(x) { return x * x; }");
+            }
+        }, TASKS, 1, TimeUnit.MINUTES);
+        executor = new ScriptExecutor(pool);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void runsTasksWithPooledEvaluators() throws Exception {
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < 20; i++) {
+            final int value = i;
+            results.add(executor.submit(new ScriptExecutor.ScriptTask<Integer>() {
+                public Integer run(Evaluator evaluator) throws Exception {
+                    return evaluator.evaluate("square(" + value + ")").toInt32();
+                }
+            }));
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i * i, results.get(i).get().intValue());
+        }
+        assertEquals(0, pool.getActiveCount());
+        assertTrue(pool.getCreatedCount() <= TASKS);
+    }
+
+    @Test
+    public void blockedTasksDoNotBlockEachOther() throws Exception {
+        Service.allWaiting = new CountDownLatch(TASKS);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < TASKS; i++) {
+            results.add(executor.submit(new ScriptExecutor.ScriptTask<Boolean>() {
+                public Boolean run(Evaluator evaluator) throws Exception {
+                    return evaluator.evaluate("waitForAll()").booleanValue();
+                }
+            }));
+        }
+        for (Future<Boolean> result : results) {
+            assertTrue(result.get());
+        }
+    }
+
+    @Test
+    public void releasesEvaluatorOfFailedTask() throws Exception {
+        Future<Object> result = executor.submit(new ScriptExecutor.ScriptTask<Object>() {
+            public Object run(Evaluator evaluator) throws Exception {
+                return evaluator.evaluate("var leaked = 1; undefinedFunction()");
+            }
+        });
+        try {
+            result.get();
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof EcmaScriptException);
+        }
+        assertEquals(0, pool.getActiveCount());
+        assertEquals("undefined", executor.execute(new ScriptExecutor.ScriptTask<String>() {
+            public String run(Evaluator evaluator) throws Exception {
+                return evaluator.evaluate("typeof leaked").toString();
+            }
+        }));
+    }
+}
@@ -0,0 +1,99 @@
+package org.yaji.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import FESI.Exceptions.EcmaScriptParseException;
+import FESI.Interpreter.Evaluator;
+import FESI.Interpreter.ParsedProgram;
+
+public class SharedRealmTest {
+
+    private SharedRealm realm;
+
+    @Before
+    public void setUp() throws Exception {
+        realm = new SharedRealm(2);
+        realm.addExtension("FESI.Extensions.BasicIO");
+        realm.addModule("math", "var counter = 0; function fib(n) { counter++; return n < 2 ? n : fib(n - 1) + fib(n - 2); }");
+    }
+
+    @Test
+    public void evaluatorsHaveTheModules() throws Exception {
+        Evaluator first = realm.newEvaluator();
+        Evaluator second = realm.newEvaluator();
+        assertEquals(55, first.evaluate("fib(10)").toInt32());
+        assertEquals("function", second.evaluate("typeof writeln").toString());
+        assertEquals(0, second.evaluate("counter").toInt32());
+        assertNotSame(first.getGlobalObject().getProperty("fib", "fib".hashCode()),
+                second.getGlobalObject().getProperty("fib", "fib".hashCode()));
+    }
+
+    @Test
+    public void builtinFunctionsCopyTheirSharedPropertiesWhenChanged() throws Exception {
+        Evaluator first = realm.newEvaluator();
+        Evaluator second = realm.newEvaluator();
+        assertEquals(1, first.evaluate("String.prototype.trim.x = 1; String.prototype.trim.x").toInt32());
+        assertEquals(true, first.evaluate("Object.freeze(Math.max); Object.isFrozen(Math.max)").booleanValue());
+        assertEquals("undefined", second.evaluate("typeof String.prototype.trim.x").toString());
+        assertEquals(false, second.evaluate("Object.isFrozen(Math.max)").booleanValue());
+        assertEquals("length", second.evaluate("Object.getOwnPropertyNames(String.prototype.trim).join()").toString());
+        assertEquals(0, second.evaluate("String.prototype.trim.length").toInt32());
+    }
+
+    @Test
+    public void cachesParsedScripts() throws Exception {
+        ParsedProgram program = realm.getProgram("fib(5)");
+        assertSame(program, realm.getProgram("fib(5)"));
+        realm.getProgram("fib(6)");
+        realm.getProgram("fib(7)");
+        assertNotSame(program, realm.getProgram("fib(5)"));
+        assertEquals(5, realm.newEvaluator().evaluate(program, null, false).toInt32());
+    }
+
+    @Test(expected = EcmaScriptParseException.class)
+    public void reportsSyntaxErrors() throws Exception {
+        realm.addModule("broken", "function (");
+    }
+
+    @Test
+    public void evaluatesSharedCodeConcurrently() throws Exception {
+        final ParsedProgram program = realm.getProgram("fib(15)");
+        final EvaluatorPool pool = realm.newPool(4, 1, TimeUnit.MINUTES);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 16; i++) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        Evaluator evaluator = pool.checkout();
+                        try {
+                            return evaluator.evaluate(program, null, false).toInt32();
+                        } finally {
+                            pool.release(evaluator);
+                        }
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(610, result.get().intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(pool.getCreatedCount() <= 4);
+    }
+}
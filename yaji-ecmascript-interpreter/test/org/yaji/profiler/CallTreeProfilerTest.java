@@ -0,0 +1,74 @@
+package org.yaji.profiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import FESI.Interpreter.Evaluator;
+
+public class CallTreeProfilerTest {
+
+    private Evaluator evaluator;
+    private CallTreeProfiler profiler;
+
+    @Before
+    public void setUp() throws Exception {
+        evaluator = new Evaluator();
+        evaluator.addMandatoryExtension("FESI.Extensions.JavaAccess");
+        profiler = new CallTreeProfiler();
+        Evaluator.setProcedureProfilingCallback(profiler);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Evaluator.setProcedureProfilingCallback(null);
+    }
+
+    @Test
+    public void measuresScriptBuiltinAndJavaCalls() throws Exception {
+        evaluator.evaluate("function fib(n) { return n < 2 ? n : fib(n - 1) + fib(n - 2); }\n"
+                + "function run() { var b = new java.lang.StringBuilder(); b.append(fib(10));"
+                + " return [b.toString()].join(); }");
+        assertEquals("55", evaluator.evaluate("run()").toString());
+        Evaluator.setProcedureProfilingCallback(null);
+
+        Map<String, CallTreeProfiler.FunctionStatistics> byName = new HashMap<String, CallTreeProfiler.FunctionStatistics>();
+        List<CallTreeProfiler.FunctionStatistics> statistics = profiler.getFunctionStatistics();
+        for (CallTreeProfiler.FunctionStatistics function : statistics) {
+            byName.put(function.getName(), function);
+        }
+        CallTreeProfiler.FunctionStatistics fib = byName.get("fib (:1)");
+        CallTreeProfiler.FunctionStatistics run = byName.get("run (:2)");
+        assertEquals(177, fib.getCalls());
+        assertEquals(1, run.getCalls());
+        assertEquals(1, byName.get("join (Array)").getCalls());
+        assertEquals(1, byName.get("append (java.lang.StringBuilder)").getCalls());
+        // Recursive calls are only included once
+        assertTrue(fib.getInclusiveNanos() <= run.getInclusiveNanos());
+        assertTrue(run.getExclusiveNanos() <= run.getInclusiveNanos());
+        for (int i = 1; i < statistics.size(); i++) {
+            assertTrue(statistics.get(i - 1).getExclusiveNanos() >= statistics.get(i).getExclusiveNanos());
+        }
+
+        StringWriter stacks = new StringWriter();
+        profiler.writeCollapsedStacks(stacks);
+        assertTrue(stacks.toString(), stacks.toString().contains("run (:2);fib (:1);fib (:1) "));
+        for (String line : stacks.toString().split("\n")) {
+            assertTrue(line, line.matches("run \\(:2\\)(;[^;]+)* [0-9]+"));
+        }
+
+        StringWriter summary = new StringWriter();
+        profiler.writeSummary(summary, 2);
+        String[] lines = summary.toString().split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0], lines[0].matches(" *calls +self ms +total ms +self KB +total KB +function"));
+    }
+}
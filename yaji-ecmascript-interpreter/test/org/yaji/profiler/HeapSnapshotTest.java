@@ -0,0 +1,104 @@
+package org.yaji.profiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.yaji.profiler.HeapSnapshot.Edge;
+import org.yaji.profiler.HeapSnapshot.Node;
+
+import FESI.Data.ESObject;
+import FESI.Data.ESString;
+import FESI.Data.ESValue;
+import FESI.Interpreter.Evaluator;
+
+public class HeapSnapshotTest {
+
+    private Evaluator evaluator;
+
+    @Before
+    public void setUp() throws Exception {
+        evaluator = new Evaluator();
+        evaluator.evaluate("var cache = { entries: [] };\n"
+                + "for (var i = 0; i < 100; i++) { cache.entries.push({ key: 'k' + i }); }\n"
+                + "var shared = { name: 'shared' }; var a = { ref: shared }; var b = { ref: shared };\n"
+                + "function counter() { var count = { n: 0 }; return function next() { return ++count.n; }; }\n"
+                + "var next = counter();");
+    }
+
+    @Test
+    public void namesNodesByClassAndEdgesByProperty() throws Exception {
+        HeapSnapshot snapshot = HeapSnapshot.take(evaluator);
+        Node global = snapshot.getRoot().getChild("global");
+        assertEquals("object Object", global.getType() + " " + global.getName());
+        Node entries = global.getChild("cache").getChild("entries");
+        assertEquals("Array", entries.getName());
+        assertEquals("k42", entries.getChild("42").getChild("key").getName());
+        assertEquals("string", entries.getChild("42").getChild("key").getType());
+        assertEquals("Object", entries.getChild("__proto__").getChild("__proto__").getName());
+
+        // Closures retain their scope
+        Node next = global.getChild("next");
+        assertEquals("closure next", next.getType() + " " + next.getName());
+        assertEquals("Object", next.getChild("(scope 0)").getChild("count").getName());
+        ESValue cache = evaluator.evaluate("cache");
+        assertEquals(((ESObject) cache).getObjectId() * 2 + 1, snapshot.getNode(cache).getId());
+    }
+
+    @Test
+    public void computesRetainedSizes() throws Exception {
+        HeapSnapshot snapshot = HeapSnapshot.take(evaluator);
+        Node global = snapshot.getRoot().getChild("global");
+        Node cache = global.getChild("cache");
+        Node entries = cache.getChild("entries");
+        long elements = 0;
+        for (int i = 0; i < 100; i++) {
+            elements += entries.getChild(Integer.toString(i)).getRetainedSize();
+        }
+        assertEquals(entries.getSelfSize() + elements, entries.getRetainedSize());
+        assertEquals(cache.getSelfSize() + entries.getRetainedSize(), cache.getRetainedSize());
+
+        // An object reachable from two others is retained by neither
+        Node shared = global.getChild("shared");
+        Node a = global.getChild("a");
+        assertEquals(a.getSelfSize(), a.getRetainedSize());
+        assertTrue(global.getRetainedSize() > cache.getRetainedSize() + shared.getRetainedSize());
+        assertEquals(snapshot.getRoot().getRetainedSize(), sumOfSelfSizes(snapshot.getRoot(),
+                new HashSet<Node>()));
+    }
+
+    private static long sumOfSelfSizes(Node node, Set<Node> seen) {
+        long sum = node.getSelfSize();
+        for (Edge edge : node.getEdges()) {
+            if (seen.add(edge.getTarget())) {
+                sum += sumOfSelfSizes(edge.getTarget(), seen);
+            }
+        }
+        return sum;
+    }
+
+    @Test
+    public void writesTheHeapSnapshotFormat() throws Exception {
+        HeapSnapshot snapshot = HeapSnapshot.take(evaluator);
+        StringWriter writer = new StringWriter();
+        snapshot.write(writer);
+        evaluator.getGlobalObject().putProperty("text", new ESString(writer.toString()),
+                "text".hashCode());
+        assertEquals(snapshot.getNodeCount() + "," + snapshot.getEdgeCount() + ",6,3",
+                evaluator.evaluate("var s = JSON.parse(text); var meta = s.snapshot.meta;"
+                        + "[s.snapshot.node_count, s.snapshot.edge_count,"
+                        + " s.nodes.length / s.snapshot.node_count, s.edges.length / s.snapshot.edge_count].join()")
+                        .toString());
+        // The first edge of the root leads to the global object
+        assertEquals("property,global,Object", evaluator.evaluate(
+                "[meta.edge_types[0][s.edges[0]], s.strings[s.edges[1]], s.strings[s.nodes[s.edges[2] + 1]]].join()")
+                .toString());
+        assertNull(snapshot.getNode(evaluator.evaluate("({})")));
+    }
+}
@@ -0,0 +1,82 @@
+package org.yaji.profiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+
+import org.junit.After;
+import org.junit.Test;
+import org.yaji.profiler.ObjectTracker.SiteStatistics;
+
+import FESI.Data.ESObject;
+import FESI.Interpreter.Evaluator;
+
+public class ObjectTrackerTest {
+
+    @After
+    public void tearDown() {
+        ESObject.setObjectProfiler(null);
+    }
+
+    private static SiteStatistics find(ObjectTracker tracker, String className, String site) {
+        for (SiteStatistics statistics : tracker.getStatistics()) {
+            if (statistics.getClassName().equals(className) && statistics.getSite().equals(site)) {
+                return statistics;
+            }
+        }
+        throw new AssertionError("No " + className + " created by " + site);
+    }
+
+    @Test
+    public void countsObjectsBySiteUntilReleased() throws Exception {
+        Evaluator evaluator = new Evaluator();
+        ObjectTracker tracker = new ObjectTracker();
+        ESObject.setObjectProfiler(tracker);
+        evaluator.evaluate("function make(n) {\n var kept = [];\n"
+                + " for (var i = 0; i < n; i++) { kept[i] = new Date(i); }\n return kept;\n}\n"
+                + "var held = make(100); make(200);");
+        tracker.markHeap();
+        SiteStatistics made = find(tracker, "Date", "make (:2)");
+        assertEquals(300, made.getCreated());
+        assertEquals(0, made.getGrowth());
+
+        for (int i = 0; i < 100 && made.getReleased() < 200; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertTrue(made.getReleased() >= 200);
+        assertEquals(300 - made.getReleased(), made.getLive());
+        assertEquals(made.getLive() - 300, made.getGrowth());
+
+        StringWriter summary = new StringWriter();
+        tracker.writeSummary(summary, 5);
+        assertTrue(summary.toString(), summary.toString().contains("Date         make (:2)"));
+    }
+
+    @Test
+    public void tracksASampleOfTheObjects() throws Exception {
+        Evaluator evaluator = new Evaluator();
+        ObjectTracker tracker = new ObjectTracker(10);
+        ESObject.setObjectProfiler(tracker);
+        evaluator.evaluate("for (var i = 0; i < 10000; i++) { var d = new Date(i); }");
+        long created = find(tracker, "Date", "(program)").getCreated();
+        // Estimated from about 1000 objects tracked
+        assertEquals(0, created % 10);
+        assertTrue(String.valueOf(created), created > 7000 && created < 13000);
+    }
+
+    @Test
+    public void resolvesClassNamesOfObjectsStillBeingConstructed() throws Exception {
+        Evaluator evaluator = new Evaluator();
+        ObjectTracker tracker = new ObjectTracker();
+        ESObject.setObjectProfiler(tracker);
+        evaluator.evaluate("function make() {\n var a = new Uint8Array(4);\n"
+                + " var f = new Function('x', 'return x;');\n return [a, f, function () {}];\n}\n"
+                + "var held = make();");
+        assertEquals(1, find(tracker, "Uint8Array", "make (:2)").getCreated());
+        assertEquals(2, find(tracker, "Function", "make (:2)").getCreated());
+        // The functions declared by the program are constructed too
+        assertTrue(find(tracker, "Function", "(program)").getCreated() >= 1);
+    }
+}
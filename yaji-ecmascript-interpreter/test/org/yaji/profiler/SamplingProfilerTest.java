@@ -0,0 +1,88 @@
+package org.yaji.profiler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import FESI.Data.ESObject;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+
+public class SamplingProfilerTest {
+
+    private Evaluator evaluator;
+
+    @Before
+    public void setUp() throws Exception {
+        evaluator = new Evaluator();
+        evaluator.evaluate("function hot(n) { var s = 0; for (var i = 0; i < n; i++) { s += i % 7; } return s; }\n"
+                + "function outer(n) { return hot(n); }");
+    }
+
+    @Test
+    public void keepsTheStackOfCalledFunctions() throws Exception {
+        CallStack callStack = evaluator.getCallStack();
+        assertEquals("3", evaluator.evaluate("function f() { return g(); } function g() { throw 'x'; }"
+                + "try { f(); } catch (e) {} outer(10) % 7 + hot(1)").toString());
+        assertEquals(0, callStack.getDepth());
+    }
+
+    @Test
+    public void samplesTheCallStacks() throws Exception {
+        SamplingProfiler profiler = new SamplingProfiler(evaluator.getCallStack());
+        profiler.setInterval(100);
+        assertNull(profiler.stop());
+        assertTrue(profiler.start());
+        long end = System.currentTimeMillis() + 200;
+        while (System.currentTimeMillis() < end) {
+            evaluator.evaluate("outer(10000)");
+        }
+        Profile profile = profiler.stop();
+        assertNotNull(profile);
+
+        Profile.Node outer = child(profile.getRoot(), "outer");
+        Profile.Node hot = child(outer, "hot");
+        assertTrue(hot.getHitCount() > 0);
+        assertEquals(1, hot.getLineNumber());
+        int hits = 0;
+        for (Profile.Node node : profile.getRoot().getChildren()) {
+            hits += countHits(node);
+        }
+        assertEquals(profile.getSampleCount(), hits);
+
+        ESObject cpuProfile = profile.toCpuProfile(evaluator);
+        evaluator.getGlobalObject().putProperty("profile", cpuProfile, "profile".hashCode());
+        assertEquals("(root),(program),outer,hot", evaluator.evaluate(
+                "profile.nodes.map(function(node) { return node.callFrame.functionName; }).join()").toString());
+        assertEquals("true,0", evaluator.evaluate("[profile.samples.length === profile.timeDeltas.length, "
+                + "profile.nodes[3].callFrame.lineNumber].join()").toString());
+    }
+
+    private static Profile.Node child(Profile.Node parent, String functionName) {
+        for (Profile.Node node : parent.getChildren()) {
+            if (node.getFunctionName().equals(functionName)) {
+                return node;
+            }
+        }
+        fail("No call of " + functionName + " from " + parent.getFunctionName());
+        return null;
+    }
+
+    private static int countHits(Profile.Node node) {
+        int hits = node.getHitCount();
+        for (Profile.Node child : node.getChildren()) {
+            hits += countHits(child);
+        }
+        return hits;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidIntervals() throws EcmaScriptException {
+        new SamplingProfiler(evaluator.getCallStack()).setInterval(0);
+    }
+}
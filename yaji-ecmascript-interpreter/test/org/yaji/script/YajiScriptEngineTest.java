@@ -0,0 +1,143 @@
+package org.yaji.script;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+
+import javax.script.Bindings;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class YajiScriptEngineTest {
+
+    private ScriptEngine engine;
+
+    public interface Adder {
+        Object add(Object a, Object b);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        engine = new YajiScriptEngineFactory().getScriptEngine();
+    }
+
+    @Test
+    public void factoryIsDiscoveredByName() throws Exception {
+        ScriptEngine found = new ScriptEngineManager().getEngineByName("yaji");
+        assertNotNull(found);
+        assertEquals("MULTITHREADED", found.getFactory().getParameter("THREADING"));
+    }
+
+    @Test
+    public void evaluatesExpression() throws Exception {
+        assertEquals(3, ((Number) engine.eval("1+2")).intValue());
+    }
+
+    @Test
+    public void engineBindingsAreGlobalVariables() throws Exception {
+        engine.put("x", 40);
+        engine.eval("var y = x + 2;");
+        assertEquals(42, ((Number) engine.get("y")).intValue());
+    }
+
+    @Test
+    public void compiledScriptIsReusedAcrossBindings() throws Exception {
+        CompiledScript script = ((javax.script.Compilable) engine).compile("result = a * 2;");
+        Bindings first = engine.createBindings();
+        first.put("a", 2);
+        first.put("result", null);
+        Bindings second = engine.createBindings();
+        second.put("a", 5);
+        second.put("result", null);
+        assertEquals(4, ((Number) script.eval(first)).intValue());
+        assertEquals(10, ((Number) script.eval(second)).intValue());
+        assertEquals(4, ((Number) first.get("result")).intValue());
+        assertEquals(10, ((Number) second.get("result")).intValue());
+        assertNull(engine.get("a"));
+    }
+
+    @Test
+    public void globalsCreatedWithBindingsStayInTheirBindings() throws Exception {
+        CompiledScript script = ((javax.script.Compilable) engine).compile(
+                "var declared = a; result = a * 2; function twice() { return result * 2; }");
+        Bindings first = new SimpleBindings();
+        first.put("a", 2);
+        Bindings second = new SimpleBindings();
+        script.eval(first);
+        assertEquals(4, ((Number) first.get("result")).intValue());
+        assertEquals(2, ((Number) first.get("declared")).intValue());
+        assertTrue(first.containsKey("twice"));
+        assertEquals("undefined,undefined,undefined", engine.eval(
+                "typeof declared + ',' + typeof result + ',' + typeof twice", second));
+        assertNull(second.get("result"));
+        assertNull(engine.get("result"));
+        assertEquals(8, ((Number) engine.eval("twice()", first)).intValue());
+    }
+
+    @Test
+    public void invokeFunctionCallsDefinedFunction() throws Exception {
+        engine.eval("function add(a, b) { return a + b; }");
+        Invocable invocable = (Invocable) engine;
+        assertEquals(7, ((Number) invocable.invokeFunction("add", 3, 4)).intValue());
+        assertEquals("ab", invocable.invokeFunction("add", "a", "b"));
+    }
+
+    @Test
+    public void invokeMethodOnScriptObject() throws Exception {
+        Object counter = engine.eval("var counter = { n: 1, next: function() { return ++this.n; } }; counter");
+        assertEquals(2, ((Number) ((Invocable) engine).invokeMethod(counter, "next")).intValue());
+    }
+
+    @Test(expected = NoSuchMethodException.class)
+    public void invokeUndefinedFunction() throws Exception {
+        ((Invocable) engine).invokeFunction("undefinedFunction");
+    }
+
+    @Test
+    public void getInterfaceDelegatesToFunctions() throws Exception {
+        Invocable invocable = (Invocable) engine;
+        assertNull(invocable.getInterface(Adder.class));
+        engine.eval("function add(a, b) { return a + b; }");
+        Adder adder = invocable.getInterface(Adder.class);
+        assertEquals(3, ((Number) adder.add(1, 2)).intValue());
+    }
+
+    @Test
+    public void writelnUsesContextWriter() throws Exception {
+        StringWriter writer = new StringWriter();
+        engine.getContext().setWriter(writer);
+        engine.eval("writeln('hello')");
+        assertEquals("hello", writer.toString().trim());
+    }
+
+    @Test
+    public void scriptErrorsAreScriptExceptions() throws Exception {
+        try {
+            engine.eval("throw new Error('boom');");
+        } catch (ScriptException e) {
+            assertTrue(e.getMessage().contains("boom"));
+            return;
+        }
+        throw new AssertionError("ScriptException expected");
+    }
+
+    @Test
+    public void engineScopeHidesGlobalScope() throws Exception {
+        engine.getContext().setBindings(engine.createBindings(), ScriptContext.GLOBAL_SCOPE);
+        engine.getBindings(ScriptContext.GLOBAL_SCOPE).put("v", "global");
+        assertEquals("global", engine.eval("v"));
+        engine.put("v", "engine");
+        assertEquals("engine", engine.eval("v"));
+    }
+}
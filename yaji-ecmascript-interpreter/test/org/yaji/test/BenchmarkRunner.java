@@ -0,0 +1,294 @@
+package org.yaji.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.yaji.profiler.Allocations;
+import org.yaji.test.Runner.Arguments;
+
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+import FESI.Interpreter.ParsedProgram;
+import FESI.Interpreter.StringEvaluationSource;
+
+/**
+ * Runs the workloads of the bench directory, each a script defining a
+ * run() function which performs one iteration of the workload and throws
+ * an error if its result is wrong.
+ * <P>
+ * Each workload is evaluated by its own evaluator, run for warm-up
+ * iterations and then measured over the given number of iterations. The
+ * iterations per second and bytes allocated per iteration are reported,
+ * and compared with those of a baseline saved by an earlier run: a
+ * workload slower, or allocating more, than the baseline by more than the
+ * tolerance is a regression, making the runner exit with status 1.
+ */
+public class BenchmarkRunner {
+
+    static final int DEFAULT_WARMUP = 5;
+    static final int DEFAULT_ITERATIONS = 10;
+    // In percent
+    static final int DEFAULT_TOLERANCE = 10;
+
+    /**
+     * The measures of a workload
+     */
+    static class Result {
+        final String name;
+        double opsPerSecond;
+        long bytesPerIteration;
+        // Null unless the workload failed
+        String failure;
+
+        Result(String name) {
+            this.name = name;
+        }
+    }
+
+    private final File benchDir;
+    private final int warmup;
+    private final int iterations;
+    private final int threadCount;
+    private final Set<String> selected;
+
+    /**
+     * @param arguments
+     *            benchDir, warmup, iterations, threads and workloads, a
+     *            comma separated list of the workloads to run
+     */
+    BenchmarkRunner(Arguments arguments) {
+        String benchDirName = arguments.get("benchDir");
+        benchDir = new File(benchDirName == null ? "bench" : benchDirName);
+        warmup = Math.max(0, arguments.getInt("warmup", DEFAULT_WARMUP));
+        iterations = Math.max(1, arguments.getInt("iterations", DEFAULT_ITERATIONS));
+        threadCount = Math.max(1, arguments.getInt("threads", 1));
+        String workloads = arguments.get("workloads");
+        selected = workloads == null ? null : new HashSet<String>(Arrays.asList(workloads.split(",")));
+    }
+
+    private class Workload implements Runnable {
+        private final File file;
+        private final Result result;
+
+        Workload(File file) {
+            this.file = file;
+            String fileName = file.getName();
+            this.result = new Result(fileName.substring(0, fileName.length() - 3));
+        }
+
+        public void run() {
+            try {
+                Evaluator evaluator = new Evaluator();
+                evaluator.setDefaultTimeZone(TimeZone.getTimeZone("UTC"));
+                evaluator.evaluate(file);
+                String source = "run()";
+                ParsedProgram program = evaluator.parseProgram(new StringReader(source),
+                        new StringEvaluationSource(source, null));
+                for (int i = 0; i < warmup; i++) {
+                    evaluator.evaluate(program, null, false);
+                }
+                long startBytes = Allocations.allocatedBytes();
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    evaluator.evaluate(program, null, false);
+                }
+                long nanos = System.nanoTime() - start;
+                result.bytesPerIteration = (Allocations.allocatedBytes() - startBytes) / iterations;
+                result.opsPerSecond = iterations * 1e9 / Math.max(1, nanos);
+            } catch (EcmaScriptException e) {
+                result.failure = e.getMessage();
+            } catch (IOException e) {
+                result.failure = e.toString();
+            }
+            System.out.print('.');
+            System.out.flush();
+        }
+    }
+
+    /**
+     * Run the workloads, on as many threads as requested
+     *
+     * @return the results sorted by workload name
+     */
+    List<Result> run() throws IOException {
+        File[] files = benchDir.listFiles();
+        if (files == null) {
+            throw new IOException("No benchmark directory " + benchDir.getAbsolutePath());
+        }
+        List<Workload> workloads = new ArrayList<Workload>();
+        for (File file : files) {
+            if (file.isFile() && file.getName().endsWith(".js")) {
+                Workload workload = new Workload(file);
+                if (selected == null || selected.contains(workload.result.name)) {
+                    workloads.add(workload);
+                }
+            }
+        }
+        Queue<Workload> queue = new ConcurrentLinkedQueue<Workload>(workloads);
+        Runner.runInThreads(queue, threadCount);
+        System.out.println();
+        List<Result> results = new ArrayList<Result>();
+        for (Workload workload : workloads) {
+            results.add(workload.result);
+        }
+        Collections.sort(results, new Comparator<Result>() {
+            public int compare(Result first, Result second) {
+                return first.name.compareTo(second.name);
+            }
+        });
+        return results;
+    }
+
+    /**
+     * @return the results as a baseline, the properties name.opsPerSecond
+     *         and name.bytesPerIteration of the workloads which succeeded
+     */
+    static Properties toBaseline(List<Result> results) {
+        Properties baseline = new Properties();
+        for (Result result : results) {
+            if (result.failure == null) {
+                baseline.setProperty(result.name + ".opsPerSecond", Double.toString(result.opsPerSecond));
+                baseline.setProperty(result.name + ".bytesPerIteration", Long.toString(result.bytesPerIteration));
+            }
+        }
+        return baseline;
+    }
+
+    private static double getBaselineValue(Properties baseline, String key) {
+        String value = baseline == null ? null : baseline.getProperty(key);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param tolerance
+     *            the change accepted, in percent of the baseline
+     * @return a description of each failure and regression, empty if none
+     */
+    static List<String> compare(List<Result> results, Properties baseline, double tolerance) {
+        List<String> problems = new ArrayList<String>();
+        for (Result result : results) {
+            if (result.failure != null) {
+                problems.add(result.name + ": failed: " + result.failure);
+                continue;
+            }
+            double opsPerSecond = getBaselineValue(baseline, result.name + ".opsPerSecond");
+            if (opsPerSecond > 0 && result.opsPerSecond < opsPerSecond * (1 - tolerance / 100)) {
+                problems.add(String.format("%s: %.2f ops/sec, %.1f%% slower than the baseline %.2f",
+                        result.name, Double.valueOf(result.opsPerSecond),
+                        Double.valueOf(100 * (1 - result.opsPerSecond / opsPerSecond)),
+                        Double.valueOf(opsPerSecond)));
+            }
+            double bytesPerIteration = getBaselineValue(baseline, result.name + ".bytesPerIteration");
+            if (bytesPerIteration > 0 && result.bytesPerIteration > bytesPerIteration * (1 + tolerance / 100)) {
+                problems.add(String.format("%s: %d bytes/iteration, %.1f%% more than the baseline %.0f",
+                        result.name, Long.valueOf(result.bytesPerIteration),
+                        Double.valueOf(100 * (result.bytesPerIteration / bytesPerIteration - 1)),
+                        Double.valueOf(bytesPerIteration)));
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * Write a table of the results, with their change from the baseline if
+     * any
+     */
+    static void report(List<Result> results, Properties baseline, PrintStream out) {
+        out.printf("%-16s %12s %16s %10s %10s%n", "workload", "ops/sec", "bytes/iteration", "ops", "bytes");
+        for (Result result : results) {
+            if (result.failure != null) {
+                out.printf("%-16s %s%n", result.name, "FAILED");
+                continue;
+            }
+            out.printf("%-16s %12.2f %16d %10s %10s%n", result.name, Double.valueOf(result.opsPerSecond),
+                    Long.valueOf(result.bytesPerIteration),
+                    change(result.opsPerSecond, getBaselineValue(baseline, result.name + ".opsPerSecond")),
+                    change(result.bytesPerIteration, getBaselineValue(baseline, result.name + ".bytesPerIteration")));
+        }
+    }
+
+    private static String change(double value, double baselineValue) {
+        if (baselineValue <= 0) {
+            return "-";
+        }
+        return String.format("%+.1f%%", Double.valueOf(100 * (value / baselineValue - 1)));
+    }
+
+    private static Properties loadBaseline(String fileName) throws IOException {
+        Properties baseline = new Properties();
+        InputStream in = new FileInputStream(fileName);
+        try {
+            baseline.load(in);
+        } finally {
+            in.close();
+        }
+        return baseline;
+    }
+
+    private static void saveBaseline(List<Result> results, String fileName) throws IOException {
+        OutputStream out = new FileOutputStream(fileName);
+        try {
+            toBaseline(results).store(out, "YAJI benchmark baseline");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @param args
+     *            --benchDir, --warmup, --iterations, --threads, --workloads,
+     *            --baseline (the file to compare with), --tolerance (in
+     *            percent) and --save (the file of the new baseline)
+     */
+    public static void main(String[] args) {
+        try {
+            Arguments arguments = new Arguments(args);
+            long start = System.currentTimeMillis();
+            List<Result> results = new BenchmarkRunner(arguments).run();
+            String baselineFile = arguments.get("baseline");
+            Properties baseline = baselineFile == null ? null : loadBaseline(baselineFile);
+            report(results, baseline, System.out);
+            String saveFile = arguments.get("save");
+            if (saveFile != null) {
+                saveBaseline(results, saveFile);
+            }
+            List<String> problems = compare(results, baseline,
+                    arguments.getInt("tolerance", DEFAULT_TOLERANCE));
+            System.out.println("Run completed: " + results.size() + " workloads, " + problems.size()
+                    + " problems (" + Runner.toReadableDuration(System.currentTimeMillis() - start) + ")");
+            for (String problem : problems) {
+                System.out.println(problem);
+            }
+            if (!problems.isEmpty()) {
+                System.exit(1);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(2);
+        }
+    }
+}
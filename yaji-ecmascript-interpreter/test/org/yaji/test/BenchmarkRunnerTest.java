@@ -0,0 +1,88 @@
+package org.yaji.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.yaji.test.BenchmarkRunner.Result;
+import org.yaji.test.Runner.Arguments;
+
+public class BenchmarkRunnerTest {
+
+    private File benchDir;
+
+    @Before
+    public void setUp() throws IOException {
+        benchDir = File.createTempFile("bench", "");
+        benchDir.delete();
+        benchDir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : benchDir.listFiles()) {
+            file.delete();
+        }
+        benchDir.delete();
+    }
+
+    private void write(String name, String source) throws IOException {
+        FileWriter writer = new FileWriter(new File(benchDir, name));
+        writer.write(source);
+        writer.close();
+    }
+
+    private static Result result(String name, double opsPerSecond, long bytesPerIteration) {
+        Result result = new Result(name);
+        result.opsPerSecond = opsPerSecond;
+        result.bytesPerIteration = bytesPerIteration;
+        return result;
+    }
+
+    @Test
+    public void measuresEachWorkload() throws Exception {
+        write("sum.js", "var total = 0; function run() { for (var i = 0; i < 100; i++) { total += i; } }");
+        write("broken.js", "function run() { throw new Error('wrong result'); }");
+        write("readme.txt", "Not a workload");
+        List<Result> results = new BenchmarkRunner(new Arguments(new String[] { "--benchDir=" + benchDir,
+                "--warmup=2", "--iterations=3", "--threads=2" })).run();
+        assertEquals(2, results.size());
+        Result broken = results.get(0);
+        assertEquals("broken", broken.name);
+        assertTrue(broken.failure.contains("wrong result"));
+        Result sum = results.get(1);
+        assertEquals("sum", sum.name);
+        assertNull(sum.failure);
+        assertTrue(sum.opsPerSecond > 0);
+
+        Properties baseline = BenchmarkRunner.toBaseline(results);
+        assertEquals(2, baseline.size());
+        assertEquals(Arrays.asList("broken: failed: " + broken.failure),
+                BenchmarkRunner.compare(results, baseline, 10));
+    }
+
+    @Test
+    public void reportsRegressionsBeyondTheTolerance() {
+        Properties baseline = BenchmarkRunner.toBaseline(Arrays.asList(result("fast", 100, 1000),
+                result("lean", 100, 1000)));
+        List<Result> results = Arrays.asList(result("fast", 91, 1099), result("lean", 120, 500),
+                result("new", 1, 1));
+        assertTrue(BenchmarkRunner.compare(results, baseline, 10).isEmpty());
+
+        results = Arrays.asList(result("fast", 80, 1000), result("lean", 100, 1500));
+        assertEquals(Arrays.asList("fast: 80.00 ops/sec, 20.0% slower than the baseline 100.00",
+                "lean: 1500 bytes/iteration, 50.0% more than the baseline 1000"),
+                BenchmarkRunner.compare(results, baseline, 10));
+        assertEquals(1, BenchmarkRunner.compare(results, baseline, 30).size());
+    }
+}
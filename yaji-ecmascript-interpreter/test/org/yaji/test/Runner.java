@@ -152,7 +152,7 @@ public class Runner {
 
     private static ThreadLocal<Evaluator> currentEvaluator = new ThreadLocal<Evaluator>();
     
-    private static class Arguments extends HashMap<String,String> {
+    static class Arguments extends HashMap<String,String> {
 
         private static final long serialVersionUID = -45926745254286446L;
 
@@ -171,6 +171,22 @@ public class Runner {
             }
         }
 
+        /**
+         * @return the value of an integer argument, or defaultValue if it is
+         *         absent or not a number
+         */
+        int getInt(String name, int defaultValue) {
+            String value = get(name);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Integer.parseInt(value,10);
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+
     }
 
     public Runner(Arguments arguments) throws IOException {
@@ -197,16 +213,7 @@ public class Runner {
         } else {
             overrideDirectory = null;
         }
-        String threads = arguments.get("threads");
-        if (threads == null) {
-            threadCount = 1;
-        } else {
-            try {
-                threadCount = Math.max(1, Integer.parseInt(threads,10));
-            } catch (NumberFormatException e) {
-                threadCount = 1;
-            }
-        }
+        threadCount = Math.max(1, arguments.getInt("threads", 1));
         EvaluatorAccess.setAccessor(new IEvaluatorAccess() {
             
             public Evaluator getEvaluator() {
@@ -253,39 +260,47 @@ public class Runner {
 
     private static class ThreadRunner extends Thread {
 
-        private final Queue<TestFile> tests;
+        private final Queue<? extends Runnable> tasks;
 
-        public ThreadRunner(Queue<TestFile> tests) {
-            this.tests = tests;
+        public ThreadRunner(Queue<? extends Runnable> tasks) {
+            this.tasks = tasks;
         }
         
         @Override
         public void run() {
-            TestFile test = tests.poll();
-            while (test != null) {
-                test.execute();
-                test = tests.poll();
+            Runnable task = tasks.poll();
+            while (task != null) {
+                task.run();
+                task = tasks.poll();
             }
         }
     }
+
+    /**
+     * Run tasks on threadCount threads, each thread taking the next task
+     * from the queue until it is empty
+     */
+    static void runInThreads(Queue<? extends Runnable> tasks, int threadCount) {
+        Thread[] threads = new Thread[threadCount];
+        for(int i=0; i<threads.length; i++) {
+            threads[i] = new ThreadRunner(tasks);
+            threads[i].start();
+        }
+        waitForThreadsToExit(threads);
+    }
     
     private void runTestsInDirectory(File rootDirectory) {
         List<TestFile> tests = getListOfTests(rootDirectory);
         
         Queue<TestFile> testQueue = new ConcurrentLinkedQueue<TestFile>(tests);
         long start = System.currentTimeMillis();
-        Thread[] threads = new Thread[threadCount];
-        for(int i=0; i<threads.length; i++) {
-            threads[i] = new ThreadRunner(testQueue);
-            threads[i].start();
-        }
-        waitForThreadsToExit(threads);
+        runInThreads(testQueue, threadCount);
         long duration = System.currentTimeMillis() - start;
         System.out.println();
         System.out.println("Run completed: "+testPassed+"/"+testCount+" ("+toReadableDuration(duration)+") "+(new Date()).toString());
     }
 
-    private void waitForThreadsToExit(Thread[] threads) {
+    private static void waitForThreadsToExit(Thread[] threads) {
         for(int i=0; i<threads.length; i++) {
             try {
                 threads[i].join();
@@ -316,20 +331,20 @@ public class Runner {
         return tests;
     }
 
-    private String toReadableDuration(long duration) {
+    static String toReadableDuration(long duration) {
         StringBuilder sb = new StringBuilder();
         toReadableDuration(sb, duration);
         return sb.toString();
     }
 
-    private void toReadableDuration(Appendable sb, long duration) {
+    private static void toReadableDuration(Appendable sb, long duration) {
         Formatter formatter = new Formatter(sb);
         long seconds = duration/1000L;
         formatter.format("%d:%02d.%03d", Long.valueOf(seconds/60),Long.valueOf(seconds%60),Long.valueOf(duration%1000L));
     }
 
     
-    private class TestFile {
+    private class TestFile implements Runnable {
         private String testName;
         private String testId;
         private boolean negative;
@@ -355,7 +370,7 @@ public class Runner {
             return testId;
         }
     
-        public void execute() {
+        public void run() {
             long start = System.currentTimeMillis();
             try {
                 boolean passed = executeTest(testFile, testName, negative);
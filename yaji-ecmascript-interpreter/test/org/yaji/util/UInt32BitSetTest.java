@@ -88,4 +88,16 @@ public class UInt32BitSetTest {
     public void findLastSetBitForEmptySet() {
         assertEquals(-1, bitSet.lastSetBit(200L));
     }
+
+    @Test
+    public void copiesAreIndependent() {
+        bitSet.set(5L);
+        bitSet.set(200L);
+        UInt32BitSet copy = bitSet.copy();
+        assertTrue(copy.get(5L));
+        assertTrue(copy.get(200L));
+        bitSet.clear(200L);
+        assertTrue(copy.get(200L));
+        assertFalse(bitSet.get(200L));
+    }
 }
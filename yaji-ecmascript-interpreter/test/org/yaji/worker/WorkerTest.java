@@ -0,0 +1,138 @@
+package org.yaji.worker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import FESI.Data.ESUndefined;
+import FESI.Exceptions.EcmaScriptException;
+import FESI.Interpreter.Evaluator;
+import FESI.Interpreter.UserEvaluationSource;
+
+public class WorkerTest {
+
+    private Evaluator evaluator;
+    private WorkerExtension extension;
+
+    @Before
+    public void setUp() throws Exception {
+        evaluator = new Evaluator();
+        extension = (WorkerExtension) evaluator.addMandatoryExtension(WorkerExtension.class.getName());
+        evaluator.addMandatoryExtension("org.yaji.event.EventLoopExtension");
+        addModule("doubler", "onmessage = function(e) {"
+                + "  postMessage({ n: e.data.n * 2, list: e.data.list, when: e.data.when.getTime() });"
+                + "  close();"
+                + "};");
+    }
+
+    private void addModule(String name, String source) throws EcmaScriptException {
+        extension.addModule(name, Evaluator.parseSharedProgram(new StringReader(source),
+                new UserEvaluationSource(name, null)));
+    }
+
+    @Test
+    public void exchangesMessages() throws Exception {
+        evaluator.evaluate("var result; var worker = new Worker('doubler');"
+                + "worker.onmessage = function(e) { result = e.data; };"
+                + "worker.postMessage({ n: 21, list: [1, , 'three'], when: new Date(1000) });");
+        evaluator.runUntilIdle();
+        assertEquals(42, evaluator.evaluate("result.n").toInt32());
+        assertEquals("1,,three", evaluator.evaluate("result.list.join()").toString());
+        assertEquals(1000, evaluator.evaluate("result.when").toInt32());
+        assertFalse(((ESWorker) evaluator.evaluate("worker")).isRunning());
+    }
+
+    @Test
+    public void runsWorkersInParallel() throws Exception {
+        addModule("sum", "onmessage = function(e) {"
+                + "  var total = 0; for (var i = 0; i < e.data; i++) { total += i; }"
+                + "  postMessage(total); close();"
+                + "};");
+        evaluator.evaluate("var results = [];"
+                + "for (var w = 0; w < 4; w++) {"
+                + "  var worker = new Worker('sum');"
+                + "  worker.onmessage = function(e) { results.push(e.data); };"
+                + "  worker.postMessage(1000);"
+                + "}");
+        evaluator.runUntilIdle();
+        assertEquals("499500,499500,499500,499500", evaluator.evaluate("results.join()").toString());
+    }
+
+    @Test
+    public void terminatesWorkersWhenTheParentIsRestored() throws Exception {
+        addModule("listener", "onmessage = function(e) { postMessage(e.data); };");
+        evaluator.markCleanState();
+        ESWorker worker = (ESWorker) evaluator.evaluate("var worker = new Worker('listener'); worker");
+        evaluator.restoreCleanState();
+        worker.getThread().join(10000);
+        assertFalse(worker.getThread().isAlive());
+        evaluator.runUntilIdle();
+        assertTrue(evaluator.getEventLoop().isIdle());
+    }
+
+    @Test
+    public void reportsWorkerErrors() throws Exception {
+        addModule("failing", "onmessage = function(e) { undefinedFunction(); };");
+        evaluator.evaluate("var message; var worker = new Worker('failing');"
+                + "worker.onerror = function(e) { message = e.message; };"
+                + "worker.postMessage(1);");
+        evaluator.runUntilIdle();
+        assertTrue(evaluator.evaluate("message").toString().indexOf("undefinedFunction") >= 0);
+    }
+
+    @Test
+    public void clonesGraphsWithCycles() throws Exception {
+        ESUndefined undefined = ESUndefined.theUndefined;
+        StructuredClone clone = StructuredClone.of(evaluator.evaluate(
+                "var shared = { name: 'shared' }; var graph = { a: shared, b: [shared], e: new RangeError('bad') };"
+                + "graph.self = graph; graph"), undefined);
+        Evaluator receiver = new Evaluator();
+        receiver.getGlobalObject().putProperty("graph", clone.materialize(receiver), "graph".hashCode());
+        assertTrue(receiver.evaluate("graph.self === graph && graph.a === graph.b[0]").booleanValue());
+        assertEquals("shared", receiver.evaluate("graph.a.name").toString());
+        assertTrue(receiver.evaluate("graph.e instanceof RangeError && graph.e.message == 'bad'").booleanValue());
+    }
+
+    @Test
+    public void transfersArrays() throws Exception {
+        StructuredClone clone = StructuredClone.of(evaluator.evaluate("var data = [1, 2, 3]; ({ data: data })"),
+                evaluator.evaluate("[data]"));
+        assertEquals(0, evaluator.evaluate("data.length").toInt32());
+        Evaluator receiver = new Evaluator();
+        receiver.getGlobalObject().putProperty("message", clone.materialize(receiver), "message".hashCode());
+        assertEquals("1,2,3", receiver.evaluate("message.data.join()").toString());
+    }
+
+    @Test
+    public void transfersArrayBuffersAndClonesTheirViews() throws Exception {
+        StructuredClone clone = StructuredClone.of(evaluator.evaluate("var bytes = new Uint8Array([1, 2, 3, 4]);"
+                + "var copied = new Int16Array([5, 6]);"
+                + "({ words: new Uint16Array(bytes.buffer, 2, 1), bytes: bytes, copied: copied })"),
+                evaluator.evaluate("[bytes.buffer]"));
+        assertEquals("0,0", evaluator.evaluate("bytes.length + ',' + bytes.buffer.byteLength").toString());
+        Evaluator receiver = new Evaluator();
+        receiver.getGlobalObject().putProperty("message", clone.materialize(receiver), "message".hashCode());
+        assertEquals("1,2,3,4;true", receiver.evaluate("message.bytes.join() + ';'"
+                + " + (message.words.buffer === message.bytes.buffer)").toString());
+        assertEquals("5,6", receiver.evaluate("message.copied.join()").toString());
+        assertEquals("5,6", evaluator.evaluate("copied.join()").toString());
+    }
+
+    @Test
+    public void rejectsFunctionsAndDoesNotTransferThen() throws Exception {
+        try {
+            StructuredClone.of(evaluator.evaluate("var data = [1]; ({ data: data, f: function() {} })"),
+                    evaluator.evaluate("[data]"));
+            fail("TypeError expected");
+        } catch (EcmaScriptException e) {
+            assertTrue(e.getMessage().indexOf("DataCloneError") >= 0);
+        }
+        assertEquals(1, evaluator.evaluate("data.length").toInt32());
+    }
+}